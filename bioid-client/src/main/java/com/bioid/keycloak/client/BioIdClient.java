@@ -103,6 +103,36 @@ public interface BioIdClient extends AutoCloseable {
    */
   EnrollmentResult enrollFaceWithMultipleImages(long classId, java.util.List<String> imageDataList) throws BioIdException;
 
+  /**
+   * Face verification with raw image bytes, e.g. from a binary upload, without a base64 round trip.
+   *
+   * @param classId the class ID for the user
+   * @param image the encoded image (JPEG or PNG)
+   * @return true if verification succeeds, false otherwise
+   * @throws BioIdException if verification fails
+   */
+  default boolean verifyFaceWithImageBytes(long classId, byte[] image) throws BioIdException {
+    return verify(image, classId);
+  }
+
+  /**
+   * Face enrollment with raw image bytes, e.g. from binary uploads, without a base64 round trip.
+   * The arrays are handed over to the client and must not be modified afterwards.
+   *
+   * @param classId the class ID for the user
+   * @param images the encoded images (JPEG or PNG)
+   * @return enrollment response with template status and metadata
+   * @throws BioIdException if enrollment fails
+   */
+  default EnrollmentResult enrollFaceWithImageBytes(long classId, java.util.List<byte[]> images)
+      throws BioIdException {
+    java.util.List<String> imageDataList = new java.util.ArrayList<>(images.size());
+    for (byte[] image : images) {
+      imageDataList.add(java.util.Base64.getEncoder().encodeToString(image));
+    }
+    return enrollFaceWithMultipleImages(classId, imageDataList);
+  }
+
   /**
    * Performs liveness detection with multiple images for active/challenge-response modes.
    *
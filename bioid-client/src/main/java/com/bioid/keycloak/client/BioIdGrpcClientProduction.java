@@ -3,16 +3,24 @@ package com.bioid.keycloak.client;
 import com.bioid.keycloak.client.config.BioIdConfiguration;
 import com.bioid.keycloak.client.debug.ImageDebugStorage;
 import com.bioid.keycloak.client.exception.BioIdException;
+import com.bioid.keycloak.client.logging.HotPathLogger;
 import com.bioid.services.*;
 import io.grpc.*;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -24,7 +32,19 @@ import java.util.stream.Collectors;
 public class BioIdGrpcClientProduction implements BioIdClient {
 
   private static final Logger logger = LoggerFactory.getLogger(BioIdGrpcClientProduction.class);
+
+  // One line per RPC at login rate; sampled and rate limited to keep log volume bounded
+  private static final HotPathLogger hotPath =
+      HotPathLogger.forClass(BioIdGrpcClientProduction.class);
+  private static final HotPathLogger.Event VERIFY_RESULT =
+      hotPath.event("bws.verify", Level.INFO, 10, 5, 20);
+  private static final HotPathLogger.Event ENROLL_RESULT =
+      hotPath.event("bws.enroll", Level.INFO, 5, 5, 20);
+  private static final HotPathLogger.Event LIVENESS_RESULT =
+      hotPath.event("bws.liveness", Level.INFO, 10, 5, 20);
   private static final int MAX_MESSAGE_SIZE_BYTES = 8 * 1024 * 1024; // 8MB
+  private static final int IMAGE_DECODE_THREADS =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
 
   private final BioIdConfiguration config;
   private final String baseEndpoint;
@@ -35,6 +55,7 @@ public class BioIdGrpcClientProduction implements BioIdClient {
   private final FaceRecognitionGrpc.FaceRecognitionBlockingStub faceRecognitionStub;
   private final BioIDWebServiceGrpc.BioIDWebServiceBlockingStub bwsStub;
   private final com.bioid.keycloak.client.debug.ImageDebugStorage debugStorage;
+  private final ExecutorService imageDecodeExecutor;
 
   public BioIdGrpcClientProduction(BioIdConfiguration config, String baseEndpoint, String clientId,
       String secretKey) {
@@ -70,12 +91,20 @@ public class BioIdGrpcClientProduction implements BioIdClient {
 
     this.debugStorage = new com.bioid.keycloak.client.debug.ImageDebugStorage(config);
 
+    // Bounded pool for the CPU-bound base64 decoding of multi-image enrollments
+    AtomicInteger decodeThreadCount = new AtomicInteger();
+    this.imageDecodeExecutor = Executors.newFixedThreadPool(IMAGE_DECODE_THREADS, r -> {
+      Thread t = new Thread(r, "bioid-image-decode-" + decodeThreadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+
     logger.info("BioID gRPC client initialized successfully");
   }
 
   @Override
   public void enroll(byte[] imageData, long classId) throws BioIdException {
-    logger.info("BWS gRPC enroll called for classId: {}", classId);
+    logger.debug("BWS gRPC enroll called for classId: {}", classId);
 
     try {
       // Create image data message
@@ -109,8 +138,10 @@ public class BioIdGrpcClientProduction implements BioIdClient {
         throw new BioIdException("BWS enrollment failed: " + errors);
       }
 
-      logger.info("BWS enrollment successful for classId: {} - Action: {}, Enrolled images: {}",
-          classId, response.getPerformedAction(), response.getEnrolledImages());
+      ENROLL_RESULT.log(
+          "classId", classId,
+          "action", response.getPerformedAction(),
+          "enrolled", response.getEnrolledImages());
 
     } catch (StatusRuntimeException e) {
       logger.error("gRPC error during BWS enrollment for classId: {}", classId, e);
@@ -123,7 +154,8 @@ public class BioIdGrpcClientProduction implements BioIdClient {
 
   @Override
   public boolean verify(byte[] imageData, long classId) throws BioIdException {
-    logger.info("BWS gRPC verify called for classId: {}", classId);
+    logger.debug("BWS gRPC verify called for classId: {}", classId);
+    long started = System.nanoTime();
 
     try {
       // Create image data message
@@ -148,8 +180,11 @@ public class BioIdGrpcClientProduction implements BioIdClient {
         throw new BioIdException("BWS verification failed: " + errors);
       }
 
-      logger.info("BWS verification result for classId {}: verified={}, score={}", classId,
-          response.getVerified(), response.getScore());
+      VERIFY_RESULT.log(
+          "classId", classId,
+          "verified", response.getVerified(),
+          "score", response.getScore(),
+          "elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
 
       return response.getVerified();
 
@@ -345,7 +380,7 @@ public class BioIdGrpcClientProduction implements BioIdClient {
   @Override
   public boolean livenessDetectionWithImages(String firstImage, String secondImage, String mode,
       String challengeDirection) throws BioIdException {
-    logger.info("BWS gRPC livenessDetectionWithImages called with mode: {}, direction: {}", mode,
+    logger.debug("BWS gRPC livenessDetectionWithImages called with mode: {}, direction: {}", mode,
         challengeDirection);
 
     try {
@@ -389,7 +424,7 @@ public class BioIdGrpcClientProduction implements BioIdClient {
       // Add tags for challenge-response mode to align with BWS expectations
       if ("challenge-response".equalsIgnoreCase(mode) && challengeDirection != null) {
         String normalizedDirection = challengeDirection.trim().toLowerCase();
-        logger.info("Adding challenge tags: neutral + {}", normalizedDirection);
+        logger.debug("Adding challenge tags: neutral + {}", normalizedDirection);
         image1Builder.addTags("neutral");
         image2Builder.addTags(normalizedDirection);
       }
@@ -415,7 +450,8 @@ public class BioIdGrpcClientProduction implements BioIdClient {
       boolean isLive = response.getLive();
       double score = response.getLivenessScore();
       
-      logger.info("BWS liveness detection result: live={}, score={}", isLive, score);
+      LIVENESS_RESULT.log("mode", mode, "direction", challengeDirection, "live", isLive,
+          "score", score);
 
       // Debug: Add result to metadata
       com.bioid.keycloak.client.debug.ImageDebugStorage.addResult(metadata, isLive, 
@@ -461,7 +497,7 @@ public class BioIdGrpcClientProduction implements BioIdClient {
 
   @Override
   public boolean verifyFaceWithImageData(long classId, String imageData) throws BioIdException {
-    logger.info("BWS gRPC verifyFaceWithImageData called for classId: {}", classId);
+    logger.debug("BWS gRPC verifyFaceWithImageData called for classId: {}", classId);
 
     try {
       // Debug: Save image before sending to BWS
@@ -488,6 +524,21 @@ public class BioIdGrpcClientProduction implements BioIdClient {
     }
   }
 
+  @Override
+  public boolean verifyFaceWithImageBytes(long classId, byte[] image) throws BioIdException {
+    logger.debug("BWS gRPC verifyFaceWithImageBytes called for classId: {}", classId);
+
+    // Debug: Save image before sending to BWS
+    Map<String, Object> metadata = ImageDebugStorage.createMetadata(
+        "classId-" + classId, String.valueOf(classId), "verification");
+    debugStorage.saveImage("classId-" + classId, "verification", image, metadata);
+
+    boolean result = verify(image, classId);
+    ImageDebugStorage.addResult(metadata, result,
+        result ? "Verification successful" : "Verification failed");
+    return result;
+  }
+
   @Override
   public EnrollmentResult enrollFaceWithImageData(long classId, String imageData)
       throws BioIdException {
@@ -498,7 +549,7 @@ public class BioIdGrpcClientProduction implements BioIdClient {
   @Override
   public EnrollmentResult enrollFaceWithMultipleImages(long classId, java.util.List<String> imageDataList)
       throws BioIdException {
-    logger.info("BWS gRPC enrollFaceWithMultipleImages called for classId: {} with {} images", 
+    logger.debug("BWS gRPC enrollFaceWithMultipleImages called for classId: {} with {} images",
         classId, imageDataList.size());
 
     if (imageDataList == null || imageDataList.isEmpty()) {
@@ -510,38 +561,84 @@ public class BioIdGrpcClientProduction implements BioIdClient {
       Facerecognition.FaceEnrollmentRequest.Builder requestBuilder = 
           Facerecognition.FaceEnrollmentRequest.newBuilder().setClassId(classId);
 
-      // Process each image
-      for (int i = 0; i < imageDataList.size(); i++) {
+      // Decode and validate all images in parallel; a single image is handled inline
+      int imageCount = imageDataList.size();
+      List<CompletableFuture<Bwsmessages.ImageData>> preparedImages = new ArrayList<>(imageCount);
+      for (int i = 0; i < imageCount; i++) {
         String imageData = imageDataList.get(i);
-        
-        // Debug: Save image before sending to BWS
-        Map<String, Object> metadata = com.bioid.keycloak.client.debug.ImageDebugStorage.createMetadata(
-            "classId-" + classId, String.valueOf(classId), "enrollment-image-" + (i + 1));
-        debugStorage.saveImage("classId-" + classId, "enrollment-image-" + (i + 1), imageData, metadata);
-
-        // Remove data URL prefix if present
-        String base64Image = imageData.contains(",") ? imageData.split(",")[1] : imageData;
-
-        // Decode base64 to bytes
-        byte[] imageBytes = java.util.Base64.getDecoder().decode(base64Image);
-
-        // Add image to request
-        Bwsmessages.ImageData image = Bwsmessages.ImageData.newBuilder()
-            .setImage(com.google.protobuf.ByteString.copyFrom(imageBytes)).build();
-        requestBuilder.addImages(image);
+        int imageNumber = i + 1;
+        preparedImages.add(imageCount == 1
+            ? CompletableFuture.completedFuture(
+                prepareEnrollmentImage(classId, imageNumber, imageData))
+            : CompletableFuture.supplyAsync(
+                () -> prepareEnrollmentImage(classId, imageNumber, imageData),
+                imageDecodeExecutor));
       }
 
-      // Build final request
-      Facerecognition.FaceEnrollmentRequest request = requestBuilder.build();
+      // Add images in capture order as they become available
+      for (CompletableFuture<Bwsmessages.ImageData> preparedImage : preparedImages) {
+        try {
+          requestBuilder.addImages(preparedImage.join());
+        } catch (CompletionException e) {
+          preparedImages.forEach(f -> f.cancel(false));
+          Throwable cause = e.getCause() != null ? e.getCause() : e;
+          throw new BioIdException("Enrollment image processing error: " + cause.getMessage(),
+              cause);
+        }
+      }
+
+      return enroll(classId, requestBuilder.build(), imageCount);
+    } catch (BioIdException e) {
+      logger.error("Error processing enrollment image data for classId: {}", classId, e);
+      throw e;
+    } catch (Exception e) {
+      logger.error("Error processing enrollment image data for classId: {}", classId, e);
+      throw new BioIdException("Enrollment image processing error: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public EnrollmentResult enrollFaceWithImageBytes(long classId, List<byte[]> images)
+      throws BioIdException {
+    logger.debug("BWS gRPC enrollFaceWithImageBytes called for classId: {} with {} images",
+        classId, images == null ? 0 : images.size());
+
+    if (images == null || images.isEmpty()) {
+      throw new BioIdException("At least one image is required for enrollment");
+    }
+
+    Facerecognition.FaceEnrollmentRequest.Builder requestBuilder =
+        Facerecognition.FaceEnrollmentRequest.newBuilder().setClassId(classId);
+    for (int i = 0; i < images.size(); i++) {
+      byte[] image = images.get(i);
+      int imageNumber = i + 1;
+      if (image == null || image.length == 0) {
+        throw new BioIdException("Enrollment image processing error: Enrollment image "
+            + imageNumber + " is empty");
+      }
+      Map<String, Object> metadata = ImageDebugStorage.createMetadata(
+          "classId-" + classId, String.valueOf(classId), "enrollment-image-" + imageNumber);
+      debugStorage.saveImage("classId-" + classId, "enrollment-image-" + imageNumber, image,
+          metadata);
+      // The caller hands the arrays over, so they can back the ByteString without a copy
+      requestBuilder.addImages(Bwsmessages.ImageData.newBuilder()
+          .setImage(com.google.protobuf.UnsafeByteOperations.unsafeWrap(image)).build());
+    }
+    return enroll(classId, requestBuilder.build(), images.size());
+  }
 
+  /** Sends a prepared enrollment request and maps the response. */
+  private EnrollmentResult enroll(long classId, Facerecognition.FaceEnrollmentRequest request,
+      int imageCount) throws BioIdException {
+    try {
       // Call gRPC service with extended timeout for multiple images
       long timeoutMillis = config.getEnrollmentTimeout().toMillis();
       // Increase timeout proportionally for multiple images
-      if (imageDataList.size() > 1) {
-        timeoutMillis = timeoutMillis * imageDataList.size();
+      if (imageCount > 1) {
+        timeoutMillis = timeoutMillis * imageCount;
       }
       
-      logger.info("Using enrollment timeout: {}ms for {} images", timeoutMillis, imageDataList.size());
+      logger.debug("Using enrollment timeout: {}ms for {} images", timeoutMillis, imageCount);
       
       Facerecognition.FaceEnrollmentResponse response = faceRecognitionStub
           .withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS)
@@ -569,8 +666,11 @@ public class BioIdGrpcClientProduction implements BioIdClient {
       List<String> tags = templateStatus.getTagsList();
       String performedAction = response.getPerformedAction().name();
 
-      logger.info("BWS enrollment successful for classId: {} - Action: {}, Enrolled images: {}/{}", 
-          classId, performedAction, response.getEnrolledImages(), imageDataList.size());
+      ENROLL_RESULT.log(
+          "classId", classId,
+          "action", performedAction,
+          "enrolled", response.getEnrolledImages(),
+          "submitted", imageCount);
 
       return new EnrollmentResult(classId, true, templateStatus.getEncoderVersion(),
           templateStatus.getFeatureVectors(), templateStatus.getThumbnailsStored(), tags,
@@ -579,15 +679,57 @@ public class BioIdGrpcClientProduction implements BioIdClient {
     } catch (StatusRuntimeException e) {
       logger.error("gRPC error during enrollment for classId: {}", classId, e);
       throw new BioIdException("BWS enrollment gRPC error: " + e.getStatus().getDescription(), e);
-    } catch (Exception e) {
-      logger.error("Error processing enrollment image data for classId: {}", classId, e);
-      throw new BioIdException("Enrollment image processing error: " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Decodes and validates a single enrollment image, then saves its debug copy. Safe to call
+   * concurrently for the images of one request.
+   */
+  private Bwsmessages.ImageData prepareEnrollmentImage(long classId, int imageNumber,
+      String imageData) {
+    Bwsmessages.ImageData image = decodeEnrollmentImage(imageNumber, imageData);
+
+    // Debug: Save image before sending to BWS
+    Map<String, Object> metadata = com.bioid.keycloak.client.debug.ImageDebugStorage.createMetadata(
+        "classId-" + classId, String.valueOf(classId), "enrollment-image-" + imageNumber);
+    debugStorage.saveImage("classId-" + classId, "enrollment-image-" + imageNumber, imageData,
+        metadata);
+
+    return image;
+  }
+
+  /**
+   * Strips the data URL prefix from an enrollment image and decodes it.
+   *
+   * @throws IllegalArgumentException if the image is missing, empty or not valid base64
+   */
+  static Bwsmessages.ImageData decodeEnrollmentImage(int imageNumber, String imageData) {
+    if (imageData == null) {
+      throw new IllegalArgumentException("Enrollment image " + imageNumber + " is missing");
+    }
+
+    // Remove data URL prefix if present
+    String base64Image = imageData.substring(imageData.indexOf(',') + 1);
+    if (base64Image.isBlank()) {
+      throw new IllegalArgumentException("Enrollment image " + imageNumber + " is empty");
+    }
+
+    // Decode base64 to bytes
+    byte[] imageBytes = java.util.Base64.getDecoder().decode(base64Image);
+    if (imageBytes.length == 0) {
+      throw new IllegalArgumentException("Enrollment image " + imageNumber + " is empty");
+    }
+
+    // The decoded array is never touched again, so it can back the ByteString without a copy
+    return Bwsmessages.ImageData.newBuilder()
+        .setImage(com.google.protobuf.UnsafeByteOperations.unsafeWrap(imageBytes)).build();
+  }
+
   @Override
   public void close() {
     logger.info("Shutting down BioID gRPC client");
+    imageDecodeExecutor.shutdownNow();
     try {
       faceChannel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
       bwsChannel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
@@ -5,18 +5,22 @@ import com.bioid.keycloak.client.admin.model.*;
 import com.bioid.keycloak.client.exception.BioIdException;
 import com.bioid.keycloak.client.exception.BioIdServiceException;
 
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Implementation of BulkOperationService providing batch processing capabilities
  * with progress tracking, rollback support, and background job processing.
+ * 
+ * Operations and the items of each batch run on virtual threads. At most
+ * {@code maxConcurrentOperations} operations run at a time, and all operations together
+ * make at most {@code maxConcurrentBwsCalls} concurrent calls to BWS.
  */
 public class BulkOperationServiceImpl implements BulkOperationService {
     
@@ -26,6 +30,8 @@ public class BulkOperationServiceImpl implements BulkOperationService {
     private final AdminService adminService;
     private final TemplateService templateService;
     private final ExecutorService executorService;
+    private final Semaphore operationPermits;
+    private final Semaphore bwsCallPermits;
     private final Map<String, BulkOperationResult<?>> operationResults;
     private final Map<String, Future<?>> runningOperations;
     private final BulkOperationJobProcessor jobProcessor;
@@ -34,6 +40,7 @@ public class BulkOperationServiceImpl implements BulkOperationService {
     private final int maxBulkOperationSize;
     private final int bulkOperationTimeoutMinutes;
     private final int maxConcurrentOperations;
+    private final int maxConcurrentBwsCalls;
     private final int batchSize;
 
     public BulkOperationServiceImpl(BioIdClient bioIdClient, AdminService adminService, 
@@ -44,9 +51,12 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         this.maxBulkOperationSize = 1000; // Default max size
         this.bulkOperationTimeoutMinutes = 30; // Default timeout
         this.maxConcurrentOperations = 5; // Default concurrent operations
+        this.maxConcurrentBwsCalls = 16; // Default concurrent BWS calls of all operations
         this.batchSize = 100; // Default batch size
         
-        this.executorService = Executors.newFixedThreadPool(maxConcurrentOperations);
+        this.executorService = Executors.newVirtualThreadPerTaskExecutor();
+        this.operationPermits = new Semaphore(maxConcurrentOperations);
+        this.bwsCallPermits = new Semaphore(maxConcurrentBwsCalls);
         this.operationResults = new ConcurrentHashMap<>();
         this.runningOperations = new ConcurrentHashMap<>();
         this.jobProcessor = new BulkOperationJobProcessor();
@@ -64,17 +74,8 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         jobProcessor.registerOperation(operationId, result);
         
         // Submit background job
-        Future<?> future = executorService.submit(() -> {
-            try {
-                result.markRunning();
-                processBulkEnrollmentLinks(result, userIds, validityHours);
-                result.markCompleted();
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Bulk enrollment link generation failed", e);
-                result.setStatus(BulkOperationStatus.FAILED);
-                result.setCompletedAt(Instant.now());
-            }
-        });
+        Future<?> future = submitOperation(result, "Bulk enrollment link generation failed",
+            () -> processBulkEnrollmentLinks(result, userIds, validityHours));
         
         runningOperations.put(operationId, future);
         return result;
@@ -90,17 +91,8 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         jobProcessor.registerOperation(operationId, result);
         
         // Submit background job
-        Future<?> future = executorService.submit(() -> {
-            try {
-                result.markRunning();
-                processBulkTemplateDeletion(result, classIds, reason);
-                result.markCompleted();
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Bulk template deletion failed", e);
-                result.setStatus(BulkOperationStatus.FAILED);
-                result.setCompletedAt(Instant.now());
-            }
-        });
+        Future<?> future = submitOperation(result, "Bulk template deletion failed",
+            () -> processBulkTemplateDeletion(result, classIds, reason));
         
         runningOperations.put(operationId, future);
         return result;
@@ -116,17 +108,8 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         jobProcessor.registerOperation(operationId, result);
         
         // Submit background job
-        Future<?> future = executorService.submit(() -> {
-            try {
-                result.markRunning();
-                processBulkTemplateUpgrade(result, classIds);
-                result.markCompleted();
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Bulk template upgrade failed", e);
-                result.setStatus(BulkOperationStatus.FAILED);
-                result.setCompletedAt(Instant.now());
-            }
-        });
+        Future<?> future = submitOperation(result, "Bulk template upgrade failed",
+            () -> processBulkTemplateUpgrade(result, classIds));
         
         runningOperations.put(operationId, future);
         return result;
@@ -142,17 +125,8 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         jobProcessor.registerOperation(operationId, result);
         
         // Submit background job
-        Future<?> future = executorService.submit(() -> {
-            try {
-                result.markRunning();
-                processBulkTemplateTagging(result, classIds, tags);
-                result.markCompleted();
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Bulk template tagging failed", e);
-                result.setStatus(BulkOperationStatus.FAILED);
-                result.setCompletedAt(Instant.now());
-            }
-        });
+        Future<?> future = submitOperation(result, "Bulk template tagging failed",
+            () -> processBulkTemplateTagging(result, classIds, tags));
         
         runningOperations.put(operationId, future);
         return result;
@@ -219,19 +193,84 @@ public class BulkOperationServiceImpl implements BulkOperationService {
         return jobProcessor.getCompletedOperations();
     }
 
+    /**
+     * Run an operation in the background once one of the operation permits is free.
+     */
+    private Future<?> submitOperation(BulkOperationResult<?> result, String failureMessage,
+                                      Runnable work) {
+        return executorService.submit(() -> {
+            try {
+                operationPermits.acquire();
+            } catch (InterruptedException e) {
+                // Cancelled while queued
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                result.markRunning();
+                work.run();
+                if (Thread.currentThread().isInterrupted()) {
+                    result.markCancelled();
+                } else {
+                    result.markCompleted();
+                }
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, failureMessage, e);
+                result.markFailed();
+            } finally {
+                operationPermits.release();
+            }
+        });
+    }
+
+    /**
+     * Process the items of one batch concurrently, one virtual thread per item, each holding
+     * a BWS call permit while it runs. Returns when all items are done. If the operation is
+     * interrupted or cancelled, items that have not called BWS yet are skipped and counted.
+     */
+    private <I> void processBatch(BulkOperationResult<?> result, List<I> batch, Consumer<I> task) {
+        try (ExecutorService items = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (I item : batch) {
+                items.submit(() -> {
+                    try {
+                        bwsCallPermits.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        result.addSkipped(1);
+                        return;
+                    }
+                    try {
+                        if (isStopped(result)) {
+                            result.addSkipped(1);
+                            return;
+                        }
+                        task.accept(item);
+                    } finally {
+                        bwsCallPermits.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private static boolean isStopped(BulkOperationResult<?> result) {
+        return Thread.currentThread().isInterrupted() || result.isCancelled();
+    }
+
     private void processBulkEnrollmentLinks(BulkOperationResult<EnrollmentLinkResult> result, 
                                           List<String> userIds, int validityHours) {
         
         for (int i = 0; i < userIds.size(); i += batchSize) {
-            if (Thread.currentThread().isInterrupted()) {
-                logger.info("Bulk enrollment link generation interrupted");
-                return;
+            if (isStopped(result)) {
+                result.addSkipped(userIds.size() - i);
+                logger.info("Bulk enrollment link generation stopped, " + (userIds.size() - i) + " items skipped");
+                break;
             }
             
             int endIndex = Math.min(i + batchSize, userIds.size());
             List<String> batch = userIds.subList(i, endIndex);
             
-            for (String userId : batch) {
+            processBatch(result, batch, userId -> {
                 try {
                     EnrollmentLinkResult linkResult = adminService.generateEnrollmentLink(userId, validityHours);
                     result.addSuccess(linkResult);
@@ -245,7 +284,7 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                     result.addError(error);
                     logger.log(Level.WARNING, "Failed to generate enrollment link for user: " + userId, e);
                 }
-            }
+            });
         }
     }
 
@@ -253,15 +292,16 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                                            List<Long> classIds, String reason) {
         
         for (int i = 0; i < classIds.size(); i += batchSize) {
-            if (Thread.currentThread().isInterrupted()) {
-                logger.info("Bulk template deletion interrupted");
-                return;
+            if (isStopped(result)) {
+                result.addSkipped(classIds.size() - i);
+                logger.info("Bulk template deletion stopped, " + (classIds.size() - i) + " items skipped");
+                break;
             }
             
             int endIndex = Math.min(i + batchSize, classIds.size());
             List<Long> batch = classIds.subList(i, endIndex);
             
-            for (Long classId : batch) {
+            processBatch(result, batch, classId -> {
                 try {
                     bioIdClient.deleteTemplate(classId);
                     result.addSuccess(null); // Void result
@@ -275,7 +315,7 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                     result.addError(error);
                     logger.log(Level.WARNING, "Failed to delete template: " + classId, e);
                 }
-            }
+            });
         }
     }
 
@@ -283,15 +323,16 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                                           List<Long> classIds) {
         
         for (int i = 0; i < classIds.size(); i += batchSize) {
-            if (Thread.currentThread().isInterrupted()) {
-                logger.info("Bulk template upgrade interrupted");
-                return;
+            if (isStopped(result)) {
+                result.addSkipped(classIds.size() - i);
+                logger.info("Bulk template upgrade stopped, " + (classIds.size() - i) + " items skipped");
+                break;
             }
             
             int endIndex = Math.min(i + batchSize, classIds.size());
             List<Long> batch = classIds.subList(i, endIndex);
             
-            for (Long classId : batch) {
+            processBatch(result, batch, classId -> {
                 try {
                     TemplateUpgradeResult upgradeResult = templateService.upgradeTemplate(classId);
                     result.addSuccess(upgradeResult);
@@ -305,7 +346,7 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                     result.addError(error);
                     logger.log(Level.WARNING, "Failed to upgrade template: " + classId, e);
                 }
-            }
+            });
         }
     }
 
@@ -313,15 +354,16 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                                           List<Long> classIds, List<String> tags) {
         
         for (int i = 0; i < classIds.size(); i += batchSize) {
-            if (Thread.currentThread().isInterrupted()) {
-                logger.info("Bulk template tagging interrupted");
-                return;
+            if (isStopped(result)) {
+                result.addSkipped(classIds.size() - i);
+                logger.info("Bulk template tagging stopped, " + (classIds.size() - i) + " items skipped");
+                break;
             }
             
             int endIndex = Math.min(i + batchSize, classIds.size());
             List<Long> batch = classIds.subList(i, endIndex);
             
-            for (Long classId : batch) {
+            processBatch(result, batch, classId -> {
                 try {
                     // Note: This would need to be implemented in the BioIdClient
                     // For now, we'll simulate the operation
@@ -337,7 +379,7 @@ public class BulkOperationServiceImpl implements BulkOperationService {
                     result.addError(error);
                     logger.log(Level.WARNING, "Failed to tag template: " + classId, e);
                 }
-            }
+            });
         }
     }
 
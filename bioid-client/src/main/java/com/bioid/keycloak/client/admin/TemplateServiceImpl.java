@@ -9,6 +9,8 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -21,7 +23,10 @@ public class TemplateServiceImpl implements TemplateService {
     private static final Logger logger = Logger.getLogger(TemplateServiceImpl.class.getName());
     private static final int CURRENT_ENCODER_VERSION = 3; // Assuming version 3 is current
     private static final int BATCH_SIZE = 50; // Process templates in batches
-    private static final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private static final int MAX_CONCURRENT_CALLS = 10; // Concurrent BWS calls of all batches
+    // Batch items run on virtual threads; the semaphore bounds the load on BWS
+    private static final ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Semaphore callPermits = new Semaphore(MAX_CONCURRENT_CALLS);
 
     private final BioIdClient bioIdClient;
 
@@ -94,14 +99,14 @@ public class TemplateServiceImpl implements TemplateService {
             
             for (List<Long> batch : batches) {
                 List<CompletableFuture<TemplateStatusSummary>> futures = batch.stream()
-                    .map(classId -> CompletableFuture.supplyAsync(() -> {
+                    .map(classId -> CompletableFuture.supplyAsync(() -> withCallPermit(() -> {
                         try {
                             return getTemplateStatus(classId, false);
                         } catch (Exception e) {
                             logger.warning("Failed to get status for template: " + classId + " - " + e.getMessage());
                             return createErrorTemplateStatusSummary(classId);
                         }
-                    }, executorService))
+                    }), executorService))
                     .collect(Collectors.toList());
 
                 // Wait for all futures in this batch to complete
@@ -176,14 +181,14 @@ public class TemplateServiceImpl implements TemplateService {
             
             for (List<Long> batch : batches) {
                 List<CompletableFuture<TemplateUpgradeResult>> futures = batch.stream()
-                    .map(classId -> CompletableFuture.supplyAsync(() -> {
+                    .map(classId -> CompletableFuture.supplyAsync(() -> withCallPermit(() -> {
                         try {
                             return upgradeTemplate(classId);
                         } catch (Exception e) {
                             logger.warning("Failed to upgrade template: " + classId + " - " + e.getMessage());
                             return TemplateUpgradeResult.failure(classId, 0, e.getMessage());
                         }
-                    }, executorService))
+                    }), executorService))
                     .collect(Collectors.toList());
 
                 // Wait for all futures in this batch to complete
@@ -421,6 +426,15 @@ public class TemplateServiceImpl implements TemplateService {
         }
     }
 
+    private static <T> T withCallPermit(Supplier<T> call) {
+        callPermits.acquireUninterruptibly();
+        try {
+            return call.get();
+        } finally {
+            callPermits.release();
+        }
+    }
+
     private <T> List<List<T>> partitionList(List<T> list, int batchSize) {
         List<List<T>> partitions = new ArrayList<>();
         for (int i = 0; i < list.size(); i += batchSize) {
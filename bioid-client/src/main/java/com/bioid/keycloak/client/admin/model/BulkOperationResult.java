@@ -11,11 +11,12 @@ import java.util.List;
  */
 public class BulkOperationResult<T> {
     private final String operationId;
-    private BulkOperationStatus status;
+    private volatile BulkOperationStatus status;
     private final int totalItems;
     private int processedItems;
     private int successfulItems;
     private int failedItems;
+    private int skippedItems;
     private final List<BulkOperationError> errors;
     private final List<T> results;
     private final Instant startedAt;
@@ -28,6 +29,7 @@ public class BulkOperationResult<T> {
         this.processedItems = 0;
         this.successfulItems = 0;
         this.failedItems = 0;
+        this.skippedItems = 0;
         this.errors = new ArrayList<>();
         this.results = new ArrayList<>();
         this.startedAt = Instant.now();
@@ -61,6 +63,10 @@ public class BulkOperationResult<T> {
         return failedItems;
     }
 
+    public int getSkippedItems() {
+        return skippedItems;
+    }
+
     public List<BulkOperationError> getErrors() {
         return errors;
     }
@@ -81,18 +87,26 @@ public class BulkOperationResult<T> {
         this.completedAt = completedAt;
     }
 
-    public void addSuccess(T result) {
+    public synchronized void addSuccess(T result) {
         this.results.add(result);
         this.successfulItems++;
         this.processedItems++;
     }
 
-    public void addError(BulkOperationError error) {
+    public synchronized void addError(BulkOperationError error) {
         this.errors.add(error);
         this.failedItems++;
         this.processedItems++;
     }
 
+    /**
+     * Record items that were not attempted because the operation was stopped.
+     */
+    public synchronized void addSkipped(int count) {
+        this.skippedItems += count;
+        this.processedItems += count;
+    }
+
     public double getSuccessRate() {
         return processedItems > 0 ? (double) successfulItems / processedItems * 100.0 : 0.0;
     }
@@ -115,7 +129,17 @@ public class BulkOperationResult<T> {
                status == BulkOperationStatus.PARTIALLY_COMPLETED;
     }
 
-    public void markCompleted() {
+    public boolean isCancelled() {
+        return status == BulkOperationStatus.CANCELLED;
+    }
+
+    /**
+     * Set the final status from the item counts, unless the operation was cancelled.
+     */
+    public synchronized void markCompleted() {
+        if (isCancelled()) {
+            return;
+        }
         this.completedAt = Instant.now();
         if (failedItems == 0) {
             this.status = BulkOperationStatus.COMPLETED;
@@ -126,12 +150,26 @@ public class BulkOperationResult<T> {
         }
     }
 
-    public void markCancelled() {
+    /**
+     * Mark the operation as failed as a whole, unless it was cancelled.
+     */
+    public synchronized void markFailed() {
+        if (isCancelled()) {
+            return;
+        }
+        this.completedAt = Instant.now();
+        this.status = BulkOperationStatus.FAILED;
+    }
+
+    public synchronized void markCancelled() {
         this.completedAt = Instant.now();
         this.status = BulkOperationStatus.CANCELLED;
     }
 
-    public void markRunning() {
+    public synchronized void markRunning() {
+        if (isCancelled()) {
+            return;
+        }
         this.status = BulkOperationStatus.RUNNING;
     }
 }
\ No newline at end of file
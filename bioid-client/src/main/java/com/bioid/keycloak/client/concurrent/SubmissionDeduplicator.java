@@ -0,0 +1,203 @@
+package com.bioid.keycloak.client.concurrent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Suppresses duplicate form submissions (double clicks, browser retries) for the same
+ * authentication session.
+ *
+ * <p>Submissions are keyed on a caller supplied scope (typically the authentication session and
+ * tab id) plus a SHA-256 digest of the payload; the payload itself is never retained. There are two
+ * modes:
+ *
+ * <ul>
+ *   <li>{@link #execute} shares results: an identical submission that arrives while the first is in
+ *       flight, or within the retention window after it finished, waits for and reuses its result.
+ *       Use it for idempotent work such as enrollment, where a second run would only create
+ *       duplicate templates.
+ *   <li>{@link #executeExclusively} only serializes: an identical submission waits for the first to
+ *       finish and then runs its own action. Use it for verification of inline images, whose result
+ *       must never be handed to a request that did not itself pass BWS. Verification of a staged
+ *       upload uses {@link #execute} instead: the upload is single-use, so a duplicate carries the
+ *       same image the first request already submitted and could not be verified on its own.
+ * </ul>
+ *
+ * <p>Duplicates wait at most the timeout passed by the caller, which should be the request timeout
+ * of the operation, and then run on their own. Completed entries are removed by a delayed task
+ * once the retention window has passed.
+ */
+public class SubmissionDeduplicator {
+
+  private static final Logger logger = LoggerFactory.getLogger(SubmissionDeduplicator.class);
+
+  private static final Duration DEFAULT_RETENTION = Duration.ofSeconds(2);
+
+  private final ConcurrentMap<String, Submission> submissions = new ConcurrentHashMap<>();
+  private final Executor evictor;
+
+  public SubmissionDeduplicator() {
+    this(DEFAULT_RETENTION);
+  }
+
+  /** @param retention how long a completed result is kept for late duplicates */
+  public SubmissionDeduplicator(Duration retention) {
+    long retentionNanos = Objects.requireNonNull(retention, "retention").toNanos();
+    this.evictor = CompletableFuture.delayedExecutor(retentionNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Executes {@code action} unless an identical submission for {@code scope} is already in flight
+   * or has just completed, in which case that submission's result (or exception) is reused.
+   *
+   * @param scope the deduplication scope, e.g. authentication session id and tab id
+   * @param payload the submitted payload
+   * @param maxWait how long a duplicate waits for the original before executing on its own
+   * @param action the work to perform for a first submission
+   * @return the outcome, flagged as shared when it was produced by an earlier submission
+   * @throws Exception the exception thrown by the action that produced the result
+   */
+  public <T> Outcome<T> execute(String scope, String payload, Duration maxWait, Callable<T> action)
+      throws Exception {
+    return run(scope, payload, maxWait, action, true);
+  }
+
+  /**
+   * Executes {@code action} once any identical in-flight submission for {@code scope} has finished.
+   * The earlier result is never reused; the outcome is only flagged as a duplicate.
+   *
+   * @param scope the deduplication scope, e.g. authentication session id and tab id
+   * @param payload the submitted payload
+   * @param maxWait how long a duplicate waits for the original before executing anyway
+   * @param action the work to perform for every submission
+   * @return the outcome of this submission's own action
+   * @throws Exception the exception thrown by the action
+   */
+  public <T> Outcome<T> executeExclusively(
+      String scope, String payload, Duration maxWait, Callable<T> action) throws Exception {
+    return run(scope, payload, maxWait, action, false);
+  }
+
+  /** Number of tracked submissions, exposed for monitoring and tests. */
+  public int size() {
+    return submissions.size();
+  }
+
+  private <T> Outcome<T> run(
+      String scope, String payload, Duration maxWait, Callable<T> action, boolean share)
+      throws Exception {
+    if (scope == null || payload == null) {
+      return new Outcome<>(action.call(), false, false);
+    }
+
+    String key = scope + '#' + digest(payload);
+    Submission candidate = new Submission();
+    Submission existing = submissions.putIfAbsent(key, candidate);
+
+    if (existing != null) {
+      logger.debug("Duplicate submission detected for scope {}", scope);
+      Outcome<T> shared = await(existing, maxWait, share);
+      if (shared != null) {
+        return shared;
+      }
+      // Not shared: run this submission's own action, without tracking it
+      return new Outcome<>(action.call(), false, true);
+    }
+
+    try {
+      T result = action.call();
+      candidate.future.complete(result);
+      return new Outcome<>(result, false, false);
+    } catch (Exception | Error e) {
+      candidate.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      if (share) {
+        evictor.execute(() -> submissions.remove(key, candidate));
+      } else {
+        submissions.remove(key, candidate);
+      }
+    }
+  }
+
+  /**
+   * Waits for an earlier submission.
+   *
+   * @return its outcome when {@code share} is set and it finished in time, otherwise null
+   */
+  @SuppressWarnings("unchecked")
+  private <T> Outcome<T> await(Submission submission, Duration maxWait, boolean share)
+      throws Exception {
+    try {
+      T result = (T) submission.future.get(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+      return share ? new Outcome<>(result, true, true) : null;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (!share) {
+        return null;
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    } catch (TimeoutException e) {
+      logger.warn("Timed out waiting for duplicate submission, executing independently");
+      return null;
+    }
+  }
+
+  /** SHA-256 of the payload, so entries never hold on to multi-megabyte images. */
+  static String digest(String payload) {
+    try {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      return HexFormat.of().formatHex(sha256.digest(payload.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  private static final class Submission {
+    private final CompletableFuture<Object> future = new CompletableFuture<>();
+  }
+
+  /** Result of a deduplicated submission. */
+  public static final class Outcome<T> {
+    private final T result;
+    private final boolean shared;
+    private final boolean duplicate;
+
+    Outcome(T result, boolean shared, boolean duplicate) {
+      this.result = result;
+      this.shared = shared;
+      this.duplicate = duplicate;
+    }
+
+    public T getResult() {
+      return result;
+    }
+
+    /** Whether this result was produced by an earlier identical submission. */
+    public boolean isShared() {
+      return shared;
+    }
+
+    /** Whether an identical submission was seen before this one. */
+    public boolean isDuplicate() {
+      return duplicate;
+    }
+  }
+}
@@ -56,9 +56,33 @@ public class ImageDebugStorage {
             return;
         }
 
+        byte[] image;
+        try {
+            image = decode(imageData);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Failed to decode debug image for user: {}, operation: {}: {}",
+                username, operation, e.getMessage());
+            return;
+        }
+        saveImage(username, operation, image, metadata);
+    }
+
+    /**
+     * Saves a single image for debugging.
+     *
+     * @param username the username
+     * @param operation the operation type (enrollment, verification, liveness)
+     * @param image the encoded image bytes
+     * @param metadata additional metadata to store
+     */
+    public void saveImage(String username, String operation, byte[] image, Map<String, Object> metadata) {
+        if (!config.isDebugImageStorageEnabled()) {
+            return;
+        }
+
         try {
             Path sessionDir = createSessionDirectory(username, operation);
-            saveImageFile(sessionDir, "image.jpg", imageData);
+            saveImageFile(sessionDir, "image.jpg", image);
             
             if (config.isDebugImageStorageIncludeMetadata()) {
                 saveMetadata(sessionDir, metadata);
@@ -127,15 +151,26 @@ public class ImageDebugStorage {
      * Saves an image file from base64 data.
      */
     private void saveImageFile(Path directory, String filename, String imageData) throws IOException {
-        // Remove data URL prefix if present
+        saveImageFile(directory, filename, decode(imageData));
+    }
+
+    /**
+     * Saves an image file from raw bytes.
+     */
+    private void saveImageFile(Path directory, String filename, byte[] imageBytes) throws IOException {
+        Path imagePath = directory.resolve(filename);
+        Files.write(imagePath, imageBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Decodes base64 image data, with or without a data URL prefix.
+     */
+    private static byte[] decode(String imageData) {
         String base64Data = imageData;
         if (imageData.contains(",")) {
             base64Data = imageData.split(",", 2)[1];
         }
-        
-        byte[] imageBytes = Base64.getDecoder().decode(base64Data);
-        Path imagePath = directory.resolve(filename);
-        Files.write(imagePath, imageBytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        return Base64.getDecoder().decode(base64Data);
     }
 
     /**
@@ -5,6 +5,8 @@ import java.time.Instant;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,17 +23,17 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
   // Maximum overhead for passive liveness detection (as per requirements)
   private static final Duration MAX_PASSIVE_OVERHEAD = Duration.ofMillis(200);
 
+  // Maximum number of detections processed at the same time; further requests wait for a permit
+  static final int MAX_CONCURRENT_DETECTIONS = 32;
+
   private final Executor executor;
+  private final Semaphore detectionPermits = new Semaphore(MAX_CONCURRENT_DETECTIONS);
   private final boolean livenessAvailable;
 
   public BioIdLivenessDetectionService() {
     this.executor =
-        Executors.newCachedThreadPool(
-            r -> {
-              Thread t = new Thread(r, "BioID-Liveness-" + System.currentTimeMillis());
-              t.setDaemon(true);
-              return t;
-            });
+        Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("BioID-Liveness-", 0).factory());
 
     // In a real implementation, this would check if BioID liveness detection is available
     this.livenessAvailable = true;
@@ -42,7 +44,7 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
   @Override
   public CompletableFuture<LivenessResult> detectPassiveLiveness(
       byte[] imageData, LivenessConfig config) {
-    return CompletableFuture.supplyAsync(
+    return supplyWithPermit(
         () -> {
           Instant start = Instant.now();
 
@@ -87,14 +89,13 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
                 LivenessMethod.PASSIVE,
                 processingTime);
           }
-        },
-        executor);
+        });
   }
 
   @Override
   public CompletableFuture<LivenessResult> detectActiveLiveness(
       byte[] imageData, LivenessChallenge challenge, LivenessConfig config) {
-    return CompletableFuture.supplyAsync(
+    return supplyWithPermit(
         () -> {
           Instant start = Instant.now();
 
@@ -143,14 +144,13 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
                 LivenessMethod.ACTIVE_SMILE,
                 processingTime);
           }
-        },
-        executor);
+        });
   }
 
   @Override
   public CompletableFuture<LivenessResult> detectChallengeResponseLiveness(
       byte[][] imageSequence, MovementChallenge challenge, LivenessConfig config) {
-    return CompletableFuture.supplyAsync(
+    return supplyWithPermit(
         () -> {
           Instant start = Instant.now();
 
@@ -204,14 +204,13 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
                 LivenessMethod.CHALLENGE_RESPONSE,
                 processingTime);
           }
-        },
-        executor);
+        });
   }
 
   @Override
   public CompletableFuture<VerificationWithLivenessResult> verifyWithLiveness(
       long classId, byte[] imageData, LivenessConfig config) {
-    return CompletableFuture.supplyAsync(
+    return supplyWithPermit(
         () -> {
           Instant start = Instant.now();
 
@@ -261,8 +260,7 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
             return VerificationWithLivenessResult.error(
                 "Verification with liveness failed: " + e.getMessage(), processingTime);
           }
-        },
-        executor);
+        });
   }
 
   @Override
@@ -390,6 +388,20 @@ public class BioIdLivenessDetectionService implements LivenessDetectionService {
     return Math.random() > 0.2;
   }
 
+  /** Runs a detection on a virtual thread once a detection permit is free. */
+  private <T> CompletableFuture<T> supplyWithPermit(Supplier<T> detection) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          detectionPermits.acquireUninterruptibly();
+          try {
+            return detection.get();
+          } finally {
+            detectionPermits.release();
+          }
+        },
+        executor);
+  }
+
   /** Shuts down the liveness detection service. */
   public void shutdown() {
     if (executor instanceof java.util.concurrent.ExecutorService) {
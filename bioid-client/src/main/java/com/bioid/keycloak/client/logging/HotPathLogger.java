@@ -0,0 +1,239 @@
+package com.bioid.keycloak.client.logging;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+/**
+ * Bounded logging for per-login code paths (verification, enrollment, BWS RPCs).
+ *
+ * <p>Each call site declares an {@link Event} once, with a sampling rate and a token-bucket rate
+ * limit. Emission is decided before any argument is evaluated: values given as {@link Supplier}
+ * are only invoked for lines that are actually written, so suppressed events cost a level check,
+ * a counter increment and one CAS. Emitted lines use a compact {@code key=value} encoding built in
+ * a reused per-thread buffer, and report how many events were suppressed since the previous line.
+ *
+ * <p>Log volume per event is bounded by {@code ratePerSecond} regardless of the login rate.
+ * Sampling is for diagnostic events only: authentication outcomes (success or failure) are audit
+ * records and must be declared with {@link #event(String, Level)} so none is dropped. Image
+ * payloads must be logged through {@link #imageSummary(String)}, never as content.
+ */
+public final class HotPathLogger {
+
+    private static final int MAX_BUFFER_RETAINED = 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER =
+        ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private final Logger logger;
+
+    private HotPathLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static HotPathLogger forClass(Class<?> type) {
+        return new HotPathLogger(LoggerFactory.getLogger(type));
+    }
+
+    static HotPathLogger forLogger(Logger logger) {
+        return new HotPathLogger(logger);
+    }
+
+    /**
+     * Declares an event that is always logged (subject only to the level). Use it for
+     * authentication outcomes.
+     */
+    public Event event(String name, Level level) {
+        return new Event(name, level, 1, 0, 0);
+    }
+
+    /**
+     * Declares a diagnostic event that is sampled and rate limited.
+     *
+     * @param name event name written as {@code event=<name>}
+     * @param level log level
+     * @param sampleEvery log one in {@code sampleEvery} occurrences (1 = every occurrence)
+     * @param ratePerSecond sustained maximum of lines per second after sampling
+     * @param burst number of lines that may be written back to back before the rate applies
+     */
+    public Event event(String name, Level level, int sampleEvery, double ratePerSecond, int burst) {
+        if (sampleEvery < 1 || ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid sampling or rate limit for event " + name);
+        }
+        return new Event(name, level, sampleEvery, ratePerSecond, burst);
+    }
+
+    /**
+     * Payload-safe description of base64 or data URL image data: media type and length only. The
+     * description is computed lazily when the line is written.
+     */
+    public static Object imageSummary(String imageData) {
+        return new Object() {
+            @Override
+            public String toString() {
+                if (imageData == null) {
+                    return "none";
+                }
+                int comma = imageData.indexOf(',');
+                if (imageData.startsWith("data:") && comma > 0) {
+                    int semicolon = imageData.indexOf(';');
+                    int typeEnd = semicolon > 0 && semicolon < comma ? semicolon : comma;
+                    return imageData.substring(5, typeEnd) + "/" + (imageData.length() - comma - 1)
+                        + "chars";
+                }
+                return imageData.length() + "chars";
+            }
+        };
+    }
+
+    /** A declared log event with its own sampling counter and rate limiter. */
+    public final class Event {
+        private final String name;
+        private final Level level;
+        private final int sampleEvery;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final AtomicLong occurrences = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+        // Generic cell rate algorithm: theoretical arrival time of the next conforming line
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        private Event(String name, Level level, int sampleEvery, double ratePerSecond, int burst) {
+            this.name = name;
+            this.level = level;
+            this.sampleEvery = sampleEvery;
+            this.intervalNanos =
+                ratePerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond) : 0;
+            this.burstNanos = intervalNanos * Math.max(burst - 1, 0);
+        }
+
+        public void log() {
+            if (admit()) {
+                write(null, 0, null);
+            }
+        }
+
+        public void log(String k1, Object v1) {
+            if (admit()) {
+                write(new Object[] {k1, v1}, 2, null);
+            }
+        }
+
+        public void log(String k1, Object v1, String k2, Object v2) {
+            if (admit()) {
+                write(new Object[] {k1, v1, k2, v2}, 4, null);
+            }
+        }
+
+        public void log(String k1, Object v1, String k2, Object v2, String k3, Object v3) {
+            if (admit()) {
+                write(new Object[] {k1, v1, k2, v2, k3, v3}, 6, null);
+            }
+        }
+
+        public void log(
+            String k1, Object v1, String k2, Object v2, String k3, Object v3, String k4, Object v4) {
+            if (admit()) {
+                write(new Object[] {k1, v1, k2, v2, k3, v3, k4, v4}, 8, null);
+            }
+        }
+
+        /** Logs with a throwable attached; failures bypass sampling but not the rate limit. */
+        public void log(Throwable error, String k1, Object v1, String k2, Object v2) {
+            if (logger.isEnabledForLevel(level) && acquire(System.nanoTime())) {
+                write(new Object[] {k1, v1, k2, v2}, 4, error);
+            }
+        }
+
+        /** Whether this occurrence is written; counts it as suppressed otherwise. */
+        boolean admit() {
+            if (!logger.isEnabledForLevel(level)) {
+                return false;
+            }
+            if (sampleEvery > 1 && occurrences.getAndIncrement() % sampleEvery != 0) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+            if (!acquire(System.nanoTime())) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        boolean acquire(long now) {
+            if (intervalNanos == 0) {
+                return true;
+            }
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long effective = tat == Long.MIN_VALUE ? now : Math.max(tat, now);
+                if (effective - now > burstNanos) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(tat, effective + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        private void write(Object[] pairs, int length, Throwable error) {
+            StringBuilder line = BUFFER.get();
+            line.setLength(0);
+            line.append("event=").append(name);
+            for (int i = 0; i < length; i += 2) {
+                line.append(' ').append(pairs[i]).append('=');
+                appendValue(line, pairs[i + 1]);
+            }
+            long dropped = suppressed.getAndSet(0);
+            if (dropped > 0) {
+                line.append(" suppressed=").append(dropped);
+            }
+            String message = line.toString();
+            if (line.capacity() > MAX_BUFFER_RETAINED) {
+                BUFFER.remove();
+            }
+            if (error != null) {
+                logger.atLevel(level).setCause(error).log(message);
+            } else {
+                logger.atLevel(level).log(message);
+            }
+        }
+    }
+
+    static void appendValue(StringBuilder line, Object value) {
+        Object resolved = value instanceof Supplier ? ((Supplier<?>) value).get() : value;
+        if (resolved == null) {
+            line.append("null");
+            return;
+        }
+        if (resolved instanceof Number || resolved instanceof Boolean) {
+            line.append(resolved);
+            return;
+        }
+        String text = resolved.toString();
+        boolean quote = text.isEmpty();
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ' ' || c == '"' || c == '=' || c < 0x20;
+        }
+        if (!quote) {
+            line.append(text);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(' ');
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,65 @@
+package com.bioid.keycloak.client;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.bioid.services.Bwsmessages;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Unit tests for the enrollment image preparation of BioIdGrpcClientProduction. */
+class BioIdGrpcClientProductionTest {
+
+  private static final byte[] IMAGE = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  @DisplayName("Should decode an enrollment image with a data URL prefix")
+  void shouldDecodeDataUrl() {
+    // Given
+    String dataUrl = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(IMAGE);
+
+    // When
+    Bwsmessages.ImageData image = BioIdGrpcClientProduction.decodeEnrollmentImage(1, dataUrl);
+
+    // Then
+    assertThat(image.getImage().toByteArray()).isEqualTo(IMAGE);
+  }
+
+  @Test
+  @DisplayName("Should decode an enrollment image without a data URL prefix")
+  void shouldDecodePlainBase64() {
+    // When
+    Bwsmessages.ImageData image =
+        BioIdGrpcClientProduction.decodeEnrollmentImage(
+            1, Base64.getEncoder().encodeToString(IMAGE));
+
+    // Then
+    assertThat(image.getImage().toByteArray()).isEqualTo(IMAGE);
+  }
+
+  @Test
+  @DisplayName("Should reject a missing enrollment image")
+  void shouldRejectMissingImage() {
+    assertThatThrownBy(() -> BioIdGrpcClientProduction.decodeEnrollmentImage(2, null))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Enrollment image 2 is missing");
+  }
+
+  @Test
+  @DisplayName("Should reject an enrollment image with an empty payload")
+  void shouldRejectEmptyImage() {
+    assertThatThrownBy(
+            () -> BioIdGrpcClientProduction.decodeEnrollmentImage(3, "data:image/jpeg;base64,"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessage("Enrollment image 3 is empty");
+  }
+
+  @Test
+  @DisplayName("Should reject an enrollment image that is not base64")
+  void shouldRejectInvalidBase64() {
+    assertThatThrownBy(
+            () -> BioIdGrpcClientProduction.decodeEnrollmentImage(1, "data:image/jpeg;base64,%%%"))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -16,6 +16,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -376,6 +379,37 @@ class TemplateServiceImplTest {
         assertThat(duration).isLessThan(5000); // Should complete within 5 seconds
     }
 
+    @Test
+    @DisplayName("Should run batch status calls concurrently within the call limit")
+    void shouldRunBatchStatusCallsConcurrentlyWithinCallLimit() throws BioIdException {
+        // Given
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        TemplateServiceImpl slowService = new TemplateServiceImpl(bioIdClient) {
+            @Override
+            public TemplateStatusSummary getTemplateStatus(long classId, boolean includeThumbnails) throws BioIdException {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                    return super.getTemplateStatus(classId, includeThumbnails);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BioIdException("Interrupted");
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+        List<Long> classIds = LongStream.rangeClosed(1, 40).boxed().collect(Collectors.toList());
+
+        // When
+        List<TemplateStatusSummary> statuses = slowService.getTemplateStatusBatch(classIds);
+
+        // Then
+        assertThat(statuses).hasSize(40);
+        assertThat(maxInFlight.get()).isGreaterThan(1).isLessThanOrEqualTo(10);
+    }
+
     @Test
     @DisplayName("Should validate class ID ranges")
     void shouldValidateClassIdRanges() throws BioIdException {
@@ -0,0 +1,62 @@
+package com.bioid.keycloak.client.admin.model;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+@DisplayName("Bulk Operation Result Tests")
+class BulkOperationResultTest {
+
+    @Test
+    @DisplayName("Should keep the cancelled status when the operation finishes afterwards")
+    void shouldNotOverwriteCancelledStatus() {
+        // Given
+        BulkOperationResult<Void> result = new BulkOperationResult<>("op-1", 10);
+        result.markRunning();
+        result.addSuccess(null);
+        result.markCancelled();
+
+        // When
+        result.markCompleted();
+        result.markFailed();
+        result.markRunning();
+
+        // Then
+        assertThat(result.getStatus()).isEqualTo(BulkOperationStatus.CANCELLED);
+        assertThat(result.isCancelled()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should count skipped items as processed")
+    void shouldCountSkippedItemsAsProcessed() {
+        // Given
+        BulkOperationResult<Void> result = new BulkOperationResult<>("op-1", 10);
+        result.addSuccess(null);
+        result.addError(new BulkOperationError("2", "TEMPLATE_DELETE_FAILED", "failed", false));
+
+        // When
+        result.addSkipped(8);
+
+        // Then
+        assertThat(result.getProcessedItems()).isEqualTo(10);
+        assertThat(result.getSkippedItems()).isEqualTo(8);
+        assertThat(result.getProgressPercentage()).isEqualTo(100.0);
+    }
+
+    @Test
+    @DisplayName("Should derive the final status from the item counts")
+    void shouldDeriveFinalStatusFromCounts() {
+        // Given
+        BulkOperationResult<Void> result = new BulkOperationResult<>("op-1", 2);
+        result.addSuccess(null);
+        result.addError(new BulkOperationError("2", "TEMPLATE_DELETE_FAILED", "failed", false));
+
+        // When
+        result.markCompleted();
+
+        // Then
+        assertThat(result.getStatus()).isEqualTo(BulkOperationStatus.PARTIALLY_COMPLETED);
+        assertThat(result.getCompletedAt()).isNotNull();
+    }
+}
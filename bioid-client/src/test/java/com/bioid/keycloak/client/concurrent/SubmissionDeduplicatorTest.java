@@ -0,0 +1,226 @@
+package com.bioid.keycloak.client.concurrent;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for SubmissionDeduplicator. */
+class SubmissionDeduplicatorTest {
+
+  private static final Duration WAIT = Duration.ofSeconds(5);
+
+  private SubmissionDeduplicator deduplicator;
+  private ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    deduplicator = new SubmissionDeduplicator(Duration.ofSeconds(2));
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  @DisplayName("Concurrent duplicate waits for and reuses the in-flight result")
+  void testConcurrentDuplicateSharesResult() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<SubmissionDeduplicator.Outcome<Boolean>> first =
+        executor.submit(
+            () ->
+                deduplicator.execute(
+                    "session-1",
+                    "payload",
+                    WAIT,
+                    () -> {
+                      calls.incrementAndGet();
+                      started.countDown();
+                      release.await(5, TimeUnit.SECONDS);
+                      return true;
+                    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    Future<SubmissionDeduplicator.Outcome<Boolean>> second =
+        executor.submit(
+            () ->
+                deduplicator.execute(
+                    "session-1",
+                    "payload",
+                    WAIT,
+                    () -> {
+                      calls.incrementAndGet();
+                      return false;
+                    }));
+    release.countDown();
+
+    assertFalse(first.get(5, TimeUnit.SECONDS).isShared());
+    SubmissionDeduplicator.Outcome<Boolean> duplicate = second.get(5, TimeUnit.SECONDS);
+    assertTrue(duplicate.isShared());
+    assertTrue(duplicate.getResult());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  @DisplayName("Late duplicate within the retention window reuses the completed result")
+  void testLateDuplicateWithinRetention() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+
+    deduplicator.execute("session-1", "payload", WAIT, calls::incrementAndGet);
+    SubmissionDeduplicator.Outcome<Integer> duplicate =
+        deduplicator.execute("session-1", "payload", WAIT, calls::incrementAndGet);
+
+    assertTrue(duplicate.isShared());
+    assertEquals(1, duplicate.getResult());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  @DisplayName("Different sessions and payloads are never merged")
+  void testDistinctScopesAndPayloads() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+
+    deduplicator.execute("session-1", "payload", WAIT, calls::incrementAndGet);
+    deduplicator.execute("session-2", "payload", WAIT, calls::incrementAndGet);
+    deduplicator.execute("session-1", "other-payload", WAIT, calls::incrementAndGet);
+
+    assertEquals(3, calls.get());
+  }
+
+  @Test
+  @DisplayName("Failure of the first submission is rethrown to duplicates")
+  void testExceptionIsShared() {
+    IllegalStateException failure = new IllegalStateException("BWS unavailable");
+
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            deduplicator.execute(
+                "session-1",
+                "payload",
+                WAIT,
+                () -> {
+                  throw failure;
+                }));
+    IllegalStateException rethrown =
+        assertThrows(
+            IllegalStateException.class,
+            () -> deduplicator.execute("session-1", "payload", WAIT, () -> true));
+    assertSame(failure, rethrown);
+  }
+
+  @Test
+  @DisplayName("Completed submissions are evicted after the retention window")
+  void testEviction() throws Exception {
+    SubmissionDeduplicator shortLived =
+        new SubmissionDeduplicator(Duration.ofMillis(1));
+    AtomicInteger calls = new AtomicInteger();
+
+    shortLived.execute("session-1", "payload", WAIT, calls::incrementAndGet);
+    Thread.sleep(200);
+    SubmissionDeduplicator.Outcome<Integer> again =
+        shortLived.execute("session-1", "payload", WAIT, calls::incrementAndGet);
+
+    assertFalse(again.isShared());
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  @DisplayName("Exclusive duplicates wait for the first submission but never reuse its result")
+  void testExclusiveDuplicateRunsItsOwnAction() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    AtomicBoolean firstFinished = new AtomicBoolean();
+    AtomicBoolean ranAfterFirst = new AtomicBoolean();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+
+    Future<SubmissionDeduplicator.Outcome<Boolean>> first =
+        executor.submit(
+            () ->
+                deduplicator.executeExclusively(
+                    "session-1",
+                    "payload",
+                    WAIT,
+                    () -> {
+                      calls.incrementAndGet();
+                      started.countDown();
+                      release.await(5, TimeUnit.SECONDS);
+                      firstFinished.set(true);
+                      return true;
+                    }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    AtomicReference<Thread> secondThread = new AtomicReference<>();
+    Future<SubmissionDeduplicator.Outcome<Boolean>> second =
+        executor.submit(
+            () -> {
+              secondThread.set(Thread.currentThread());
+              return deduplicator.executeExclusively(
+                  "session-1",
+                  "payload",
+                  WAIT,
+                  () -> {
+                    calls.incrementAndGet();
+                    ranAfterFirst.set(firstFinished.get());
+                    return false;
+                  });
+            });
+    // Let the first submission finish only once the duplicate is waiting for it
+    while (secondThread.get() == null
+        || secondThread.get().getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    assertTrue(first.get(5, TimeUnit.SECONDS).getResult());
+    SubmissionDeduplicator.Outcome<Boolean> duplicate = second.get(5, TimeUnit.SECONDS);
+    assertFalse(duplicate.isShared());
+    assertTrue(duplicate.isDuplicate());
+    assertFalse(duplicate.getResult());
+    assertTrue(ranAfterFirst.get());
+    assertEquals(2, calls.get());
+    assertEquals(0, deduplicator.size());
+  }
+
+  @Test
+  @DisplayName("Duplicates stop waiting after the given timeout")
+  void testWaitIsBounded() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.submit(
+        () ->
+            deduplicator.execute(
+                "session-1",
+                "payload",
+                WAIT,
+                () -> {
+                  started.countDown();
+                  release.await(5, TimeUnit.SECONDS);
+                  return 1;
+                }));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    SubmissionDeduplicator.Outcome<Integer> impatient =
+        deduplicator.execute("session-1", "payload", Duration.ofMillis(50), () -> 2);
+    release.countDown();
+
+    assertFalse(impatient.isShared());
+    assertEquals(2, impatient.getResult());
+  }
+}
@@ -0,0 +1,99 @@
+package com.bioid.keycloak.client.logging;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.spi.LoggingEventBuilder;
+
+/** Tests for HotPathLogger. */
+class HotPathLoggerTest {
+
+    private Logger logger;
+    private LoggingEventBuilder builder;
+    private HotPathLogger hotPath;
+
+    @BeforeEach
+    void setUp() {
+        logger = mock(Logger.class);
+        builder = mock(LoggingEventBuilder.class, RETURNS_SELF);
+        when(logger.isEnabledForLevel(any())).thenReturn(true);
+        when(logger.atLevel(any())).thenReturn(builder);
+        hotPath = HotPathLogger.forLogger(logger);
+    }
+
+    @Test
+    @DisplayName("Sampling writes one line per N occurrences and reports suppressed events")
+    void testSampling() {
+        HotPathLogger.Event event = hotPath.event("verify", Level.INFO, 3, 1000, 1000);
+
+        for (int i = 0; i < 4; i++) {
+            event.log("userId", "u1");
+        }
+
+        verify(builder).log("event=verify userId=u1");
+        verify(builder).log("event=verify userId=u1 suppressed=2");
+    }
+
+    @Test
+    @DisplayName("Unsampled events such as authentication outcomes write every occurrence")
+    void testUnsampledEventWritesEveryOccurrence() {
+        HotPathLogger.Event event = hotPath.event("verify.succeeded", Level.INFO);
+
+        for (int i = 0; i < 1000; i++) {
+            event.log("userId", "u1");
+        }
+
+        verify(builder, times(1000)).log("event=verify.succeeded userId=u1");
+    }
+
+    @Test
+    @DisplayName("Token bucket bounds the number of lines regardless of call rate")
+    void testRateLimit() {
+        HotPathLogger.Event event = hotPath.event("verify", Level.INFO, 1, 1, 3);
+        long now = System.nanoTime();
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (event.acquire(now)) {
+                admitted++;
+            }
+        }
+        assertEquals(3, admitted);
+        assertTrue(event.acquire(now + 1_000_000_000L));
+    }
+
+    @Test
+    @DisplayName("Suppliers are only evaluated for lines that are written")
+    void testLazySuppliers() {
+        when(logger.isEnabledForLevel(Level.DEBUG)).thenReturn(false);
+        HotPathLogger.Event event = hotPath.event("enroll", Level.DEBUG);
+        AtomicInteger evaluations = new AtomicInteger();
+        Supplier<String> expensive = () -> "v" + evaluations.incrementAndGet();
+
+        event.log("value", expensive);
+
+        assertEquals(0, evaluations.get());
+        verify(logger, never()).atLevel(any());
+    }
+
+    @Test
+    @DisplayName("Values are quoted when needed and image data is summarized, never logged")
+    void testEncoding() {
+        StringBuilder line = new StringBuilder();
+        HotPathLogger.appendValue(line, "two words \"quoted\"");
+        assertEquals("\"two words \\\"quoted\\\"\"", line.toString());
+
+        String image = "data:image/jpeg;base64," + "A".repeat(400);
+        String summary = HotPathLogger.imageSummary(image).toString();
+        assertEquals("image/jpeg/400chars", summary);
+        assertFalse(summary.contains("AAAA"));
+    }
+}
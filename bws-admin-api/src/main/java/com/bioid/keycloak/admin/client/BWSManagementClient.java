@@ -8,6 +8,9 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Client for BWS Management API (REST).
@@ -15,18 +18,34 @@ import java.time.Duration;
  * The BWS Management API is available at https://bwsportal.bioid.com/api/
  * and requires JWT Bearer authentication.
  * 
+ * All instances share one HTTP/2 {@link HttpClient}, so connections stay open between calls
+ * and are not re-established (with a new TLS handshake) per request. Responses are cached per
+ * URL together with their validators ({@code ETag}, {@code Last-Modified}); later requests for
+ * the same URL are sent conditionally and a {@code 304 Not Modified} reuses the cached body.
+ * 
  * @see <a href="https://developer.bioid.com/bws/management">BWS Management API Documentation</a>
  */
 public class BWSManagementClient implements AutoCloseable {
 
   private static final Logger logger = LoggerFactory.getLogger(BWSManagementClient.class);
-  
+
   private static final String DEFAULT_BASE_URL = "https://bwsportal.bioid.com/api";
-  
+
+  private static final HttpClient SHARED_HTTP_CLIENT = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_2)
+      .connectTimeout(Duration.ofSeconds(10))
+      .build();
+
+  // Cached response bodies with their validators, keyed by request URL
+  private static final Map<String, CachedResponse> RESPONSE_CACHE = new ConcurrentHashMap<>();
+
   private final String baseUrl;
-  private final String jwtToken;
+  private final Supplier<String> tokenSupplier;
   private final HttpClient httpClient;
 
+  private record CachedResponse(String body, String etag, String lastModified) {
+  }
+
   /**
    * Create a new BWS Management API client.
    * 
@@ -43,11 +62,24 @@ public class BWSManagementClient implements AutoCloseable {
    * @param jwtToken JWT token for authentication
    */
   public BWSManagementClient(String baseUrl, String jwtToken) {
-    this.baseUrl = baseUrl;
-    this.jwtToken = jwtToken;
-    this.httpClient = HttpClient.newBuilder()
-        .connectTimeout(Duration.ofSeconds(10))
-        .build();
+    this(baseUrl, () -> jwtToken);
+  }
+
+  /**
+   * Create a new BWS Management API client that takes a token per request, e.g. from a
+   * {@link ManagementTokenCache}.
+   * 
+   * @param baseUrl base URL of the Management API, or null for the default
+   * @param tokenSupplier supplies the JWT for each request
+   */
+  public BWSManagementClient(String baseUrl, Supplier<String> tokenSupplier) {
+    this(baseUrl, tokenSupplier, SHARED_HTTP_CLIENT);
+  }
+
+  BWSManagementClient(String baseUrl, Supplier<String> tokenSupplier, HttpClient httpClient) {
+    this.baseUrl = baseUrl != null && !baseUrl.isEmpty() ? baseUrl : DEFAULT_BASE_URL;
+    this.tokenSupplier = tokenSupplier;
+    this.httpClient = httpClient;
   }
 
   /**
@@ -58,41 +90,75 @@ public class BWSManagementClient implements AutoCloseable {
    * @throws Exception if API call fails
    */
   public int getClassCount(String clientId) throws Exception {
-    String url = baseUrl + "/client/classcount/" + clientId;
-    
-    logger.debug("Calling BWS Management API: GET {}", url);
-    
-    HttpRequest request = HttpRequest.newBuilder()
+    // Response should be just a number
+    String responseBody = get("/client/classcount/" + clientId).trim();
+    try {
+      int count = Integer.parseInt(responseBody);
+      logger.debug("BWS class count for client {}: {}", clientId, count);
+      return count;
+    } catch (NumberFormatException e) {
+      throw new Exception("Invalid response from BWS Management API: " + responseBody);
+    }
+  }
+
+  /**
+   * GET a resource, conditionally if a cached copy exists.
+   * 
+   * @param path path below the base URL
+   * @return response body
+   * @throws Exception if the API call fails
+   */
+  private String get(String path) throws Exception {
+    String url = baseUrl + path;
+    CachedResponse cached = RESPONSE_CACHE.get(url);
+
+    logger.debug("Calling BWS Management API: GET {}{}", url,
+        cached != null ? " (conditional)" : "");
+
+    HttpRequest.Builder request = HttpRequest.newBuilder()
         .uri(URI.create(url))
         .timeout(Duration.ofSeconds(30))
         .header("Accept", "application/json")
-        .header("Authorization", "Bearer " + jwtToken)
-        .GET()
-        .build();
-    
-    HttpResponse<String> response = httpClient.send(request, 
+        .header("Authorization", "Bearer " + tokenSupplier.get())
+        .GET();
+    if (cached != null && cached.etag() != null) {
+      request.header("If-None-Match", cached.etag());
+    }
+    if (cached != null && cached.lastModified() != null) {
+      request.header("If-Modified-Since", cached.lastModified());
+    }
+
+    HttpResponse<String> response = httpClient.send(request.build(),
         HttpResponse.BodyHandlers.ofString());
-    
+
+    if (response.statusCode() == 304 && cached != null) {
+      logger.debug("BWS Management API: {} not modified", url);
+      return cached.body();
+    }
+
+    if (response.statusCode() == 401 && tokenSupplier instanceof ManagementTokenCache tokens) {
+      tokens.invalidate();
+    }
+
     if (response.statusCode() != 200) {
-      String errorMsg = String.format("BWS Management API returned status %d: %s", 
+      String errorMsg = String.format("BWS Management API returned status %d: %s",
           response.statusCode(), response.body());
       logger.error(errorMsg);
       throw new Exception(errorMsg);
     }
-    
-    // Response should be just a number
-    String responseBody = response.body().trim();
-    try {
-      int count = Integer.parseInt(responseBody);
-      logger.debug("BWS class count for client {}: {}", clientId, count);
-      return count;
-    } catch (NumberFormatException e) {
-      throw new Exception("Invalid response from BWS Management API: " + responseBody);
+
+    String etag = response.headers().firstValue("ETag").orElse(null);
+    String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+    if (etag != null || lastModified != null) {
+      RESPONSE_CACHE.put(url, new CachedResponse(response.body(), etag, lastModified));
+    } else {
+      RESPONSE_CACHE.remove(url);
     }
+    return response.body();
   }
 
   @Override
   public void close() {
-    // HttpClient doesn't need explicit closing in Java 11+
+    // The HTTP client is shared by all instances and lives as long as the server
   }
 }
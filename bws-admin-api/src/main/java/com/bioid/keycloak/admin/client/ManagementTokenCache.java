@@ -0,0 +1,70 @@
+package com.bioid.keycloak.admin.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Caches the JWT for the BWS Management API generated from email and API key.
+ * 
+ * A token is signed once and reused until {@link #REFRESH_MARGIN} before it expires, so
+ * repeated Management API calls do not sign a new token each time. Regeneration is
+ * synchronized; concurrent callers wait for the one token being signed.
+ */
+public class ManagementTokenCache implements Supplier<String> {
+
+  private static final Logger logger = LoggerFactory.getLogger(ManagementTokenCache.class);
+
+  static final long TOKEN_LIFETIME_MINUTES = 60;
+  static final Duration REFRESH_MARGIN = Duration.ofMinutes(5);
+
+  private final String email;
+  private final String apiKey;
+  private final Clock clock;
+
+  private String token;
+  private Instant refreshAt = Instant.MIN;
+
+  public ManagementTokenCache(String email, String apiKey) {
+    this(email, apiKey, Clock.systemUTC());
+  }
+
+  ManagementTokenCache(String email, String apiKey, Clock clock) {
+    JwtTokenGenerator.validateCredentials(email, apiKey);
+    this.email = email;
+    this.apiKey = apiKey;
+    this.clock = clock;
+  }
+
+  /**
+   * @return a token valid for at least {@link #REFRESH_MARGIN}
+   */
+  @Override
+  public synchronized String get() {
+    Instant now = clock.instant();
+    if (token == null || !now.isBefore(refreshAt)) {
+      token = JwtTokenGenerator.generateToken(email, apiKey, TOKEN_LIFETIME_MINUTES);
+      refreshAt = now.plus(Duration.ofMinutes(TOKEN_LIFETIME_MINUTES)).minus(REFRESH_MARGIN);
+      logger.debug("Generated BWS Management API token, refreshing at {}", refreshAt);
+    }
+    return token;
+  }
+
+  /**
+   * Drop the cached token, e.g. after the API rejected it.
+   */
+  public synchronized void invalidate() {
+    token = null;
+  }
+
+  /**
+   * Whether this cache signs tokens for the given credentials.
+   */
+  public boolean isFor(String email, String apiKey) {
+    return this.email.equals(email) && this.apiKey.equals(apiKey);
+  }
+}
@@ -2,20 +2,32 @@ package com.bioid.keycloak.admin.rest;
 
 import com.bioid.keycloak.admin.security.AdminSecurityConfig;
 import com.bioid.keycloak.admin.service.BWSAdminService;
+import com.bioid.keycloak.admin.service.OrphanCleanupJob;
 import com.bioid.keycloak.admin.service.TemplateInfo;
+import com.bioid.keycloak.admin.service.TemplatePage;
 import com.bioid.keycloak.admin.service.ValidationResult;
 import com.bioid.keycloak.admin.service.AdminStats;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
 import org.keycloak.models.RoleModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
 import org.keycloak.services.managers.AppAuthManager;
 import org.keycloak.services.managers.AuthenticationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
@@ -42,6 +54,13 @@ public class BWSAdminResource {
 
   private static final Logger logger = LoggerFactory.getLogger(BWSAdminResource.class);
   
+  private static final int MAX_PAGE_SIZE = 1000;
+  private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  private static final ObjectMapper JSON = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+  
   private final KeycloakSession session;
   private final BWSAdminService adminService;
   private final AdminSecurityConfig securityConfig;
@@ -96,20 +115,33 @@ public class BWSAdminResource {
   }
 
   /**
-   * List all enrolled face templates.
+   * List enrolled face templates.
    * 
-   * Returns a list of all face templates with user information including:
+   * Returns a JSON array of face templates with user information including:
    * - Class ID
    * - Username and email
    * - Enrollment date
    * - Status (active or orphaned)
    * 
+   * With {@code limit}, one page is returned and the cursor of the next page is sent in the
+   * {@code X-Next-Cursor} header (absent on the last page). Without it, all templates after
+   * {@code cursor} are streamed page by page with a JSON generator, in constant memory.
+   * 
+   * With {@code details=true}, a page is enriched with its BWS template status (encoder
+   * version, feature vectors, thumbnails). The calls run in parallel and share a deadline;
+   * templates BWS did not answer for in time have {@code bwsStatus} {@code PENDING}.
+   * 
+   * @param cursor cursor of the page to return, or none to start at the beginning
+   * @param limit page size (1 to {@value #MAX_PAGE_SIZE}), or none to stream everything
+   * @param details whether to add the BWS status to each template of a page
    * @return list of template information
    */
   @GET
   @Path("/templates")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response listAllTemplates() {
+  public Response listAllTemplates(@QueryParam("cursor") String cursor,
+                                   @QueryParam("limit") Integer limit,
+                                   @QueryParam("details") boolean details) {
     logger.info("GET /bws-admin/templates called");
 
     try {
@@ -119,18 +151,40 @@ public class BWSAdminResource {
         return unauthorizedResponse();
       }
 
-      // Get all templates
-      List<TemplateInfo> templates = adminService.listAllTemplates();
+      if (limit != null && (limit < 1 || limit > MAX_PAGE_SIZE)) {
+        return Response.status(Response.Status.BAD_REQUEST)
+            .entity(Map.of("error", "limit must be between 1 and " + MAX_PAGE_SIZE))
+            .header("Access-Control-Allow-Origin", "*")
+            .build();
+      }
+
+      if (limit == null) {
+        return Response.ok(streamTemplates(admin, cursor))
+            .header("Access-Control-Allow-Origin", "*")
+            .build();
+      }
+
+      // Get one page of templates
+      TemplatePage page = adminService.listTemplates(cursor, limit);
+      if (details) {
+        adminService.enrichTemplates(page.getTemplates(), securityConfig.getStatusConcurrency(),
+            Duration.ofMillis(securityConfig.getStatusDeadlineMs()));
+      }
       
       // Audit log
       adminService.auditLog(admin.getId(), "LIST_TEMPLATES", 
-          Map.of("count", templates.size()));
+          Map.of("count", page.getTemplates().size()));
       
-      logger.info("Admin {} listed {} templates", admin.getUsername(), templates.size());
+      logger.info("Admin {} listed {} templates", admin.getUsername(), page.getTemplates().size());
 
-      return Response.ok(templates)
+      List<TemplateInfo> templates = page.getTemplates();
+      Response.ResponseBuilder response = Response.ok((StreamingOutput) output -> JSON.writeValue(output, templates))
           .header("Access-Control-Allow-Origin", "*")
-          .build();
+          .header("Access-Control-Expose-Headers", NEXT_CURSOR_HEADER);
+      if (page.getNextCursor() != null) {
+        response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+      }
+      return response.build();
 
     } catch (Exception e) {
       logger.error("Error listing templates", e);
@@ -138,6 +192,41 @@ public class BWSAdminResource {
     }
   }
 
+  /**
+   * Stream all templates after a cursor as a JSON array.
+   * 
+   * The body is written after the request has been handled, so it reads the templates in its
+   * own session and transaction.
+   */
+  private StreamingOutput streamTemplates(UserModel admin, String cursor) {
+    KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+    String realmId = session.getContext().getRealm().getId();
+    String adminId = admin.getId();
+    String adminName = admin.getUsername();
+    
+    return output -> {
+      try (JsonGenerator generator = JSON.getFactory().createGenerator(output)) {
+        generator.writeStartArray();
+        long count = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, streamSession -> {
+          streamSession.getContext().setRealm(streamSession.realms().getRealm(realmId));
+          return new BWSAdminService(streamSession).forEachTemplate(cursor, template -> {
+            try {
+              generator.writeObject(template);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+        });
+        generator.writeEndArray();
+        
+        adminService.auditLog(adminId, "LIST_TEMPLATES", Map.of("count", count));
+        logger.info("Admin {} listed {} templates", adminName, count);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    };
+  }
+
   /**
    * Get details for a specific template.
    * 
@@ -346,10 +435,13 @@ public class BWSAdminResource {
   /**
    * Delete all orphaned templates.
    * 
-   * Bulk deletes all templates that exist in BWS but have no Keycloak user.
+   * Starts a background job that deletes the BWS templates of all orphaned users in parallel
+   * and clears their class ID index, and returns at once with {@code 202 Accepted} and the
+   * job's progress. Poll {@code GET /orphaned/cleanup} for progress. If a cleanup is already
+   * running in the realm, its progress is returned instead of starting another.
    * This operation is irreversible.
    * 
-   * @return deletion result with count
+   * @return progress of the cleanup job
    */
   @DELETE
   @Path("/orphaned")
@@ -364,21 +456,18 @@ public class BWSAdminResource {
         return unauthorizedResponse();
       }
 
-      // Delete all orphaned templates
-      int deletedCount = adminService.deleteAllOrphaned();
+      // Start deleting all orphaned templates
+      OrphanCleanupJob.Progress progress =
+          adminService.startOrphanCleanup(securityConfig.getDeleteConcurrency());
       
       // Audit log
       adminService.auditLog(admin.getId(), "DELETE_ALL_ORPHANED", 
-          Map.of("deletedCount", deletedCount));
+          Map.of("jobId", progress.jobId(), "orphanedCount", progress.total()));
       
-      logger.info("Admin {} deleted {} orphaned templates", 
-          admin.getUsername(), deletedCount);
+      logger.info("Admin {} started orphan cleanup {} for {} users", 
+          admin.getUsername(), progress.jobId(), progress.total());
 
-      return Response.ok(Map.of(
-          "success", true,
-          "deletedCount", deletedCount,
-          "message", "Deleted " + deletedCount + " orphaned template(s)"
-      ))
+      return Response.accepted(progress)
           .header("Access-Control-Allow-Origin", "*")
           .build();
 
@@ -388,6 +477,86 @@ public class BWSAdminResource {
     }
   }
 
+  /**
+   * Get the progress of the latest orphaned template cleanup.
+   * 
+   * @return progress of the cleanup job
+   */
+  @GET
+  @Path("/orphaned/cleanup")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getOrphanCleanup() {
+    logger.debug("GET /bws-admin/orphaned/cleanup called");
+
+    try {
+      // Authenticate and authorize
+      UserModel admin = authenticateAndAuthorize();
+      if (admin == null) {
+        return unauthorizedResponse();
+      }
+
+      OrphanCleanupJob.Progress progress = adminService.getOrphanCleanupProgress();
+      if (progress == null) {
+        return Response.status(Response.Status.NOT_FOUND)
+            .entity(Map.of("error", "No orphan cleanup started"))
+            .header("Access-Control-Allow-Origin", "*")
+            .build();
+      }
+
+      return Response.ok(progress)
+          .header("Access-Control-Allow-Origin", "*")
+          .build();
+
+    } catch (Exception e) {
+      logger.error("Error getting orphan cleanup progress", e);
+      return errorResponse("Failed to get orphan cleanup progress: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Cancel the running orphaned template cleanup.
+   * 
+   * Delete calls already in flight finish; templates deleted so far stay deleted.
+   * 
+   * @return progress of the cleanup job
+   */
+  @DELETE
+  @Path("/orphaned/cleanup")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response cancelOrphanCleanup() {
+    logger.info("DELETE /bws-admin/orphaned/cleanup called");
+
+    try {
+      // Authenticate and authorize
+      UserModel admin = authenticateAndAuthorize();
+      if (admin == null) {
+        return unauthorizedResponse();
+      }
+
+      OrphanCleanupJob.Progress progress = adminService.cancelOrphanCleanup();
+      if (progress == null) {
+        return Response.status(Response.Status.NOT_FOUND)
+            .entity(Map.of("error", "No orphan cleanup started"))
+            .header("Access-Control-Allow-Origin", "*")
+            .build();
+      }
+      
+      // Audit log
+      adminService.auditLog(admin.getId(), "CANCEL_ORPHAN_CLEANUP", 
+          Map.of("jobId", progress.jobId()));
+      
+      logger.info("Admin {} cancelled orphan cleanup {}", admin.getUsername(), progress.jobId());
+
+      return Response.ok(progress)
+          .header("Access-Control-Allow-Origin", "*")
+          .build();
+
+    } catch (Exception e) {
+      logger.error("Error cancelling orphan cleanup", e);
+      return errorResponse("Failed to cancel orphan cleanup: " + e.getMessage());
+    }
+  }
+
   /**
    * CORS preflight handler for stats endpoint.
    */
@@ -433,6 +602,15 @@ public class BWSAdminResource {
     return corsResponse();
   }
 
+  /**
+   * CORS preflight handler for orphan cleanup endpoint.
+   */
+  @OPTIONS
+  @Path("/orphaned/cleanup")
+  public Response orphanCleanupOptions() {
+    return corsResponse();
+  }
+
   // ============================================================================
   // Private Helper Methods
   // ============================================================================
@@ -1,5 +1,8 @@
 package com.bioid.keycloak.admin.rest;
 
+import com.bioid.keycloak.admin.service.AdminStatisticsJob;
+import com.bioid.keycloak.admin.service.OrphanCleanupJob;
+import com.bioid.keycloak.admin.service.TemplateStatusEnricher;
 import org.keycloak.Config;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -23,6 +26,8 @@ public class BWSAdminResourceProviderFactory implements RealmResourceProviderFac
   
   public static final String ID = "bws-admin";
 
+  private AdminStatisticsJob statisticsJob;
+
   @Override
   public RealmResourceProvider create(KeycloakSession session) {
     return new BWSAdminResourceProvider(session);
@@ -36,14 +41,19 @@ public class BWSAdminResourceProviderFactory implements RealmResourceProviderFac
 
   @Override
   public void postInit(KeycloakSessionFactory factory) {
+    statisticsJob = new AdminStatisticsJob(factory);
+    statisticsJob.start();
     logger.info("BWS Admin API initialized successfully");
-    // No post-initialization needed
   }
 
   @Override
   public void close() {
     logger.info("Closing BWS Admin API");
-    // No resources to close
+    if (statisticsJob != null) {
+      statisticsJob.stop();
+    }
+    OrphanCleanupJob.cancelAll();
+    TemplateStatusEnricher.shutdown();
   }
 
   @Override
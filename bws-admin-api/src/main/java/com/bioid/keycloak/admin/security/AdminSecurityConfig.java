@@ -27,11 +27,17 @@ public class AdminSecurityConfig {
   private static final String DEFAULT_ADMIN_ROLE = "bws-admin";
   private static final int DEFAULT_RATE_LIMIT_PER_MINUTE = 60;
   private static final boolean DEFAULT_AUDIT_ENABLED = true;
+  private static final int DEFAULT_STATUS_CONCURRENCY = 32;
+  private static final int DEFAULT_STATUS_DEADLINE_MS = 2000;
+  private static final int DEFAULT_DELETE_CONCURRENCY = 16;
   
   private final KeycloakSession session;
   private final String adminRoleName;
   private final int rateLimitPerMinute;
   private final boolean auditEnabled;
+  private final int statusConcurrency;
+  private final int statusDeadlineMs;
+  private final int deleteConcurrency;
   private final Set<String> ipWhitelist;
   private final Set<String> ipBlacklist;
 
@@ -42,6 +48,12 @@ public class AdminSecurityConfig {
     this.adminRoleName = getConfigValue("bws.admin.role", DEFAULT_ADMIN_ROLE);
     this.rateLimitPerMinute = getConfigIntValue("bws.admin.rateLimit", DEFAULT_RATE_LIMIT_PER_MINUTE);
     this.auditEnabled = getConfigBoolValue("bws.admin.auditEnabled", DEFAULT_AUDIT_ENABLED);
+    this.statusConcurrency = Math.max(1,
+        getConfigIntValue("bws.admin.statusConcurrency", DEFAULT_STATUS_CONCURRENCY));
+    this.statusDeadlineMs = Math.max(1,
+        getConfigIntValue("bws.admin.statusDeadlineMs", DEFAULT_STATUS_DEADLINE_MS));
+    this.deleteConcurrency = Math.max(1,
+        getConfigIntValue("bws.admin.deleteConcurrency", DEFAULT_DELETE_CONCURRENCY));
     this.ipWhitelist = loadIpList("bws.admin.ipWhitelist");
     this.ipBlacklist = loadIpList("bws.admin.ipBlacklist");
     
@@ -76,6 +88,33 @@ public class AdminSecurityConfig {
     return auditEnabled;
   }
 
+  /**
+   * Gets the maximum number of concurrent BWS status calls per template page.
+   * 
+   * @return concurrent calls allowed (default: 32)
+   */
+  public int getStatusConcurrency() {
+    return statusConcurrency;
+  }
+
+  /**
+   * Gets the time allowed for the BWS status calls of one template page.
+   * 
+   * @return deadline in milliseconds (default: 2000)
+   */
+  public int getStatusDeadlineMs() {
+    return statusDeadlineMs;
+  }
+
+  /**
+   * Gets the maximum number of concurrent BWS delete calls of an orphan cleanup.
+   * 
+   * @return concurrent calls allowed (default: 16)
+   */
+  public int getDeleteConcurrency() {
+    return deleteConcurrency;
+  }
+
   /**
    * Checks if an IP address is allowed.
    * 
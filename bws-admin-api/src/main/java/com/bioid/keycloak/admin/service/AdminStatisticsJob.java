@@ -0,0 +1,209 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.admin.client.BWSManagementClient;
+import com.bioid.keycloak.admin.client.ManagementTokenCache;
+import com.bioid.keycloak.client.config.BioIdConfiguration;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.TimerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Background work behind {@code GET /stats}.
+ * 
+ * The face template counters of each realm are maintained incrementally when credentials
+ * change (see {@link com.bioid.keycloak.credential.FaceTemplateStatistics}). This job
+ * rebuilds them from the credential table every {@value #RECONCILE_INTERVAL_MINUTES} minutes
+ * to correct drift, on one node per interval, and refreshes the BWS class count from the
+ * Management API every {@value #BWS_REFRESH_INTERVAL_MINUTES} minutes on every node. Requests
+ * only read the stored counters and the last fetched class count.
+ */
+public class AdminStatisticsJob {
+
+  private static final Logger logger = LoggerFactory.getLogger(AdminStatisticsJob.class);
+
+  static final String RECONCILE_TASK_NAME = "bws-admin-statistics-reconcile";
+  static final String BWS_TASK_NAME = "bws-admin-class-count";
+  static final int RECONCILE_INTERVAL_MINUTES = 60;
+  static final int BWS_REFRESH_INTERVAL_MINUTES = 5;
+
+  private static volatile BwsClassCount bwsClassCount;
+  private static ManagementTokenCache tokenCache;
+
+  private final KeycloakSessionFactory sessionFactory;
+
+  public AdminStatisticsJob(KeycloakSessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  /**
+   * Last BWS class count fetched by this node.
+   * 
+   * @param count number of classes, or null if the fetch failed
+   * @param error error message of a failed fetch
+   * @param fetchedAt time of the fetch
+   */
+  public record BwsClassCount(Integer count, String error, Instant fetchedAt) {
+  }
+
+  /**
+   * @return the last BWS class count, or null if none has been fetched yet
+   */
+  public static BwsClassCount getBwsClassCount() {
+    return bwsClassCount;
+  }
+
+  /**
+   * Schedule both tasks and run them once in the background.
+   */
+  public void start() {
+    KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+      TimerProvider timer = session.getProvider(TimerProvider.class);
+      timer.schedule(this::reconcileIfNotRunElsewhere,
+          Duration.ofMinutes(RECONCILE_INTERVAL_MINUTES).toMillis(), RECONCILE_TASK_NAME);
+      timer.schedule(AdminStatisticsJob::refreshBwsClassCount,
+          Duration.ofMinutes(BWS_REFRESH_INTERVAL_MINUTES).toMillis(), BWS_TASK_NAME);
+    });
+    logger.info("Scheduled BWS admin statistics reconciliation every {} minutes",
+        RECONCILE_INTERVAL_MINUTES);
+    CompletableFuture.runAsync(AdminStatisticsJob::refreshBwsClassCount);
+    CompletableFuture.runAsync(this::reconcileIfNotRunElsewhere);
+  }
+
+  /**
+   * Cancel the scheduled tasks.
+   */
+  public void stop() {
+    try {
+      KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+        TimerProvider timer = session.getProvider(TimerProvider.class);
+        timer.cancelTask(RECONCILE_TASK_NAME);
+        timer.cancelTask(BWS_TASK_NAME);
+      });
+    } catch (Exception e) {
+      logger.debug("Could not cancel BWS admin statistics tasks: {}", e.getMessage());
+    }
+  }
+
+  private void reconcileIfNotRunElsewhere() {
+    int intervalSeconds = (int) Duration.ofMinutes(RECONCILE_INTERVAL_MINUTES).toSeconds();
+    try {
+      KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+        ExecutionResult<Integer> result = session.getProvider(ClusterProvider.class)
+            .executeIfNotExecuted(RECONCILE_TASK_NAME, intervalSeconds, this::reconcileAll);
+        if (!result.isExecuted()) {
+          logger.debug("BWS admin statistics already reconciled by another node");
+        }
+      });
+    } catch (Exception e) {
+      logger.warn("BWS admin statistics reconciliation failed: {}", e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Rebuild the counters of all realms, one transaction per realm.
+   * 
+   * @return number of realms reconciled
+   */
+  int reconcileAll() {
+    List<String> realmIds = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory,
+        session -> session.realms().getRealmsStream().map(RealmModel::getId).toList());
+    int reconciled = 0;
+    for (String realmId : realmIds) {
+      try {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+          RealmModel realm = session.realms().getRealm(realmId);
+          if (realm != null) {
+            session.getContext().setRealm(realm);
+            new BWSAdminService(session).reconcileStatistics();
+          }
+        });
+        reconciled++;
+      } catch (Exception e) {
+        logger.warn("Failed to reconcile face template statistics of realm {}: {}", realmId,
+            e.getMessage());
+      }
+    }
+    logger.info("Reconciled face template statistics of {} realms", reconciled);
+    return reconciled;
+  }
+
+  /**
+   * Fetch the BWS class count and keep it for {@link #getBwsClassCount()}.
+   */
+  static void refreshBwsClassCount() {
+    try {
+      int count = fetchBwsClassCount();
+      bwsClassCount = new BwsClassCount(count, null, Instant.now());
+      logger.debug("BWS reports {} classes", count);
+    } catch (Exception e) {
+      logger.warn("Failed to get BWS class count: {}", e.getMessage());
+      bwsClassCount = new BwsClassCount(null, e.getMessage(), Instant.now());
+    }
+  }
+
+  /**
+   * Get the number of classes enrolled in BWS using the Management API.
+   * 
+   * A token generated from email and API key is cached by {@link ManagementTokenCache} and
+   * only signed again shortly before it expires.
+   * 
+   * @return number of classes in BWS
+   * @throws Exception if BWS API call fails
+   */
+  private static int fetchBwsClassCount() throws Exception {
+    try {
+      BioIdConfiguration config = BioIdConfiguration.getInstance();
+
+      // Get Management API configuration
+      String managementUrl = config.getManagementUrl();
+      String jwtToken = config.getManagementJwtToken();
+      String clientId = config.getClientId();
+
+      if (clientId == null || clientId.isEmpty()) {
+        throw new Exception("BWS Client ID not configured");
+      }
+
+      // Use the configured token, or one generated from email and API key
+      Supplier<String> tokens;
+      if (jwtToken != null && !jwtToken.isEmpty()) {
+        tokens = () -> jwtToken;
+      } else {
+        String email = config.getManagementEmail();
+        String apiKey = config.getManagementApiKey();
+
+        if (email != null && !email.trim().isEmpty() &&
+            apiKey != null && !apiKey.trim().isEmpty()) {
+          tokens = tokenCacheFor(email, apiKey);
+        } else {
+          throw new Exception("BWS Management JWT token not configured. " +
+              "Set either bws.management.jwtToken OR both bws.management.email " +
+              "and bws.management.apiKey in bioid.properties or environment variables");
+        }
+      }
+
+      // Call BWS Management API (REST) over the shared HTTP client
+      return new BWSManagementClient(managementUrl, tokens).getClassCount(clientId);
+
+    } catch (Exception e) {
+      throw new Exception("BWS Management API error: " + e.getMessage());
+    }
+  }
+
+  private static synchronized ManagementTokenCache tokenCacheFor(String email, String apiKey) {
+    if (tokenCache == null || !tokenCache.isFor(email, apiKey)) {
+      tokenCache = new ManagementTokenCache(email, apiKey);
+    }
+    return tokenCache;
+  }
+}
@@ -12,6 +12,7 @@ public class AdminStats {
   private Instant lastEnrollment;
   private Integer bwsClassCount; // Count from BWS Management API
   private String bwsError; // Error message if BWS call failed
+  private Instant bwsClassCountUpdatedAt; // When the BWS class count was fetched
 
   public int getTotalTemplates() {
     return totalTemplates;
@@ -60,4 +61,12 @@ public class AdminStats {
   public void setBwsError(String bwsError) {
     this.bwsError = bwsError;
   }
+
+  public Instant getBwsClassCountUpdatedAt() {
+    return bwsClassCountUpdatedAt;
+  }
+
+  public void setBwsClassCountUpdatedAt(Instant bwsClassCountUpdatedAt) {
+    this.bwsClassCountUpdatedAt = bwsClassCountUpdatedAt;
+  }
 }
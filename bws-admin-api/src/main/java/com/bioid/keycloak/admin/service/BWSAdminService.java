@@ -1,19 +1,24 @@
 package com.bioid.keycloak.admin.service;
 
 import com.bioid.keycloak.client.BioIdClient;
-import com.bioid.keycloak.client.config.BioIdConfiguration;
+import com.bioid.keycloak.credential.ClassIdIndexBackfillJob;
 import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.credential.FaceTemplateStatistics;
 import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Service layer for BWS admin operations.
@@ -33,6 +38,8 @@ import java.util.stream.Collectors;
 public class BWSAdminService {
 
   private static final Logger logger = LoggerFactory.getLogger(BWSAdminService.class);
+
+  static final int ORPHAN_PAGE_SIZE = 200;
   
   private final KeycloakSession session;
   private final RealmModel realm;
@@ -45,46 +52,38 @@ public class BWSAdminService {
   /**
    * Get aggregated statistics about face templates.
    * 
+   * Reads the realm's incrementally maintained counters and the BWS class count last fetched
+   * by {@link AdminStatisticsJob}; no users or credentials are scanned and BWS is not called.
+   * A realm without counters is reconciled once.
+   * 
    * @return statistics object
    */
   public AdminStats getStatistics() {
     logger.debug("Getting admin statistics");
 
     try {
-      // Get all users with face credentials
-      List<UserModel> usersWithFace = getUsersWithFaceCredentials();
-      
-      // Count total templates in Keycloak
-      int totalTemplates = usersWithFace.size();
-      
-      // Get last enrollment date
-      Instant lastEnrollment = usersWithFace.stream()
-          .map(this::getFaceCredentialEnrollmentDate)
-          .filter(Objects::nonNull)
-          .max(Instant::compareTo)
-          .orElse(null);
-      
-      // Count potentially orphaned (users with classId but no credential)
-      int orphanedTemplates = findOrphanedTemplates().size();
+      FaceTemplateStatistics counters = FaceTemplateStatistics.of(session, realm);
+      if (counters == null) {
+        counters = reconcileStatistics();
+      }
       
       AdminStats stats = new AdminStats();
-      stats.setTotalTemplates(totalTemplates);
-      stats.setActiveUsers(totalTemplates);
-      stats.setOrphanedTemplates(orphanedTemplates);
-      stats.setLastEnrollment(lastEnrollment);
-      
-      // Try to get BWS class count
-      try {
-        Integer bwsCount = getBWSClassCount();
-        stats.setBwsClassCount(bwsCount);
-        logger.debug("BWS reports {} classes", bwsCount);
-      } catch (Exception e) {
-        logger.warn("Failed to get BWS class count: {}", e.getMessage());
-        stats.setBwsError(e.getMessage());
+      stats.setTotalTemplates((int) counters.getTemplates());
+      stats.setActiveUsers((int) counters.getUsers());
+      stats.setOrphanedTemplates((int) counters.getOrphaned());
+      stats.setLastEnrollment(counters.getLastEnrollment());
+      
+      AdminStatisticsJob.BwsClassCount bwsCount = AdminStatisticsJob.getBwsClassCount();
+      if (bwsCount != null) {
+        stats.setBwsClassCount(bwsCount.count());
+        stats.setBwsError(bwsCount.error());
+        stats.setBwsClassCountUpdatedAt(bwsCount.fetchedAt());
+      } else {
+        stats.setBwsError("BWS class count not yet available");
       }
       
       logger.debug("Statistics: {} Keycloak templates, {} active users, {} orphaned", 
-          totalTemplates, totalTemplates, orphanedTemplates);
+          stats.getTotalTemplates(), stats.getActiveUsers(), stats.getOrphanedTemplates());
       
       return stats;
       
@@ -95,105 +94,45 @@ public class BWSAdminService {
   }
 
   /**
-   * Get the number of classes enrolled in BWS using the Management API.
+   * Recompute the realm's face template counters from the credential table and store them.
    * 
-   * @return number of classes in BWS
-   * @throws Exception if BWS API call fails
+   * @return the stored counters
    */
-  private Integer getBWSClassCount() throws Exception {
-    try {
-      BioIdConfiguration config = BioIdConfiguration.getInstance();
-      
-      // Get Management API configuration
-      String managementUrl = config.getManagementUrl();
-      String jwtToken = config.getManagementJwtToken();
-      String clientId = config.getClientId();
-      
-      // If JWT token not directly provided, try to generate from email and API key
-      if (jwtToken == null || jwtToken.isEmpty()) {
-        String email = config.getManagementEmail();
-        String apiKey = config.getManagementApiKey();
-        
-        if (email != null && !email.trim().isEmpty() && 
-            apiKey != null && !apiKey.trim().isEmpty()) {
-          try {
-            // Generate JWT token
-            jwtToken = com.bioid.keycloak.admin.client.JwtTokenGenerator.generateToken(
-                email, apiKey);
-            logger.info("Auto-generated JWT token from email and API key");
-          } catch (Exception e) {
-            logger.error("Failed to generate JWT token from email and API key", e);
-            throw new Exception("Failed to generate JWT token: " + e.getMessage());
-          }
-        } else {
-          throw new Exception("BWS Management JWT token not configured. " +
-              "Set either bws.management.jwtToken OR both bws.management.email " +
-              "and bws.management.apiKey in bioid.properties or environment variables");
-        }
-      }
-      
-      if (clientId == null || clientId.isEmpty()) {
-        throw new Exception("BWS Client ID not configured");
-      }
-      
-      // Call BWS Management API (REST)
-      com.bioid.keycloak.admin.client.BWSManagementClient managementClient;
-      if (managementUrl != null && !managementUrl.isEmpty()) {
-        managementClient = new com.bioid.keycloak.admin.client.BWSManagementClient(
-            managementUrl, jwtToken);
-      } else {
-        managementClient = new com.bioid.keycloak.admin.client.BWSManagementClient(jwtToken);
-      }
-      
-      try {
-        int count = managementClient.getClassCount(clientId);
-        logger.debug("BWS class count: {}", count);
-        return count;
-      } finally {
-        managementClient.close();
-      }
-      
-    } catch (Exception e) {
-      logger.error("Failed to get BWS class count", e);
-      throw new Exception("BWS Management API error: " + e.getMessage());
-    }
+  public FaceTemplateStatistics reconcileStatistics() {
+    FaceTemplateQuery query = new FaceTemplateQuery(session, realm);
+    FaceTemplateQuery.Summary summary = query.summary();
+    long orphaned = query.countOrphaned();
+    logger.debug("Reconciled statistics of realm {}: {} templates, {} users, {} orphaned",
+        realm.getName(), summary.credentials(), summary.users(), orphaned);
+    return FaceTemplateStatistics.store(session, realm, summary.credentials(), summary.users(),
+        orphaned, summary.lastEnrollment());
   }
 
   /**
-   * List all face templates with user information.
+   * List one page of face templates with user information.
    * 
-   * @return list of template information
+   * @param cursor cursor returned with the previous page, or null for the first page
+   * @param limit maximum number of templates in the page
+   * @return templates and the cursor of the next page
    */
-  public List<TemplateInfo> listAllTemplates() {
-    logger.debug("Listing all templates");
+  public TemplatePage listTemplates(String cursor, int limit) {
+    logger.debug("Listing templates after cursor {} (limit {})", cursor, limit);
 
     try {
-      List<UserModel> usersWithFace = getUsersWithFaceCredentials();
-      
-      List<TemplateInfo> templates = new ArrayList<>();
-      
-      for (UserModel user : usersWithFace) {
-        CredentialModel credentialModel = getFaceCredential(user);
-        if (credentialModel != null) {
-          FaceCredentialModel faceCredential = 
-              FaceCredentialModel.createFromCredentialModel(credentialModel);
-          
-          if (faceCredential != null) {
-            TemplateInfo info = new TemplateInfo();
-            info.setClassId(String.valueOf(faceCredential.getClassId()));
-            info.setUsername(user.getUsername());
-            info.setEmail(user.getEmail());
-            info.setEnrolledAt(getFaceCredentialEnrollmentDate(user));
-            info.setKeycloakUserExists(true);
-            
-            templates.add(info);
-          }
-        }
+      // Fetch one extra row to learn whether there is a next page
+      List<FaceTemplateQuery.TemplateRow> rows =
+          new FaceTemplateQuery(session, realm).page(cursor, limit + 1);
+      
+      boolean hasMore = rows.size() > limit;
+      List<TemplateInfo> templates = new ArrayList<>(Math.min(rows.size(), limit));
+      for (FaceTemplateQuery.TemplateRow row : rows.subList(0, Math.min(rows.size(), limit))) {
+        templates.add(row.toTemplateInfo());
       }
+      String nextCursor = hasMore ? rows.get(limit - 1).credentialId() : null;
       
       logger.debug("Found {} templates", templates.size());
       
-      return templates;
+      return new TemplatePage(templates, nextCursor);
       
     } catch (Exception e) {
       logger.error("Error listing templates", e);
@@ -201,6 +140,41 @@ public class BWSAdminService {
     }
   }
 
+  /**
+   * Visit all face templates after a cursor without holding them in memory.
+   * 
+   * @param cursor cursor to continue after, or null to start at the beginning
+   * @param consumer receives each template
+   * @return number of templates visited
+   */
+  public long forEachTemplate(String cursor, Consumer<TemplateInfo> consumer) {
+    logger.debug("Streaming templates after cursor {}", cursor);
+    return new FaceTemplateQuery(session, realm)
+        .forEach(cursor, row -> consumer.accept(row.toTemplateInfo()));
+  }
+
+  /**
+   * Add the BWS template status to a page of templates.
+   * 
+   * Status calls run in parallel, bounded by {@code concurrency}; templates whose call has not
+   * completed by the deadline are marked {@link TemplateStatusEnricher#STATUS_PENDING}.
+   * 
+   * @param templates templates to enrich
+   * @param concurrency maximum number of concurrent BWS calls
+   * @param deadline time allowed for the whole page
+   */
+  public void enrichTemplates(List<TemplateInfo> templates, int concurrency, Duration deadline) {
+    if (templates.isEmpty()) {
+      return;
+    }
+    BioIdClient client = getBioIdClient();
+    if (client == null) {
+      templates.forEach(t -> t.setBwsStatus(TemplateStatusEnricher.STATUS_ERROR));
+      return;
+    }
+    new TemplateStatusEnricher(client, concurrency, deadline).enrich(templates);
+  }
+
   /**
    * Get details for a specific template.
    * 
@@ -240,18 +214,14 @@ public class BWSAdminService {
       
       // Try to get additional details from BWS
       try {
-        BioIdClient client = createBioIdClient();
+        BioIdClient client = getBioIdClient();
         if (client != null) {
-          try {
-            BioIdClient.TemplateStatusDetails status = 
-                client.getTemplateStatusDetails(classId, false);
-            
-            info.setEncoderVersion(String.valueOf(status.getEncoderVersion()));
-            info.setFeatureVectors(status.getFeatureVectors());
-            info.setThumbnailsStored(status.getThumbnailsStored());
-          } finally {
-            client.close();
-          }
+          BioIdClient.TemplateStatusDetails status = 
+              client.getTemplateStatusDetails(classId, false);
+          
+          info.setEncoderVersion(String.valueOf(status.getEncoderVersion()));
+          info.setFeatureVectors(status.getFeatureVectors());
+          info.setThumbnailsStored(status.getThumbnailsStored());
         }
       } catch (Exception e) {
         logger.warn("Failed to get BWS template details for classId: {}", classId, e);
@@ -285,14 +255,10 @@ public class BWSAdminService {
       
       // Delete from BWS first
       try {
-        BioIdClient client = createBioIdClient();
+        BioIdClient client = getBioIdClient();
         if (client != null) {
-          try {
-            client.deleteTemplate(classId);
-            logger.info("Deleted BWS template for classId: {}", classId);
-          } finally {
-            client.close();
-          }
+          client.deleteTemplate(classId);
+          logger.info("Deleted BWS template for classId: {}", classId);
         }
       } catch (Exception e) {
         logger.warn("Failed to delete BWS template for classId: {}", classId, e);
@@ -306,6 +272,8 @@ public class BWSAdminService {
             .removeStoredCredentialById(credentialModel.getId());
         
         if (deleted) {
+          FaceCredentialProvider.updateClassIdIndex(user);
+          FaceTemplateStatistics.recordChange(session, realm, user, -1);
           logger.info("Deleted Keycloak credential for classId: {}", classId);
           return true;
         }
@@ -330,20 +298,13 @@ public class BWSAdminService {
     try {
       ValidationResult result = new ValidationResult();
       
-      // Get all Keycloak users with face credentials
-      List<UserModel> usersWithFace = getUsersWithFaceCredentials();
-      Set<String> keycloakClassIds = new HashSet<>();
-      
-      for (UserModel user : usersWithFace) {
-        CredentialModel credentialModel = getFaceCredential(user);
-        if (credentialModel != null) {
-          FaceCredentialModel faceCredential = 
-              FaceCredentialModel.createFromCredentialModel(credentialModel);
-          if (faceCredential != null) {
-            keycloakClassIds.add(String.valueOf(faceCredential.getClassId()));
-          }
+      // Collect the class IDs of all face credentials in Keycloak
+      Set<Long> keycloakClassIds = new HashSet<>();
+      new FaceTemplateQuery(session, realm).forEach(null, row -> {
+        if (row.classId() != null) {
+          keycloakClassIds.add(row.classId());
         }
-      }
+      });
       
       // Note: To find orphaned templates, we would need BWS Management API
       // to list all class IDs in BWS and compare with Keycloak
@@ -371,6 +332,9 @@ public class BWSAdminService {
    * but no actual face credential. True orphaned templates (in BWS but not
    * in Keycloak) cannot be detected without additional tracking.
    * 
+   * The users are read with the same query whose count {@link #getStatistics()} reports
+   * and {@link #startOrphanCleanup(int)} cleans up, in pages of {@value #ORPHAN_PAGE_SIZE}.
+   * 
    * @return list of potentially orphaned templates
    */
   public List<TemplateInfo> findOrphanedTemplates() {
@@ -379,18 +343,18 @@ public class BWSAdminService {
     List<TemplateInfo> orphaned = new ArrayList<>();
     
     try {
-      // Find all users with classId attribute
-      session.users().searchForUserByUserAttributeStream(realm, "classId", "")
-          .forEach(user -> {
-            String classId = user.getFirstAttribute("classId");
-            if (classId != null && !classId.isEmpty()) {
-              // Check if user has actual face credential
-              boolean hasCredential = user.credentialManager()
-                  .getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE)
-                  .findAny()
-                  .isPresent();
-              
-              if (!hasCredential) {
+      FaceTemplateQuery query = new FaceTemplateQuery(session, realm);
+      String cursor = null;
+      while (true) {
+        List<String> userIds = query.orphanedUserIds(cursor, ORPHAN_PAGE_SIZE);
+        for (String userId : userIds) {
+          UserModel user = session.users().getUserById(realm, userId);
+          if (user == null) {
+            continue;
+          }
+          user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+              .filter(classId -> classId != null && !classId.isEmpty())
+              .forEach(classId -> {
                 // User has classId but no credential - potentially orphaned
                 TemplateInfo info = new TemplateInfo();
                 info.setClassId(classId);
@@ -402,9 +366,13 @@ public class BWSAdminService {
                 
                 logger.debug("Found potentially orphaned template: classId={}, user={}", 
                     classId, user.getUsername());
-              }
-            }
-          });
+              });
+        }
+        if (userIds.size() < ORPHAN_PAGE_SIZE) {
+          break;
+        }
+        cursor = userIds.get(userIds.size() - 1);
+      }
       
       logger.info("Found {} potentially orphaned templates", orphaned.size());
       
@@ -416,36 +384,50 @@ public class BWSAdminService {
   }
 
   /**
-   * Delete all orphaned templates.
+   * Start deleting all orphaned templates in the background.
+   * 
+   * An {@link OrphanCleanupJob} deletes the BWS templates of all users that carry a class ID
+   * but no face credential, the users listed by {@link #findOrphanedTemplates()}, and clears
+   * their class ID index. Users who enroll while the job runs keep their new class ID. This
+   * method returns as soon as the job has started.
    * 
-   * @return number of templates deleted
+   * @param concurrency maximum number of concurrent BWS delete calls
+   * @return progress of the started job, or of the one already running in this realm
    */
-  public int deleteAllOrphaned() {
-    logger.info("Deleting all orphaned templates");
+  public OrphanCleanupJob.Progress startOrphanCleanup(int concurrency) {
+    logger.info("Starting orphaned template cleanup");
 
-    try {
-      List<TemplateInfo> orphaned = findOrphanedTemplates();
-      int deletedCount = 0;
-      
-      for (TemplateInfo template : orphaned) {
-        try {
-          long classId = Long.parseLong(template.getClassId());
-          if (deleteTemplate(classId)) {
-            deletedCount++;
-          }
-        } catch (Exception e) {
-          logger.error("Failed to delete orphaned template: {}", 
-              template.getClassId(), e);
-        }
-      }
-      
-      logger.info("Deleted {} orphaned templates", deletedCount);
-      return deletedCount;
-      
-    } catch (Exception e) {
-      logger.error("Error deleting orphaned templates", e);
-      throw new RuntimeException("Failed to delete orphaned templates", e);
+    BioIdClient client = getBioIdClient();
+    if (client == null) {
+      throw new IllegalStateException("BioID client not available");
     }
+    return OrphanCleanupJob.start(session.getKeycloakSessionFactory(), realm.getId(), client,
+        concurrency).getProgress();
+  }
+
+  /**
+   * Get the progress of the latest orphaned template cleanup of this realm.
+   * 
+   * @return progress, or null if no cleanup was started on this node
+   */
+  public OrphanCleanupJob.Progress getOrphanCleanupProgress() {
+    OrphanCleanupJob job = OrphanCleanupJob.get(realm.getId());
+    return job != null ? job.getProgress() : null;
+  }
+
+  /**
+   * Cancel the running orphaned template cleanup of this realm.
+   * 
+   * @return progress at the time of cancellation, or null if no cleanup was started
+   */
+  public OrphanCleanupJob.Progress cancelOrphanCleanup() {
+    OrphanCleanupJob job = OrphanCleanupJob.get(realm.getId());
+    if (job == null) {
+      return null;
+    }
+    job.cancel();
+    logger.info("Cancelling orphaned template cleanup {}", job.getProgress().jobId());
+    return job.getProgress();
   }
 
   /**
@@ -467,23 +449,6 @@ public class BWSAdminService {
   // Private Helper Methods
   // ============================================================================
 
-  /**
-   * Get all users with face credentials.
-   */
-  private List<UserModel> getUsersWithFaceCredentials() {
-    return session.users().searchForUserStream(realm, Map.of())
-        .filter(user -> hasFaceCredential(user))
-        .collect(Collectors.toList());
-  }
-
-  /**
-   * Check if user has face credential.
-   */
-  private boolean hasFaceCredential(UserModel user) {
-    return user.credentialManager().getStoredCredentialsStream()
-        .anyMatch(c -> FaceCredentialProvider.TYPE.equals(c.getType()));
-  }
-
   /**
    * Get user's face credential.
    */
@@ -507,41 +472,48 @@ public class BWSAdminService {
 
   /**
    * Find user by class ID.
+   * 
+   * Uses the indexed class ID user attribute maintained by {@link FaceCredentialProvider}; the
+   * candidates are checked against their credentials in case the attribute is stale. Until the
+   * index of the realm has been backfilled, falls back to scanning all users.
    */
   private UserModel findUserByClassId(long classId) {
-    return session.users().searchForUserStream(realm, Map.of())
-        .filter(user -> {
-          CredentialModel credential = getFaceCredential(user);
-          if (credential != null) {
-            FaceCredentialModel faceCredential = 
-                FaceCredentialModel.createFromCredentialModel(credential);
-            return faceCredential != null && faceCredential.getClassId() == classId;
-          }
-          return false;
-        })
+    Stream<UserModel> candidates = ClassIdIndexBackfillJob.isComplete(realm)
+        ? session.users().searchForUserByUserAttributeStream(
+            realm, FaceCredentialProvider.CLASS_ID_ATTRIBUTE, String.valueOf(classId))
+        : session.users().searchForUserStream(realm, Map.of());
+    return candidates
+        .filter(user -> hasClassId(user, classId))
         .findFirst()
         .orElse(null);
   }
 
   /**
-   * Create BioID client for BWS operations.
+   * Check if one of the user's face credentials has the class ID.
    */
-  private BioIdClient createBioIdClient() {
-    try {
-      BioIdConfiguration config = BioIdConfiguration.getInstance();
-      
-      if (config.getClientId() == null || config.getClientId().trim().isEmpty() ||
-          config.getKey() == null || config.getKey().trim().isEmpty()) {
-        logger.warn("BioID credentials not configured");
-        return null;
-      }
-      
-      return new com.bioid.keycloak.client.BioIdGrpcClientProduction(
-          config, config.getEndpoint(), config.getClientId(), config.getKey());
-          
-    } catch (Exception e) {
-      logger.error("Failed to create BioID client", e);
-      return null;
+  private boolean hasClassId(UserModel user, long classId) {
+    return user.credentialManager().getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE)
+        .map(FaceCredentialModel::createFromCredentialModel)
+        .anyMatch(faceCredential -> faceCredential != null
+            && faceCredential.getClassId() == classId);
+  }
+
+  /**
+   * Get the BioID client for BWS operations.
+   * 
+   * Uses the client shared by all face credential providers, so admin calls reuse its warm
+   * gRPC channels. The client is owned and closed by {@link FaceCredentialProviderFactory};
+   * it must not be closed here.
+   */
+  private BioIdClient getBioIdClient() {
+    CredentialProvider<?> provider =
+        session.getProvider(CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+    BioIdClient client = provider instanceof FaceCredentialProvider faceProvider
+        ? faceProvider.getBioIdClient()
+        : null;
+    if (client == null) {
+      logger.warn("BioID client not available");
     }
+    return client;
   }
 }
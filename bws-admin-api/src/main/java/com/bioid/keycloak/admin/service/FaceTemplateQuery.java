@@ -0,0 +1,187 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceSecretData;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.util.JsonSerialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads face credentials of a realm straight from Keycloak's credential table.
+ * 
+ * Rows are fetched with one join query per page instead of loading users and their credential
+ * lists one by one. Pages are keyed by credential ID (keyset pagination), so every page costs
+ * the same no matter how deep the cursor is, and only one page is held in memory at a time.
+ */
+class FaceTemplateQuery {
+
+  private static final Logger logger = LoggerFactory.getLogger(FaceTemplateQuery.class);
+
+  static final int SCAN_PAGE_SIZE = 500;
+
+  private static final String ROW_QUERY =
+      "SELECT c.id, c.createdDate, c.secretData, u.username, u.email"
+      + " FROM CredentialEntity c JOIN c.user u"
+      + " WHERE u.realmId = :realmId AND c.type = :type AND c.id > :cursor"
+      + " ORDER BY c.id";
+
+  private static final String SUMMARY_QUERY =
+      "SELECT COUNT(c.id), COUNT(DISTINCT u.id), MAX(c.createdDate)"
+      + " FROM CredentialEntity c JOIN c.user u"
+      + " WHERE u.realmId = :realmId AND c.type = :type";
+
+  // Users still indexed under a class ID although they have no face credential left
+  private static final String ORPHANED_QUERY =
+      "SELECT COUNT(DISTINCT u.id) FROM UserAttributeEntity a JOIN a.user u"
+      + " WHERE u.realmId = :realmId AND a.name = :name"
+      + " AND NOT EXISTS (SELECT c.id FROM CredentialEntity c"
+      + " WHERE c.user = u AND c.type = :type)";
+
+  private static final String ORPHANED_USERS_QUERY =
+      "SELECT DISTINCT u.id FROM UserAttributeEntity a JOIN a.user u"
+      + " WHERE u.realmId = :realmId AND a.name = :name AND u.id > :cursor"
+      + " AND NOT EXISTS (SELECT c.id FROM CredentialEntity c"
+      + " WHERE c.user = u AND c.type = :type)"
+      + " ORDER BY u.id";
+
+  private final EntityManager em;
+  private final String realmId;
+
+  FaceTemplateQuery(KeycloakSession session, RealmModel realm) {
+    this.em = session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    this.realmId = realm.getId();
+  }
+
+  /**
+   * Face credential of a user, as listed by the admin API.
+   * 
+   * @param credentialId credential ID, also the pagination cursor
+   */
+  record TemplateRow(String credentialId, Long createdDate, Long classId, String username,
+                     String email) {
+
+    TemplateInfo toTemplateInfo() {
+      TemplateInfo info = new TemplateInfo();
+      info.setClassId(classId != null ? String.valueOf(classId) : null);
+      info.setUsername(username);
+      info.setEmail(email);
+      info.setEnrolledAt(createdDate != null ? Instant.ofEpochMilli(createdDate) : null);
+      info.setKeycloakUserExists(true);
+      return info;
+    }
+  }
+
+  /**
+   * Aggregates over all face credentials of the realm.
+   */
+  record Summary(long credentials, long users, Instant lastEnrollment) {
+  }
+
+  /**
+   * Fetch one page of face credentials.
+   * 
+   * @param cursor credential ID to continue after, or null to start at the beginning
+   * @param limit maximum number of rows
+   * @return rows ordered by credential ID
+   */
+  List<TemplateRow> page(String cursor, int limit) {
+    TypedQuery<Object[]> query = em.createQuery(ROW_QUERY, Object[].class)
+        .setParameter("realmId", realmId)
+        .setParameter("type", FaceCredentialProvider.TYPE)
+        .setParameter("cursor", cursor != null ? cursor : "")
+        .setMaxResults(limit);
+
+    List<Object[]> results = query.getResultList();
+    List<TemplateRow> rows = new ArrayList<>(results.size());
+    for (Object[] row : results) {
+      rows.add(new TemplateRow((String) row[0], (Long) row[1], classIdOf((String) row[2]),
+          (String) row[3], (String) row[4]));
+    }
+    return rows;
+  }
+
+  /**
+   * Visit all face credentials after a cursor, one page at a time.
+   * 
+   * @param cursor credential ID to continue after, or null to start at the beginning
+   * @param consumer receives each row
+   * @return number of rows visited
+   */
+  long forEach(String cursor, Consumer<TemplateRow> consumer) {
+    long count = 0;
+    String next = cursor;
+    while (true) {
+      List<TemplateRow> rows = page(next, SCAN_PAGE_SIZE);
+      rows.forEach(consumer);
+      count += rows.size();
+      if (rows.size() < SCAN_PAGE_SIZE) {
+        return count;
+      }
+      next = rows.get(rows.size() - 1).credentialId();
+    }
+  }
+
+  /**
+   * Count face credentials and their users with one aggregate query.
+   */
+  Summary summary() {
+    Object[] row = em.createQuery(SUMMARY_QUERY, Object[].class)
+        .setParameter("realmId", realmId)
+        .setParameter("type", FaceCredentialProvider.TYPE)
+        .getSingleResult();
+    Long lastEnrollment = (Long) row[2];
+    return new Summary(
+        row[0] != null ? ((Number) row[0]).longValue() : 0,
+        row[1] != null ? ((Number) row[1]).longValue() : 0,
+        lastEnrollment != null ? Instant.ofEpochMilli(lastEnrollment) : null);
+  }
+
+  /**
+   * Count users that carry a class ID attribute but no face credential.
+   */
+  long countOrphaned() {
+    Long count = em.createQuery(ORPHANED_QUERY, Long.class)
+        .setParameter("realmId", realmId)
+        .setParameter("name", FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+        .setParameter("type", FaceCredentialProvider.TYPE)
+        .getSingleResult();
+    return count != null ? count : 0;
+  }
+
+  /**
+   * Fetch one page of users that carry a class ID attribute but no face credential.
+   * 
+   * @param cursor user ID to continue after, or null to start at the beginning
+   * @param limit maximum number of users
+   * @return user IDs in ascending order
+   */
+  List<String> orphanedUserIds(String cursor, int limit) {
+    return em.createQuery(ORPHANED_USERS_QUERY, String.class)
+        .setParameter("realmId", realmId)
+        .setParameter("name", FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+        .setParameter("type", FaceCredentialProvider.TYPE)
+        .setParameter("cursor", cursor != null ? cursor : "")
+        .setMaxResults(limit)
+        .getResultList();
+  }
+
+  private static Long classIdOf(String secretData) {
+    try {
+      return JsonSerialization.readValue(secretData, FaceSecretData.class).getClassId();
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Unreadable face credential secret data: {}", e.getMessage());
+      return null;
+    }
+  }
+}
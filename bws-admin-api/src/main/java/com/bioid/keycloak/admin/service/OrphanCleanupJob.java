@@ -0,0 +1,288 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceTemplateStatistics;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Background deletion of orphaned templates (users indexed under a class ID without a face
+ * credential).
+ * 
+ * Orphans are read in pages of {@value #BATCH_SIZE} users, one transaction per page. The BWS
+ * {@code DeleteTemplate} calls of a page run on virtual threads, at most {@code concurrency} at
+ * a time, and the class ID index of all users whose templates were deleted is cleared in one
+ * transaction per page. Users whose deletion failed keep their index entry and are skipped by
+ * the page cursor, so a later run retries them.
+ * 
+ * One job runs per realm at a time. Jobs are kept in memory on the node that started them;
+ * progress must be polled on that node.
+ */
+public class OrphanCleanupJob {
+
+  private static final Logger logger = LoggerFactory.getLogger(OrphanCleanupJob.class);
+
+  static final int BATCH_SIZE = 200;
+
+  // Latest job per realm ID
+  private static final Map<String, OrphanCleanupJob> JOBS = new ConcurrentHashMap<>();
+
+  public enum State {
+    RUNNING, COMPLETED, CANCELLED, FAILED
+  }
+
+  /**
+   * Snapshot of a job's progress.
+   * 
+   * @param jobId job ID
+   * @param state current state
+   * @param total orphaned users when the job started
+   * @param processed users handled so far
+   * @param deleted users whose templates were deleted
+   * @param failed users whose deletion failed
+   * @param startedAt start time
+   * @param finishedAt end time, or null while running
+   * @param error error message of a failed job
+   */
+  public record Progress(String jobId, State state, long total, long processed, long deleted,
+                         long failed, Instant startedAt, Instant finishedAt, String error) {
+  }
+
+  private final String jobId = UUID.randomUUID().toString();
+  private final BioIdClient client;
+  private final int concurrency;
+  private final Function<String, Map<String, List<Long>>> nextBatch;
+  private final Consumer<Collection<String>> clearIndex;
+  private final long total;
+  private final Instant startedAt = Instant.now();
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile boolean cancelled;
+  private volatile State state = State.RUNNING;
+  private volatile Instant finishedAt;
+  private volatile String error;
+
+  /**
+   * @param client BioID client for the delete calls
+   * @param concurrency maximum number of concurrent delete calls
+   * @param total orphaned users when the job starts
+   * @param nextBatch returns the class IDs of the next page of orphaned users after a user ID
+   *     cursor (null for the first page), in cursor order
+   * @param clearIndex clears the class ID index of users whose templates were deleted
+   */
+  OrphanCleanupJob(BioIdClient client, int concurrency, long total,
+                   Function<String, Map<String, List<Long>>> nextBatch,
+                   Consumer<Collection<String>> clearIndex) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be positive");
+    }
+    this.client = client;
+    this.concurrency = concurrency;
+    this.total = total;
+    this.nextBatch = nextBatch;
+    this.clearIndex = clearIndex;
+  }
+
+  /**
+   * Start a cleanup of a realm in the background, unless one is already running there.
+   * 
+   * @param sessionFactory session factory for the job's transactions
+   * @param realmId realm to clean up
+   * @param client BioID client for the delete calls
+   * @param concurrency maximum number of concurrent delete calls
+   * @return the started job, or the one already running
+   */
+  public static synchronized OrphanCleanupJob start(KeycloakSessionFactory sessionFactory,
+                                                    String realmId, BioIdClient client,
+                                                    int concurrency) {
+    OrphanCleanupJob running = JOBS.get(realmId);
+    if (running != null && running.state == State.RUNNING) {
+      return running;
+    }
+
+    long total = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session ->
+        new FaceTemplateQuery(session, session.realms().getRealm(realmId)).countOrphaned());
+
+    OrphanCleanupJob job = new OrphanCleanupJob(client, concurrency, total,
+        cursor -> KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+          RealmModel realm = session.realms().getRealm(realmId);
+          Map<String, List<Long>> batch = new LinkedHashMap<>();
+          for (String userId : new FaceTemplateQuery(session, realm)
+              .orphanedUserIds(cursor, BATCH_SIZE)) {
+            UserModel user = session.users().getUserById(realm, userId);
+            List<Long> classIds = new ArrayList<>();
+            if (user != null) {
+              user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+                  .map(OrphanCleanupJob::parseClassId)
+                  .filter(Objects::nonNull)
+                  .forEach(classIds::add);
+            }
+            batch.put(userId, classIds);
+          }
+          return batch;
+        }),
+        userIds -> KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+          RealmModel realm = session.realms().getRealm(realmId);
+          long cleared = 0;
+          for (String userId : userIds) {
+            UserModel user = session.users().getUserById(realm, userId);
+            // Rebuilt from the credentials, so a user who enrolled meanwhile keeps the new ID
+            if (user != null && FaceCredentialProvider.updateClassIdIndex(user)) {
+              cleared++;
+            }
+          }
+          FaceTemplateStatistics.recordOrphansRemoved(session, realm, cleared);
+        }));
+
+    JOBS.put(realmId, job);
+    Thread.ofVirtual().name("bws-orphan-cleanup-" + realmId).start(job::run);
+    logger.info("Started orphan cleanup {} of realm {}: {} orphaned users", job.jobId, realmId,
+        total);
+    return job;
+  }
+
+  /**
+   * @return the latest cleanup of a realm on this node, or null if none was started
+   */
+  public static OrphanCleanupJob get(String realmId) {
+    return JOBS.get(realmId);
+  }
+
+  /**
+   * Cancel the cleanups running on this node, e.g. on shutdown.
+   */
+  public static void cancelAll() {
+    JOBS.values().forEach(OrphanCleanupJob::cancel);
+  }
+
+  /**
+   * Ask the job to stop. Delete calls already in flight finish; the job then ends in state
+   * {@link State#CANCELLED}.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public Progress getProgress() {
+    return new Progress(jobId, state, total, processed.get(), deleted.get(), failed.get(),
+        startedAt, finishedAt, error);
+  }
+
+  /**
+   * Work through all orphaned users, page by page.
+   */
+  void run() {
+    State result;
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      String cursor = null;
+      while (!cancelled) {
+        Map<String, List<Long>> batch = nextBatch.apply(cursor);
+        if (batch.isEmpty()) {
+          break;
+        }
+
+        List<String> done = deleteTemplates(executor, batch);
+        if (!done.isEmpty()) {
+          clearIndex.accept(done);
+        }
+        deleted.addAndGet(done.size());
+
+        for (String userId : batch.keySet()) {
+          cursor = userId;
+        }
+        if (batch.size() < BATCH_SIZE) {
+          break;
+        }
+      }
+      result = cancelled ? State.CANCELLED : State.COMPLETED;
+    } catch (RuntimeException e) {
+      logger.error("Orphan cleanup {} failed", jobId, e);
+      error = e.getMessage();
+      result = State.FAILED;
+    }
+    finishedAt = Instant.now();
+    state = result;
+    logger.info("Orphan cleanup {} ended {}: {} deleted, {} failed of {}", jobId, state,
+        deleted.get(), failed.get(), processed.get());
+  }
+
+  /**
+   * Delete the templates of one page in parallel.
+   * 
+   * @return users all of whose templates were deleted
+   */
+  private List<String> deleteTemplates(ExecutorService executor, Map<String, List<Long>> batch) {
+    Semaphore permits = new Semaphore(concurrency);
+    Map<String, Boolean> results = new ConcurrentHashMap<>();
+    List<Future<?>> calls = new ArrayList<>(batch.size());
+
+    batch.forEach((userId, classIds) -> calls.add(executor.submit(() -> {
+      permits.acquireUninterruptibly();
+      try {
+        if (cancelled) {
+          return;
+        }
+        for (long classId : classIds) {
+          client.deleteTemplate(classId);
+        }
+        results.put(userId, true);
+      } catch (Exception e) {
+        logger.warn("Failed to delete orphaned template of user {}: {}", userId, e.getMessage());
+        results.put(userId, false);
+      } finally {
+        permits.release();
+      }
+    })));
+
+    for (Future<?> call : calls) {
+      try {
+        call.get();
+      } catch (Exception e) {
+        // Failures are recorded by the task itself
+      }
+    }
+
+    List<String> done = new ArrayList<>();
+    results.forEach((userId, success) -> {
+      processed.incrementAndGet();
+      if (success) {
+        done.add(userId);
+      } else {
+        failed.incrementAndGet();
+      }
+    });
+    return done;
+  }
+
+  private static Long parseClassId(String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -14,6 +14,7 @@ public class TemplateInfo {
   private int featureVectors;
   private int thumbnailsStored;
   private boolean keycloakUserExists;
+  private String bwsStatus;
 
   public String getClassId() {
     return classId;
@@ -78,4 +79,16 @@ public class TemplateInfo {
   public void setKeycloakUserExists(boolean keycloakUserExists) {
     this.keycloakUserExists = keycloakUserExists;
   }
+
+  /**
+   * @return result of the BWS status lookup ({@code AVAILABLE}, {@code NOT_FOUND},
+   *     {@code PENDING} or {@code ERROR}), or null if BWS was not queried
+   */
+  public String getBwsStatus() {
+    return bwsStatus;
+  }
+
+  public void setBwsStatus(String bwsStatus) {
+    this.bwsStatus = bwsStatus;
+  }
 }
@@ -0,0 +1,27 @@
+package com.bioid.keycloak.admin.service;
+
+import java.util.List;
+
+/**
+ * One page of face templates and the cursor of the next page.
+ */
+public class TemplatePage {
+  private final List<TemplateInfo> templates;
+  private final String nextCursor;
+
+  public TemplatePage(List<TemplateInfo> templates, String nextCursor) {
+    this.templates = templates;
+    this.nextCursor = nextCursor;
+  }
+
+  public List<TemplateInfo> getTemplates() {
+    return templates;
+  }
+
+  /**
+   * @return cursor to pass to get the next page, or null if this is the last page
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+}
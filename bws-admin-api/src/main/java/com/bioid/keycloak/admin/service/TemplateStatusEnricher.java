@@ -0,0 +1,154 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.client.BioIdClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fills BWS template status (encoder version, feature vectors, thumbnails) into a page of
+ * templates with parallel {@code GetTemplateStatus} calls.
+ * 
+ * Calls run on virtual threads, at most {@code concurrency} at a time per page, and share one
+ * deadline. Results are collected as they arrive and copied into the templates by the calling
+ * thread once all calls have finished or the deadline has passed; templates whose call did not
+ * finish in time are marked {@value #STATUS_PENDING} and their calls are cancelled.
+ */
+public final class TemplateStatusEnricher {
+
+  private static final Logger logger = LoggerFactory.getLogger(TemplateStatusEnricher.class);
+
+  public static final String STATUS_AVAILABLE = "AVAILABLE";
+  public static final String STATUS_NOT_FOUND = "NOT_FOUND";
+  public static final String STATUS_PENDING = "PENDING";
+  public static final String STATUS_ERROR = "ERROR";
+
+  private static volatile ExecutorService executor = newExecutor();
+
+  private final BioIdClient client;
+  private final int concurrency;
+  private final Duration deadline;
+
+  public TemplateStatusEnricher(BioIdClient client, int concurrency, Duration deadline) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be positive");
+    }
+    this.client = client;
+    this.concurrency = concurrency;
+    this.deadline = deadline;
+  }
+
+  /**
+   * Look up the BWS status of all templates and store it in them.
+   * 
+   * @param templates templates to enrich; entries without a numeric class ID are skipped
+   */
+  public void enrich(List<TemplateInfo> templates) {
+    int count = templates.size();
+    long deadlineNanos = System.nanoTime() + deadline.toNanos();
+    AtomicReferenceArray<Object> results = new AtomicReferenceArray<>(count);
+    CountDownLatch finished = new CountDownLatch(count);
+    Semaphore permits = new Semaphore(concurrency);
+    List<Future<?>> calls = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      Long classId = parseClassId(templates.get(i).getClassId());
+      if (classId == null) {
+        finished.countDown();
+        continue;
+      }
+      int index = i;
+      calls.add(executor.submit(() -> {
+        try {
+          if (!permits.tryAcquire(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return;
+          }
+          try {
+            results.set(index, client.getTemplateStatusDetails(classId, false));
+          } catch (Exception e) {
+            results.set(index, e);
+          } finally {
+            permits.release();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } finally {
+          finished.countDown();
+        }
+      }));
+    }
+
+    try {
+      if (!finished.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        logger.debug("BWS status deadline of {} ms reached with {} calls outstanding",
+            deadline.toMillis(), finished.getCount());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // Take the results before cancelling, so interrupted stragglers stay pending
+    Object[] snapshot = new Object[count];
+    for (int i = 0; i < count; i++) {
+      snapshot[i] = results.get(i);
+    }
+    calls.forEach(call -> call.cancel(true));
+
+    for (int i = 0; i < count; i++) {
+      TemplateInfo template = templates.get(i);
+      if (parseClassId(template.getClassId()) == null) {
+        continue;
+      }
+      apply(template, snapshot[i]);
+    }
+  }
+
+  private static void apply(TemplateInfo template, Object result) {
+    if (result instanceof BioIdClient.TemplateStatusDetails status) {
+      if (status.isAvailable()) {
+        template.setBwsStatus(STATUS_AVAILABLE);
+        template.setEncoderVersion(String.valueOf(status.getEncoderVersion()));
+        template.setFeatureVectors(status.getFeatureVectors());
+        template.setThumbnailsStored(status.getThumbnailsStored());
+      } else {
+        template.setBwsStatus(STATUS_NOT_FOUND);
+      }
+    } else if (result instanceof Exception e) {
+      logger.warn("Failed to get BWS status for classId {}: {}", template.getClassId(),
+          e.getMessage());
+      template.setBwsStatus(STATUS_ERROR);
+    } else {
+      template.setBwsStatus(STATUS_PENDING);
+    }
+  }
+
+  private static Long parseClassId(String classId) {
+    try {
+      return classId != null ? Long.valueOf(classId) : null;
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static ExecutorService newExecutor() {
+    return Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("bws-admin-status-", 0).factory());
+  }
+
+  /**
+   * Stop the executor; outstanding calls are cancelled.
+   */
+  public static synchronized void shutdown() {
+    executor.shutdownNow();
+    executor = newExecutor();
+  }
+}
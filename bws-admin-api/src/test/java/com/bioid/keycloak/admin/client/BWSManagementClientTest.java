@@ -0,0 +1,126 @@
+package com.bioid.keycloak.admin.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BWSManagementClient against a local HTTP server.
+ */
+class BWSManagementClientTest {
+
+  private static final String API_KEY = "c2VjcmV0LWtleS1mb3ItdGVzdGluZy0zMi1ieXRlcyE=";
+
+  private HttpServer server;
+  private String baseUrl;
+  private final List<String> ifNoneMatch = new CopyOnWriteArrayList<>();
+  private final List<String> authorizations = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/client/classcount/", exchange -> {
+      String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+      ifNoneMatch.add(String.valueOf(condition));
+      authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+      if ("\"v1\"".equals(condition)) {
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return;
+      }
+      byte[] body = "42".getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().add("ETag", "\"v1\"");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  void testRepeatedRequestIsConditionalAndReusesCachedBody() throws Exception {
+    // Given: A client for the local server
+    BWSManagementClient client = new BWSManagementClient(baseUrl, "token");
+
+    // When: Asking for the class count twice
+    int first = client.getClassCount("client-1");
+    int second = client.getClassCount("client-1");
+
+    // Then: The second request carries the ETag and the 304 reuses the cached count
+    assertEquals(42, first);
+    assertEquals(42, second);
+    assertEquals(List.of("null", "\"v1\""), ifNoneMatch);
+  }
+
+  @Test
+  void testCachedTokenIsReusedAcrossRequests() throws Exception {
+    // Given: A client taking tokens from a cache
+    ManagementTokenCache tokens = new ManagementTokenCache("admin@example.com", API_KEY);
+    BWSManagementClient client = new BWSManagementClient(baseUrl, tokens);
+
+    // When: Calling the API twice
+    client.getClassCount("client-2");
+    client.getClassCount("client-2");
+
+    // Then: Both requests are authorized with the same token
+    assertEquals(2, authorizations.size());
+    assertTrue(authorizations.get(0).startsWith("Bearer "));
+    assertEquals(authorizations.get(0), authorizations.get(1));
+  }
+
+  @Test
+  void testTokenIsRegeneratedBeforeExpiry() {
+    // Given: A token cache with a controllable clock
+    AtomicReference<Instant> now = new AtomicReference<>(Instant.parse("2025-01-01T00:00:00Z"));
+    Clock clock = new Clock() {
+      @Override
+      public ZoneOffset getZone() {
+        return ZoneOffset.UTC;
+      }
+
+      @Override
+      public Clock withZone(java.time.ZoneId zone) {
+        return this;
+      }
+
+      @Override
+      public Instant instant() {
+        return now.get();
+      }
+    };
+    ManagementTokenCache tokens = new ManagementTokenCache("admin@example.com", API_KEY, clock);
+    String first = tokens.get();
+
+    // When: Time passes to just before and then into the refresh margin
+    now.set(now.get().plus(Duration.ofMinutes(ManagementTokenCache.TOKEN_LIFETIME_MINUTES))
+        .minus(ManagementTokenCache.REFRESH_MARGIN).minusSeconds(1));
+    String beforeMargin = tokens.get();
+    now.set(now.get().plusSeconds(2));
+    String afterMargin = tokens.get();
+
+    // Then: The token is reused until the margin and replaced afterwards
+    assertSame(first, beforeMargin);
+    assertNotSame(first, afterMargin);
+  }
+}
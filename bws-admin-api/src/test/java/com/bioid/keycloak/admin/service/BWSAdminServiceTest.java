@@ -1,20 +1,31 @@
 package com.bioid.keycloak.admin.service;
 
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.ClassIdIndexBackfillJob;
 import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.credential.FaceTemplateStatisticsEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.*;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -50,6 +61,18 @@ class BWSAdminServiceTest {
   @Mock
   private CredentialModel credential2;
 
+  @Mock
+  private JpaConnectionProvider jpaConnectionProvider;
+
+  @Mock
+  private EntityManager entityManager;
+
+  @Mock
+  private TypedQuery<Object[]> query;
+
+  @Mock
+  private TypedQuery<Long> countQuery;
+
   private BWSAdminService adminService;
 
   @BeforeEach
@@ -58,6 +81,17 @@ class BWSAdminServiceTest {
     lenient().when(context.getRealm()).thenReturn(realm);
     lenient().when(session.users()).thenReturn(userProvider);
     lenient().when(realm.getName()).thenReturn("test-realm");
+    lenient().when(realm.getId()).thenReturn("test-realm-id");
+    lenient().when(session.getProvider(JpaConnectionProvider.class)).thenReturn(jpaConnectionProvider);
+    lenient().when(jpaConnectionProvider.getEntityManager()).thenReturn(entityManager);
+    lenient().when(entityManager.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+    lenient().when(query.setParameter(anyString(), any())).thenReturn(query);
+    lenient().when(query.setMaxResults(anyInt())).thenReturn(query);
+    lenient().when(query.getResultList()).thenReturn(List.of());
+    lenient().when(query.getSingleResult()).thenReturn(new Object[] {0L, 0L, null});
+    lenient().when(entityManager.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+    lenient().when(countQuery.setParameter(anyString(), any())).thenReturn(countQuery);
+    lenient().when(countQuery.getSingleResult()).thenReturn(0L);
 
     adminService = new BWSAdminService(session);
   }
@@ -83,13 +117,78 @@ class BWSAdminServiceTest {
     assertTrue(stats.getOrphanedTemplates() >= 0);
   }
 
+  @Test
+  void testGetStatisticsReadsStoredCountersWithoutQuerying() {
+    // Given: A realm with reconciled counters
+    FaceTemplateStatisticsEntity counters = new FaceTemplateStatisticsEntity();
+    counters.setRealmId("test-realm-id");
+    counters.setTemplates(12);
+    counters.setUsers(10);
+    counters.setOrphaned(2);
+    counters.setLastEnrollment(1700000000000L);
+    counters.setReconciledAt(1700000000000L);
+    when(entityManager.find(FaceTemplateStatisticsEntity.class, "test-realm-id"))
+        .thenReturn(counters);
+
+    // When: Getting statistics
+    AdminStats stats = adminService.getStatistics();
+
+    // Then: The counters are returned without querying credentials or users
+    assertEquals(12, stats.getTotalTemplates());
+    assertEquals(10, stats.getActiveUsers());
+    assertEquals(2, stats.getOrphanedTemplates());
+    assertEquals(Instant.ofEpochMilli(1700000000000L), stats.getLastEnrollment());
+    verify(entityManager, never()).createQuery(anyString(), any(Class.class));
+    verifyNoInteractions(userProvider);
+  }
+
+  @Test
+  void testGetStatisticsReconcilesRealmWithoutCounters() {
+    // Given: A realm that has never been reconciled
+    when(query.getSingleResult()).thenReturn(new Object[] {5L, 4L, 1700000000000L});
+    when(countQuery.getSingleResult()).thenReturn(1L);
+
+    // When: Getting statistics
+    AdminStats stats = adminService.getStatistics();
+
+    // Then: The counters are computed once and stored in the statistics table
+    assertEquals(5, stats.getTotalTemplates());
+    assertEquals(4, stats.getActiveUsers());
+    assertEquals(1, stats.getOrphanedTemplates());
+    verify(entityManager).persist(argThat(entity ->
+        entity instanceof FaceTemplateStatisticsEntity row
+            && row.getTemplates() == 5 && row.getUsers() == 4 && row.getOrphaned() == 1));
+    verify(realm, never()).setAttribute(anyString(), anyString());
+  }
+
   @Test
   void testListAllTemplatesReturnsNonNull() {
     // When: Listing all templates
-    List<TemplateInfo> templates = adminService.listAllTemplates();
+    TemplatePage page = adminService.listTemplates(null, 100);
 
     // Then: Should return non-null list
-    assertNotNull(templates);
+    assertNotNull(page.getTemplates());
+    assertNull(page.getNextCursor());
+  }
+
+  @Test
+  void testListTemplatesReturnsCursorOfLastRowWhenMoreRowsExist() {
+    // Given: Three face credential rows for a page size of two
+    when(query.getResultList()).thenReturn(Arrays.asList(
+        new Object[] {"cred-a", 1000L, "{\"classId\":1}", "alice", "alice@example.com"},
+        new Object[] {"cred-b", 2000L, "{\"classId\":2}", "bob", null},
+        new Object[] {"cred-c", 3000L, "{\"classId\":3}", "carol", null}));
+
+    // When: Listing the first page
+    TemplatePage page = adminService.listTemplates(null, 2);
+
+    // Then: Two templates and the cursor of the second one; one extra row was requested
+    assertEquals(2, page.getTemplates().size());
+    assertEquals("1", page.getTemplates().get(0).getClassId());
+    assertEquals("bob", page.getTemplates().get(1).getUsername());
+    assertEquals("cred-b", page.getNextCursor());
+    verify(query).setMaxResults(3);
+    verify(query).setParameter("cursor", "");
   }
 
   @Test
@@ -112,6 +211,39 @@ class BWSAdminServiceTest {
     assertFalse(deleted);
   }
 
+  @Test
+  void testDeleteTemplateUsesSharedClientWithoutClosingIt() throws Exception {
+    // Given: An indexed realm with one user owning class ID 42
+    FaceCredentialModel faceCredential = FaceCredentialModel.createFaceCredential(42L, 3, 5, 3, 3,
+        Instant.now().plus(30, ChronoUnit.DAYS), List.of(),
+        FaceCredentialModel.TemplateType.STANDARD, "NEW_TEMPLATE_CREATED", null);
+    faceCredential.setId("cred-42");
+    SubjectCredentialManager credentialManager = mock(SubjectCredentialManager.class);
+    when(realm.getAttribute(ClassIdIndexBackfillJob.REALM_ATTRIBUTE)).thenReturn("1");
+    when(userProvider.searchForUserByUserAttributeStream(
+        realm, FaceCredentialProvider.CLASS_ID_ATTRIBUTE, "42")).thenReturn(Stream.of(user1));
+    when(user1.credentialManager()).thenReturn(credentialManager);
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenAnswer(invocation -> Stream.of(faceCredential));
+    when(credentialManager.getStoredCredentialsStream())
+        .thenAnswer(invocation -> Stream.of(faceCredential));
+    when(credentialManager.removeStoredCredentialById("cred-42")).thenReturn(true);
+
+    BioIdClient bioIdClient = mock(BioIdClient.class);
+    FaceCredentialProvider credentialProvider = mock(FaceCredentialProvider.class);
+    when(credentialProvider.getBioIdClient()).thenReturn(bioIdClient);
+    when(session.getProvider(CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID))
+        .thenReturn(credentialProvider);
+
+    // When: Deleting the template
+    boolean deleted = adminService.deleteTemplate(42L);
+
+    // Then: The shared client deleted the BWS template and stays open
+    assertTrue(deleted);
+    verify(bioIdClient).deleteTemplate(42L);
+    verify(bioIdClient, never()).close();
+  }
+
   @Test
   void testValidateTemplatesReturnsResult() {
     // When: Validating templates
@@ -134,12 +266,35 @@ class BWSAdminServiceTest {
   }
 
   @Test
-  void testDeleteAllOrphanedReturnsCount() {
-    // When: Deleting all orphaned
-    int deletedCount = adminService.deleteAllOrphaned();
+  @SuppressWarnings("unchecked")
+  void testFindOrphanedTemplatesListsUsersCountedAsOrphaned() {
+    // Given: The orphan query returns one user that still carries a class ID
+    TypedQuery<String> userIdQuery = mock(TypedQuery.class);
+    when(entityManager.createQuery(anyString(), eq(String.class))).thenReturn(userIdQuery);
+    when(userIdQuery.setParameter(anyString(), any())).thenReturn(userIdQuery);
+    when(userIdQuery.setMaxResults(anyInt())).thenReturn(userIdQuery);
+    when(userIdQuery.getResultList()).thenReturn(List.of("user-1"));
+    when(userProvider.getUserById(realm, "user-1")).thenReturn(user1);
+    when(user1.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE))
+        .thenReturn(Stream.of("4711"));
+    when(user1.getUsername()).thenReturn("alice");
+
+    // When: Finding orphaned templates
+    List<TemplateInfo> orphaned = adminService.findOrphanedTemplates();
+
+    // Then: The user's class ID is listed
+    assertEquals(1, orphaned.size());
+    assertEquals("4711", orphaned.get(0).getClassId());
+    assertEquals("alice", orphaned.get(0).getUsername());
+    verify(userIdQuery).setParameter("cursor", "");
+  }
 
-    // Then: Should return non-negative count
-    assertTrue(deletedCount >= 0);
+  @Test
+  void testStartOrphanCleanupRequiresBioIdClient() {
+    // When: Starting a cleanup without a BioID client
+    // Then: Should fail before a job is started
+    assertThrows(IllegalStateException.class, () -> adminService.startOrphanCleanup(4));
+    assertNull(adminService.getOrphanCleanupProgress());
   }
 
   @Test
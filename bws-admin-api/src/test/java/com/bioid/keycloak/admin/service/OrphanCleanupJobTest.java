@@ -0,0 +1,131 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.exception.BioIdException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for OrphanCleanupJob.
+ */
+@ExtendWith(MockitoExtension.class)
+class OrphanCleanupJobTest {
+
+  @Mock
+  private BioIdClient bioIdClient;
+
+  @Test
+  void testDeletesAllPagesInParallelAndKeepsFailedUsers() throws Exception {
+    // Given: 250 orphaned users, one of whose deletions fails
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    doAnswer(invocation -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      Thread.sleep(5);
+      inFlight.decrementAndGet();
+      if ((long) invocation.getArgument(0) == 7L) {
+        throw new BioIdException("BWS unavailable");
+      }
+      return null;
+    }).when(bioIdClient).deleteTemplate(anyLong());
+    List<String> cleared = new CopyOnWriteArrayList<>();
+    OrphanCleanupJob job = new OrphanCleanupJob(bioIdClient, 8, 250, orphans(250),
+        cleared::addAll);
+
+    // When: Running the job
+    job.run();
+
+    // Then: Every user was handled, failures keep their index entry
+    OrphanCleanupJob.Progress progress = job.getProgress();
+    assertEquals(OrphanCleanupJob.State.COMPLETED, progress.state());
+    assertEquals(250, progress.processed());
+    assertEquals(249, progress.deleted());
+    assertEquals(1, progress.failed());
+    assertNotNull(progress.finishedAt());
+    assertEquals(249, cleared.size());
+    assertFalse(cleared.contains(userId(7)));
+    verify(bioIdClient, times(250)).deleteTemplate(anyLong());
+    assertTrue(maxInFlight.get() > 1);
+    assertTrue(maxInFlight.get() <= 8);
+  }
+
+  @Test
+  void testCancelStopsAfterCurrentPage() throws Exception {
+    // Given: A job that is cancelled while the first page is written back
+    AtomicReference<OrphanCleanupJob> job = new AtomicReference<>();
+    AtomicInteger pages = new AtomicInteger();
+    Function<String, Map<String, List<Long>>> batches = orphans(500);
+    job.set(new OrphanCleanupJob(bioIdClient, 4, 500,
+        cursor -> {
+          pages.incrementAndGet();
+          return batches.apply(cursor);
+        },
+        (Collection<String> userIds) -> job.get().cancel()));
+
+    // When: Running the job
+    job.get().run();
+
+    // Then: Only the first page was processed
+    OrphanCleanupJob.Progress progress = job.get().getProgress();
+    assertEquals(OrphanCleanupJob.State.CANCELLED, progress.state());
+    assertEquals(1, pages.get());
+    assertEquals(OrphanCleanupJob.BATCH_SIZE, progress.processed());
+  }
+
+  @Test
+  void testFailingPageQueryFailsJob() {
+    // Given: The orphan query fails
+    OrphanCleanupJob job = new OrphanCleanupJob(bioIdClient, 4, 1,
+        cursor -> {
+          throw new IllegalStateException("database unavailable");
+        },
+        userIds -> { });
+
+    // When: Running the job
+    job.run();
+
+    // Then: The job ends failed with the error
+    assertEquals(OrphanCleanupJob.State.FAILED, job.getProgress().state());
+    assertEquals("database unavailable", job.getProgress().error());
+    verifyNoInteractions(bioIdClient);
+  }
+
+  /**
+   * Pages of orphaned users with one class ID each, ordered by user ID.
+   */
+  private static Function<String, Map<String, List<Long>>> orphans(int count) {
+    List<String> userIds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      userIds.add(userId(i));
+    }
+    return cursor -> {
+      Map<String, List<Long>> page = new LinkedHashMap<>();
+      for (int i = 0; i < count && page.size() < OrphanCleanupJob.BATCH_SIZE; i++) {
+        if (cursor == null || userIds.get(i).compareTo(cursor) > 0) {
+          page.put(userIds.get(i), List.of((long) i));
+        }
+      }
+      return page;
+    };
+  }
+
+  private static String userId(int index) {
+    return String.format("user-%05d", index);
+  }
+}
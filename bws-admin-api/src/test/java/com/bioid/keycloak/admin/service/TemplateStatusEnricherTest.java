@@ -0,0 +1,128 @@
+package com.bioid.keycloak.admin.service;
+
+import com.bioid.keycloak.client.BioIdClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for TemplateStatusEnricher.
+ */
+@ExtendWith(MockitoExtension.class)
+class TemplateStatusEnricherTest {
+
+  @Mock
+  private BioIdClient bioIdClient;
+
+  @Test
+  void testEnrichSetsStatusOfEachTemplate() throws Exception {
+    // Given: One available, one missing and one failing template
+    when(bioIdClient.getTemplateStatusDetails(1L, false)).thenReturn(status(1L, true));
+    when(bioIdClient.getTemplateStatusDetails(2L, false)).thenReturn(status(2L, false));
+    when(bioIdClient.getTemplateStatusDetails(3L, false))
+        .thenThrow(new RuntimeException("BWS unavailable"));
+    List<TemplateInfo> templates = templates(1, 2, 3);
+
+    // When: Enriching the page
+    new TemplateStatusEnricher(bioIdClient, 4, Duration.ofSeconds(5)).enrich(templates);
+
+    // Then: Each template carries its own result
+    assertEquals(TemplateStatusEnricher.STATUS_AVAILABLE, templates.get(0).getBwsStatus());
+    assertEquals("5", templates.get(0).getEncoderVersion());
+    assertEquals(3, templates.get(0).getFeatureVectors());
+    assertEquals(2, templates.get(0).getThumbnailsStored());
+    assertEquals(TemplateStatusEnricher.STATUS_NOT_FOUND, templates.get(1).getBwsStatus());
+    assertEquals(TemplateStatusEnricher.STATUS_ERROR, templates.get(2).getBwsStatus());
+  }
+
+  @Test
+  void testSlowCallsAreMarkedPendingAtDeadline() throws Exception {
+    // Given: BWS never answers for class ID 2
+    CountDownLatch release = new CountDownLatch(1);
+    when(bioIdClient.getTemplateStatusDetails(1L, false)).thenReturn(status(1L, true));
+    when(bioIdClient.getTemplateStatusDetails(eq(2L), anyBoolean())).thenAnswer(invocation -> {
+      release.await();
+      return status(2L, true);
+    });
+    List<TemplateInfo> templates = templates(1, 2);
+
+    // When: Enriching with a short deadline
+    long start = System.nanoTime();
+    new TemplateStatusEnricher(bioIdClient, 4, Duration.ofMillis(200)).enrich(templates);
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    release.countDown();
+
+    // Then: The page is returned at the deadline with the slow template pending
+    assertTrue(elapsedMs < 2000, "enrich took " + elapsedMs + " ms");
+    assertEquals(TemplateStatusEnricher.STATUS_AVAILABLE, templates.get(0).getBwsStatus());
+    assertEquals(TemplateStatusEnricher.STATUS_PENDING, templates.get(1).getBwsStatus());
+    assertNull(templates.get(1).getEncoderVersion());
+  }
+
+  @Test
+  void testConcurrencyIsBounded() throws Exception {
+    // Given: Calls that overlap long enough to observe concurrency
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    when(bioIdClient.getTemplateStatusDetails(anyLong(), anyBoolean())).thenAnswer(invocation -> {
+      maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+      Thread.sleep(20);
+      running.decrementAndGet();
+      return status(invocation.getArgument(0), true);
+    });
+    List<TemplateInfo> templates = templates(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12);
+
+    // When: Enriching with at most three calls in flight
+    new TemplateStatusEnricher(bioIdClient, 3, Duration.ofSeconds(10)).enrich(templates);
+
+    // Then: All templates are enriched without exceeding the bound
+    assertTrue(maxRunning.get() <= 3, "max concurrent calls: " + maxRunning.get());
+    assertTrue(templates.stream()
+        .allMatch(t -> TemplateStatusEnricher.STATUS_AVAILABLE.equals(t.getBwsStatus())));
+    verify(bioIdClient, times(12)).getTemplateStatusDetails(anyLong(), eq(false));
+  }
+
+  @Test
+  void testTemplatesWithoutNumericClassIdAreSkipped() {
+    // Given: A template with a malformed class ID
+    TemplateInfo template = new TemplateInfo();
+    template.setClassId("not-a-number");
+
+    // When: Enriching it
+    new TemplateStatusEnricher(bioIdClient, 2, Duration.ofSeconds(1)).enrich(List.of(template));
+
+    // Then: BWS is not called and no status is set
+    assertNull(template.getBwsStatus());
+    verifyNoInteractions(bioIdClient);
+  }
+
+  private static List<TemplateInfo> templates(int... classIds) {
+    List<TemplateInfo> templates = new ArrayList<>();
+    for (int classId : classIds) {
+      TemplateInfo template = new TemplateInfo();
+      template.setClassId(String.valueOf(classId));
+      templates.add(template);
+    }
+    return templates;
+  }
+
+  private static BioIdClient.TemplateStatusDetails status(long classId, boolean available) {
+    return new BioIdClient.TemplateStatusDetails(classId, available, null,
+        Collections.emptyList(), 5, 3, 2, Collections.emptyList());
+  }
+}
@@ -1,11 +1,14 @@
 package com.bioid.keycloak.authenticator;
 
+import com.bioid.keycloak.client.concurrent.SubmissionDeduplicator;
 import com.bioid.keycloak.client.exception.BioIdException;
+import com.bioid.keycloak.client.logging.HotPathLogger;
 import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
 import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
 import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
 import com.bioid.keycloak.failedauth.service.FailedAuthImageStorageService;
+import com.bioid.keycloak.upload.StagedImageStore;
 import jakarta.ws.rs.core.MultivaluedMap;
 import jakarta.ws.rs.core.Response;
 import org.keycloak.authentication.AuthenticationFlowContext;
@@ -16,13 +19,18 @@ import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Keycloak authenticator for face biometric verification.
@@ -34,6 +42,26 @@ public class FaceAuthenticator implements Authenticator {
 
   private static final Logger logger = LoggerFactory.getLogger(FaceAuthenticator.class);
   private static final String ATTR_RETRY_COUNT = "face.auth.retry.count";
+
+  // Diagnostic per-login events are sampled and rate limited so log volume stays bounded under
+  // load; authentication outcomes are audit records and are always written
+  private static final HotPathLogger hotPath = HotPathLogger.forClass(FaceAuthenticator.class);
+  private static final HotPathLogger.Event VERIFY_SUBMITTED =
+      hotPath.event("face.verify.submitted", Level.DEBUG, 1, 20, 50);
+  private static final HotPathLogger.Event VERIFY_SUCCEEDED =
+      hotPath.event("face.verify.succeeded", Level.INFO);
+  private static final HotPathLogger.Event VERIFY_REJECTED =
+      hotPath.event("face.verify.rejected", Level.WARN);
+  private static final HotPathLogger.Event LIVENESS_VERIFIED =
+      hotPath.event("face.verify.liveness", Level.INFO, 10, 5, 20);
+  // Request-scoped copy of the submitted images after staged upload references were resolved
+  private static final String ATTR_RESOLVED_IMAGE_DATA = "face.auth.resolved.imageData";
+  private static final String ATTR_STAGED_IMAGE = "face.auth.staged.image";
+
+  // Double-posted verification forms within one auth session run one after the other; a
+  // verification result is never handed to a submission that did not pass BWS itself.
+  private static final SubmissionDeduplicator verificationSubmissions =
+      new SubmissionDeduplicator();
   
   private final FailedAuthImageStorageService failedAuthStorageService;
 
@@ -193,14 +221,13 @@ public class FaceAuthenticator implements Authenticator {
   /** Called when the user submits the verification form from the UI. */
   @Override
   public void action(AuthenticationFlowContext context) {
+    AtomicBoolean verifiedHere = new AtomicBoolean();
     try {
       MultivaluedMap<String, String> formData = context.getHttpRequest().getDecodedFormParameters();
       String imageData = formData.getFirst("imageData");
 
-      logger.info("Face authentication action called for user: {}", context.getUser().getId());
-      logger.info("Image data length: {}, starts with: {}", 
-                  imageData != null ? imageData.length() : "null",
-                  imageData != null && imageData.length() > 100 ? imageData.substring(0, 100) : imageData);
+      VERIFY_SUBMITTED.log(
+          "userId", context.getUser().getId(), "image", HotPathLogger.imageSummary(imageData));
 
       if (imageData == null || imageData.isEmpty()) {
         logger.warn("No image data provided for user: {}", context.getUser().getId());
@@ -218,36 +245,67 @@ public class FaceAuthenticator implements Authenticator {
         return;
       }
 
-      logger.info("Found face credential for user: {}, classId: {}", context.getUser().getId(), credential.getClassId());
-
-      boolean verificationSuccess = performVerification(context, credential, imageData);
-      if (verificationSuccess) {
-        logger.info("Face verification successful for user: {}", context.getUser().getId());
+      Duration timeout =
+          com.bioid.keycloak.client.config.BioIdConfiguration.getInstance()
+              .getVerificationTimeout();
+      Callable<Boolean> verification = () -> {
+        verifiedHere.set(true);
+        return performVerification(context, credential, imageData);
+      };
+      // A staged upload can be taken only once, so a duplicate could never pass BWS on its own:
+      // it gets the first submission's outcome. Inline images are verified by every request.
+      SubmissionDeduplicator.Outcome<Boolean> outcome =
+          StagedImageStore.containsReferences(imageData)
+              ? verificationSubmissions.execute(
+                  submissionScope(context), imageData, timeout, verification)
+              : verificationSubmissions.executeExclusively(
+                  submissionScope(context), imageData, timeout, verification);
+      if (outcome.getResult()) {
+        VERIFY_SUCCEEDED.log(
+            "userId", context.getUser().getId(),
+            "classId", credential.getClassId(),
+            "shared", outcome.isShared());
         context.success();
       } else {
-        logger.warn("Face verification failed for user: {}", context.getUser().getId());
-        handleFailure(context, "Face verification failed. Please try again.");
+        VERIFY_REJECTED.log(
+            "userId", context.getUser().getId(),
+            "classId", credential.getClassId(),
+            "duplicate", outcome.isDuplicate());
+        handleFailure(
+            context, "Face verification failed. Please try again.", outcome.isDuplicate());
       }
+    } catch (StagedImageMissingException e) {
+      // Taken by an earlier identical submission, or expired; BWS was not called for it
+      logger.info("Staged image of user {} already taken or expired", context.getUser().getId());
+      handleFailure(context, e.getMessage(), true);
     } catch (BioIdException e) {
       logger.error(
           "BioID service error during face verification for user: {}",
           context.getUser().getId(),
           e);
-      handleFailure(context, "Face verification service failed: " + e.getMessage());
+      // An exception shared from an earlier submission was already counted there
+      handleFailure(
+          context, "Face verification service failed: " + e.getMessage(), !verifiedHere.get());
     } catch (Exception e) {
       logger.error(
           "Unexpected error during face verification for user: {}",
           context.getUser().getId(),
           e);
-      handleFailure(context, "An unexpected error occurred. Please try again.");
+      handleFailure(
+          context, "An unexpected error occurred. Please try again.", !verifiedHere.get());
     }
   }
 
   private boolean performVerification(
-      AuthenticationFlowContext context, FaceCredentialModel credential, String imageData)
+      AuthenticationFlowContext context, FaceCredentialModel credential, String submittedImageData)
       throws BioIdException {
-    logger.info("Performing verification for classId: {}", credential.getClassId());
-
+    if (submittedImageData.startsWith(StagedImageStore.REFERENCE_PREFIX)) {
+      // A single binary upload is passed on as bytes
+      byte[] image = takeStagedImage(context, submittedImageData);
+      return getCredentialProvider(context.getSession())
+          .verifyFace(context.getRealm(), context.getUser(), image);
+    }
+    String imageData = resolveStagedImages(context, submittedImageData);
     // Check if imageData is JSON (multiple images) or single image
     if (imageData.startsWith("{")) {
       // Handle multiple images for active liveness detection
@@ -274,8 +332,6 @@ public class FaceAuthenticator implements Authenticator {
       String mode = jsonNode.has("mode") ? jsonNode.get("mode").asText() : "active";
       String challengeDirection = jsonNode.has("challengeDirection") ? jsonNode.get("challengeDirection").asText() : null;
       
-      logger.info("Liveness verification mode: {}, challengeDirection: {}", mode, challengeDirection);
-      
       if (imagesNode == null || !imagesNode.isArray()) {
         logger.error("Invalid liveness data: images node is null or not an array");
         throw new BioIdException("Invalid image data format");
@@ -289,20 +345,15 @@ public class FaceAuthenticator implements Authenticator {
       String firstImage = imagesNode.get(0).asText();
       String secondImage = imagesNode.get(1).asText();
       
-      logger.info("Performing {} liveness verification with {} images for user: {}", 
-                  mode, imagesNode.size(), context.getUser().getId());
-      logger.info("First image length: {}, starts with: {}", 
-                  firstImage != null ? firstImage.length() : 0, 
-                  firstImage != null && firstImage.length() > 50 ? firstImage.substring(0, 50) : "null or empty");
-      logger.info("Second image length: {}, starts with: {}", 
-                  secondImage != null ? secondImage.length() : 0, 
-                  secondImage != null && secondImage.length() > 50 ? secondImage.substring(0, 50) : "null or empty");
-      
       // Use the credential provider's liveness verification method
       boolean result = getCredentialProvider(context.getSession())
           .verifyFaceWithLiveness(context.getRealm(), context.getUser(), firstImage, secondImage, mode, challengeDirection);
           
-      logger.info("Liveness verification result for user {}: {}", context.getUser().getId(), result);
+      LIVENESS_VERIFIED.log(
+          "userId", context.getUser().getId(),
+          "mode", mode,
+          "direction", challengeDirection,
+          "result", result);
       return result;
           
     } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
@@ -314,9 +365,69 @@ public class FaceAuthenticator implements Authenticator {
     }
   }
 
+  /**
+   * Takes a single image uploaded through {@link FaceImageUploadResource}. The image is kept for
+   * the request so a failed attempt can still be stored.
+   */
+  private byte[] takeStagedImage(AuthenticationFlowContext context, String reference)
+      throws BioIdException {
+    StagedImageStore.StagedImage image =
+        StagedImageStore.getInstance()
+            .take(StagedImageStore.scopeOf(context.getAuthenticationSession()), reference);
+    if (image == null) {
+      throw new StagedImageMissingException();
+    }
+    context.getSession().setAttribute(ATTR_STAGED_IMAGE, image);
+    return image.getBytes();
+  }
+
+  /**
+   * Replaces references to images uploaded through {@link FaceImageUploadResource} with the image
+   * data, as the liveness API takes base64 strings. The result is kept for the request so a failed attempt can still be stored.
+   */
+  private String resolveStagedImages(AuthenticationFlowContext context, String imageData)
+      throws BioIdException {
+    if (!StagedImageStore.containsReferences(imageData)) {
+      return imageData;
+    }
+    try {
+      String resolved =
+          StagedImageStore.getInstance()
+              .resolveImageData(
+                  StagedImageStore.scopeOf(context.getAuthenticationSession()), imageData);
+      context.getSession().setAttribute(ATTR_RESOLVED_IMAGE_DATA, resolved);
+      return resolved;
+    } catch (StagedImageStore.MissingImageException e) {
+      throw new StagedImageMissingException();
+    } catch (IllegalArgumentException e) {
+      throw new BioIdException("Invalid image data: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Builds the deduplication scope for a submission: the browser's authentication session plus the
+   * tab, so parallel logins in separate tabs are never merged.
+   */
+  private String submissionScope(AuthenticationFlowContext context) {
+    AuthenticationSessionModel authSession = context.getAuthenticationSession();
+    if (authSession == null || authSession.getParentSession() == null) {
+      return null;
+    }
+    return "verify:" + authSession.getParentSession().getId() + ":" + authSession.getTabId();
+  }
+
   /** Handles a failed verification attempt, managing retries and final failure. */
   private void handleFailure(AuthenticationFlowContext context, String errorMessage) {
-    int retryCount = incrementRetryCount(context);
+    handleFailure(context, errorMessage, false);
+  }
+
+  /**
+   * Handles a failed verification attempt. A duplicate of a submission already being verified
+   * re-renders the challenge without consuming another retry or storing the attempt twice.
+   */
+  private void handleFailure(
+      AuthenticationFlowContext context, String errorMessage, boolean duplicateSubmission) {
+    int retryCount = duplicateSubmission ? getRetryCount(context) : incrementRetryCount(context);
     int maxRetries = getMaxRetries(context);
     com.bioid.keycloak.client.config.BioIdConfiguration bioIdConfig =
         com.bioid.keycloak.client.config.BioIdConfiguration.getInstance();
@@ -330,11 +441,13 @@ public class FaceAuthenticator implements Authenticator {
         errorMessage);
     
     // Capture failed attempt for later review and training
-    try {
-      storeFailedAttempt(context, errorMessage, retryCount, maxRetries, livenessSettings);
-    } catch (Exception e) {
-      logger.error("Failed to store failed authentication attempt", e);
-      // Don't fail the authentication flow due to storage issues
+    if (!duplicateSubmission) {
+      try {
+        storeFailedAttempt(context, errorMessage, retryCount, maxRetries, livenessSettings);
+      } catch (Exception e) {
+        logger.error("Failed to store failed authentication attempt", e);
+        // Don't fail the authentication flow due to storage issues
+      }
     }
 
     if (retryCount >= maxRetries) {
@@ -427,15 +540,28 @@ public class FaceAuthenticator implements Authenticator {
         return;
       }
       
-      // Extract images from form data
-      MultivaluedMap<String, String> formData = 
-          context.getHttpRequest().getDecodedFormParameters();
-      String imageData = formData.getFirst("imageData");
+      // Extract images from form data, preferring images resolved from staged uploads
+      String imageData = context.getSession().getAttribute(ATTR_RESOLVED_IMAGE_DATA, String.class);
+      StagedImageStore.StagedImage stagedImage =
+          context.getSession().getAttribute(ATTR_STAGED_IMAGE, StagedImageStore.StagedImage.class);
+      if (imageData == null && stagedImage != null) {
+        // Only encoded here, when a failed attempt is actually stored
+        imageData = stagedImage.toDataUrl();
+      }
+      if (imageData == null) {
+        MultivaluedMap<String, String> formData =
+            context.getHttpRequest().getDecodedFormParameters();
+        imageData = formData.getFirst("imageData");
+      }
       
       if (imageData == null || imageData.isEmpty()) {
         logger.debug("No image data to store");
         return;
       }
+      if (StagedImageStore.containsReferences(imageData)) {
+        logger.debug("Staged images were not resolved, nothing to store");
+        return;
+      }
       
       // Parse images (handle both single and multiple images)
       List<String> images = parseImages(imageData);
@@ -706,4 +832,11 @@ public class FaceAuthenticator implements Authenticator {
 
   @Override
   public void close() {}
+
+  /** A staged upload of the submission was already taken or has expired. */
+  private static final class StagedImageMissingException extends BioIdException {
+    StagedImageMissingException() {
+      super("Invalid image data: Uploaded image expired or not found");
+    }
+  }
 }
@@ -0,0 +1,153 @@
+package com.bioid.keycloak.authenticator;
+
+import com.bioid.keycloak.rest.AuthenticationSessionLookup;
+import com.bioid.keycloak.upload.ImageBufferPool;
+import com.bioid.keycloak.upload.MultipartImageReader;
+import com.bioid.keycloak.upload.StagedImageStore;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary image upload for the face login pages.
+ *
+ * <p>The verification and enrollment pages post each captured image here as a raw {@code
+ * image/jpeg} (or {@code image/png}) body, or as the {@code image} part of a {@code
+ * multipart/form-data} body, and put only the returned reference into the login form. {@link
+ * FaceAuthenticator} and the enrollment action resolve the references from {@link
+ * StagedImageStore}, so multi-megabyte base64 strings no longer travel through url-encoded form
+ * parameters.
+ */
+@Path("/")
+public class FaceImageUploadResource {
+
+  private static final Logger logger = LoggerFactory.getLogger(FaceImageUploadResource.class);
+
+  private static final int MAX_IMAGE_BYTES = 10 * 1024 * 1024;
+  private static final int MAX_MULTIPART_OVERHEAD = 16 * 1024;
+
+  private final KeycloakSession session;
+
+  public FaceImageUploadResource(KeycloakSession session) {
+    this.session = session;
+  }
+
+  /**
+   * Stages one image for the calling tab's authentication session.
+   *
+   * @return {@code 201} with {@code {"reference": "upload:..."}}
+   */
+  @POST
+  @Path("/images")
+  @Consumes({"image/jpeg", "image/png", MediaType.APPLICATION_OCTET_STREAM,
+      MediaType.MULTIPART_FORM_DATA})
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response upload(
+      @QueryParam("client_id") String clientId,
+      @QueryParam("tab_id") String tabId,
+      @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+      InputStream body) {
+    AuthenticationSessionModel authSession =
+        AuthenticationSessionLookup.findWithUser(session, clientId, tabId);
+    if (authSession == null) {
+      return error(Response.Status.UNAUTHORIZED, "No authentication in progress");
+    }
+
+    boolean multipart =
+        contentType != null
+            && contentType.toLowerCase(Locale.ROOT).startsWith(MediaType.MULTIPART_FORM_DATA);
+    int maxBytes = multipart ? MAX_IMAGE_BYTES + MAX_MULTIPART_OVERHEAD : MAX_IMAGE_BYTES;
+
+    try (ImageBufferPool.Buffer buffer = ImageBufferPool.getInstance().read(body, maxBytes)) {
+      int offset = 0;
+      int length = buffer.length();
+      if (multipart) {
+        String boundary = MultipartImageReader.boundaryOf(contentType);
+        MultipartImageReader.Part part =
+            boundary != null
+                ? MultipartImageReader.findImagePart(buffer.array(), buffer.length(), boundary)
+                : null;
+        if (part == null) {
+          return error(Response.Status.BAD_REQUEST, "No image part in upload");
+        }
+        offset = part.getOffset();
+        length = part.getLength();
+      }
+      if (length > MAX_IMAGE_BYTES) {
+        return error(Response.Status.REQUEST_ENTITY_TOO_LARGE, "Image too large");
+      }
+      String imageType = detectImageType(buffer.array(), offset, length);
+      if (imageType == null) {
+        return error(
+            Response.Status.UNSUPPORTED_MEDIA_TYPE, "Only JPEG and PNG images are accepted");
+      }
+      byte[] image = buffer.copy(offset, length);
+
+      String reference =
+          StagedImageStore.getInstance()
+              .put(StagedImageStore.scopeOf(authSession), image, imageType);
+      logger.debug("Staged {} byte {} upload for auth session tab {}", length, imageType,
+          authSession.getTabId());
+      return Response.status(Response.Status.CREATED)
+          .entity(Map.of("reference", reference, "size", length))
+          .build();
+    } catch (IOException e) {
+      logger.warn("Rejected image upload: {}", e.getMessage());
+      return error(Response.Status.REQUEST_ENTITY_TOO_LARGE, "Image too large");
+    } catch (IllegalStateException e) {
+      logger.warn("Image upload refused: {}", e.getMessage());
+      return error(Response.Status.TOO_MANY_REQUESTS, e.getMessage());
+    }
+  }
+
+  /** Drops all images staged by the calling tab, e.g. when the user restarts the capture. */
+  @DELETE
+  @Path("/images")
+  public Response discard(
+      @QueryParam("client_id") String clientId, @QueryParam("tab_id") String tabId) {
+    AuthenticationSessionModel authSession =
+        AuthenticationSessionLookup.findWithUser(session, clientId, tabId);
+    if (authSession == null) {
+      return error(Response.Status.UNAUTHORIZED, "No authentication in progress");
+    }
+    StagedImageStore.getInstance().discard(StagedImageStore.scopeOf(authSession));
+    return Response.noContent().build();
+  }
+
+  /** Identifies JPEG and PNG data by magic number; the declared content type is not trusted. */
+  static String detectImageType(byte[] data, int offset, int length) {
+    if (length >= 3
+        && (data[offset] & 0xFF) == 0xFF
+        && (data[offset + 1] & 0xFF) == 0xD8
+        && (data[offset + 2] & 0xFF) == 0xFF) {
+      return "image/jpeg";
+    }
+    if (length >= 8
+        && (data[offset] & 0xFF) == 0x89
+        && data[offset + 1] == 'P'
+        && data[offset + 2] == 'N'
+        && data[offset + 3] == 'G') {
+      return "image/png";
+    }
+    return null;
+  }
+
+  private static Response error(Response.Status status, String message) {
+    return Response.status(status).entity(Map.of("error", message)).build();
+  }
+}
@@ -0,0 +1,26 @@
+package com.bioid.keycloak.authenticator;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Provider for the binary image upload endpoint used by the face login pages.
+ */
+public class FaceImageUploadResourceProvider implements RealmResourceProvider {
+
+  private final KeycloakSession session;
+
+  public FaceImageUploadResourceProvider(KeycloakSession session) {
+    this.session = session;
+  }
+
+  @Override
+  public Object getResource() {
+    return new FaceImageUploadResource(session);
+  }
+
+  @Override
+  public void close() {
+    // No resources to close
+  }
+}
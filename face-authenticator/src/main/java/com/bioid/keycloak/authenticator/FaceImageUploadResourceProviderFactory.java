@@ -0,0 +1,41 @@
+package com.bioid.keycloak.authenticator;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Factory for the binary image upload endpoint, served under
+ * {@code /realms/{realm}/face-upload}.
+ */
+public class FaceImageUploadResourceProviderFactory implements RealmResourceProviderFactory {
+
+  public static final String ID = "face-upload";
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new FaceImageUploadResourceProvider(session);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    // No initialization needed
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    // No post-initialization needed
+  }
+
+  @Override
+  public void close() {
+    // No resources to close
+  }
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+}
@@ -4,14 +4,17 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
+import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
 import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import jakarta.ws.rs.core.MultivaluedHashMap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.credential.CredentialProvider;
 import org.keycloak.forms.login.LoginFormsProvider;
+import org.keycloak.http.HttpRequest;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
@@ -169,6 +172,27 @@ class FaceAuthenticatorTest {
     verify(mockContext, never()).attempted();
   }
 
+  @Test
+  void testActionWithTakenStagedImageDoesNotConsumeRetry() {
+    // An earlier identical submission already took the staged upload
+    MultivaluedHashMap<String, String> formData = new MultivaluedHashMap<>();
+    formData.putSingle("imageData", "upload:already-taken");
+    HttpRequest request = mock(HttpRequest.class);
+    when(request.getDecodedFormParameters()).thenReturn(formData);
+    when(mockContext.getHttpRequest()).thenReturn(request);
+    when(mockCredentialProvider.getMostRecentFaceCredential(mockRealm, mockUser))
+        .thenReturn(mock(FaceCredentialModel.class));
+    when(mockLoginFormsProvider.setError(anyString(), any(Object[].class)))
+        .thenReturn(mockLoginFormsProvider);
+
+    authenticator.action(mockContext);
+
+    verify(mockCredentialProvider, never()).verifyFace(any(), any(), any(byte[].class));
+    verify(mockAuthSession, never()).setAuthNote(eq("face.auth.retry.count"), anyString());
+    verify(mockContext).challenge(any());
+    verify(mockContext, never()).success();
+  }
+
   @Test
   void testClose() {
     // Should not throw any exceptions
@@ -0,0 +1,124 @@
+package com.bioid.keycloak.credential;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One-time migration that fills the {@value FaceCredentialProvider#CLASS_ID_ATTRIBUTE} user
+ * attribute for face credentials created before the index was maintained.
+ *
+ * <p>Each realm is processed once, by one node ({@link ClusterProvider#executeIfNotExecuted}),
+ * in batches of {@value #BATCH_SIZE} users with one transaction per batch. When a realm is done,
+ * {@value #REALM_ATTRIBUTE} is set on it; until then classId lookups fall back to scanning the
+ * realm's users. Re-running the job is harmless because unchanged users are not written.
+ */
+public class ClassIdIndexBackfillJob {
+
+  private static final Logger logger = LoggerFactory.getLogger(ClassIdIndexBackfillJob.class);
+
+  static final String TASK_NAME = "face-credential-classid-backfill";
+  public static final String REALM_ATTRIBUTE = "bioid.classIdIndexVersion";
+  static final String INDEX_VERSION = "1";
+  static final int BATCH_SIZE = 500;
+  private static final int TASK_TIMEOUT_SECONDS = 3600;
+
+  private final KeycloakSessionFactory sessionFactory;
+
+  public ClassIdIndexBackfillJob(KeycloakSessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  /**
+   * Whether the class ID index of a realm is complete and can replace user scans.
+   *
+   * @param realm the realm
+   * @return true once the backfill finished for the realm
+   */
+  public static boolean isComplete(RealmModel realm) {
+    return INDEX_VERSION.equals(realm.getAttribute(REALM_ATTRIBUTE));
+  }
+
+  /**
+   * Run the backfill in the background for all realms that still need it.
+   */
+  public void start() {
+    CompletableFuture.runAsync(this::run);
+  }
+
+  private void run() {
+    try {
+      List<String> realmIds = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory,
+          session -> session.realms().getRealmsStream()
+              .filter(realm -> !isComplete(realm))
+              .map(RealmModel::getId)
+              .toList());
+
+      for (String realmId : realmIds) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+          ExecutionResult<Integer> result = session.getProvider(ClusterProvider.class)
+              .executeIfNotExecuted(TASK_NAME + "::" + realmId, TASK_TIMEOUT_SECONDS,
+                  () -> backfillRealm(realmId));
+          if (!result.isExecuted()) {
+            logger.debug("Class ID index of realm {} is backfilled by another node", realmId);
+          }
+        });
+      }
+    } catch (Exception e) {
+      logger.warn("Class ID index backfill failed: {}", e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Index all users of one realm and mark the realm as complete.
+   *
+   * @param realmId the realm ID
+   * @return number of users whose index entry was written
+   */
+  int backfillRealm(String realmId) {
+    int updated = 0;
+    int first = 0;
+    while (true) {
+      int offset = first;
+      int[] batch = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+        RealmModel realm = session.realms().getRealm(realmId);
+        if (realm == null) {
+          return new int[] {0, 0};
+        }
+        session.getContext().setRealm(realm);
+        List<UserModel> users = session.users()
+            .searchForUserStream(realm, Map.of(), offset, BATCH_SIZE)
+            .toList();
+        int changed = 0;
+        for (UserModel user : users) {
+          if (FaceCredentialProvider.updateClassIdIndex(user)) {
+            changed++;
+          }
+        }
+        return new int[] {users.size(), changed};
+      });
+      updated += batch[1];
+      if (batch[0] < BATCH_SIZE) {
+        break;
+      }
+      first += BATCH_SIZE;
+    }
+
+    KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+      RealmModel realm = session.realms().getRealm(realmId);
+      if (realm != null) {
+        realm.setAttribute(REALM_ATTRIBUTE, INDEX_VERSION);
+      }
+    });
+    logger.info("Backfilled class ID index of realm {}: {} users updated", realmId, updated);
+    return updated;
+  }
+}
@@ -45,6 +45,12 @@ public class FaceCredentialProvider
   public static final String DISPLAY_NAME = "Face Recognition";
   public static final String HELP_TEXT = "Face biometric authentication using BioID technology";
 
+  /**
+   * User attribute holding the class IDs of the user's face credentials. Keycloak indexes user
+   * attributes by name and value, so it serves as the classId to user lookup table.
+   */
+  public static final String CLASS_ID_ATTRIBUTE = "classId";
+
   private final KeycloakSession session;
   private final ObjectMapper objectMapper;
   private final BioIdClient bioIdClient; // Now final and injected
@@ -97,6 +103,8 @@ public class FaceCredentialProvider
 
       // Store the credential
       user.credentialManager().createStoredCredential(credential);
+      updateClassIdIndex(user);
+      FaceTemplateStatistics.recordChange(session, realm, user, 1);
 
       logger.info("Face credential created successfully for user: {} with class ID: {}",
           user.getId(), credentialModel.getClassId());
@@ -164,6 +172,8 @@ public class FaceCredentialProvider
       boolean removed = user.credentialManager().removeStoredCredentialById(credentialId);
 
       if (removed) {
+        updateClassIdIndex(user);
+        FaceTemplateStatistics.recordChange(session, realm, user, -1);
         logger.info("Face credential deleted successfully: {} (class ID: {}) for user: {}",
             credentialId, faceCredential.getClassId(), user.getId());
       } else {
@@ -180,6 +190,43 @@ public class FaceCredentialProvider
     }
   }
 
+  /**
+   * Rewrites the {@value #CLASS_ID_ATTRIBUTE} attribute from the user's stored face credentials.
+   * Must be called whenever face credentials are created or removed; it only writes when the
+   * indexed values change.
+   *
+   * @param user the user
+   * @return true if the attribute was changed
+   */
+  public static boolean updateClassIdIndex(UserModel user) {
+    List<String> classIds = user.credentialManager().getStoredCredentialsByTypeStream(TYPE)
+        .map(credential -> {
+          try {
+            return FaceCredentialModel.createFromCredentialModel(credential);
+          } catch (RuntimeException e) {
+            logger.warn("Skipping unreadable face credential {} of user {} in class ID index",
+                credential.getId(), user.getId());
+            return null;
+          }
+        })
+        .filter(Objects::nonNull)
+        .map(credential -> String.valueOf(credential.getClassId()))
+        .distinct()
+        .sorted()
+        .toList();
+
+    List<String> indexed = user.getAttributeStream(CLASS_ID_ATTRIBUTE).sorted().toList();
+    if (classIds.equals(indexed)) {
+      return false;
+    }
+    if (classIds.isEmpty()) {
+      user.removeAttribute(CLASS_ID_ATTRIBUTE);
+    } else {
+      user.setAttribute(CLASS_ID_ATTRIBUTE, classIds);
+    }
+    return true;
+  }
+
   @Override
   public FaceCredentialModel getCredentialFromModel(CredentialModel model) {
     if (model == null || !TYPE.equals(model.getType())) {
@@ -321,6 +368,8 @@ public class FaceCredentialProvider
     }
 
     if (removedCount > 0) {
+      updateClassIdIndex(user);
+      FaceTemplateStatistics.recordChange(session, realm, user, -removedCount);
       logger.info("Removed {} expired face credentials for user: {}", removedCount, user.getId());
     }
 
@@ -552,6 +601,26 @@ public class FaceCredentialProvider
    * @throws RuntimeException if verification fails due to service issues
    */
   public boolean verifyFace(RealmModel realm, UserModel user, String imageData) {
+    return verifyFace(realm, user, (client, classId) -> {
+      // Extract base64 image data (remove data URL prefix if present)
+      String base64Image = imageData.contains(",") ? imageData.split(",")[1] : imageData;
+      return client.verifyFaceWithImageData(classId, base64Image);
+    });
+  }
+
+  /**
+   * Performs face verification for a user using an uploaded image, without encoding it to base64.
+   *
+   * @param realm the realm
+   * @param user the user
+   * @param image the encoded image bytes (JPEG or PNG)
+   * @return true if verification succeeds, false otherwise
+   */
+  public boolean verifyFace(RealmModel realm, UserModel user, byte[] image) {
+    return verifyFace(realm, user, (client, classId) -> client.verifyFaceWithImageBytes(classId, image));
+  }
+
+  private boolean verifyFace(RealmModel realm, UserModel user, VerificationCall call) {
     FaceCredentialModel credential = getMostRecentFaceCredential(realm, user);
     if (credential == null) {
       logger.warn("No face credential found for user: {}", user.getId());
@@ -563,13 +632,7 @@ public class FaceCredentialProvider
       return false; // SECURITY: Never allow verification without proper BWS client
     }
     try {
-      // Extract base64 image data (remove data URL prefix if present)
-      String base64Image = imageData.contains(",") ? imageData.split(",")[1] : imageData;
-      // Use reflection to avoid compile-time dependency on BioIdException
-      Boolean result =
-          (Boolean) client.getClass().getMethod("verifyFaceWithImageData", long.class, String.class)
-              .invoke(client, credential.getClassId(), base64Image);
-      return result;
+      return call.verify(client, credential.getClassId());
     } catch (Exception e) {
       // Handle specific gRPC errors that indicate service issues
       String errorMessage = e.getMessage();
@@ -590,6 +653,12 @@ public class FaceCredentialProvider
     }
   }
 
+  /** A single BWS verification call for the class ID of the user's credential. */
+  @FunctionalInterface
+  private interface VerificationCall {
+    boolean verify(BioIdClient client, long classId) throws Exception;
+  }
+
   /**
    * Performs face verification with liveness detection using two images.
    *
@@ -7,6 +7,7 @@ import org.keycloak.Config;
 import org.keycloak.credential.CredentialProviderFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.provider.ProviderConfigurationBuilder;
 import org.slf4j.Logger;
@@ -95,7 +96,12 @@ public class FaceCredentialProviderFactory
 
   @Override
   public void postInit(KeycloakSessionFactory factory) {
-    // No post-initialization required
+    // Index existing face credentials once the database is migrated
+    factory.register(event -> {
+      if (event instanceof PostMigrationEvent) {
+        new ClassIdIndexBackfillJob(factory).start();
+      }
+    });
   }
 
   @Override
@@ -0,0 +1,194 @@
+package com.bioid.keycloak.credential;
+
+import jakarta.persistence.EntityManager;
+import java.time.Instant;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-realm face template counters, stored in the {@code BIOID_TEMPLATE_STATISTICS} table.
+ *
+ * <p>The counters are changed in the transaction that creates or removes face credentials. Each
+ * change is a single relative {@code UPDATE} of the realm's row, so concurrent enrollments do not
+ * lose increments and the realm entity is never written. A periodic reconciliation rebuilds the
+ * row from the credential table with {@link #store}. Until the first reconciliation, the row is
+ * absent and incremental updates change nothing.
+ */
+public final class FaceTemplateStatistics {
+
+  private static final Logger logger = LoggerFactory.getLogger(FaceTemplateStatistics.class);
+
+  // Realm attributes that held the counters before they moved to their own table
+  static final String[] LEGACY_ATTRIBUTES = {
+    "bioid.stats.templates",
+    "bioid.stats.users",
+    "bioid.stats.orphaned",
+    "bioid.stats.lastEnrollment",
+    "bioid.stats.reconciledAt"
+  };
+
+  private final long templates;
+  private final long users;
+  private final long orphaned;
+  private final Instant lastEnrollment;
+  private final Instant reconciledAt;
+
+  private FaceTemplateStatistics(long templates, long users, long orphaned,
+      Instant lastEnrollment, Instant reconciledAt) {
+    this.templates = templates;
+    this.users = users;
+    this.orphaned = orphaned;
+    this.lastEnrollment = lastEnrollment;
+    this.reconciledAt = reconciledAt;
+  }
+
+  /**
+   * Read the counters of a realm.
+   *
+   * @param session the Keycloak session
+   * @param realm the realm
+   * @return the counters, or null if the realm has not been reconciled yet
+   */
+  public static FaceTemplateStatistics of(KeycloakSession session, RealmModel realm) {
+    FaceTemplateStatisticsEntity entity =
+        entityManager(session).find(FaceTemplateStatisticsEntity.class, realm.getId());
+    return entity != null ? fromEntity(entity) : null;
+  }
+
+  /**
+   * Replace the counters of a realm with recomputed values.
+   *
+   * @return the stored counters
+   */
+  public static FaceTemplateStatistics store(KeycloakSession session, RealmModel realm,
+      long templates, long users, long orphaned, Instant lastEnrollment) {
+    EntityManager em = entityManager(session);
+    FaceTemplateStatisticsEntity entity =
+        em.find(FaceTemplateStatisticsEntity.class, realm.getId());
+    if (entity == null) {
+      entity = new FaceTemplateStatisticsEntity();
+      entity.setRealmId(realm.getId());
+      em.persist(entity);
+    }
+    entity.setTemplates(templates);
+    entity.setUsers(users);
+    entity.setOrphaned(orphaned);
+    entity.setLastEnrollment(lastEnrollment != null ? lastEnrollment.toEpochMilli() : null);
+    entity.setReconciledAt(Instant.now().toEpochMilli());
+    removeLegacyAttributes(realm);
+    return fromEntity(entity);
+  }
+
+  /**
+   * Apply a change of a user's face credentials to the realm counters. Must be called after the
+   * credentials were created or removed.
+   *
+   * @param session the Keycloak session
+   * @param realm the realm
+   * @param user the user whose credentials changed
+   * @param templateDelta number of face credentials created (positive) or removed (negative)
+   */
+  public static void recordChange(KeycloakSession session, RealmModel realm, UserModel user,
+      int templateDelta) {
+    if (templateDelta == 0) {
+      return;
+    }
+    try {
+      long remaining = user.credentialManager()
+          .getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE)
+          .count();
+      long userDelta = 0;
+      if (templateDelta > 0 && remaining == templateDelta) {
+        userDelta = 1;
+      } else if (templateDelta < 0 && remaining == 0) {
+        userDelta = -1;
+      }
+
+      entityManager(session)
+          .createQuery("UPDATE FaceTemplateStatisticsEntity s SET"
+              + " s.templates = CASE WHEN s.templates + :templateDelta < 0 THEN 0"
+              + " ELSE s.templates + :templateDelta END,"
+              + " s.users = CASE WHEN s.users + :userDelta < 0 THEN 0"
+              + " ELSE s.users + :userDelta END,"
+              + " s.lastEnrollment = CASE WHEN :templateDelta > 0 THEN :now"
+              + " ELSE s.lastEnrollment END"
+              + " WHERE s.realmId = :realmId")
+          .setParameter("templateDelta", (long) templateDelta)
+          .setParameter("userDelta", userDelta)
+          .setParameter("now", Instant.now().toEpochMilli())
+          .setParameter("realmId", realm.getId())
+          .executeUpdate();
+    } catch (RuntimeException e) {
+      // Statistics must never fail a credential change; reconciliation corrects them
+      logger.warn("Failed to update face template statistics of realm {}: {}", realm.getName(),
+          e.getMessage());
+    }
+  }
+
+  /**
+   * Apply the removal of orphaned class IDs (users indexed under a class ID without a face
+   * credential) to the realm counters.
+   *
+   * @param session the Keycloak session
+   * @param realm the realm
+   * @param count number of users whose orphaned class IDs were removed
+   */
+  public static void recordOrphansRemoved(KeycloakSession session, RealmModel realm, long count) {
+    if (count <= 0) {
+      return;
+    }
+    entityManager(session)
+        .createQuery("UPDATE FaceTemplateStatisticsEntity s SET"
+            + " s.orphaned = CASE WHEN s.orphaned < :count THEN 0 ELSE s.orphaned - :count END"
+            + " WHERE s.realmId = :realmId")
+        .setParameter("count", count)
+        .setParameter("realmId", realm.getId())
+        .executeUpdate();
+  }
+
+  public long getTemplates() {
+    return templates;
+  }
+
+  public long getUsers() {
+    return users;
+  }
+
+  public long getOrphaned() {
+    return orphaned;
+  }
+
+  public Instant getLastEnrollment() {
+    return lastEnrollment;
+  }
+
+  public Instant getReconciledAt() {
+    return reconciledAt;
+  }
+
+  private static FaceTemplateStatistics fromEntity(FaceTemplateStatisticsEntity entity) {
+    return new FaceTemplateStatistics(
+        entity.getTemplates(),
+        entity.getUsers(),
+        entity.getOrphaned(),
+        entity.getLastEnrollment() != null
+            ? Instant.ofEpochMilli(entity.getLastEnrollment()) : null,
+        Instant.ofEpochMilli(entity.getReconciledAt()));
+  }
+
+  private static void removeLegacyAttributes(RealmModel realm) {
+    for (String name : LEGACY_ATTRIBUTES) {
+      if (realm.getAttribute(name) != null) {
+        realm.removeAttribute(name);
+      }
+    }
+  }
+
+  private static EntityManager entityManager(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+}
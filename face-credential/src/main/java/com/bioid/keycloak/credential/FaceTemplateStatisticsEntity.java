@@ -0,0 +1,85 @@
+package com.bioid.keycloak.credential;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Face template counters of one realm.
+ *
+ * <p>The table is created by {@code META-INF/bioid-template-statistics-changelog.xml}. A row
+ * exists once the realm was reconciled; see {@link FaceTemplateStatistics}.
+ */
+@Entity
+@Table(name = "BIOID_TEMPLATE_STATISTICS")
+public class FaceTemplateStatisticsEntity {
+
+  @Id
+  @Column(name = "REALM_ID", length = 36)
+  private String realmId;
+
+  @Column(name = "TEMPLATE_COUNT", nullable = false)
+  private long templates;
+
+  @Column(name = "USER_COUNT", nullable = false)
+  private long users;
+
+  @Column(name = "ORPHANED_COUNT", nullable = false)
+  private long orphaned;
+
+  // Epoch milliseconds, like Keycloak's credential timestamps
+  @Column(name = "LAST_ENROLLMENT")
+  private Long lastEnrollment;
+
+  @Column(name = "RECONCILED_AT", nullable = false)
+  private long reconciledAt;
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public long getTemplates() {
+    return templates;
+  }
+
+  public void setTemplates(long templates) {
+    this.templates = templates;
+  }
+
+  public long getUsers() {
+    return users;
+  }
+
+  public void setUsers(long users) {
+    this.users = users;
+  }
+
+  public long getOrphaned() {
+    return orphaned;
+  }
+
+  public void setOrphaned(long orphaned) {
+    this.orphaned = orphaned;
+  }
+
+  public Long getLastEnrollment() {
+    return lastEnrollment;
+  }
+
+  public void setLastEnrollment(Long lastEnrollment) {
+    this.lastEnrollment = lastEnrollment;
+  }
+
+  public long getReconciledAt() {
+    return reconciledAt;
+  }
+
+  public void setReconciledAt(long reconciledAt) {
+    this.reconciledAt = reconciledAt;
+  }
+}
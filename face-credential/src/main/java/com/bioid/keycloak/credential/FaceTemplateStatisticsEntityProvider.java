@@ -0,0 +1,30 @@
+package com.bioid.keycloak.credential;
+
+import java.util.List;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+/** Adds {@link FaceTemplateStatisticsEntity} and its table to Keycloak's database. */
+public class FaceTemplateStatisticsEntityProvider implements JpaEntityProvider {
+
+  static final String CHANGELOG_LOCATION = "META-INF/bioid-template-statistics-changelog.xml";
+
+  @Override
+  public List<Class<?>> getEntities() {
+    return List.of(FaceTemplateStatisticsEntity.class);
+  }
+
+  @Override
+  public String getChangelogLocation() {
+    return CHANGELOG_LOCATION;
+  }
+
+  @Override
+  public String getFactoryId() {
+    return FaceTemplateStatisticsEntityProviderFactory.ID;
+  }
+
+  @Override
+  public void close() {
+    // No resources to close
+  }
+}
@@ -0,0 +1,66 @@
+package com.bioid.keycloak.rest;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.services.managers.AuthenticationSessionManager;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the browser's in-progress authentication session for REST endpoints that are called
+ * from the login pages (e.g. image uploads during enrollment or verification).
+ *
+ * <p>The root session comes from Keycloak's auth session cookie; the client id and tab id are the
+ * ones embedded in the login action URL, so a request can only reach the session of the browser
+ * tab that rendered the page.
+ */
+public final class AuthenticationSessionLookup {
+
+  private static final Logger logger = LoggerFactory.getLogger(AuthenticationSessionLookup.class);
+
+  private AuthenticationSessionLookup() {}
+
+  /**
+   * Finds the current authentication session for the given client and tab.
+   *
+   * @param session the Keycloak session
+   * @param clientId the OAuth client id from the login action URL
+   * @param tabId the tab id from the login action URL
+   * @return the authentication session, or {@code null} if none matches
+   */
+  public static AuthenticationSessionModel find(
+      KeycloakSession session, String clientId, String tabId) {
+    if (clientId == null || clientId.isBlank() || tabId == null || tabId.isBlank()) {
+      return null;
+    }
+
+    RealmModel realm = session.getContext().getRealm();
+    ClientModel client = realm.getClientByClientId(clientId);
+    if (client == null) {
+      logger.debug("Unknown client {} in authentication session lookup", clientId);
+      return null;
+    }
+
+    return new AuthenticationSessionManager(session)
+        .getCurrentAuthenticationSession(realm, client, tabId);
+  }
+
+  /**
+   * Finds the current authentication session and returns it only if a user has already been
+   * identified in the flow.
+   *
+   * @return the authentication session with an authenticated user, or {@code null}
+   */
+  public static AuthenticationSessionModel findWithUser(
+      KeycloakSession session, String clientId, String tabId) {
+    AuthenticationSessionModel authSession = find(session, clientId, tabId);
+    if (authSession == null) {
+      return null;
+    }
+    UserModel user = authSession.getAuthenticatedUser();
+    return user != null ? authSession : null;
+  }
+}
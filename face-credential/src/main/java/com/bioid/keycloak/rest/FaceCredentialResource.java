@@ -5,6 +5,7 @@ import com.bioid.keycloak.client.BioIdClientFactory;
 import com.bioid.keycloak.client.exception.BioIdException;
 import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceTemplateStatistics;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
@@ -240,6 +241,8 @@ public class FaceCredentialResource {
             logger.error("Failed to delete credential: {}", credentialModel.getId(), e);
           }
         }
+        FaceCredentialProvider.updateClassIdIndex(user);
+        FaceTemplateStatistics.recordChange(session, realm, user, -deletedCount);
       } finally {
         if (bioIdClient != null) {
           try {
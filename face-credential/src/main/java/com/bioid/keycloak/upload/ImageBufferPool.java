@@ -0,0 +1,115 @@
+package com.bioid.keycloak.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of reusable read buffers for image uploads.
+ *
+ * <p>Upload bodies are read into a pooled array that only grows as needed, so a login does not
+ * allocate several large intermediate arrays per image. Callers copy the bytes they keep out of the
+ * buffer and close it to hand the array back to the pool.
+ */
+public final class ImageBufferPool {
+
+  private static final int DEFAULT_INITIAL_CAPACITY = 256 * 1024;
+  private static final int DEFAULT_MAX_POOLED_CAPACITY = 4 * 1024 * 1024;
+  private static final int DEFAULT_POOL_SIZE = 16;
+
+  private static final ImageBufferPool INSTANCE =
+      new ImageBufferPool(DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_POOLED_CAPACITY, DEFAULT_POOL_SIZE);
+
+  private final int initialCapacity;
+  private final int maxPooledCapacity;
+  private final BlockingQueue<byte[]> pool;
+
+  ImageBufferPool(int initialCapacity, int maxPooledCapacity, int poolSize) {
+    this.initialCapacity = initialCapacity;
+    this.maxPooledCapacity = maxPooledCapacity;
+    this.pool = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  public static ImageBufferPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Reads the whole stream into a pooled buffer.
+   *
+   * @param in the stream to read
+   * @param maxBytes the maximum number of bytes accepted
+   * @return the filled buffer; must be closed after use
+   * @throws IOException if reading fails or the stream exceeds {@code maxBytes}
+   */
+  public Buffer read(InputStream in, int maxBytes) throws IOException {
+    byte[] array = pool.poll();
+    if (array == null) {
+      array = new byte[initialCapacity];
+    }
+    int length = 0;
+    try {
+      int read;
+      while ((read = in.read(array, length, array.length - length)) != -1) {
+        length += read;
+        if (length > maxBytes) {
+          throw new IOException("Upload exceeds maximum size of " + maxBytes + " bytes");
+        }
+        if (length == array.length) {
+          array = Arrays.copyOf(array, Math.min(array.length * 2, maxBytes + 1));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      release(array);
+      throw e;
+    }
+    return new Buffer(array, length);
+  }
+
+  int pooledCount() {
+    return pool.size();
+  }
+
+  private void release(byte[] array) {
+    if (array.length <= maxPooledCapacity) {
+      pool.offer(array);
+    }
+  }
+
+  /** A filled pooled buffer. Valid data is {@code array()[0, length())}. */
+  public final class Buffer implements AutoCloseable {
+    private byte[] array;
+    private final int length;
+
+    private Buffer(byte[] array, int length) {
+      this.array = array;
+      this.length = length;
+    }
+
+    public byte[] array() {
+      if (array == null) {
+        throw new IllegalStateException("Buffer already released");
+      }
+      return array;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    /** Copies {@code [offset, offset + count)} into a new, exactly sized array. */
+    public byte[] copy(int offset, int count) {
+      return Arrays.copyOfRange(array(), offset, offset + count);
+    }
+
+    @Override
+    public void close() {
+      if (array != null) {
+        release(array);
+        array = null;
+      }
+    }
+  }
+}
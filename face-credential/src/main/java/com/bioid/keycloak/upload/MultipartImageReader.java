@@ -0,0 +1,181 @@
+package com.bioid.keycloak.upload;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Minimal {@code multipart/form-data} reader that locates a single image part inside an upload
+ * buffer without copying the rest of the body.
+ *
+ * <p>The first part whose {@code Content-Disposition} name parameter is {@code image}, or failing
+ * that the first part with an {@code image/*} content type, is returned.
+ */
+public final class MultipartImageReader {
+
+  private MultipartImageReader() {}
+
+  /** Location of the image part within the buffer. */
+  public static final class Part {
+    private final int offset;
+    private final int length;
+    private final String contentType;
+
+    Part(int offset, int length, String contentType) {
+      this.offset = offset;
+      this.length = length;
+      this.contentType = contentType;
+    }
+
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+  }
+
+  /**
+   * Extracts the boundary parameter from a multipart content type header.
+   *
+   * @return the boundary, or {@code null} if the header carries none
+   */
+  public static String boundaryOf(String contentTypeHeader) {
+    if (contentTypeHeader == null) {
+      return null;
+    }
+    for (String param : contentTypeHeader.split(";")) {
+      String trimmed = param.trim();
+      if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+        String boundary = trimmed.substring("boundary=".length());
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+          boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary.isEmpty() ? null : boundary;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Finds the image part in a multipart body.
+   *
+   * @param body the buffer holding the body
+   * @param length number of valid bytes in {@code body}
+   * @param boundary the multipart boundary
+   * @return the image part, or {@code null} if the body contains none
+   */
+  public static Part findImagePart(byte[] body, int length, String boundary) {
+    byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    byte[] partDelimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    int position = indexOf(body, length, delimiter, 0);
+    Part fallback = null;
+    while (position >= 0) {
+      int lineEnd = position + delimiter.length;
+      if (lineEnd + 1 < length && body[lineEnd] == '-' && body[lineEnd + 1] == '-') {
+        break; // closing delimiter
+      }
+      int headersStart = lineEnd + 2; // skip CRLF after the delimiter
+      int headersEnd = indexOf(body, length, headerEnd, headersStart);
+      if (headersEnd < 0) {
+        return fallback;
+      }
+      int contentStart = headersEnd + headerEnd.length;
+      int contentEnd = indexOf(body, length, partDelimiter, contentStart);
+      if (contentEnd < 0) {
+        return fallback;
+      }
+
+      String headers =
+          new String(body, headersStart, headersEnd - headersStart, StandardCharsets.ISO_8859_1)
+              .toLowerCase(Locale.ROOT);
+      String contentType = headerValue(headers, "content-type");
+      Part part = new Part(contentStart, contentEnd - contentStart, contentType);
+      if ("image".equals(dispositionName(headerValue(headers, "content-disposition")))) {
+        return part;
+      }
+      if (fallback == null && contentType != null && contentType.startsWith("image/")) {
+        fallback = part;
+      }
+      position = contentEnd + 2; // points at the next "--boundary"
+    }
+    return fallback;
+  }
+
+  /**
+   * Returns the {@code name} parameter of a {@code Content-Disposition} header value, so that
+   * other parameters such as {@code filename} are never mistaken for it.
+   *
+   * @return the unquoted name, or {@code null} if the header carries none
+   */
+  static String dispositionName(String disposition) {
+    if (disposition == null) {
+      return null;
+    }
+    int start = disposition.indexOf(';');
+    while (start >= 0) {
+      // Find the end of the parameter, skipping separators inside quoted strings
+      int end = start + 1;
+      boolean quoted = false;
+      while (end < disposition.length() && (quoted || disposition.charAt(end) != ';')) {
+        char c = disposition.charAt(end);
+        if (c == '\\' && quoted) {
+          end++;
+        } else if (c == '"') {
+          quoted = !quoted;
+        }
+        end++;
+      }
+      String param = disposition.substring(start + 1, Math.min(end, disposition.length()));
+      int equals = param.indexOf('=');
+      if (equals > 0 && param.substring(0, equals).trim().equals("name")) {
+        return unquote(param.substring(equals + 1).trim());
+      }
+      start = end < disposition.length() ? end : -1;
+    }
+    return null;
+  }
+
+  private static String unquote(String value) {
+    if (value.length() < 2 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+      return value;
+    }
+    StringBuilder unquoted = new StringBuilder(value.length() - 2);
+    for (int i = 1; i < value.length() - 1; i++) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length() - 1) {
+        c = value.charAt(++i);
+      }
+      unquoted.append(c);
+    }
+    return unquoted.toString();
+  }
+
+  private static String headerValue(String headers, String name) {
+    for (String line : headers.split("\r\n")) {
+      if (line.startsWith(name + ":")) {
+        return line.substring(name.length() + 1).trim();
+      }
+    }
+    return null;
+  }
+
+  private static int indexOf(byte[] data, int length, byte[] pattern, int from) {
+    outer:
+    for (int i = Math.max(from, 0); i <= length - pattern.length; i++) {
+      for (int j = 0; j < pattern.length; j++) {
+        if (data[i + j] != pattern[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,275 @@
+package com.bioid.keycloak.upload;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds binary images uploaded by the login pages until the authentication flow consumes them.
+ *
+ * <p>The browser uploads each captured image as raw bytes and then submits only a short reference
+ * ({@value #REFERENCE_PREFIX}{@code <id>}) in the login form. References are bound to the
+ * authentication session and tab that uploaded them and can be taken exactly once. Unclaimed images
+ * expire after a few minutes.
+ *
+ * <p>Consumers take the raw bytes with {@link #take} or {@link #takeAll} and pass them on to the
+ * BWS client; {@link #resolve} and {@link #resolveImageData} re-encode images as data URLs and are
+ * only meant for the JSON liveness payloads, whose API takes base64 strings.
+ *
+ * <p>Images are kept in memory on the node that received the upload. Keycloak routes all requests
+ * of one authentication session to the same node, so the follow-up form post finds them.
+ */
+public final class StagedImageStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(StagedImageStore.class);
+
+  public static final String REFERENCE_PREFIX = "upload:";
+
+  private static final int ID_BYTES = 16;
+
+  /** Length of a reference: the prefix plus the unpadded base64url encoded id. */
+  public static final int REFERENCE_LENGTH = REFERENCE_PREFIX.length() + (ID_BYTES * 4 + 2) / 3;
+
+  private static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+  private static final int DEFAULT_MAX_PER_SCOPE = 10;
+  private static final long DEFAULT_MAX_TOTAL_BYTES = 128L * 1024 * 1024;
+
+  private static final StagedImageStore INSTANCE =
+      new StagedImageStore(DEFAULT_TTL, DEFAULT_MAX_PER_SCOPE, DEFAULT_MAX_TOTAL_BYTES);
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Duration ttl;
+  private final int maxPerScope;
+  private final long maxTotalBytes;
+  private final Map<String, StagedImage> images = new ConcurrentHashMap<>();
+  private final AtomicLong totalBytes = new AtomicLong();
+  private final SecureRandom random = new SecureRandom();
+
+  StagedImageStore(Duration ttl, int maxPerScope, long maxTotalBytes) {
+    this.ttl = ttl;
+    this.maxPerScope = maxPerScope;
+    this.maxTotalBytes = maxTotalBytes;
+  }
+
+  public static StagedImageStore getInstance() {
+    return INSTANCE;
+  }
+
+  /** Scope for images uploaded from the given authentication session tab. */
+  public static String scopeOf(AuthenticationSessionModel authSession) {
+    if (authSession == null || authSession.getParentSession() == null) {
+      return null;
+    }
+    return authSession.getParentSession().getId() + ":" + authSession.getTabId();
+  }
+
+  /** Whether the submitted image data contains references to staged uploads. */
+  public static boolean containsReferences(String imageData) {
+    return imageData != null && imageData.contains(REFERENCE_PREFIX);
+  }
+
+  /**
+   * Stages an uploaded image.
+   *
+   * @return the reference to submit in place of the image
+   * @throws IllegalStateException if the scope or the node has too many pending uploads
+   */
+  public String put(String scope, byte[] image, String contentType) {
+    evictExpired();
+    String prefix = scope + "#";
+    long pendingInScope = images.keySet().stream().filter(key -> key.startsWith(prefix)).count();
+    if (pendingInScope >= maxPerScope) {
+      throw new IllegalStateException("Too many pending uploads for this session");
+    }
+    if (totalBytes.addAndGet(image.length) > maxTotalBytes) {
+      totalBytes.addAndGet(-image.length);
+      throw new IllegalStateException("Upload capacity exhausted, please retry");
+    }
+
+    byte[] idBytes = new byte[ID_BYTES];
+    random.nextBytes(idBytes);
+    String id = Base64.getUrlEncoder().withoutPadding().encodeToString(idBytes);
+    images.put(prefix + id, new StagedImage(image, contentType, System.nanoTime() + ttl.toNanos()));
+    return REFERENCE_PREFIX + id;
+  }
+
+  /**
+   * Removes and returns a staged image.
+   *
+   * @return the image, or {@code null} if the reference is unknown, expired or from another scope
+   */
+  public StagedImage take(String scope, String reference) {
+    if (scope == null || reference == null || !reference.startsWith(REFERENCE_PREFIX)) {
+      return null;
+    }
+    StagedImage image = images.remove(scope + "#" + reference.substring(REFERENCE_PREFIX.length()));
+    if (image == null) {
+      return null;
+    }
+    totalBytes.addAndGet(-image.bytes.length);
+    return image.isExpired(System.nanoTime()) ? null : image;
+  }
+
+  /** Whether every value is a reference to a staged upload. */
+  public static boolean allReferences(List<String> values) {
+    return !values.isEmpty()
+        && values.stream().allMatch(value -> value != null && value.startsWith(REFERENCE_PREFIX));
+  }
+
+  /**
+   * Removes and returns the staged images of a list of references, so their bytes can be passed on
+   * without encoding them again.
+   *
+   * @throws IllegalArgumentException if a reference cannot be resolved
+   */
+  public List<byte[]> takeAll(String scope, List<String> references) {
+    List<byte[]> taken = new ArrayList<>(references.size());
+    for (String reference : references) {
+      StagedImage image = take(scope, reference);
+      if (image == null) {
+        throw new IllegalArgumentException("Uploaded image expired or not found");
+      }
+      taken.add(image.getBytes());
+    }
+    return taken;
+  }
+
+  /** Drops all pending uploads of a scope. */
+  public void discard(String scope) {
+    String prefix = scope + "#";
+    images.entrySet().removeIf(entry -> {
+      if (entry.getKey().startsWith(prefix)) {
+        totalBytes.addAndGet(-entry.getValue().bytes.length);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  /**
+   * Replaces a reference with the staged image as a data URL; other values are returned as is.
+   *
+   * @throws MissingImageException if the image was already taken or has expired
+   */
+  public String resolve(String scope, String value) {
+    if (value == null || !value.startsWith(REFERENCE_PREFIX)) {
+      return value;
+    }
+    StagedImage image = take(scope, value);
+    if (image == null) {
+      throw new MissingImageException();
+    }
+    return image.toDataUrl();
+  }
+
+  /** Resolves every reference in a list of image values. */
+  public List<String> resolveAll(String scope, List<String> values) {
+    List<String> resolved = new ArrayList<>(values.size());
+    for (String value : values) {
+      resolved.add(resolve(scope, value));
+    }
+    return resolved;
+  }
+
+  /**
+   * Resolves references in submitted image data, which is either a single value, a JSON array of
+   * values or a JSON object with an {@code images} array.
+   *
+   * @throws IllegalArgumentException if a reference cannot be resolved or the JSON is malformed
+   */
+  public String resolveImageData(String scope, String imageData) {
+    if (!containsReferences(imageData)) {
+      return imageData;
+    }
+    String trimmed = imageData.trim();
+    if (!trimmed.startsWith("[") && !trimmed.startsWith("{")) {
+      return resolve(scope, trimmed);
+    }
+    try {
+      JsonNode root = MAPPER.readTree(trimmed);
+      JsonNode images = root.isArray() ? root : root.get("images");
+      if (images == null || !images.isArray()) {
+        throw new IllegalArgumentException("Image data contains no images");
+      }
+      ArrayNode array = (ArrayNode) images;
+      for (int i = 0; i < array.size(); i++) {
+        if (array.get(i).isTextual()) {
+          array.set(i, array.textNode(resolve(scope, array.get(i).asText())));
+        }
+      }
+      return MAPPER.writeValueAsString(root);
+    } catch (IllegalArgumentException e) {
+      throw e;
+    } catch (Exception e) {
+      logger.warn("Failed to resolve uploaded image references: {}", e.getMessage());
+      throw new IllegalArgumentException("Invalid image data format", e);
+    }
+  }
+
+  int size() {
+    return images.size();
+  }
+
+  private void evictExpired() {
+    long now = System.nanoTime();
+    images.entrySet().removeIf(entry -> {
+      if (entry.getValue().isExpired(now)) {
+        totalBytes.addAndGet(-entry.getValue().bytes.length);
+        return true;
+      }
+      return false;
+    });
+  }
+
+  /** A reference whose image was already taken or has expired. */
+  public static final class MissingImageException extends IllegalArgumentException {
+    public MissingImageException() {
+      super("Uploaded image expired or not found");
+    }
+  }
+
+  /** An uploaded image waiting to be consumed. */
+  public static final class StagedImage {
+    private final byte[] bytes;
+    private final String contentType;
+    private final long expiresAtNanos;
+
+    StagedImage(byte[] bytes, String contentType, long expiresAtNanos) {
+      this.bytes = bytes;
+      this.contentType = contentType;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    public String getContentType() {
+      return contentType;
+    }
+
+    /**
+     * Encodes the image in the data URL form the BWS client accepts. Only needed where an API takes
+     * base64 strings; prefer passing {@link #getBytes()} on.
+     */
+    public String toDataUrl() {
+      return "data:" + contentType + ";base64," + Base64.getEncoder().encodeToString(bytes);
+    }
+
+    boolean isExpired(long nowNanos) {
+      return nowNanos - expiresAtNanos > 0;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package com.bioid.keycloak.credential;
 
 import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 
 import com.bioid.keycloak.client.BioIdClient;
 import java.util.List;
@@ -10,6 +12,8 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.provider.ProviderEventListener;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -23,6 +27,7 @@ class FaceCredentialProviderFactoryTest {
 
   @Mock private KeycloakSession session;
   @Mock private BioIdClient mockBioIdClient;
+  @Mock private KeycloakSessionFactory sessionFactory;
 
   private FaceCredentialProviderFactory factory;
 
@@ -104,9 +109,11 @@ class FaceCredentialProviderFactoryTest {
     assertThatCode(
             () -> {
               factory.init(null);
-              factory.postInit(null);
+              factory.postInit(sessionFactory);
             })
         .doesNotThrowAnyException();
+    // The class ID index backfill waits for the post-migration event
+    verify(sessionFactory).register(any(ProviderEventListener.class));
   }
 
   @Test
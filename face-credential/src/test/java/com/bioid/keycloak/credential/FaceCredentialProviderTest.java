@@ -5,6 +5,8 @@ import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 import com.bioid.keycloak.client.BioIdClient;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
@@ -13,6 +15,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
 import org.keycloak.credential.CredentialModel;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
@@ -368,6 +371,132 @@ class FaceCredentialProviderTest {
     assertThat(result).isFalse();
   }
 
+  @Test
+  @DisplayName("Should index class IDs of the user's face credentials")
+  void shouldIndexClassIds() {
+    // Given
+    CredentialModel credential = createMockCredentialModel("cred-1", testCredential);
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenReturn(Stream.of(credential));
+    when(user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE))
+        .thenReturn(Stream.empty());
+
+    // When
+    boolean changed = FaceCredentialProvider.updateClassIdIndex(user);
+
+    // Then
+    assertThat(changed).isTrue();
+    verify(user).setAttribute(FaceCredentialProvider.CLASS_ID_ATTRIBUTE, List.of("123456789"));
+  }
+
+  @Test
+  @DisplayName("Should not rewrite an up-to-date class ID index")
+  void shouldNotRewriteUpToDateClassIdIndex() {
+    // Given
+    CredentialModel credential = createMockCredentialModel("cred-1", testCredential);
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenReturn(Stream.of(credential));
+    when(user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE))
+        .thenReturn(Stream.of("123456789"));
+
+    // When
+    boolean changed = FaceCredentialProvider.updateClassIdIndex(user);
+
+    // Then
+    assertThat(changed).isFalse();
+    verify(user, never()).setAttribute(anyString(), anyList());
+    verify(user, never()).removeAttribute(anyString());
+  }
+
+  @Test
+  @DisplayName("Should remove the class ID index when no face credential is left")
+  void shouldRemoveClassIdIndexWithoutCredentials() {
+    // Given
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenReturn(Stream.empty());
+    when(user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE))
+        .thenReturn(Stream.of("123456789"));
+
+    // When
+    boolean changed = FaceCredentialProvider.updateClassIdIndex(user);
+
+    // Then
+    assertThat(changed).isTrue();
+    verify(user).removeAttribute(FaceCredentialProvider.CLASS_ID_ATTRIBUTE);
+  }
+
+  @Test
+  @DisplayName("Should count a user's first face credential in the realm statistics")
+  void shouldCountFirstCredentialInRealmStatistics() {
+    // Given
+    Query update = mockStatisticsUpdate();
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenReturn(Stream.of(createMockCredentialModel("cred-1", testCredential)));
+
+    // When
+    FaceTemplateStatistics.recordChange(session, realm, user, 1);
+
+    // Then
+    verify(update).setParameter("templateDelta", 1L);
+    verify(update).setParameter("userDelta", 1L);
+    verify(update).setParameter("realmId", "test-realm-id");
+    verify(update).executeUpdate();
+    verify(realm, never()).setAttribute(anyString(), anyString());
+  }
+
+  @Test
+  @DisplayName("Should keep the user count when other face credentials remain")
+  void shouldKeepUserCountWhenCredentialsRemain() {
+    // Given
+    Query update = mockStatisticsUpdate();
+    when(credentialManager.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenReturn(Stream.of(createMockCredentialModel("cred-2", testCredential)));
+
+    // When
+    FaceTemplateStatistics.recordChange(session, realm, user, -1);
+
+    // Then
+    verify(update).setParameter("templateDelta", -1L);
+    verify(update).setParameter("userDelta", 0L);
+    verify(update).executeUpdate();
+  }
+
+  @Test
+  @DisplayName("Should create the statistics row of a realm on its first reconciliation")
+  void shouldCreateStatisticsRowOnFirstReconciliation() {
+    // Given
+    EntityManager em = mockEntityManager();
+    when(realm.getAttribute("bioid.stats.templates")).thenReturn("7");
+
+    // When
+    FaceTemplateStatistics stats =
+        FaceTemplateStatistics.store(session, realm, 8, 6, 1, Instant.ofEpochMilli(1000));
+
+    // Then
+    verify(em).persist(argThat(entity -> entity instanceof FaceTemplateStatisticsEntity row
+        && "test-realm-id".equals(row.getRealmId()) && row.getTemplates() == 8));
+    assertThat(stats.getUsers()).isEqualTo(6);
+    assertThat(stats.getLastEnrollment()).isEqualTo(Instant.ofEpochMilli(1000));
+    verify(realm).removeAttribute("bioid.stats.templates");
+  }
+
+  private EntityManager mockEntityManager() {
+    JpaConnectionProvider jpa = mock(JpaConnectionProvider.class);
+    EntityManager em = mock(EntityManager.class);
+    when(session.getProvider(JpaConnectionProvider.class)).thenReturn(jpa);
+    when(jpa.getEntityManager()).thenReturn(em);
+    lenient().when(realm.getId()).thenReturn("test-realm-id");
+    return em;
+  }
+
+  private Query mockStatisticsUpdate() {
+    EntityManager em = mockEntityManager();
+    Query update = mock(Query.class);
+    when(em.createQuery(anyString())).thenReturn(update);
+    when(update.setParameter(anyString(), any())).thenReturn(update);
+    return update;
+  }
+
   private CredentialModel createMockCredentialModel(String id, FaceCredentialModel faceCredential) {
     try {
       CredentialModel credential = new CredentialModel();
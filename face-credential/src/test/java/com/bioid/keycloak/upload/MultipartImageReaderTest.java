@@ -0,0 +1,98 @@
+package com.bioid.keycloak.upload;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for MultipartImageReader and ImageBufferPool. */
+class MultipartImageReaderTest {
+
+  @Test
+  @DisplayName("Image part is located without copying the body")
+  void testFindImagePart() throws Exception {
+    String body =
+        "--abc\r\n"
+            + "Content-Disposition: form-data; name=\"note\"\r\n\r\n"
+            + "hello\r\n"
+            + "--abc\r\n"
+            + "Content-Disposition: form-data; name=\"image\"; filename=\"f.jpg\"\r\n"
+            + "Content-Type: image/jpeg\r\n\r\n"
+            + "JPEGDATA\r\n"
+            + "--abc--\r\n";
+    ImageBufferPool pool = new ImageBufferPool(8, 1024, 2);
+
+    try (ImageBufferPool.Buffer buffer =
+        pool.read(new ByteArrayInputStream(body.getBytes(StandardCharsets.ISO_8859_1)), 1024)) {
+      MultipartImageReader.Part part =
+          MultipartImageReader.findImagePart(
+              buffer.array(),
+              buffer.length(),
+              MultipartImageReader.boundaryOf("multipart/form-data; boundary=\"abc\""));
+
+      assertNotNull(part);
+      assertEquals("image/jpeg", part.getContentType());
+      assertEquals(
+          "JPEGDATA",
+          new String(buffer.copy(part.getOffset(), part.getLength()), StandardCharsets.ISO_8859_1));
+    }
+    assertEquals(1, pool.pooledCount());
+  }
+
+  @Test
+  @DisplayName("Body without an image part yields null")
+  void testNoImagePart() {
+    byte[] body =
+        ("--abc\r\nContent-Disposition: form-data; name=\"note\"\r\n\r\nhello\r\n--abc--\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    assertNull(MultipartImageReader.findImagePart(body, body.length, "abc"));
+    assertNull(MultipartImageReader.boundaryOf("image/jpeg"));
+  }
+
+  @Test
+  @DisplayName("A filename of image does not make a part the image part")
+  void testFilenameIsNotName() {
+    byte[] body =
+        ("--abc\r\n"
+                + "Content-Disposition: form-data; name=\"avatar\"; filename=\"image\"\r\n"
+                + "Content-Type: image/png\r\n\r\n"
+                + "PNGDATA\r\n"
+                + "--abc\r\n"
+                + "Content-Disposition: form-data; filename=\"a;b.jpg\"; name=\"image\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n"
+                + "JPEGDATA\r\n"
+                + "--abc--\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    MultipartImageReader.Part part = MultipartImageReader.findImagePart(body, body.length, "abc");
+
+    assertNotNull(part);
+    assertEquals("image/jpeg", part.getContentType());
+  }
+
+  @Test
+  @DisplayName("Content-Disposition name parameter is parsed exactly")
+  void testDispositionName() {
+    assertEquals("image", MultipartImageReader.dispositionName("form-data; name=\"image\""));
+    assertEquals("image", MultipartImageReader.dispositionName("form-data; name = image"));
+    assertEquals(
+        "image",
+        MultipartImageReader.dispositionName("form-data; filename=\"x; name=y\"; name=\"image\""));
+    assertEquals("a\"b", MultipartImageReader.dispositionName("form-data; name=\"a\\\"b\""));
+    assertNull(MultipartImageReader.dispositionName("form-data; filename=\"image\""));
+    assertNull(MultipartImageReader.dispositionName(null));
+  }
+
+  @Test
+  @DisplayName("Oversized uploads are rejected and the buffer returned to the pool")
+  void testOversizedUpload() {
+    ImageBufferPool pool = new ImageBufferPool(4, 1024, 2);
+
+    assertThrows(
+        java.io.IOException.class, () -> pool.read(new ByteArrayInputStream(new byte[64]), 16));
+    assertEquals(1, pool.pooledCount());
+  }
+}
@@ -0,0 +1,103 @@
+package com.bioid.keycloak.upload;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+/** Tests for StagedImageStore. */
+class StagedImageStoreTest {
+
+  private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 0x01, 0x02};
+
+  private StagedImageStore store;
+
+  @BeforeEach
+  void setUp() {
+    store = new StagedImageStore(Duration.ofMinutes(1), 3, 1024);
+  }
+
+  @Test
+  @DisplayName("Staged image can be taken exactly once by its own scope")
+  void testTakeOnceWithinScope() {
+    String reference = store.put("session-1:tab", JPEG, "image/jpeg");
+
+    assertTrue(reference.startsWith(StagedImageStore.REFERENCE_PREFIX));
+    assertEquals(StagedImageStore.REFERENCE_LENGTH, reference.length());
+    assertNull(store.take("session-2:tab", reference));
+    assertArrayEquals(JPEG, store.take("session-1:tab", reference).getBytes());
+    assertNull(store.take("session-1:tab", reference));
+    assertEquals(0, store.size());
+  }
+
+  @Test
+  @DisplayName("References in a liveness payload are replaced with data URLs")
+  void testResolveImageDataObject() {
+    String first = store.put("s:t", JPEG, "image/jpeg");
+    String second = store.put("s:t", JPEG, "image/jpeg");
+
+    String resolved =
+        store.resolveImageData(
+            "s:t", "{\"images\":[\"" + first + "\",\"" + second + "\"],\"mode\":\"active\"}");
+
+    assertFalse(StagedImageStore.containsReferences(resolved));
+    assertTrue(resolved.contains("data:image/jpeg;base64,/9j/AQI="));
+    assertTrue(resolved.contains("\"mode\":\"active\""));
+  }
+
+  @Test
+  @DisplayName("Inline images pass through unchanged")
+  void testResolveAllKeepsInlineImages() {
+    String reference = store.put("s:t", JPEG, "image/jpeg");
+
+    List<String> resolved =
+        store.resolveAll("s:t", List.of("data:image/png;base64,AAAA", reference));
+
+    assertEquals("data:image/png;base64,AAAA", resolved.get(0));
+    assertTrue(resolved.get(1).startsWith("data:image/jpeg;base64,"));
+  }
+
+  @Test
+  @DisplayName("Uploads are taken as bytes without encoding them again")
+  void testTakeAllReturnsBytes() {
+    List<String> references =
+        List.of(store.put("s:t", JPEG, "image/jpeg"), store.put("s:t", JPEG, "image/jpeg"));
+
+    assertTrue(StagedImageStore.allReferences(references));
+    assertFalse(StagedImageStore.allReferences(List.of(references.get(0), "data:image/png;base64,")));
+
+    List<byte[]> images = store.takeAll("s:t", references);
+
+    assertEquals(2, images.size());
+    assertArrayEquals(JPEG, images.get(1));
+    assertEquals(0, store.size());
+    assertThrows(IllegalArgumentException.class, () -> store.takeAll("s:t", references));
+  }
+
+  @Test
+  @DisplayName("Unknown references are rejected")
+  void testUnknownReference() {
+    assertThrows(
+        IllegalArgumentException.class, () -> store.resolve("s:t", "upload:does-not-exist"));
+  }
+
+  @Test
+  @DisplayName("Per-session and total limits are enforced")
+  void testLimits() {
+    store.put("s:t", JPEG, "image/jpeg");
+    store.put("s:t", JPEG, "image/jpeg");
+    store.put("s:t", JPEG, "image/jpeg");
+    assertThrows(IllegalStateException.class, () -> store.put("s:t", JPEG, "image/jpeg"));
+
+    byte[] large = "x".repeat(1100).getBytes(StandardCharsets.US_ASCII);
+    assertThrows(IllegalStateException.class, () -> store.put("other:t", large, "image/jpeg"));
+
+    store.discard("s:t");
+    assertEquals(0, store.size());
+    store.put("other:t", new byte[1000], "image/jpeg");
+  }
+}
@@ -1,11 +1,16 @@
 package com.bioid.keycloak.action;
 
 import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.concurrent.SubmissionDeduplicator;
+import com.bioid.keycloak.client.config.BioIdConfiguration;
+import com.bioid.keycloak.client.logging.HotPathLogger;
 // import com.bioid.keycloak.client.exception.BioIdException; // Commented out due to Maven reactor build issues
 import com.bioid.keycloak.credential.FaceCredentialModel;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
 import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.upload.StagedImageStore;
 import jakarta.ws.rs.core.Response;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import org.keycloak.authentication.RequiredActionContext;
@@ -14,18 +19,33 @@ import org.keycloak.credential.CredentialProvider;
 import org.keycloak.events.Errors;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
 
 public class FaceEnrollAction implements RequiredActionProvider {
 
   private static final Logger logger = LoggerFactory.getLogger(FaceEnrollAction.class);
 
+  // Per-enrollment events are sampled and rate limited so log volume stays bounded under load
+  private static final HotPathLogger hotPath = HotPathLogger.forClass(FaceEnrollAction.class);
+  private static final HotPathLogger.Event ENROLL_SUBMITTED =
+      hotPath.event("face.enroll.submitted", Level.DEBUG, 1, 20, 50);
+  private static final HotPathLogger.Event ENROLL_PROCESSING =
+      hotPath.event("face.enroll.processing", Level.INFO, 5, 5, 20);
+
   public static final String PROVIDER_ID = "face-enroll";
-  private static final int MIN_REQUIRED_FRAMES = 3;
+  static final int MIN_REQUIRED_FRAMES = 3;
   private static final int MAX_ENROLLMENT_ATTEMPTS = 3;
   private static final int DEFAULT_CREDENTIAL_TTL_DAYS = 730; // 2 years
   private static final int MAX_IMAGE_SIZE_MB = 10; // Security limit for image data payload
+  private static final int MAX_IMAGES = 3;
+  private static final int MIN_IMAGE_LENGTH = 100;
+
+  // Double-posted enrollment forms within one auth session share a single BWS enroll and
+  // credential write instead of creating duplicate templates and credentials.
+  private static final SubmissionDeduplicator enrollmentSubmissions = new SubmissionDeduplicator();
 
   public FaceEnrollAction() {
     // The session passed by the factory can become stale.
@@ -85,6 +105,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
             .form()
             .setAttribute("minRequiredFrames", MIN_REQUIRED_FRAMES)
             .setAttribute("maxAttempts", MAX_ENROLLMENT_ATTEMPTS)
+            .setAttribute("progressiveEnrollment", true)
             .createForm("face-enroll.ftl");
     context.challenge(challenge);
   }
@@ -102,17 +123,16 @@ public class FaceEnrollAction implements RequiredActionProvider {
       handleSkipEnrollment(context);
       return;
     }
+    if ("progressive-complete".equals(action)) {
+      completeProgressiveEnrollment(context);
+      return;
+    }
+    discardProgressiveEnrollment(context);
 
     String imageData = context.getHttpRequest().getDecodedFormParameters().getFirst("imageData");
 
-    // Log what we received
-    if (imageData != null) {
-      logger.info("Received imageData length: {}, starts with: {}", 
-          imageData.length(), 
-          imageData.substring(0, Math.min(100, imageData.length())));
-    } else {
-      logger.warn("Received null imageData");
-    }
+    ENROLL_SUBMITTED.log(
+        "userId", context.getUser().getId(), "image", HotPathLogger.imageSummary(imageData));
 
     // --- SECURITY VALIDATION ---
     if (!isImageDataValid(imageData)) {
@@ -129,27 +149,31 @@ public class FaceEnrollAction implements RequiredActionProvider {
         return;
       }
       
-      logger.info("Processing enrollment with {} image(s) for user: {}", 
-          imageList.size(), context.getUser().getId());
-
-      // Step 1: Send image(s) to BioID and get a result.
-      BioIdClient.EnrollmentResult enrollmentResult = performEnrollment(context, imageList);
-
-      // Step 2: Create the credential in Keycloak based on the result.
-      FaceCredentialModel credential = createFaceCredentialFromResponse(context, enrollmentResult);
-
-      // Step 3: Verify the newly created template as a sanity check using the first image.
-      boolean verificationSuccess = performVerification(context, credential, imageList.get(0));
+      ENROLL_PROCESSING.log("userId", context.getUser().getId(), "images", imageList.size());
+
+      SubmissionDeduplicator.Outcome<Boolean> outcome =
+          enrollmentSubmissions.execute(
+              submissionScope(context),
+              imageData,
+              enrollmentTimeout(),
+              () -> enrollAndVerify(context, imageList));
+      if (outcome.isShared()) {
+        logger.info(
+            "Duplicate enrollment submission for user: {}, reusing result of the first request",
+            context.getUser().getId());
+      }
 
-      if (verificationSuccess) {
+      if (outcome.getResult()) {
         handleEnrollmentSuccess(context);
       } else {
-        getCredentialProvider(context.getSession())
-            .deleteCredential(context.getRealm(), context.getUser(), credential.getId());
         handleEnrollmentFailure(
             context,
             "Verification of newly enrolled face failed. Please try again with better lighting and a clear background.");
       }
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "Invalid enrollment images for user {}: {}", context.getUser().getId(), e.getMessage());
+      handleEnrollmentFailure(context, "Invalid or missing image data. Please try again.");
     } catch (Exception e) {
       // Check if this is a BioID service error based on message content
       String errorMessage = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
@@ -166,14 +190,200 @@ public class FaceEnrollAction implements RequiredActionProvider {
     }
   }
 
+  /**
+   * Enrolls the images, stores the credential and verifies the new template. Runs at most once per
+   * distinct submission; duplicates reuse the returned verification result.
+   *
+   * @return true if the newly enrolled template verified successfully
+   */
+  private boolean enrollAndVerify(
+      RequiredActionContext context, java.util.List<String> submittedImages) throws Exception {
+    String scope = StagedImageStore.scopeOf(context.getAuthenticationSession());
+    BioIdClient.EnrollmentResult enrollmentResult;
+    VerificationCall verification;
+    if (StagedImageStore.allReferences(submittedImages)) {
+      // Binary uploads are passed on as bytes. Throws IllegalArgumentException if a staged upload
+      // expired or belongs to another session.
+      java.util.List<byte[]> images = StagedImageStore.getInstance().takeAll(scope, submittedImages);
+      images.forEach(FaceEnrollAction::checkStagedImage);
+
+      // Step 1: Send image(s) to BioID and get a result.
+      enrollmentResult =
+          performEnrollment(
+              context,
+              images.size(),
+              (client, classId) -> client.enrollFaceWithImageBytes(classId, images));
+      verification = (client, classId) -> client.verifyFaceWithImageBytes(classId, images.get(0));
+    } else {
+      java.util.List<String> imageList =
+          StagedImageStore.getInstance().resolveAll(scope, submittedImages);
+
+      // Step 1: Send image(s) to BioID and get a result.
+      enrollmentResult = performEnrollment(context, imageList);
+      String base64Image = imageList.get(0).substring(imageList.get(0).indexOf(',') + 1);
+      verification = (client, classId) -> client.verifyFaceWithImageData(classId, base64Image);
+    }
+
+    // Step 2: Create the credential in Keycloak based on the result.
+    FaceCredentialModel credential = createFaceCredentialFromResponse(context, enrollmentResult);
+
+    // Step 3: Verify the newly created template as a sanity check using the first image.
+    boolean verificationSuccess = performVerification(context, credential, verification);
+
+    if (!verificationSuccess) {
+      getCredentialProvider(context.getSession())
+          .deleteCredential(context.getRealm(), context.getUser(), credential.getId());
+    }
+    return verificationSuccess;
+  }
+
+  /**
+   * Finishes an enrollment whose frames were already uploaded through {@link
+   * ProgressiveEnrollmentResource}. The template is complete at this point, so the credential is
+   * stored and then verified with the captured frame submitted with the form, as in {@link
+   * #enrollAndVerify}.
+   */
+  private void completeProgressiveEnrollment(RequiredActionContext context) {
+    AuthenticationSessionModel authSession = context.getAuthenticationSession();
+    ProgressiveEnrollmentState state = ProgressiveEnrollmentState.load(authSession);
+    if (state == null || !state.isComplete(MIN_REQUIRED_FRAMES)) {
+      handleEnrollmentFailure(
+          context, "Not enough valid images were captured. Please try again.");
+      return;
+    }
+
+    String imageData = context.getHttpRequest().getDecodedFormParameters().getFirst("imageData");
+    if (!isImageDataValid(imageData)) {
+      discardProgressiveEnrollment(context);
+      handleEnrollmentFailure(context, "Invalid or missing image data. Please try again.");
+      return;
+    }
+
+    try {
+      SubmissionDeduplicator.Outcome<Boolean> outcome =
+          enrollmentSubmissions.execute(
+              submissionScope(context),
+              "progressive:" + state.getClassId(),
+              enrollmentTimeout(),
+              () -> storeAndVerifyProgressive(context, state, imageData));
+      if (outcome.isShared()) {
+        logger.info(
+            "Duplicate enrollment submission for user: {}, reusing result of the first request",
+            context.getUser().getId());
+      }
+      ProgressiveEnrollmentState.clear(authSession);
+      PartialTemplateCleanup.untrack(state.getClassId());
+
+      if (outcome.getResult()) {
+        logger.info(
+            "Progressive enrollment completed for user: {} with {} accepted frame(s), {} template update(s)",
+            context.getUser().getId(),
+            state.getFramesAccepted(),
+            state.getTemplateUpdates());
+        handleEnrollmentSuccess(context);
+      } else {
+        handleEnrollmentFailure(
+            context,
+            "Verification of newly enrolled face failed. Please try again with better lighting and a clear background.");
+      }
+    } catch (IllegalArgumentException e) {
+      logger.warn(
+          "Invalid verification image for user {}: {}", context.getUser().getId(), e.getMessage());
+      discardProgressiveEnrollment(context);
+      handleEnrollmentFailure(context, "Invalid or missing image data. Please try again.");
+    } catch (Exception e) {
+      logger.error(
+          "Failed to complete progressive enrollment for user: {}", context.getUser().getId(), e);
+      handleEnrollmentFailure(
+          context, "An unexpected system error occurred. Please try again later.");
+    }
+  }
+
+  /**
+   * Stores the credential of a progressive enrollment and verifies the new template. A template
+   * that fails verification is deleted together with its credential.
+   *
+   * @return true if the newly enrolled template verified successfully
+   */
+  private boolean storeAndVerifyProgressive(
+      RequiredActionContext context, ProgressiveEnrollmentState state, String imageData)
+      throws Exception {
+    // Throws IllegalArgumentException if a staged upload expired or belongs to another session
+    java.util.List<String> submitted = java.util.List.of(imageData);
+    VerificationCall verification;
+    if (StagedImageStore.allReferences(submitted)) {
+      byte[] image =
+          StagedImageStore.getInstance()
+              .takeAll(StagedImageStore.scopeOf(context.getAuthenticationSession()), submitted)
+              .get(0);
+      checkStagedImage(image);
+      verification = (client, classId) -> client.verifyFaceWithImageBytes(classId, image);
+    } else {
+      String base64Image = imageData.substring(imageData.indexOf(',') + 1);
+      verification = (client, classId) -> client.verifyFaceWithImageData(classId, base64Image);
+    }
+
+    FaceCredentialModel credential =
+        createFaceCredentialFromResponse(context, state.toEnrollmentResult());
+    boolean verificationSuccess = performVerification(context, credential, verification);
+
+    if (!verificationSuccess) {
+      getCredentialProvider(context.getSession())
+          .deleteCredential(context.getRealm(), context.getUser(), credential.getId());
+    }
+    return verificationSuccess;
+  }
+
+  /**
+   * Drops an unfinished progressive enrollment when the browser falls back to posting all frames
+   * with the form, so the partially built template does not linger in BWS.
+   */
+  private void discardProgressiveEnrollment(RequiredActionContext context) {
+    AuthenticationSessionModel authSession = context.getAuthenticationSession();
+    ProgressiveEnrollmentState state = ProgressiveEnrollmentState.load(authSession);
+    if (state == null) {
+      return;
+    }
+    ProgressiveEnrollmentState.clear(authSession);
+    if (state.isTemplateCreated()) {
+      try {
+        getCredentialProvider(context.getSession()).getBioIdClient().deleteTemplate(
+            state.getClassId());
+        PartialTemplateCleanup.untrack(state.getClassId());
+      } catch (Exception e) {
+        logger.warn(
+            "Failed to delete partial template for classId {}: {}",
+            state.getClassId(),
+            e.getMessage());
+      }
+    }
+  }
+
+  /** How long a duplicate enrollment submission waits for the first one: the enrollment timeout. */
+  private static Duration enrollmentTimeout() {
+    return BioIdConfiguration.getInstance().getEnrollmentTimeout();
+  }
+
+  /** Deduplication scope for enrollment submissions: authentication session plus browser tab. */
+  private String submissionScope(RequiredActionContext context) {
+    AuthenticationSessionModel authSession = context.getAuthenticationSession();
+    if (authSession == null || authSession.getParentSession() == null) {
+      return null;
+    }
+    return "enroll:" + authSession.getParentSession().getId() + ":" + authSession.getTabId();
+  }
+
   /** Performs security validation on the incoming image data payload. */
   private boolean isImageDataValid(String imageData) {
     if (imageData == null || imageData.trim().isEmpty()) {
       logger.warn("Image data is null or empty.");
       return false;
     }
+    if (StagedImageStore.containsReferences(imageData)) {
+      return isReferenceDataValid(imageData);
+    }
     // Check for a reasonable minimum length to avoid processing trivial inputs.
-    if (imageData.length() < 100) {
+    if (imageData.length() < MIN_IMAGE_LENGTH) {
       logger.warn("Image data is too short ({} chars).", imageData.length());
       return false;
     }
@@ -181,7 +391,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
     // For single images: MAX_IMAGE_SIZE_MB * 1.4 (base64 overhead)
     // For JSON arrays: Allow up to 3 images, each MAX_IMAGE_SIZE_MB
     int maxSingleImageBytes = (int) (MAX_IMAGE_SIZE_MB * 1024 * 1024 * 1.4);
-    int maxMultiImageBytes = maxSingleImageBytes * 3 + 1000; // +1000 for JSON overhead
+    int maxMultiImageBytes = maxSingleImageBytes * MAX_IMAGES + 1000; // +1000 for JSON overhead
     
     boolean isJsonArray = imageData.trim().startsWith("[");
     int maxAllowedSize = isJsonArray ? maxMultiImageBytes : maxSingleImageBytes;
@@ -196,13 +406,42 @@ public class FaceEnrollAction implements RequiredActionProvider {
     }
     // Format check: Ensure it's either a data URL for an image or a JSON array
     if (!imageData.startsWith("data:image/") && !imageData.trim().startsWith("[")) {
-      logger.warn("Invalid image data format. Must be a data URL or JSON array. Starts with: {}", 
-          imageData.substring(0, Math.min(50, imageData.length())));
+      logger.warn("Invalid image data format. Must be a data URL or JSON array. Received: {}",
+          HotPathLogger.imageSummary(imageData));
       return false;
     }
     return true;
   }
 
+  /**
+   * Performs security validation on a payload of staged upload references. The images themselves
+   * are checked by {@link #checkStagedImage} once they are taken from the store.
+   */
+  private boolean isReferenceDataValid(String imageData) {
+    // At most MAX_IMAGES quoted references with separators, plus the array brackets
+    int maxAllowedSize = MAX_IMAGES * (StagedImageStore.REFERENCE_LENGTH + 3) + 2;
+    if (imageData.length() > maxAllowedSize) {
+      logger.warn(
+          "Image reference payload is too large: {} chars. Limit is {} chars.",
+          imageData.length(),
+          maxAllowedSize);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Applies the payload size limits to a staged image; its type was checked on upload.
+   *
+   * @throws IllegalArgumentException if the image is too small or too large
+   */
+  private static void checkStagedImage(byte[] image) {
+    if (image.length < MIN_IMAGE_LENGTH || image.length > MAX_IMAGE_SIZE_MB * 1024 * 1024) {
+      throw new IllegalArgumentException(
+          "Uploaded image size out of bounds: " + image.length + " bytes");
+    }
+  }
+
   /**
    * Handles user skipping face enrollment.
    * Sets a user attribute to remember the skip and allows login to proceed.
@@ -259,6 +498,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
             .setError(userFriendlyMessage)
             .setAttribute("minRequiredFrames", MIN_REQUIRED_FRAMES)
             .setAttribute("maxAttempts", MAX_ENROLLMENT_ATTEMPTS)
+            .setAttribute("progressiveEnrollment", true)
             .createForm("face-enroll.ftl");
     context.challenge(challenge);
   }
@@ -302,7 +542,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
     
     // Check if it's a JSON array
     String trimmed = imageData.trim();
-    logger.info("Parsing image data, starts with '[': {}, length: {}", 
+    logger.debug("Parsing image data, starts with '[': {}, length: {}", 
         trimmed.startsWith("["), trimmed.length());
     
     if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
@@ -317,7 +557,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
           }
         }
         
-        logger.info("Successfully parsed {} images from JSON array using Jackson", imageList.size());
+        logger.debug("Successfully parsed {} images from JSON array using Jackson", imageList.size());
       } catch (Exception e) {
         logger.error("Failed to parse JSON array with Jackson, trying manual parsing", e);
         
@@ -368,15 +608,30 @@ public class FaceEnrollAction implements RequiredActionProvider {
       }
     } else {
       // Single image
-      logger.info("Treating as single image (not a JSON array)");
+      logger.debug("Treating as single image (not a JSON array)");
       imageList.add(imageData);
     }
     
     return imageList;
   }
 
+  /** Enrolls base64 images, with or without data URL prefix. */
   private BioIdClient.EnrollmentResult performEnrollment(
       RequiredActionContext context, java.util.List<String> imageDataList) throws Exception {
+    // Decoding and validation happen in parallel inside the client, so this only trims the prefix
+    // without copying bytes twice.
+    java.util.List<String> base64Images = new java.util.ArrayList<>(imageDataList.size());
+    for (String imageData : imageDataList) {
+      base64Images.add(imageData.substring(imageData.indexOf(',') + 1));
+    }
+    return performEnrollment(
+        context,
+        imageDataList.size(),
+        (client, classId) -> client.enrollFaceWithMultipleImages(classId, base64Images));
+  }
+
+  private BioIdClient.EnrollmentResult performEnrollment(
+      RequiredActionContext context, int imageCount, EnrollmentCall call) throws Exception {
     try {
       BioIdClient client = getCredentialProvider(context.getSession()).getBioIdClient();
 
@@ -394,19 +649,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
       }
 
       long classId = Math.abs(context.getUser().getId().hashCode() + System.currentTimeMillis());
-
-      // Process all images - remove data URL prefix if present
-      java.util.List<String> base64Images = new java.util.ArrayList<>();
-      for (String imageData : imageDataList) {
-        String base64Image = imageData.contains(",") ? imageData.split(",")[1] : imageData;
-        base64Images.add(base64Image);
-      }
-
-      // Use reflection to call the multi-image enrollment method
-      Object result = client.getClass()
-          .getMethod("enrollFaceWithMultipleImages", long.class, java.util.List.class)
-          .invoke(client, classId, base64Images);
-      return (BioIdClient.EnrollmentResult) result;
+      return call.enroll(client, classId);
     } catch (Exception e) {
       // Handle specific gRPC errors that indicate service issues
       String errorMessage = e.getMessage();
@@ -424,7 +667,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
       } else if (errorMessage.contains("DEADLINE_EXCEEDED") || errorMessage.contains("timeout")) {
         logger.error(
             "PRODUCTION ISSUE: BioID enrollment timed out after processing {} images: {}",
-            imageDataList.size(), errorMessage);
+            imageCount, errorMessage);
       } else {
         logger.error(
             "PRODUCTION ISSUE: BioID service unavailable: {}. "
@@ -445,9 +688,9 @@ public class FaceEnrollAction implements RequiredActionProvider {
 
 
   private boolean performVerification(
-      RequiredActionContext context, FaceCredentialModel credential, String imageData)
+      RequiredActionContext context, FaceCredentialModel credential, VerificationCall call)
       throws Exception {
-    logger.info("Performing verification for newly enrolled classId: {}", credential.getClassId());
+    logger.debug("Performing verification for newly enrolled classId: {}", credential.getClassId());
 
     try {
       BioIdClient client = getCredentialProvider(context.getSession()).getBioIdClient();
@@ -458,13 +701,7 @@ public class FaceEnrollAction implements RequiredActionProvider {
         return false; // Fail securely when client is not available
       }
 
-      // Extract base64 image data (remove data URL prefix if present)
-      String base64Image = imageData.contains(",") ? imageData.split(",")[1] : imageData;
-
-      // Use reflection to avoid compile-time dependency on BioIdException
-      Boolean result = (Boolean) client.getClass().getMethod("verifyFaceWithImageData", long.class, String.class)
-          .invoke(client, credential.getClassId(), base64Image);
-      return result;
+      return call.verify(client, credential.getClassId());
     } catch (Exception e) {
       // Handle specific gRPC errors that indicate service issues
       if (e.getMessage().contains("HTTP status code 308")
@@ -514,4 +751,16 @@ public class FaceEnrollAction implements RequiredActionProvider {
 
   @Override
   public void close() {}
+
+  /** A BWS enrollment call for a newly generated class ID. */
+  @FunctionalInterface
+  private interface EnrollmentCall {
+    BioIdClient.EnrollmentResult enroll(BioIdClient client, long classId) throws Exception;
+  }
+
+  /** A BWS verification call for the class ID of a newly stored credential. */
+  @FunctionalInterface
+  private interface VerificationCall {
+    boolean verify(BioIdClient client, long classId) throws Exception;
+  }
 }
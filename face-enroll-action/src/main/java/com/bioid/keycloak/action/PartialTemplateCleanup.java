@@ -0,0 +1,153 @@
+package com.bioid.keycloak.action;
+
+import com.bioid.keycloak.client.exception.BioIdException;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.SessionExpiration;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.keycloak.timer.TimerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes the BWS templates of progressive enrollments that were abandoned.
+ *
+ * <p>A progressive enrollment creates its template with the first accepted frame. If the user
+ * closes the page instead of finishing or resetting, the authentication session expires with the
+ * template still in BWS. Every template is therefore tracked from its creation until the
+ * enrollment is completed or discarded; once the authentication session that created it has
+ * expired, a timer task deletes it unless a face credential of the user refers to it.
+ *
+ * <p>Entries are kept in memory on the node that received the frames, which is the node serving
+ * the authentication session.
+ */
+final class PartialTemplateCleanup {
+
+  private static final Logger logger = LoggerFactory.getLogger(PartialTemplateCleanup.class);
+
+  static final String TASK_NAME = "bioid-partial-template-cleanup";
+  static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+  private static final Map<Long, PendingTemplate> pending = new ConcurrentHashMap<>();
+
+  private PartialTemplateCleanup() {}
+
+  /**
+   * Tracks the template of a progressive enrollment until the authentication session expires.
+   * Called again for every frame, which moves the deadline along with the session.
+   */
+  static void track(AuthenticationSessionModel authSession, long classId) {
+    RealmModel realm = authSession.getRealm();
+    long deadline =
+        System.currentTimeMillis()
+            + Duration.ofSeconds(SessionExpiration.getAuthSessionLifespan(realm)).toMillis();
+    pending.put(
+        classId,
+        new PendingTemplate(realm.getId(), authSession.getAuthenticatedUser().getId(), deadline));
+  }
+
+  /** Stops tracking a template that was stored as a credential or deleted. */
+  static void untrack(long classId) {
+    pending.remove(classId);
+  }
+
+  static int size() {
+    return pending.size();
+  }
+
+  /** Schedules the sweep. */
+  static void schedule(KeycloakSessionFactory sessionFactory) {
+    KeycloakModelUtils.runJobInTransaction(
+        sessionFactory,
+        session ->
+            session
+                .getProvider(TimerProvider.class)
+                .schedule(
+                    () -> sweep(sessionFactory, System.currentTimeMillis()),
+                    SWEEP_INTERVAL.toMillis(),
+                    TASK_NAME));
+  }
+
+  /** Cancels the sweep. */
+  static void cancel(KeycloakSessionFactory sessionFactory) {
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          sessionFactory, session -> session.getProvider(TimerProvider.class).cancelTask(TASK_NAME));
+    } catch (Exception e) {
+      logger.debug("Could not cancel partial template cleanup: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Deletes the templates whose deadline has passed.
+   *
+   * @return number of templates deleted
+   */
+  static int sweep(KeycloakSessionFactory sessionFactory, long now) {
+    int deleted = 0;
+    for (Map.Entry<Long, PendingTemplate> entry : pending.entrySet()) {
+      long classId = entry.getKey();
+      PendingTemplate template = entry.getValue();
+      if (template.deadline() > now || !pending.remove(classId, template)) {
+        continue;
+      }
+      try {
+        if (KeycloakModelUtils.runJobInTransactionWithResult(
+            sessionFactory, session -> deleteIfUnused(session, classId, template))) {
+          deleted++;
+        }
+      } catch (RuntimeException e) {
+        logger.warn(
+            "Failed to delete abandoned partial template for classId {}: {}",
+            classId,
+            e.getMessage());
+      }
+    }
+    if (deleted > 0) {
+      logger.info("Deleted {} partial template(s) of abandoned progressive enrollments", deleted);
+    }
+    return deleted;
+  }
+
+  private static boolean deleteIfUnused(
+      KeycloakSession session, long classId, PendingTemplate template) {
+    FaceCredentialProvider provider =
+        (FaceCredentialProvider)
+            session.getProvider(
+                CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+    if (provider == null || provider.getBioIdClient() == null) {
+      return false;
+    }
+    RealmModel realm = session.realms().getRealm(template.realmId());
+    UserModel user = realm != null ? session.users().getUserById(realm, template.userId()) : null;
+    if (user != null
+        && provider
+            .getFaceCredentials(realm, user)
+            .anyMatch(credential -> credential.getClassId() == classId)) {
+      // Completed after all, e.g. while the entry was being swept
+      return false;
+    }
+    try {
+      provider.getBioIdClient().deleteTemplate(classId);
+    } catch (BioIdException e) {
+      logger.warn(
+          "Failed to delete abandoned partial template for classId {}: {}",
+          classId,
+          e.getMessage());
+      return false;
+    }
+    logger.debug("Deleted abandoned partial template for classId {}", classId);
+    return true;
+  }
+
+  private record PendingTemplate(String realmId, String userId, long deadline) {}
+}
@@ -0,0 +1,232 @@
+package com.bioid.keycloak.action;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.model.EnrollmentAction;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.rest.AuthenticationSessionLookup;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DELETE;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.util.HashMap;
+import java.util.Map;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.UserModel;
+import org.keycloak.sessions.AuthenticationSessionModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST endpoint for progressive face enrollment.
+ *
+ * <p>Instead of collecting every frame in the browser and posting one large JSON form to {@link
+ * FaceEnrollAction}, the enrollment page uploads each frame as soon as it is captured. Every frame
+ * is enrolled against the same class id, so BWS creates the template on the first frame and
+ * updates it with each following one. The final form submission only has to store the credential.
+ *
+ * <p>All endpoints operate on the authentication session of the calling browser tab, identified by
+ * the auth session cookie plus the {@code client_id} and {@code tab_id} of the login action URL.
+ */
+@Path("/")
+public class ProgressiveEnrollmentResource {
+
+  private static final Logger logger = LoggerFactory.getLogger(ProgressiveEnrollmentResource.class);
+
+  static final int MAX_FRAMES = 10;
+  private static final int MAX_FRAME_CHARS = (int) (10 * 1024 * 1024 * 1.4); // 10MB + base64
+
+  private final KeycloakSession session;
+
+  public ProgressiveEnrollmentResource(KeycloakSession session) {
+    this.session = session;
+  }
+
+  /**
+   * Enrolls a single captured frame.
+   *
+   * <p>Request body: {@code {"index": 0, "image": "data:image/jpeg;base64,..."}}. A frame index
+   * lower than the number of frames already received is treated as a browser retry and answered
+   * with the current progress without calling BWS again. Index 0 on an existing enrollment starts
+   * over with a fresh template.
+   */
+  @POST
+  @Path("/progressive/frames")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response uploadFrame(
+      @QueryParam("client_id") String clientId,
+      @QueryParam("tab_id") String tabId,
+      Map<String, Object> request) {
+    AuthenticationSessionModel authSession = findEnrollmentSession(clientId, tabId);
+    if (authSession == null) {
+      return error(Response.Status.UNAUTHORIZED, "No face enrollment in progress");
+    }
+    if (request == null || !(request.get("index") instanceof Number)) {
+      return error(Response.Status.BAD_REQUEST, "Frame index is required");
+    }
+    Object imageValue = request.get("image");
+    String image = imageValue instanceof String ? (String) imageValue : null;
+    if (image == null || image.length() < 100 || image.length() > MAX_FRAME_CHARS) {
+      return error(Response.Status.BAD_REQUEST, "Invalid frame image");
+    }
+    int index = ((Number) request.get("index")).intValue();
+    if (index < 0 || index >= MAX_FRAMES) {
+      return error(Response.Status.BAD_REQUEST, "Frame index out of range");
+    }
+
+    UserModel user = authSession.getAuthenticatedUser();
+    BioIdClient client = getBioIdClient();
+    if (client == null) {
+      logger.error("BioID credentials not configured - progressive enrollment cannot proceed");
+      return error(Response.Status.SERVICE_UNAVAILABLE, "Face enrollment service not available");
+    }
+
+    ProgressiveEnrollmentState state = ProgressiveEnrollmentState.load(authSession);
+    if (state != null && index == 0 && state.getFramesReceived() > 0) {
+      logger.info("Restarting progressive enrollment for user: {}", user.getId());
+      discardPartialTemplate(client, state);
+      state = null;
+    }
+    if (state == null) {
+      state = new ProgressiveEnrollmentState(generateClassId(user));
+    }
+
+    if (index < state.getFramesReceived()) {
+      logger.debug("Frame {} already received for user: {}, returning progress", index,
+          user.getId());
+      return Response.ok(progress(state, state.getLastAction())).build();
+    }
+    if (index > state.getFramesReceived()) {
+      return error(Response.Status.CONFLICT,
+          "Expected frame " + state.getFramesReceived() + " but received " + index);
+    }
+
+    String base64Image = image.substring(image.indexOf(',') + 1);
+    EnrollmentAction action;
+    try {
+      action = state.record(client.enrollFaceWithImageData(state.getClassId(), base64Image));
+    } catch (Exception e) {
+      // A frame without a usable face must not abort the whole enrollment
+      logger.warn("Progressive enrollment frame {} rejected for user {}: {}", index,
+          user.getId(), e.getMessage());
+      state.recordRejected();
+      action = EnrollmentAction.ENROLLMENT_FAILED;
+    }
+    state.save(authSession);
+    if (state.isTemplateCreated()) {
+      PartialTemplateCleanup.track(authSession, state.getClassId());
+    }
+
+    logger.debug("Progressive enrollment frame {} for user {}: {}", index, user.getId(), action);
+    return Response.ok(progress(state, action)).build();
+  }
+
+  /** Returns the progress of the current enrollment. */
+  @GET
+  @Path("/progressive")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getProgress(
+      @QueryParam("client_id") String clientId, @QueryParam("tab_id") String tabId) {
+    AuthenticationSessionModel authSession = findEnrollmentSession(clientId, tabId);
+    if (authSession == null) {
+      return error(Response.Status.UNAUTHORIZED, "No face enrollment in progress");
+    }
+    ProgressiveEnrollmentState state = ProgressiveEnrollmentState.load(authSession);
+    if (state == null) {
+      return Response.ok(Map.of("started", false)).build();
+    }
+    return Response.ok(progress(state, state.getLastAction())).build();
+  }
+
+  /**
+   * Abandons the current enrollment and deletes the partially built template. Templates of
+   * enrollments that are neither completed nor reset are deleted by {@link PartialTemplateCleanup}
+   * once the authentication session has expired.
+   */
+  @DELETE
+  @Path("/progressive")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response reset(
+      @QueryParam("client_id") String clientId, @QueryParam("tab_id") String tabId) {
+    AuthenticationSessionModel authSession = findEnrollmentSession(clientId, tabId);
+    if (authSession == null) {
+      return error(Response.Status.UNAUTHORIZED, "No face enrollment in progress");
+    }
+    ProgressiveEnrollmentState state = ProgressiveEnrollmentState.load(authSession);
+    if (state != null) {
+      BioIdClient client = getBioIdClient();
+      if (client != null) {
+        discardPartialTemplate(client, state);
+      }
+      ProgressiveEnrollmentState.clear(authSession);
+    }
+    return Response.ok(Map.of("started", false)).build();
+  }
+
+  /**
+   * Finds the authentication session of the calling tab, but only while the face enrollment
+   * required action is pending for the identified user.
+   */
+  private AuthenticationSessionModel findEnrollmentSession(String clientId, String tabId) {
+    AuthenticationSessionModel authSession =
+        AuthenticationSessionLookup.findWithUser(session, clientId, tabId);
+    if (authSession == null) {
+      return null;
+    }
+    UserModel user = authSession.getAuthenticatedUser();
+    boolean enrollmentPending =
+        authSession.getRequiredActions().contains(FaceEnrollAction.PROVIDER_ID)
+            || user.getRequiredActionsStream().anyMatch(FaceEnrollAction.PROVIDER_ID::equals);
+    return enrollmentPending ? authSession : null;
+  }
+
+  private BioIdClient getBioIdClient() {
+    FaceCredentialProvider provider =
+        (FaceCredentialProvider)
+            session.getProvider(
+                CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+    return provider != null ? provider.getBioIdClient() : null;
+  }
+
+  private void discardPartialTemplate(BioIdClient client, ProgressiveEnrollmentState state) {
+    if (!state.isTemplateCreated()) {
+      return;
+    }
+    try {
+      client.deleteTemplate(state.getClassId());
+      PartialTemplateCleanup.untrack(state.getClassId());
+    } catch (Exception e) {
+      logger.warn("Failed to delete partial template for classId {}: {}", state.getClassId(),
+          e.getMessage());
+    }
+  }
+
+  private static long generateClassId(UserModel user) {
+    return Math.abs(user.getId().hashCode() + System.currentTimeMillis());
+  }
+
+  private static Map<String, Object> progress(
+      ProgressiveEnrollmentState state, EnrollmentAction action) {
+    Map<String, Object> response = new HashMap<>();
+    response.put("started", true);
+    response.put("frameAction", action.name());
+    response.put("framesReceived", state.getFramesReceived());
+    response.put("framesAccepted", state.getFramesAccepted());
+    response.put("templateCreated", state.isTemplateCreated());
+    response.put("templateUpdates", state.getTemplateUpdates());
+    response.put("featureVectors", state.getFeatureVectors());
+    response.put("complete", state.isComplete(FaceEnrollAction.MIN_REQUIRED_FRAMES));
+    return response;
+  }
+
+  private static Response error(Response.Status status, String message) {
+    return Response.status(status).entity(Map.of("error", message)).build();
+  }
+}
@@ -0,0 +1,26 @@
+package com.bioid.keycloak.action;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.services.resource.RealmResourceProvider;
+
+/**
+ * Provider for the progressive face enrollment REST API.
+ */
+public class ProgressiveEnrollmentResourceProvider implements RealmResourceProvider {
+
+  private final KeycloakSession session;
+
+  public ProgressiveEnrollmentResourceProvider(KeycloakSession session) {
+    this.session = session;
+  }
+
+  @Override
+  public Object getResource() {
+    return new ProgressiveEnrollmentResource(session);
+  }
+
+  @Override
+  public void close() {
+    // No resources to close
+  }
+}
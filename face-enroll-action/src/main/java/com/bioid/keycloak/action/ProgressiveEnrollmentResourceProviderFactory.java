@@ -0,0 +1,46 @@
+package com.bioid.keycloak.action;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resource.RealmResourceProvider;
+import org.keycloak.services.resource.RealmResourceProviderFactory;
+
+/**
+ * Factory for the progressive face enrollment REST API, served under
+ * {@code /realms/{realm}/face-enroll-api}.
+ */
+public class ProgressiveEnrollmentResourceProviderFactory implements RealmResourceProviderFactory {
+
+  public static final String ID = "face-enroll-api";
+
+  private KeycloakSessionFactory sessionFactory;
+
+  @Override
+  public RealmResourceProvider create(KeycloakSession session) {
+    return new ProgressiveEnrollmentResourceProvider(session);
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    // No initialization needed
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    this.sessionFactory = factory;
+    PartialTemplateCleanup.schedule(factory);
+  }
+
+  @Override
+  public void close() {
+    if (sessionFactory != null) {
+      PartialTemplateCleanup.cancel(sessionFactory);
+    }
+  }
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+}
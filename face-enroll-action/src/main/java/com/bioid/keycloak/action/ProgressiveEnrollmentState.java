@@ -0,0 +1,190 @@
+package com.bioid.keycloak.action;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.model.EnrollmentAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/**
+ * Progress of a progressive enrollment, kept in authentication session notes.
+ *
+ * <p>Each captured frame is enrolled on its own against the same class id. BWS reports {@link
+ * EnrollmentAction#NEW_TEMPLATE_CREATED} for the first accepted frame and {@link
+ * EnrollmentAction#TEMPLATE_UPDATED} for the following ones, so the accumulated template state is
+ * already final when the user confirms the enrollment.
+ */
+final class ProgressiveEnrollmentState {
+
+  private static final String NOTE_PREFIX = "face.enroll.progressive.";
+  static final String NOTE_CLASS_ID = NOTE_PREFIX + "classId";
+  static final String NOTE_FRAMES_RECEIVED = NOTE_PREFIX + "framesReceived";
+  static final String NOTE_FRAMES_ACCEPTED = NOTE_PREFIX + "framesAccepted";
+  static final String NOTE_TEMPLATE_CREATED = NOTE_PREFIX + "templateCreated";
+  static final String NOTE_TEMPLATE_UPDATES = NOTE_PREFIX + "templateUpdates";
+  static final String NOTE_ENCODER_VERSION = NOTE_PREFIX + "encoderVersion";
+  static final String NOTE_FEATURE_VECTORS = NOTE_PREFIX + "featureVectors";
+  static final String NOTE_THUMBNAILS_STORED = NOTE_PREFIX + "thumbnailsStored";
+  static final String NOTE_ENROLLED_IMAGES = NOTE_PREFIX + "enrolledImages";
+  static final String NOTE_LAST_ACTION = NOTE_PREFIX + "lastAction";
+  static final String NOTE_TAGS = NOTE_PREFIX + "tags";
+
+  private static final String[] ALL_NOTES = {
+    NOTE_CLASS_ID, NOTE_FRAMES_RECEIVED, NOTE_FRAMES_ACCEPTED, NOTE_TEMPLATE_CREATED,
+    NOTE_TEMPLATE_UPDATES, NOTE_ENCODER_VERSION, NOTE_FEATURE_VECTORS, NOTE_THUMBNAILS_STORED,
+    NOTE_ENROLLED_IMAGES, NOTE_LAST_ACTION, NOTE_TAGS
+  };
+
+  private final long classId;
+  private int framesReceived;
+  private int framesAccepted;
+  private boolean templateCreated;
+  private int templateUpdates;
+  private int encoderVersion;
+  private int featureVectors;
+  private int thumbnailsStored;
+  private int enrolledImages;
+  private EnrollmentAction lastAction = EnrollmentAction.NONE;
+  private List<String> tags = Collections.emptyList();
+
+  ProgressiveEnrollmentState(long classId) {
+    this.classId = classId;
+  }
+
+  /** Loads the progress from the session, or returns {@code null} if none was started. */
+  static ProgressiveEnrollmentState load(AuthenticationSessionModel authSession) {
+    String classId = authSession.getAuthNote(NOTE_CLASS_ID);
+    if (classId == null) {
+      return null;
+    }
+    ProgressiveEnrollmentState state = new ProgressiveEnrollmentState(Long.parseLong(classId));
+    state.framesReceived = intNote(authSession, NOTE_FRAMES_RECEIVED);
+    state.framesAccepted = intNote(authSession, NOTE_FRAMES_ACCEPTED);
+    state.templateCreated = Boolean.parseBoolean(authSession.getAuthNote(NOTE_TEMPLATE_CREATED));
+    state.templateUpdates = intNote(authSession, NOTE_TEMPLATE_UPDATES);
+    state.encoderVersion = intNote(authSession, NOTE_ENCODER_VERSION);
+    state.featureVectors = intNote(authSession, NOTE_FEATURE_VECTORS);
+    state.thumbnailsStored = intNote(authSession, NOTE_THUMBNAILS_STORED);
+    state.enrolledImages = intNote(authSession, NOTE_ENROLLED_IMAGES);
+    state.lastAction = parseAction(authSession.getAuthNote(NOTE_LAST_ACTION));
+    String tags = authSession.getAuthNote(NOTE_TAGS);
+    state.tags =
+        tags == null || tags.isEmpty() ? Collections.emptyList() : Arrays.asList(tags.split(","));
+    return state;
+  }
+
+  /** Removes all progressive enrollment notes from the session. */
+  static void clear(AuthenticationSessionModel authSession) {
+    for (String note : ALL_NOTES) {
+      authSession.removeAuthNote(note);
+    }
+  }
+
+  void save(AuthenticationSessionModel authSession) {
+    authSession.setAuthNote(NOTE_CLASS_ID, String.valueOf(classId));
+    authSession.setAuthNote(NOTE_FRAMES_RECEIVED, String.valueOf(framesReceived));
+    authSession.setAuthNote(NOTE_FRAMES_ACCEPTED, String.valueOf(framesAccepted));
+    authSession.setAuthNote(NOTE_TEMPLATE_CREATED, String.valueOf(templateCreated));
+    authSession.setAuthNote(NOTE_TEMPLATE_UPDATES, String.valueOf(templateUpdates));
+    authSession.setAuthNote(NOTE_ENCODER_VERSION, String.valueOf(encoderVersion));
+    authSession.setAuthNote(NOTE_FEATURE_VECTORS, String.valueOf(featureVectors));
+    authSession.setAuthNote(NOTE_THUMBNAILS_STORED, String.valueOf(thumbnailsStored));
+    authSession.setAuthNote(NOTE_ENROLLED_IMAGES, String.valueOf(enrolledImages));
+    authSession.setAuthNote(NOTE_LAST_ACTION, lastAction.getValue());
+    authSession.setAuthNote(NOTE_TAGS, String.join(",", tags));
+  }
+
+  /**
+   * Records the BWS result for one frame.
+   *
+   * @return the enrollment action BWS performed for this frame
+   */
+  EnrollmentAction record(BioIdClient.EnrollmentResult result) {
+    framesReceived++;
+    EnrollmentAction action = parseAction(result.getPerformedAction());
+    lastAction = action;
+
+    if (action == EnrollmentAction.NEW_TEMPLATE_CREATED) {
+      templateCreated = true;
+    } else if (action.isTemplateModification()) {
+      templateUpdates++;
+    }
+
+    if (action.isSuccessful()) {
+      framesAccepted++;
+      enrolledImages += result.getEnrolledImages();
+      encoderVersion = result.getEncoderVersion();
+      featureVectors = result.getFeatureVectors();
+      thumbnailsStored = result.getThumbnailsStored();
+      if (result.getTags() != null) {
+        tags = result.getTags();
+      }
+    }
+    return action;
+  }
+
+  /** Counts a frame that BWS rejected so the client can move on to the next index. */
+  void recordRejected() {
+    framesReceived++;
+  }
+
+  /** Whether a template exists and enough frames were accepted to finish enrollment. */
+  boolean isComplete(int minAcceptedFrames) {
+    return templateCreated && featureVectors > 0 && framesAccepted >= minAcceptedFrames;
+  }
+
+  /** Summarizes the accumulated template state as a single enrollment result. */
+  BioIdClient.EnrollmentResult toEnrollmentResult() {
+    return new BioIdClient.EnrollmentResult(
+        classId,
+        templateCreated,
+        encoderVersion,
+        featureVectors,
+        thumbnailsStored,
+        tags,
+        EnrollmentAction.NEW_TEMPLATE_CREATED.name(),
+        enrolledImages);
+  }
+
+  long getClassId() {
+    return classId;
+  }
+
+  int getFramesReceived() {
+    return framesReceived;
+  }
+
+  int getFramesAccepted() {
+    return framesAccepted;
+  }
+
+  boolean isTemplateCreated() {
+    return templateCreated;
+  }
+
+  int getTemplateUpdates() {
+    return templateUpdates;
+  }
+
+  int getFeatureVectors() {
+    return featureVectors;
+  }
+
+  EnrollmentAction getLastAction() {
+    return lastAction;
+  }
+
+  private static EnrollmentAction parseAction(String value) {
+    try {
+      return EnrollmentAction.fromValue(value);
+    } catch (IllegalArgumentException e) {
+      return EnrollmentAction.NONE;
+    }
+  }
+
+  private static int intNote(AuthenticationSessionModel authSession, String note) {
+    String value = authSession.getAuthNote(note);
+    return value == null || value.isEmpty() ? 0 : Integer.parseInt(value);
+  }
+}
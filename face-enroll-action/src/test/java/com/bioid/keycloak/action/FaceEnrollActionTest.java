@@ -126,6 +126,32 @@ class FaceEnrollActionTest {
     assertFalse(isValid, "Too small image data should be rejected");
   }
 
+  @Test
+  @DisplayName("Should accept staged upload references")
+  void shouldAcceptStagedUploadReferences() {
+    // Given
+    String reference = "upload:" + "A".repeat(22);
+    String references = "[\"" + reference + "\",\"" + reference + "\",\"" + reference + "\"]";
+
+    // When / Then
+    assertTrue(invokeValidateImageData(reference), "A single reference should pass validation");
+    assertTrue(invokeValidateImageData(references), "Three references should pass validation");
+  }
+
+  @Test
+  @DisplayName("Should reject oversized payload containing a reference")
+  void shouldRejectOversizedPayloadWithReference() {
+    // Given
+    String payload =
+        "[\"upload:" + "A".repeat(22) + "\",\"" + TestUtils.generateOversizedImageData(15) + "\"]";
+
+    // When
+    boolean isValid = invokeValidateImageData(payload);
+
+    // Then
+    assertFalse(isValid, "A reference must not lift the payload size limit");
+  }
+
   @Test
   @DisplayName("Should handle capture action with valid image")
   void shouldHandleCaptureActionWithValidImage() {
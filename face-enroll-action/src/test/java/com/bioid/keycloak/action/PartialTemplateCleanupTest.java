@@ -0,0 +1,125 @@
+package com.bioid.keycloak.action;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/** Unit tests for PartialTemplateCleanup. */
+@DisplayName("Partial Template Cleanup Tests")
+class PartialTemplateCleanupTest {
+
+  private static final long CLASS_ID = 4711L;
+
+  private KeycloakSessionFactory sessionFactory;
+  private FaceCredentialProvider provider;
+  private BioIdClient client;
+  private RealmModel realm;
+  private UserModel user;
+  private AuthenticationSessionModel authSession;
+
+  @BeforeEach
+  void setUp() {
+    realm = mock(RealmModel.class);
+    when(realm.getId()).thenReturn("realm-1");
+    when(realm.getAccessCodeLifespanLogin()).thenReturn(1800);
+    user = mock(UserModel.class);
+    when(user.getId()).thenReturn("user-1");
+    authSession = mock(AuthenticationSessionModel.class);
+    when(authSession.getRealm()).thenReturn(realm);
+    when(authSession.getAuthenticatedUser()).thenReturn(user);
+
+    client = mock(BioIdClient.class);
+    provider = mock(FaceCredentialProvider.class);
+    when(provider.getBioIdClient()).thenReturn(client);
+
+    KeycloakSession session = mock(KeycloakSession.class);
+    when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+    when(session.getProvider(CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID))
+        .thenReturn(provider);
+    RealmProvider realms = mock(RealmProvider.class);
+    when(realms.getRealm("realm-1")).thenReturn(realm);
+    when(session.realms()).thenReturn(realms);
+    UserProvider users = mock(UserProvider.class);
+    when(users.getUserById(realm, "user-1")).thenReturn(user);
+    when(session.users()).thenReturn(users);
+
+    sessionFactory = mock(KeycloakSessionFactory.class);
+    when(sessionFactory.create()).thenReturn(session);
+  }
+
+  @AfterEach
+  void tearDown() {
+    PartialTemplateCleanup.untrack(CLASS_ID);
+  }
+
+  @Test
+  @DisplayName("Should keep templates until the authentication session expired")
+  void shouldKeepTemplateBeforeDeadline() throws Exception {
+    PartialTemplateCleanup.track(authSession, CLASS_ID);
+
+    assertEquals(0, PartialTemplateCleanup.sweep(sessionFactory, System.currentTimeMillis()));
+
+    verify(client, never()).deleteTemplate(anyLong());
+    assertEquals(1, PartialTemplateCleanup.size());
+  }
+
+  @Test
+  @DisplayName("Should delete the template of an expired, unfinished enrollment")
+  void shouldDeleteAbandonedTemplate() throws Exception {
+    when(provider.getFaceCredentials(realm, user)).thenReturn(Stream.empty());
+    PartialTemplateCleanup.track(authSession, CLASS_ID);
+
+    assertEquals(1, PartialTemplateCleanup.sweep(sessionFactory, afterExpiry()));
+
+    verify(client).deleteTemplate(CLASS_ID);
+    assertEquals(0, PartialTemplateCleanup.size());
+  }
+
+  @Test
+  @DisplayName("Should not delete a template that was stored as a credential")
+  void shouldKeepTemplateInUse() throws Exception {
+    FaceCredentialModel credential = mock(FaceCredentialModel.class);
+    when(credential.getClassId()).thenReturn(CLASS_ID);
+    when(provider.getFaceCredentials(realm, user)).thenReturn(Stream.of(credential));
+    PartialTemplateCleanup.track(authSession, CLASS_ID);
+
+    assertEquals(0, PartialTemplateCleanup.sweep(sessionFactory, afterExpiry()));
+
+    verify(client, never()).deleteTemplate(anyLong());
+    assertEquals(0, PartialTemplateCleanup.size());
+  }
+
+  @Test
+  @DisplayName("Should not delete templates that are no longer tracked")
+  void shouldIgnoreUntrackedTemplate() throws Exception {
+    PartialTemplateCleanup.track(authSession, CLASS_ID);
+    PartialTemplateCleanup.untrack(CLASS_ID);
+
+    assertEquals(0, PartialTemplateCleanup.sweep(sessionFactory, afterExpiry()));
+
+    verify(client, never()).deleteTemplate(anyLong());
+  }
+
+  private static long afterExpiry() {
+    return System.currentTimeMillis() + 1801 * 1000L;
+  }
+}
@@ -0,0 +1,86 @@
+package com.bioid.keycloak.action;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.model.EnrollmentAction;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.sessions.AuthenticationSessionModel;
+
+/** Unit tests for ProgressiveEnrollmentState. */
+@DisplayName("Progressive Enrollment State Tests")
+class ProgressiveEnrollmentStateTest {
+
+  private AuthenticationSessionModel authSession;
+  private Map<String, String> notes;
+
+  @BeforeEach
+  void setUp() {
+    notes = new HashMap<>();
+    authSession = mock(AuthenticationSessionModel.class);
+    doAnswer(inv -> notes.put(inv.getArgument(0), inv.getArgument(1)))
+        .when(authSession)
+        .setAuthNote(anyString(), anyString());
+    when(authSession.getAuthNote(anyString())).thenAnswer(inv -> notes.get(inv.getArgument(0)));
+    doAnswer(inv -> notes.remove(inv.getArgument(0))).when(authSession).removeAuthNote(anyString());
+  }
+
+  @Test
+  @DisplayName("Should track new template and updates across frames")
+  void shouldTrackTemplateLifecycle() {
+    ProgressiveEnrollmentState state = new ProgressiveEnrollmentState(42L);
+
+    assertEquals(
+        EnrollmentAction.NEW_TEMPLATE_CREATED, state.record(result("NEW_TEMPLATE_CREATED", 1)));
+    state.save(authSession);
+
+    ProgressiveEnrollmentState reloaded = ProgressiveEnrollmentState.load(authSession);
+    assertEquals(EnrollmentAction.TEMPLATE_UPDATED, reloaded.record(result("TEMPLATE_UPDATED", 2)));
+    reloaded.recordRejected();
+    assertEquals(EnrollmentAction.TEMPLATE_UPDATED, reloaded.record(result("TEMPLATE_UPDATED", 3)));
+
+    assertEquals(42L, reloaded.getClassId());
+    assertEquals(4, reloaded.getFramesReceived());
+    assertEquals(3, reloaded.getFramesAccepted());
+    assertEquals(2, reloaded.getTemplateUpdates());
+    assertTrue(reloaded.isComplete(3));
+    assertEquals(3, reloaded.toEnrollmentResult().getFeatureVectors());
+  }
+
+  @Test
+  @DisplayName("Should not be complete without a created template")
+  void shouldRequireTemplate() {
+    ProgressiveEnrollmentState state = new ProgressiveEnrollmentState(7L);
+    state.recordRejected();
+    state.recordRejected();
+    state.recordRejected();
+
+    assertFalse(state.isComplete(3));
+    assertFalse(state.isTemplateCreated());
+  }
+
+  @Test
+  @DisplayName("Should remove all notes on clear")
+  void shouldClearNotes() {
+    ProgressiveEnrollmentState state = new ProgressiveEnrollmentState(9L);
+    state.record(result("NEW_TEMPLATE_CREATED", 1));
+    state.save(authSession);
+
+    ProgressiveEnrollmentState.clear(authSession);
+
+    assertTrue(notes.isEmpty());
+    assertNull(ProgressiveEnrollmentState.load(authSession));
+  }
+
+  private static BioIdClient.EnrollmentResult result(String action, int featureVectors) {
+    return new BioIdClient.EnrollmentResult(
+        0L, true, 5, featureVectors, featureVectors, List.of(), action, 1);
+  }
+}
@@ -74,6 +74,31 @@ public class FailedAuthConfiguration {
         return getBooleanProperty("INCLUDE_THUMBNAILS", true);
     }
     
+    /**
+     * Handling of frames the user submitted shortly before: "reference" (share the stored
+     * payload of an identical frame), "skip" (drop frames within {@link #getDedupMaxDistance()}
+     * of an earlier one) or "off" (default).
+     */
+    public String getDedupPolicy() {
+        return getStringProperty("DEDUP_POLICY", "off");
+    }
+    
+    public boolean isDedupEnabled() {
+        return !"off".equalsIgnoreCase(getDedupPolicy());
+    }
+    
+    public boolean isDedupSkip() {
+        return "skip".equalsIgnoreCase(getDedupPolicy());
+    }
+    
+    public int getDedupWindowSeconds() {
+        return getIntProperty("DEDUP_WINDOW_SECONDS", 300);
+    }
+    
+    public int getDedupMaxDistance() {
+        return getIntProperty("DEDUP_MAX_DISTANCE", 5);
+    }
+    
     public int getThumbnailSize() {
         return getIntProperty("THUMBNAIL_SIZE", 300);
     }
@@ -95,6 +120,46 @@ public class FailedAuthConfiguration {
         return getBooleanProperty("VERIFY_INTEGRITY", true);
     }
     
+    /**
+     * Base64-encoded 256-bit master key that wraps the per-image data keys.
+     * Must be identical on all nodes; never logged.
+     */
+    public String getEncryptionKey() {
+        return getStringProperty("ENCRYPTION_KEY", null);
+    }
+    
+    /**
+     * File containing the base64-encoded master key, used when no key is set directly.
+     */
+    public String getEncryptionKeyFile() {
+        return getStringProperty("ENCRYPTION_KEY_FILE", null);
+    }
+    
+    public int getEncryptionChunkSize() {
+        return getIntProperty("ENCRYPTION_CHUNK_SIZE", 64 * 1024);
+    }
+    
+    // Blob storage
+    public String getBlobStoreType() {
+        return getStringProperty("BLOB_STORE", "database");
+    }
+    
+    public boolean isFileSystemBlobStore() {
+        return "filesystem".equalsIgnoreCase(getBlobStoreType());
+    }
+    
+    public String getBlobStorePath() {
+        return getStringProperty("BLOB_STORE_PATH", "data/failed-auth-blobs");
+    }
+    
+    public boolean isBlobMigrationEnabled() {
+        return getBooleanProperty("BLOB_MIGRATION_ENABLED", true);
+    }
+    
+    public int getBlobMigrationBatchSize() {
+        return getIntProperty("BLOB_MIGRATION_BATCH_SIZE", 50);
+    }
+    
     // Cleanup
     public int getCleanupIntervalHours() {
         return getIntProperty("CLEANUP_INTERVAL_HOURS", 24);
@@ -104,6 +169,19 @@ public class FailedAuthConfiguration {
         return getIntProperty("CLEANUP_BATCH_SIZE", 100);
     }
     
+    public int getCleanupChunkPauseMillis() {
+        return getIntProperty("CLEANUP_CHUNK_PAUSE_MS", 100);
+    }
+    
+    public int getCleanupMaxRunMinutes() {
+        return getIntProperty("CLEANUP_MAX_RUN_MINUTES", 10);
+    }
+    
+    // Statistics
+    public int getStatisticsReconcileIntervalMinutes() {
+        return getIntProperty("STATISTICS_RECONCILE_INTERVAL_MINUTES", 360);
+    }
+    
     // Enrollment
     public boolean isEnrollVerifyBeforeEnroll() {
         return getBooleanProperty("ENROLL_VERIFY_BEFORE_ENROLL", true);
@@ -213,6 +291,7 @@ public class FailedAuthConfiguration {
             logger.debug("  Max Attempts Per User: {}", getMaxAttemptsPerUser());
             logger.debug("  Min Quality Score: {}", getMinQualityScore());
             logger.debug("  Encrypt Images: {}", isEncryptImages());
+            logger.debug("  Blob Store: {}", getBlobStoreType());
             logger.debug("  Notification Enabled: {}", isNotificationEnabled());
             logger.debug("  Audit Enabled: {}", isAuditEnabled());
         }
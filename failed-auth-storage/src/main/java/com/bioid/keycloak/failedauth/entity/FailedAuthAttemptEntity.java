@@ -13,11 +13,12 @@ import java.util.List;
  */
 @Entity
 @Table(name = "failed_auth_attempts", indexes = {
-    @Index(name = "idx_user_timestamp", columnList = "user_id,timestamp DESC"),
+    @Index(name = "idx_user_timestamp", columnList = "user_id,timestamp DESC,attempt_id DESC"),
     @Index(name = "idx_realm_user", columnList = "realm_id,user_id"),
     @Index(name = "idx_enrolled", columnList = "user_id,enrolled"),
     @Index(name = "idx_expires", columnList = "expires_at"),
-    @Index(name = "idx_class_id", columnList = "class_id")
+    @Index(name = "idx_class_id", columnList = "class_id"),
+    @Index(name = "idx_user_slot", columnList = "user_id,slot", unique = true)
 })
 public class FailedAuthAttemptEntity {
     
@@ -93,6 +94,10 @@ public class FailedAuthAttemptEntity {
     @Column(name = "avg_quality_score")
     private Double avgQualityScore;
     
+    // Ring buffer slot (0..maxAttemptsPerUser-1); null once enrolled so it is never evicted
+    @Column(name = "slot")
+    private Integer slot;
+    
     // Enrollment status
     @Column(name = "enrolled")
     private Boolean enrolled = false;
@@ -360,6 +365,14 @@ public class FailedAuthAttemptEntity {
         this.avgQualityScore = avgQualityScore;
     }
     
+    public Integer getSlot() {
+        return slot;
+    }
+    
+    public void setSlot(Integer slot) {
+        this.slot = slot;
+    }
+    
     public Boolean getEnrolled() {
         return enrolled;
     }
@@ -8,10 +8,16 @@ import java.time.Instant;
  * 
  * Stores image data (encrypted) and metadata including
  * face detection results and quality assessments.
+ * 
+ * Image payloads are either stored inline ({@code image_data}, {@code thumbnail_data})
+ * or, when a blob store is configured, only referenced ({@code image_ref},
+ * {@code thumbnail_ref}) with the payload kept outside the database.
  */
 @Entity
 @Table(name = "failed_auth_images", indexes = {
-    @Index(name = "idx_attempt_id", columnList = "attempt_id")
+    @Index(name = "idx_attempt_id", columnList = "attempt_id"),
+    @Index(name = "idx_image_ref", columnList = "image_ref"),
+    @Index(name = "idx_thumbnail_ref", columnList = "thumbnail_ref")
 }, uniqueConstraints = {
     @UniqueConstraint(name = "idx_attempt_image", columnNames = {"attempt_id", "image_index"})
 })
@@ -29,15 +35,30 @@ public class FailedAuthImageEntity {
     @Column(name = "image_index", nullable = false)
     private Integer imageIndex;
     
-    // Image data (encrypted)
+    // Image data (encrypted), null when stored in the blob store
     @Lob
-    @Column(name = "image_data", nullable = false)
+    @Column(name = "image_data")
     private byte[] imageData;
     
     @Lob
     @Column(name = "thumbnail_data")
     private byte[] thumbnailData;
     
+    // Blob store references (content hashes of the stored payloads)
+    @Column(name = "image_ref", length = 64)
+    private String imageRef;
+    
+    @Column(name = "thumbnail_ref", length = 64)
+    private String thumbnailRef;
+    
+    // SHA-256 of the plaintext image for integrity verification
+    @Column(name = "checksum", length = 64)
+    private String checksum;
+    
+    // 64-bit difference hash of the plaintext image, for near-duplicate detection
+    @Column(name = "perceptual_hash")
+    private Long perceptualHash;
+    
     // Image properties
     @Column(name = "file_size", nullable = false)
     private Integer fileSize;
@@ -157,6 +178,45 @@ public class FailedAuthImageEntity {
         this.thumbnailData = thumbnailData;
     }
     
+    public String getImageRef() {
+        return imageRef;
+    }
+    
+    public void setImageRef(String imageRef) {
+        this.imageRef = imageRef;
+    }
+    
+    public String getThumbnailRef() {
+        return thumbnailRef;
+    }
+    
+    public void setThumbnailRef(String thumbnailRef) {
+        this.thumbnailRef = thumbnailRef;
+    }
+    
+    public String getChecksum() {
+        return checksum;
+    }
+    
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
+    
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+    
+    public void setPerceptualHash(Long perceptualHash) {
+        this.perceptualHash = perceptualHash;
+    }
+    
+    /**
+     * Whether the image payload has been moved to the blob store.
+     */
+    public boolean isExternallyStored() {
+        return imageRef != null;
+    }
+    
     public Integer getFileSize() {
         return fileSize;
     }
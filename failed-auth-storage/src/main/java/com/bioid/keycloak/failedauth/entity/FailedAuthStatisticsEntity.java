@@ -0,0 +1,141 @@
+package com.bioid.keycloak.failedauth.entity;
+
+import jakarta.persistence.*;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * JPA Entity for incrementally maintained failed attempt counters.
+ *
+ * One row per user or realm ({@code scope}) and failure reason; the row with reason
+ * {@value #ALL_REASONS} holds the totals of the scope. Counters are only changed with
+ * atomic delta upserts in the transaction that changes the attempts, and periodically
+ * rebuilt from {@code failed_auth_attempts}.
+ */
+@Entity
+@Table(name = "failed_auth_statistics")
+@IdClass(FailedAuthStatisticsEntity.Key.class)
+public class FailedAuthStatisticsEntity {
+
+    public static final String SCOPE_USER = "USER";
+    public static final String SCOPE_REALM = "REALM";
+    public static final String ALL_REASONS = "*";
+    public static final String UNKNOWN_REASON = "UNKNOWN";
+
+    @Id
+    @Column(name = "scope", length = 8, nullable = false)
+    private String scope;
+
+    @Id
+    @Column(name = "scope_id", length = 36, nullable = false)
+    private String scopeId;
+
+    @Id
+    @Column(name = "failure_reason", length = 50, nullable = false)
+    private String failureReason;
+
+    @Column(name = "total_count", nullable = false)
+    private long totalCount;
+
+    @Column(name = "enrolled_count", nullable = false)
+    private long enrolledCount;
+
+    @Column(name = "reviewed_count", nullable = false)
+    private long reviewedCount;
+
+    // Unenrolled attempts with an average quality at or above the enrollment threshold
+    @Column(name = "recommended_count", nullable = false)
+    private long recommendedCount;
+
+    @Column(name = "quality_sum", nullable = false)
+    private double qualitySum;
+
+    @Column(name = "quality_count", nullable = false)
+    private long qualityCount;
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    // Constructors
+    public FailedAuthStatisticsEntity() {
+    }
+
+    // Getters
+    public String getScope() {
+        return scope;
+    }
+
+    public String getScopeId() {
+        return scopeId;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getEnrolledCount() {
+        return enrolledCount;
+    }
+
+    public long getReviewedCount() {
+        return reviewedCount;
+    }
+
+    public long getRecommendedCount() {
+        return recommendedCount;
+    }
+
+    public double getQualitySum() {
+        return qualitySum;
+    }
+
+    public long getQualityCount() {
+        return qualityCount;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public double getAvgQualityScore() {
+        return qualityCount > 0 ? qualitySum / qualityCount : 0.0;
+    }
+
+    /**
+     * Composite primary key.
+     */
+    public static class Key implements Serializable {
+        private String scope;
+        private String scopeId;
+        private String failureReason;
+
+        public Key() {
+        }
+
+        public Key(String scope, String scopeId, String failureReason) {
+            this.scope = scope;
+            this.scopeId = scopeId;
+            this.failureReason = failureReason;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(scope, key.scope)
+                && Objects.equals(scopeId, key.scopeId)
+                && Objects.equals(failureReason, key.failureReason);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, scopeId, failureReason);
+        }
+    }
+}
@@ -52,6 +52,11 @@ public class FailedAuthUserPreferencesEntity {
     @Column(name = "deleted_attempts")
     private Integer deletedAttempts = 0;
     
+    // Ring buffer sequence for attempt slots; only advanced by an atomic UPDATE statement,
+    // never written back from the entity
+    @Column(name = "next_slot", updatable = false)
+    private Long nextSlot = 0L;
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
     
@@ -163,6 +168,10 @@ public class FailedAuthUserPreferencesEntity {
         this.totalAttempts = totalAttempts;
     }
     
+    public Long getNextSlot() {
+        return nextSlot;
+    }
+    
     public void incrementTotalAttempts() {
         this.totalAttempts = (this.totalAttempts == null ? 0 : this.totalAttempts) + 1;
     }
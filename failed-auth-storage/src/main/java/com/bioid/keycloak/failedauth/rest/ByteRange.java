@@ -0,0 +1,87 @@
+package com.bioid.keycloak.failedauth.rest;
+
+/**
+ * A single satisfiable byte range of an HTTP {@code Range} request (RFC 9110, section 14).
+ * 
+ * Only single ranges are supported; multi-range requests are answered with the full content,
+ * which the specification allows.
+ */
+final class ByteRange {
+    
+    /** Marker for a syntactically valid but unsatisfiable range. */
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+    
+    private final long start;
+    private final long end;
+    
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+    
+    /**
+     * Parse a {@code Range} header against the content length.
+     * 
+     * @param header Header value, e.g. {@code bytes=0-1023}, {@code bytes=500-} or {@code bytes=-500}
+     * @param length Content length
+     * @return The range, {@link #UNSATISFIABLE}, or null to serve the full content
+     */
+    static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            return start >= length ? UNSATISFIABLE : new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Whether a {@code Range} request may be served partially under its {@code If-Range} header.
+     * 
+     * If-Range uses the strong comparison, so a weak ({@code W/}) validator never matches.
+     * 
+     * @param ifRange Header value, or null if absent
+     * @param etag Unquoted strong entity tag of the current content
+     */
+    static boolean ifRangeMatches(String ifRange, String etag) {
+        return ifRange == null || ifRange.trim().equals("\"" + etag + "\"");
+    }
+    
+    long getStart() {
+        return start;
+    }
+    
+    long getEnd() {
+        return end;
+    }
+    
+    long getLength() {
+        return end - start + 1;
+    }
+    
+    String toContentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+}
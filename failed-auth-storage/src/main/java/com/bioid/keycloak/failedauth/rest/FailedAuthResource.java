@@ -4,10 +4,21 @@ import com.bioid.keycloak.client.BioIdClient;
 import com.bioid.keycloak.credential.FaceCredentialProvider;
 import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
 import com.bioid.keycloak.failedauth.entity.FailedAuthAttemptEntity;
+import com.bioid.keycloak.failedauth.exception.AttemptNotFoundException;
+import com.bioid.keycloak.failedauth.exception.UnauthorizedAccessException;
+import com.bioid.keycloak.failedauth.service.FailedAttemptPage;
+import com.bioid.keycloak.failedauth.service.FailedAttemptSummary;
 import com.bioid.keycloak.failedauth.service.FailedAuthImageStorageService;
+import com.bioid.keycloak.failedauth.service.StoredImage;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
@@ -27,6 +38,8 @@ public class FailedAuthResource {
     
     private static final Logger logger = LoggerFactory.getLogger(FailedAuthResource.class);
     
+    private static final int MAX_PAGE_SIZE = 100;
+    
     private final KeycloakSession session;
     private final FailedAuthImageStorageService storageService;
     
@@ -40,11 +53,17 @@ public class FailedAuthResource {
         return session.getContext().getRealm();
     }
     
+    /**
+     * List the caller's failed attempts, newest first.
+     * 
+     * Pages are addressed by the opaque {@code cursor} returned as {@code nextCursor} of the
+     * previous page; {@code hasMore} tells whether another page exists.
+     */
     @GET
     @Path("/attempts")
     @Produces(MediaType.APPLICATION_JSON)
     public Response getFailedAttempts(
-            @QueryParam("page") @DefaultValue("0") int page,
+            @QueryParam("cursor") String cursor,
             @QueryParam("pageSize") @DefaultValue("10") int pageSize) {
         
         try {
@@ -54,18 +73,33 @@ public class FailedAuthResource {
                     .entity(Map.of("error", "Not authenticated")).build();
             }
             
-            List<FailedAuthAttemptEntity> attempts = storageService.getFailedAttempts(
-                session, user.getId(), false, null, page, pageSize);
+            if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Map.of("error", "pageSize must be between 1 and " + MAX_PAGE_SIZE))
+                    .build();
+            }
+            
+            FailedAttemptPage.Cursor after;
+            try {
+                after = cursor != null && !cursor.isEmpty()
+                    ? FailedAttemptPage.Cursor.decode(cursor) : null;
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(Map.of("error", "Invalid cursor")).build();
+            }
             
-            List<Map<String, Object>> result = attempts.stream()
+            FailedAttemptPage attemptPage = storageService.getFailedAttemptPage(
+                session, user.getId(), false, null, after, pageSize);
+            
+            List<Map<String, Object>> result = attemptPage.getAttempts().stream()
                 .map(this::toSummary)
                 .collect(Collectors.toList());
             
             Map<String, Object> response = new HashMap<>();
             response.put("attempts", result);
-            response.put("page", page);
             response.put("pageSize", pageSize);
-            response.put("total", result.size());
+            response.put("hasMore", attemptPage.isHasMore());
+            response.put("nextCursor", attemptPage.getNextCursor());
             
             return Response.ok(response).build();
             
@@ -90,6 +124,9 @@ public class FailedAuthResource {
             FailedAuthAttemptEntity attempt = storageService.getAttempt(
                 session, attemptId, user.getId());
             
+            // Opening the details view counts as reviewing the attempt
+            storageService.markReviewed(attempt, user.getId());
+            
             return Response.ok(toDetails(attempt)).build();
             
         } catch (Exception e) {
@@ -99,13 +136,22 @@ public class FailedAuthResource {
         }
     }
     
+    /**
+     * Serve a single image or thumbnail.
+     * 
+     * Responses carry a strong ETag; conditional requests are answered with 304, and single
+     * byte ranges with 206. Thumbnails are not stored by the browser, so they do not outlive
+     * the attempt once it is deleted or expires.
+     */
     @GET
     @Path("/attempts/{attemptId}/image/{index}")
-    @Produces("image/jpeg")
     public Response getImage(
             @PathParam("attemptId") String attemptId,
             @PathParam("index") int index,
-            @QueryParam("thumbnail") @DefaultValue("false") boolean thumbnail) {
+            @QueryParam("thumbnail") @DefaultValue("false") boolean thumbnail,
+            @HeaderParam("Range") String range,
+            @HeaderParam("If-Range") String ifRange,
+            @Context Request request) {
         
         try {
             UserModel user = getAuthenticatedUser();
@@ -113,19 +159,69 @@ public class FailedAuthResource {
                 return Response.status(Response.Status.UNAUTHORIZED).build();
             }
             
-            byte[] imageData = storageService.getImage(
+            StoredImage image = storageService.openImage(
                 session, attemptId, index, user.getId(), thumbnail);
             
-            return Response.ok(imageData)
-                .header("Content-Type", "image/jpeg")
+            EntityTag etag = new EntityTag(image.getEtag());
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setPrivate(true);
+            if (thumbnail) {
+                cacheControl.setNoStore(true);
+            } else {
+                cacheControl.setNoCache(true);
+            }
+            
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.tag(etag).cacheControl(cacheControl).build();
+            }
+            
+            long length = image.getLength();
+            ByteRange byteRange = ByteRange.ifRangeMatches(ifRange, image.getEtag())
+                ? ByteRange.parse(range, length) : null;
+            if (byteRange == ByteRange.UNSATISFIABLE) {
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + length)
+                    .build();
+            }
+            
+            long start = 0;
+            long count = length;
+            Response.ResponseBuilder builder;
+            if (byteRange != null) {
+                start = byteRange.getStart();
+                count = byteRange.getEnd() - start + 1;
+                builder = Response.status(Response.Status.PARTIAL_CONTENT)
+                    .header("Content-Range", byteRange.toContentRange(length));
+            } else {
+                builder = Response.ok();
+            }
+            
+            return builder
+                .entity(streamOf(image, start, count))
+                .type(image.getContentType())
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes")
+                .tag(etag)
+                .cacheControl(cacheControl)
                 .build();
             
+        } catch (AttemptNotFoundException | UnauthorizedAccessException e) {
+            logger.debug("Image not available: {}", e.getMessage());
+            return Response.status(Response.Status.NOT_FOUND).build();
         } catch (Exception e) {
             logger.error("Failed to get image", e);
             return Response.status(Response.Status.NOT_FOUND).build();
         }
     }
     
+    /**
+     * Write a range of an image to the response in chunks, decrypting it on the way if needed.
+     */
+    private static StreamingOutput streamOf(StoredImage image, long start, long count) {
+        return output -> image.writeTo(output, start, count);
+    }
+    
     @POST
     @Path("/attempts/{attemptId}/enroll")
     @Consumes(MediaType.APPLICATION_JSON)
@@ -213,8 +309,10 @@ public class FailedAuthResource {
             response.put("totalCount", stats.getTotalCount());
             response.put("enrolledCount", stats.getEnrolledCount());
             response.put("unenrolledCount", stats.getUnenrolledCount());
+            response.put("reviewedCount", stats.getReviewedCount());
             response.put("recommendedCount", stats.getRecommendedCount());
             response.put("avgQualityScore", stats.getAvgQualityScore());
+            response.put("failureReasons", stats.getFailureReasons());
             
             return Response.ok(response).build();
             
@@ -249,6 +347,19 @@ public class FailedAuthResource {
         return null;
     }
     
+    private Map<String, Object> toSummary(FailedAttemptSummary attempt) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("attemptId", attempt.getAttemptId());
+        map.put("timestamp", attempt.getTimestamp().toString());
+        map.put("failureReason", attempt.getFailureReason());
+        map.put("imageCount", attempt.getImageCount());
+        map.put("avgQualityScore", attempt.getAvgQualityScore());
+        map.put("enrolled", attempt.getEnrolled());
+        map.put("retryAttempt", attempt.getRetryAttempt());
+        map.put("livenessMode", attempt.getLivenessMode());
+        return map;
+    }
+    
     private Map<String, Object> toSummary(FailedAuthAttemptEntity attempt) {
         Map<String, Object> map = new HashMap<>();
         map.put("attemptId", attempt.getAttemptId());
@@ -1,5 +1,9 @@
 package com.bioid.keycloak.failedauth.rest;
 
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import com.bioid.keycloak.failedauth.service.BlobMigrationJob;
+import com.bioid.keycloak.failedauth.service.ExpiredAttemptCleanupJob;
+import com.bioid.keycloak.failedauth.service.StatisticsReconciliationJob;
 import org.keycloak.Config;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
@@ -10,6 +14,10 @@ public class FailedAuthResourceProviderFactory implements RealmResourceProviderF
     
     public static final String ID = "failed-auth";
     
+    private BlobMigrationJob blobMigrationJob;
+    private ExpiredAttemptCleanupJob cleanupJob;
+    private StatisticsReconciliationJob statisticsJob;
+    
     @Override
     public String getId() {
         return ID;
@@ -26,9 +34,26 @@ public class FailedAuthResourceProviderFactory implements RealmResourceProviderF
     
     @Override
     public void postInit(KeycloakSessionFactory factory) {
+        blobMigrationJob = new BlobMigrationJob(FailedAuthConfiguration.getInstance());
+        blobMigrationJob.start();
+        
+        cleanupJob = new ExpiredAttemptCleanupJob(factory, FailedAuthConfiguration.getInstance());
+        cleanupJob.start();
+        
+        statisticsJob = new StatisticsReconciliationJob(factory, FailedAuthConfiguration.getInstance());
+        statisticsJob.start();
     }
     
     @Override
     public void close() {
+        if (blobMigrationJob != null) {
+            blobMigrationJob.shutdown();
+        }
+        if (cleanupJob != null) {
+            cleanupJob.stop();
+        }
+        if (statisticsJob != null) {
+            statisticsJob.stop();
+        }
     }
 }
@@ -0,0 +1,265 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.entity.FailedAuthStatisticsEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maintenance of the {@code failed_auth_statistics} summary table.
+ *
+ * Every change to attempts is turned into a {@link Delta} that is added to four rows: the
+ * realm and user totals and the realm and user rows of the attempt's failure reason. Deltas
+ * are applied with one {@code INSERT ... ON CONFLICT DO UPDATE} statement inside the caller's
+ * transaction. Rows are always locked in key order (realm rows before user rows), and callers
+ * apply deltas after their attempt rows are changed, so concurrent writers cannot deadlock.
+ */
+final class AttemptStatistics {
+
+    private static final Comparator<RowKey> ROW_ORDER = Comparator
+        .comparing(RowKey::scope)
+        .thenComparing(RowKey::scopeId)
+        .thenComparing(RowKey::failureReason);
+
+    // Keeps a statement well below the JDBC limit of 32767 bind parameters
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    private static final String UPSERT_PREFIX =
+        "INSERT INTO failed_auth_statistics (scope, scope_id, failure_reason, total_count, "
+            + "enrolled_count, reviewed_count, recommended_count, quality_sum, quality_count, "
+            + "updated_at) VALUES ";
+
+    private static final String UPSERT_SUFFIX =
+        " ON CONFLICT (scope, scope_id, failure_reason) DO UPDATE SET "
+            + "total_count = failed_auth_statistics.total_count + EXCLUDED.total_count, "
+            + "enrolled_count = failed_auth_statistics.enrolled_count + EXCLUDED.enrolled_count, "
+            + "reviewed_count = failed_auth_statistics.reviewed_count + EXCLUDED.reviewed_count, "
+            + "recommended_count = failed_auth_statistics.recommended_count + EXCLUDED.recommended_count, "
+            + "quality_sum = failed_auth_statistics.quality_sum + EXCLUDED.quality_sum, "
+            + "quality_count = failed_auth_statistics.quality_count + EXCLUDED.quality_count, "
+            + "updated_at = EXCLUDED.updated_at";
+
+    private static final String REBUILD =
+        "INSERT INTO failed_auth_statistics (scope, scope_id, failure_reason, total_count, "
+            + "enrolled_count, reviewed_count, recommended_count, quality_sum, quality_count, "
+            + "updated_at) "
+            + "SELECT CASE WHEN GROUPING(user_id) = 0 THEN 'USER' ELSE 'REALM' END, "
+            + "CASE WHEN GROUPING(user_id) = 0 THEN user_id ELSE realm_id END, "
+            + "CASE WHEN GROUPING(reason) = 0 THEN reason ELSE '*' END, "
+            + "COUNT(*), "
+            + "COUNT(*) FILTER (WHERE enrolled), "
+            + "COUNT(*) FILTER (WHERE reviewed), "
+            + "COUNT(*) FILTER (WHERE NOT enrolled AND avg_quality_score >= :minQuality), "
+            + "COALESCE(SUM(avg_quality_score), 0), "
+            + "COUNT(avg_quality_score), "
+            + "CURRENT_TIMESTAMP "
+            + "FROM (SELECT user_id, realm_id, COALESCE(failure_reason, 'UNKNOWN') AS reason, "
+            + "COALESCE(enrolled, false) AS enrolled, COALESCE(reviewed, false) AS reviewed, "
+            + "avg_quality_score FROM failed_auth_attempts) a "
+            + "GROUP BY GROUPING SETS ((realm_id), (realm_id, reason), "
+            + "(realm_id, user_id), (realm_id, user_id, reason))";
+
+    private AttemptStatistics() {
+    }
+
+    /**
+     * Counter changes caused by one or more attempts.
+     */
+    record Delta(long total, long enrolled, long reviewed, long recommended,
+                 double qualitySum, long qualityCount) {
+
+        static Delta ofStored(Double avgQuality, double minEnrollQuality) {
+            return new Delta(1, 0, 0, isRecommended(avgQuality, minEnrollQuality) ? 1 : 0,
+                avgQuality != null ? avgQuality : 0.0, avgQuality != null ? 1 : 0);
+        }
+
+        static Delta ofEnrollment(Double avgQuality, double minEnrollQuality) {
+            return new Delta(0, 1, 0, isRecommended(avgQuality, minEnrollQuality) ? -1 : 0, 0.0, 0);
+        }
+
+        static Delta ofReview() {
+            return new Delta(0, 0, 1, 0, 0.0, 0);
+        }
+
+        Delta plus(Delta other) {
+            return new Delta(total + other.total, enrolled + other.enrolled,
+                reviewed + other.reviewed, recommended + other.recommended,
+                qualitySum + other.qualitySum, qualityCount + other.qualityCount);
+        }
+
+        Delta negate() {
+            return new Delta(-total, -enrolled, -reviewed, -recommended, -qualitySum, -qualityCount);
+        }
+
+        private static boolean isRecommended(Double avgQuality, double minEnrollQuality) {
+            return avgQuality != null && avgQuality >= minEnrollQuality;
+        }
+    }
+
+    private record RowKey(String scope, String scopeId, String failureReason) {
+    }
+
+    /**
+     * Add a delta to the realm, user and failure reason rows of one attempt.
+     */
+    static void apply(EntityManager em, String userId, String realmId, String failureReason,
+                      Delta delta) {
+        Map<RowKey, Delta> rows = new TreeMap<>(ROW_ORDER);
+        addRows(rows, userId, realmId, failureReason, delta);
+        upsert(em, rows);
+    }
+
+    /**
+     * Deltas for attempts that are about to be deleted.
+     */
+    static final class PendingDeletion {
+        private final Map<RowKey, Delta> rows;
+
+        private PendingDeletion(Map<RowKey, Delta> rows) {
+            this.rows = rows;
+        }
+
+        /**
+         * Subtract the collected attempts; call after they are deleted, in the same transaction.
+         */
+        void apply(EntityManager em) {
+            upsert(em, rows);
+        }
+    }
+
+    /**
+     * Collect the counters of attempts that are about to be deleted.
+     *
+     * Must run before the attempts are deleted; the returned deltas are applied afterwards so
+     * that statistics rows are locked after the attempt rows, as on the insert path.
+     */
+    static PendingDeletion collectDeletion(EntityManager em, List<String> attemptIds,
+                                           double minEnrollQuality) {
+        List<Object[]> groups = em.createQuery(
+                "SELECT a.userId, a.realmId, a.failureReason, COUNT(a), "
+                    + "SUM(CASE WHEN a.enrolled = true THEN 1 ELSE 0 END), "
+                    + "SUM(CASE WHEN a.reviewed = true THEN 1 ELSE 0 END), "
+                    + "SUM(CASE WHEN a.enrolled = false AND a.avgQualityScore >= :minQuality THEN 1 ELSE 0 END), "
+                    + "SUM(a.avgQualityScore), COUNT(a.avgQualityScore) "
+                    + "FROM FailedAuthAttemptEntity a WHERE a.attemptId IN :ids "
+                    + "GROUP BY a.userId, a.realmId, a.failureReason",
+                Object[].class)
+            .setParameter("minQuality", minEnrollQuality)
+            .setParameter("ids", attemptIds)
+            .getResultList();
+
+        Map<RowKey, Delta> rows = new TreeMap<>(ROW_ORDER);
+        for (Object[] group : groups) {
+            Delta removed = new Delta(
+                toLong(group[3]), toLong(group[4]), toLong(group[5]), toLong(group[6]),
+                group[7] != null ? ((Number) group[7]).doubleValue() : 0.0, toLong(group[8]));
+            addRows(rows, (String) group[0], (String) group[1], (String) group[2], removed.negate());
+        }
+        return new PendingDeletion(rows);
+    }
+
+    /**
+     * Read the counters of a user or realm with a single primary key prefix lookup.
+     */
+    static FailedAuthImageStorageService.FailedAttemptStatistics read(
+            EntityManager em, String scope, String scopeId) {
+        List<FailedAuthStatisticsEntity> rows = em.createQuery(
+                "SELECT s FROM FailedAuthStatisticsEntity s WHERE s.scope = :scope AND s.scopeId = :scopeId",
+                FailedAuthStatisticsEntity.class)
+            .setParameter("scope", scope)
+            .setParameter("scopeId", scopeId)
+            .getResultList();
+
+        FailedAuthImageStorageService.FailedAttemptStatistics stats =
+            new FailedAuthImageStorageService.FailedAttemptStatistics();
+        Map<String, Integer> byReason = new HashMap<>();
+        for (FailedAuthStatisticsEntity row : rows) {
+            if (FailedAuthStatisticsEntity.ALL_REASONS.equals(row.getFailureReason())) {
+                stats.setTotalCount((int) row.getTotalCount());
+                stats.setEnrolledCount((int) row.getEnrolledCount());
+                stats.setUnenrolledCount((int) (row.getTotalCount() - row.getEnrolledCount()));
+                stats.setReviewedCount((int) row.getReviewedCount());
+                stats.setRecommendedCount((int) row.getRecommendedCount());
+                stats.setAvgQualityScore(row.getAvgQualityScore());
+            } else if (row.getTotalCount() > 0) {
+                byReason.put(row.getFailureReason(), (int) row.getTotalCount());
+            }
+        }
+        stats.setFailureReasons(byReason);
+        return stats;
+    }
+
+    /**
+     * Replace all counters with values recomputed from {@code failed_auth_attempts}.
+     *
+     * Runs as two statements in the caller's transaction; readers keep seeing the previous
+     * counters until it commits, and concurrent deltas wait for the rebuilt rows.
+     *
+     * @return Number of statistics rows written
+     */
+    static int rebuild(EntityManager em, double minEnrollQuality) {
+        em.createNativeQuery("DELETE FROM failed_auth_statistics").executeUpdate();
+        return em.createNativeQuery(REBUILD)
+            .setParameter("minQuality", minEnrollQuality)
+            .executeUpdate();
+    }
+
+    private static void addRows(Map<RowKey, Delta> rows, String userId, String realmId,
+                                String failureReason, Delta delta) {
+        String reason = failureReason != null ? failureReason : FailedAuthStatisticsEntity.UNKNOWN_REASON;
+        String all = FailedAuthStatisticsEntity.ALL_REASONS;
+        rows.merge(new RowKey(FailedAuthStatisticsEntity.SCOPE_REALM, realmId, all), delta, Delta::plus);
+        rows.merge(new RowKey(FailedAuthStatisticsEntity.SCOPE_REALM, realmId, reason), delta, Delta::plus);
+        rows.merge(new RowKey(FailedAuthStatisticsEntity.SCOPE_USER, userId, all), delta, Delta::plus);
+        rows.merge(new RowKey(FailedAuthStatisticsEntity.SCOPE_USER, userId, reason), delta, Delta::plus);
+    }
+
+    private static void upsert(EntityManager em, Map<RowKey, Delta> rows) {
+        List<Map.Entry<RowKey, Delta>> entries = new ArrayList<>(rows.entrySet());
+        for (int from = 0; from < entries.size(); from += MAX_ROWS_PER_STATEMENT) {
+            upsert(em, entries.subList(from, Math.min(entries.size(), from + MAX_ROWS_PER_STATEMENT)));
+        }
+    }
+
+    private static void upsert(EntityManager em, List<Map.Entry<RowKey, Delta>> rows) {
+        StringBuilder sql = new StringBuilder(UPSERT_PREFIX);
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append("(:s").append(i).append(", :i").append(i).append(", :r").append(i)
+                .append(", :t").append(i).append(", :e").append(i).append(", :v").append(i)
+                .append(", :c").append(i).append(", :qs").append(i).append(", :qc").append(i)
+                .append(", CURRENT_TIMESTAMP)");
+        }
+        sql.append(UPSERT_SUFFIX);
+
+        Query query = em.createNativeQuery(sql.toString());
+        int i = 0;
+        for (Map.Entry<RowKey, Delta> row : rows) {
+            RowKey key = row.getKey();
+            Delta delta = row.getValue();
+            query.setParameter("s" + i, key.scope())
+                .setParameter("i" + i, key.scopeId())
+                .setParameter("r" + i, key.failureReason())
+                .setParameter("t" + i, delta.total())
+                .setParameter("e" + i, delta.enrolled())
+                .setParameter("v" + i, delta.reviewed())
+                .setParameter("c" + i, delta.recommended())
+                .setParameter("qs" + i, delta.qualitySum())
+                .setParameter("qc" + i, delta.qualityCount());
+            i++;
+        }
+        query.executeUpdate();
+    }
+
+    private static long toLong(Object value) {
+        return value != null ? ((Number) value).longValue() : 0L;
+    }
+}
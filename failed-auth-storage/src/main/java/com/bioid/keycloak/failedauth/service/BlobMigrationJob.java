@@ -0,0 +1,76 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background job that moves image payloads of existing rows from the database into the
+ * configured blob store.
+ * 
+ * Batches run one after another with a short pause in between to limit database load. The job
+ * stops once no inline payloads are left, and simply continues where it stopped after a restart.
+ */
+public class BlobMigrationJob {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BlobMigrationJob.class);
+    
+    private static final long INITIAL_DELAY_SECONDS = 60;
+    private static final long BATCH_PAUSE_MILLIS = 500;
+    private static final long RETRY_DELAY_SECONDS = 300;
+    
+    private final FailedAuthConfiguration config;
+    private final ScheduledExecutorService executor;
+    private volatile long migratedImages;
+    
+    public BlobMigrationJob(FailedAuthConfiguration config) {
+        this.config = config;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "failed-auth-blob-migration");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Start the migration if a blob store is configured and migration is enabled.
+     */
+    public void start() {
+        if (!config.isFileSystemBlobStore() || !config.isBlobMigrationEnabled()) {
+            logger.debug("Failed auth blob migration not enabled");
+            return;
+        }
+        executor.schedule(this::runBatch, INITIAL_DELAY_SECONDS, TimeUnit.SECONDS);
+        logger.info("Scheduled failed auth blob migration");
+    }
+    
+    private void runBatch() {
+        try {
+            FailedAuthImageStorageService storageService = new FailedAuthImageStorageService(config);
+            int migrated = storageService.migrateInlineImages(config.getBlobMigrationBatchSize());
+            migratedImages += migrated;
+            
+            if (migrated > 0) {
+                executor.schedule(this::runBatch, BATCH_PAUSE_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                logger.info("Failed auth blob migration complete, {} images migrated", migratedImages);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed auth blob migration batch failed, retrying in {}s: {}",
+                RETRY_DELAY_SECONDS, e.getMessage());
+            executor.schedule(this::runBatch, RETRY_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+    
+    public long getMigratedImages() {
+        return migratedImages;
+    }
+    
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,5 +1,6 @@
 package com.bioid.keycloak.failedauth.service;
 
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,16 +10,43 @@ import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.Security;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HexFormat;
 
 /**
  * Service for encrypting and decrypting failed authentication images.
  * 
  * Uses AES-256-GCM for authenticated encryption with associated data (AEAD).
  * This provides both confidentiality and integrity protection.
+ * 
+ * Payloads use envelope encryption in a chunked, streaming format: every payload gets its own
+ * random data key, which is stored wrapped by the master key in the payload header. The
+ * plaintext is split into chunks that are sealed individually with AES-GCM under a nonce made
+ * of a per-payload prefix, the chunk index and a last-chunk flag, with the header as associated
+ * data. Chunks therefore cannot be reordered, truncated or moved between payloads, and a
+ * payload can be decrypted from any chunk onwards with one chunk of memory.
+ * 
+ * <pre>
+ * header: "FAE1" | chunk size (4) | master key id (8) | wrap IV (12) | wrapped data key (48) | nonce prefix (7)
+ * chunks: ciphertext (chunk size, last chunk shorter) | tag (16) ...
+ * </pre>
+ * 
+ * Payloads written by earlier versions (IV + ciphertext + tag under the master key) are still
+ * decrypted.
  */
 public class EncryptionService {
     
@@ -29,9 +57,26 @@ public class EncryptionService {
     private static final int KEY_SIZE = 256; // bits
     private static final int GCM_IV_LENGTH = 12; // bytes (96 bits recommended for GCM)
     private static final int GCM_TAG_LENGTH = 128; // bits (16 bytes)
+    private static final int TAG_BYTES = GCM_TAG_LENGTH / 8;
+    
+    // Chunked envelope format
+    private static final byte[] MAGIC = {'F', 'A', 'E', '1'};
+    private static final int KEY_ID_LENGTH = 8;
+    private static final int DATA_KEY_LENGTH = KEY_SIZE / 8;
+    private static final int WRAPPED_KEY_LENGTH = DATA_KEY_LENGTH + TAG_BYTES;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    static final int HEADER_LENGTH = MAGIC.length + 4 + KEY_ID_LENGTH + GCM_IV_LENGTH
+        + WRAPPED_KEY_LENGTH + NONCE_PREFIX_LENGTH;
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    // Upper bound for the chunk size read from a header, which is only authenticated later
+    static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    
+    private static volatile EncryptionService configured;
     
     private final SecretKey encryptionKey;
     private final SecureRandom secureRandom;
+    private final byte[] keyId;
+    private final int chunkSize;
     
     static {
         // Add Bouncy Castle provider if not already added
@@ -52,6 +97,8 @@ public class EncryptionService {
             keyGen.init(KEY_SIZE, new SecureRandom());
             this.encryptionKey = keyGen.generateKey();
             this.secureRandom = new SecureRandom();
+            this.keyId = keyIdOf(encryptionKey.getEncoded());
+            this.chunkSize = DEFAULT_CHUNK_SIZE;
             
             logger.info("Encryption service initialized with AES-256-GCM");
         } catch (Exception e) {
@@ -66,41 +113,104 @@ public class EncryptionService {
      * @param keyBytes The 256-bit (32-byte) encryption key
      */
     public EncryptionService(byte[] keyBytes) {
+        this(keyBytes, DEFAULT_CHUNK_SIZE);
+    }
+    
+    /**
+     * Create encryption service with a specific master key and chunk size.
+     * 
+     * @param keyBytes The 256-bit (32-byte) master key
+     * @param chunkSize Plaintext bytes per chunk for newly encrypted payloads
+     */
+    EncryptionService(byte[] keyBytes, int chunkSize) {
         if (keyBytes.length != 32) {
             throw new IllegalArgumentException("Key must be 256 bits (32 bytes)");
         }
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + MAX_CHUNK_SIZE);
+        }
         this.encryptionKey = new SecretKeySpec(keyBytes, ALGORITHM);
         this.secureRandom = new SecureRandom();
-        logger.info("Encryption service initialized with provided key");
+        this.keyId = keyIdOf(keyBytes);
+        this.chunkSize = chunkSize;
+        logger.info("Encryption service initialized with provided key {}", HexFormat.of().formatHex(keyId));
+    }
+    
+    /**
+     * Get the encryption service for the configured master key.
+     * 
+     * The key is read once per JVM from {@code FAILED_AUTH_ENCRYPTION_KEY} (base64) or
+     * {@code FAILED_AUTH_ENCRYPTION_KEY_FILE}. Without a configured key a random key is
+     * generated, and stored images cannot be read after a restart or on other nodes.
+     * 
+     * @param config Configuration
+     * @return Shared encryption service
+     */
+    public static EncryptionService fromConfiguration(FailedAuthConfiguration config) {
+        EncryptionService service = configured;
+        if (service == null) {
+            synchronized (EncryptionService.class) {
+                service = configured;
+                if (service == null) {
+                    byte[] masterKey = loadMasterKey(config);
+                    if (masterKey != null) {
+                        service = new EncryptionService(masterKey, config.getEncryptionChunkSize());
+                        secureWipe(masterKey);
+                    } else {
+                        logger.warn("No FAILED_AUTH_ENCRYPTION_KEY configured; using a random key. "
+                            + "Stored images will not be readable after a restart or on other nodes.");
+                        service = new EncryptionService();
+                    }
+                    configured = service;
+                }
+            }
+        }
+        return service;
+    }
+    
+    private static byte[] loadMasterKey(FailedAuthConfiguration config) {
+        String encoded = config.getEncryptionKey();
+        try {
+            if (encoded == null && config.getEncryptionKeyFile() != null) {
+                encoded = Files.readString(Path.of(config.getEncryptionKeyFile()), StandardCharsets.US_ASCII);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read encryption key file " + config.getEncryptionKeyFile(), e);
+        }
+        if (encoded == null || encoded.isBlank()) {
+            return null;
+        }
+        byte[] key = Base64.getDecoder().decode(encoded.strip());
+        if (key.length != 32) {
+            throw new IllegalStateException("Encryption key must be 256 bits (32 bytes, base64 encoded)");
+        }
+        return key;
+    }
+    
+    private static byte[] keyIdOf(byte[] key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("failed-auth-master-key".getBytes(StandardCharsets.US_ASCII));
+            return Arrays.copyOf(digest.digest(key), KEY_ID_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
     
     /**
      * Encrypt data using AES-256-GCM.
      * 
      * @param plaintext The data to encrypt
-     * @return Encrypted data with IV prepended (IV + ciphertext + tag)
+     * @return Encrypted payload in the chunked envelope format
      * @throws Exception if encryption fails
      */
     public byte[] encrypt(byte[] plaintext) throws Exception {
         try {
-            // Generate random IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            secureRandom.nextBytes(iv);
-            
-            // Initialize cipher
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, gcmSpec);
-            
-            // Encrypt
-            byte[] ciphertext = cipher.doFinal(plaintext);
-            
-            // Prepend IV to ciphertext (IV + ciphertext + tag)
-            byte[] encrypted = new byte[iv.length + ciphertext.length];
-            System.arraycopy(iv, 0, encrypted, 0, iv.length);
-            System.arraycopy(ciphertext, 0, encrypted, iv.length, ciphertext.length);
-            
-            return encrypted;
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream(encryptedLength(plaintext.length));
+            try (OutputStream output = encryptingStream(encrypted)) {
+                output.write(plaintext);
+            }
+            return encrypted.toByteArray();
             
         } catch (Exception e) {
             logger.error("Encryption failed", e);
@@ -108,34 +218,87 @@ public class EncryptionService {
         }
     }
     
+    /**
+     * Open a stream that encrypts everything written to it into {@code sink}.
+     * 
+     * At most one chunk of plaintext is buffered. The payload is only complete, and its last
+     * chunk only written, when the returned stream is closed; closing it also closes the sink.
+     * 
+     * @param sink Destination of the encrypted payload
+     * @return Encrypting stream
+     * @throws IOException if the header cannot be written
+     */
+    public OutputStream encryptingStream(OutputStream sink) throws IOException {
+        try {
+            byte[] dataKey = new byte[DATA_KEY_LENGTH];
+            secureRandom.nextBytes(dataKey);
+            byte[] wrapIv = new byte[GCM_IV_LENGTH];
+            secureRandom.nextBytes(wrapIv);
+            byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            secureRandom.nextBytes(noncePrefix);
+            
+            Cipher wrap = Cipher.getInstance(TRANSFORMATION);
+            wrap.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(GCM_TAG_LENGTH, wrapIv));
+            wrap.updateAAD(keyBinding(keyId));
+            byte[] wrappedKey = wrap.doFinal(dataKey);
+            
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .putInt(chunkSize)
+                .put(keyId)
+                .put(wrapIv)
+                .put(wrappedKey)
+                .put(noncePrefix);
+            
+            SecretKey key = new SecretKeySpec(dataKey, ALGORITHM);
+            secureWipe(dataKey);
+            return new ChunkedEncryptingOutputStream(sink, header.array(), key, chunkSize);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to initialize encryption", e);
+        }
+    }
+    
+    /**
+     * Size of the payload {@link #encrypt} produces for a plaintext of the given size.
+     */
+    int encryptedLength(int plaintextLength) {
+        int chunks = Math.max(1, (plaintextLength + chunkSize - 1) / chunkSize);
+        return HEADER_LENGTH + plaintextLength + chunks * TAG_BYTES;
+    }
+    
     /**
      * Decrypt data using AES-256-GCM.
      * 
-     * @param encrypted The encrypted data (IV + ciphertext + tag)
+     * @param encrypted The encrypted payload
      * @return Decrypted plaintext
      * @throws Exception if decryption fails or authentication tag is invalid
      */
     public byte[] decrypt(byte[] encrypted) throws Exception {
+        return decrypt(ByteBuffer.wrap(encrypted));
+    }
+    
+    /**
+     * Decrypt data using AES-256-GCM directly from a buffer.
+     * 
+     * Avoids copying memory-mapped blobs into the heap before decryption.
+     * 
+     * @param encrypted Buffer positioned at the encrypted payload
+     * @return Decrypted plaintext
+     * @throws Exception if decryption fails or authentication tag is invalid
+     */
+    public byte[] decrypt(ByteBuffer encrypted) throws Exception {
         try {
-            if (encrypted.length < GCM_IV_LENGTH) {
-                throw new IllegalArgumentException("Encrypted data is too short");
+            if (!isChunked(encrypted)) {
+                return decryptLegacy(encrypted);
             }
-            
-            // Extract IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encrypted, 0, iv, 0, GCM_IV_LENGTH);
-            
-            // Extract ciphertext + tag
-            byte[] ciphertext = new byte[encrypted.length - GCM_IV_LENGTH];
-            System.arraycopy(encrypted, GCM_IV_LENGTH, ciphertext, 0, ciphertext.length);
-            
-            // Initialize cipher
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, encryptionKey, gcmSpec);
-            
-            // Decrypt and verify authentication tag
-            return cipher.doFinal(ciphertext);
+            byte[] plaintext = new byte[Math.toIntExact(plaintextLength(encrypted))];
+            try (InputStream input = decryptingStream(encrypted, 0)) {
+                int read = input.readNBytes(plaintext, 0, plaintext.length);
+                if (read != plaintext.length || input.read() != -1) {
+                    throw new IOException("Unexpected plaintext length");
+                }
+            }
+            return plaintext;
             
         } catch (Exception e) {
             logger.error("Decryption failed", e);
@@ -143,6 +306,164 @@ public class EncryptionService {
         }
     }
     
+    /**
+     * Size of the plaintext of an encrypted payload, computed from its length and header.
+     * 
+     * @param encrypted Buffer positioned at the encrypted payload (not changed)
+     * @throws IOException if the payload is malformed
+     */
+    public long plaintextLength(ByteBuffer encrypted) throws IOException {
+        if (!isChunked(encrypted)) {
+            long length = (long) encrypted.remaining() - GCM_IV_LENGTH - TAG_BYTES;
+            if (length < 0) {
+                throw new IOException("Encrypted data is too short");
+            }
+            return length;
+        }
+        int payloadChunkSize = checkedChunkSize(encrypted.getInt(encrypted.position() + MAGIC.length));
+        long body = (long) encrypted.remaining() - HEADER_LENGTH;
+        long segment = (long) payloadChunkSize + TAG_BYTES;
+        long chunks = Math.max(1, (body + segment - 1) / segment);
+        long length = body - chunks * TAG_BYTES;
+        if (length < 0) {
+            throw new IOException("Malformed encrypted payload");
+        }
+        return length;
+    }
+    
+    /**
+     * Open a stream that decrypts a payload starting at a plaintext offset.
+     * 
+     * Only the chunks from the one containing {@code offset} onwards are authenticated and
+     * decrypted, one at a time. A chunk that fails authentication makes the stream throw an
+     * {@link IOException} before any of its plaintext is returned.
+     * 
+     * @param encrypted Buffer positioned at the encrypted payload (not changed)
+     * @param offset Plaintext offset to start at
+     * @return Decrypting stream
+     * @throws IOException if the payload header is invalid or the data key cannot be unwrapped
+     */
+    public InputStream decryptingStream(ByteBuffer encrypted, long offset) throws IOException {
+        ByteBuffer input = encrypted.duplicate();
+        if (!isChunked(input)) {
+            try {
+                InputStream legacy = new ByteArrayInputStream(decryptLegacy(input));
+                legacy.skipNBytes(offset);
+                return legacy;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to decrypt data (possible tampering)", e);
+            }
+        }
+        
+        byte[] header = new byte[HEADER_LENGTH];
+        input.get(header);
+        ByteBuffer fields = ByteBuffer.wrap(header).position(MAGIC.length);
+        int payloadChunkSize = checkedChunkSize(fields.getInt());
+        byte[] payloadKeyId = new byte[KEY_ID_LENGTH];
+        fields.get(payloadKeyId);
+        byte[] wrapIv = new byte[GCM_IV_LENGTH];
+        fields.get(wrapIv);
+        byte[] wrappedKey = new byte[WRAPPED_KEY_LENGTH];
+        fields.get(wrappedKey);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        fields.get(noncePrefix);
+        
+        if (!MessageDigest.isEqual(payloadKeyId, keyId)) {
+            throw new IOException("Payload was encrypted with another master key ("
+                + HexFormat.of().formatHex(payloadKeyId) + ")");
+        }
+        
+        SecretKey dataKey;
+        try {
+            Cipher unwrap = Cipher.getInstance(TRANSFORMATION);
+            unwrap.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(GCM_TAG_LENGTH, wrapIv));
+            unwrap.updateAAD(keyBinding(payloadKeyId));
+            byte[] keyBytes = unwrap.doFinal(wrappedKey);
+            dataKey = new SecretKeySpec(keyBytes, ALGORITHM);
+            secureWipe(keyBytes);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to unwrap data key (possible tampering)", e);
+        }
+        
+        long firstChunk = offset / payloadChunkSize;
+        long skip = (long) payloadChunkSize + TAG_BYTES;
+        if (firstChunk * skip > input.remaining()) {
+            throw new IOException("Offset beyond end of payload");
+        }
+        input.position(input.position() + (int) (firstChunk * skip));
+        
+        ChunkedDecryptingInputStream stream = new ChunkedDecryptingInputStream(
+            input, header, noncePrefix, dataKey, payloadChunkSize, (int) firstChunk);
+        stream.skipNBytes(offset - firstChunk * payloadChunkSize);
+        return stream;
+    }
+    
+    /**
+     * Validate the chunk size of a payload header before it is used for arithmetic or buffers;
+     * the header is authenticated only together with the first chunk.
+     */
+    private static int checkedChunkSize(int payloadChunkSize) throws IOException {
+        if (payloadChunkSize < 1 || payloadChunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Malformed encrypted payload");
+        }
+        return payloadChunkSize;
+    }
+    
+    private static boolean isChunked(ByteBuffer encrypted) {
+        if (encrypted.remaining() < HEADER_LENGTH + TAG_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (encrypted.get(encrypted.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Decrypt a payload in the original single-shot format (IV + ciphertext + tag).
+     */
+    private byte[] decryptLegacy(ByteBuffer encrypted) throws GeneralSecurityException {
+        if (encrypted.remaining() < GCM_IV_LENGTH) {
+            throw new IllegalArgumentException("Encrypted data is too short");
+        }
+        
+        ByteBuffer input = encrypted.duplicate();
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        input.get(iv);
+        
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        GCMParameterSpec gcmSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey, gcmSpec);
+        
+        ByteBuffer output = ByteBuffer.allocate(cipher.getOutputSize(input.remaining()));
+        cipher.doFinal(input, output);
+        
+        byte[] plaintext = new byte[output.position()];
+        output.flip().get(plaintext);
+        return plaintext;
+    }
+    
+    /**
+     * Associated data for wrapping data keys: binds the wrapped key to the format and master key.
+     */
+    private static byte[] keyBinding(byte[] keyId) {
+        return ByteBuffer.allocate(MAGIC.length + KEY_ID_LENGTH).put(MAGIC).put(keyId).array();
+    }
+    
+    /**
+     * Per-chunk nonce: nonce prefix | chunk index | last-chunk flag.
+     */
+    private static GCMParameterSpec chunkNonce(byte[] noncePrefix, int index, boolean last) {
+        byte[] nonce = ByteBuffer.allocate(GCM_IV_LENGTH)
+            .put(noncePrefix)
+            .putInt(index)
+            .put((byte) (last ? 1 : 0))
+            .array();
+        return new GCMParameterSpec(GCM_TAG_LENGTH, nonce);
+    }
+    
     /**
      * Calculate SHA-256 checksum of data.
      * 
@@ -172,6 +493,24 @@ public class EncryptionService {
         return actualChecksum != null && actualChecksum.equals(expectedChecksum);
     }
     
+    /**
+     * Verify checksum of buffered data without copying it.
+     * 
+     * @param data The data to verify (position and limit are not changed)
+     * @param expectedChecksum The expected checksum (hex-encoded)
+     * @return true if checksum matches
+     */
+    public boolean verifyChecksum(ByteBuffer data, String expectedChecksum) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            return bytesToHex(digest.digest()).equals(expectedChecksum);
+        } catch (Exception e) {
+            logger.error("Failed to calculate checksum", e);
+            return false;
+        }
+    }
+    
     /**
      * Get the encryption key as base64 (for secure storage/retrieval).
      * WARNING: Handle with extreme care!
@@ -205,4 +544,165 @@ public class EncryptionService {
             }
         }
     }
+    
+    /**
+     * Writes the header, then seals the plaintext chunk by chunk. A full chunk is held back
+     * until more data arrives, so the last chunk can be flagged when the stream is closed.
+     */
+    private static final class ChunkedEncryptingOutputStream extends OutputStream {
+        private final OutputStream sink;
+        private final byte[] header;
+        private final byte[] noncePrefix;
+        private final SecretKey dataKey;
+        private final byte[] buffer;
+        private final Cipher cipher;
+        private int count;
+        private int index;
+        private boolean closed;
+        
+        ChunkedEncryptingOutputStream(OutputStream sink, byte[] header, SecretKey dataKey, int chunkSize)
+                throws IOException, GeneralSecurityException {
+            this.sink = sink;
+            this.header = header;
+            this.noncePrefix = Arrays.copyOfRange(header, HEADER_LENGTH - NONCE_PREFIX_LENGTH, HEADER_LENGTH);
+            this.dataKey = dataKey;
+            this.buffer = new byte[chunkSize];
+            this.cipher = Cipher.getInstance(TRANSFORMATION);
+            sink.write(header);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (length > 0) {
+                if (count == buffer.length) {
+                    sealChunk(false);
+                }
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                sealChunk(true);
+            } finally {
+                Arrays.fill(buffer, (byte) 0);
+                sink.close();
+            }
+        }
+        
+        private void sealChunk(boolean last) throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, dataKey, chunkNonce(noncePrefix, index++, last));
+                cipher.updateAAD(header);
+                sink.write(cipher.doFinal(buffer, 0, count));
+                count = 0;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to encrypt chunk", e);
+            }
+        }
+    }
+    
+    /**
+     * Authenticates and decrypts one chunk at a time from a buffer positioned at a chunk start.
+     */
+    private static final class ChunkedDecryptingInputStream extends InputStream {
+        private final ByteBuffer source;
+        private final byte[] header;
+        private final byte[] noncePrefix;
+        private final SecretKey dataKey;
+        private final int chunkSize;
+        private final Cipher cipher;
+        private final ByteBuffer plaintext;
+        private int index;
+        private boolean finished;
+        
+        ChunkedDecryptingInputStream(ByteBuffer source, byte[] header, byte[] noncePrefix,
+                                     SecretKey dataKey, int chunkSize, int firstIndex) throws IOException {
+            this.source = source;
+            this.header = header;
+            this.noncePrefix = noncePrefix;
+            this.dataKey = dataKey;
+            this.chunkSize = chunkSize;
+            this.index = firstIndex;
+            this.plaintext = ByteBuffer.allocate(chunkSize).flip();
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Failed to initialize decryption", e);
+            }
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!plaintext.hasRemaining()) {
+                if (finished) {
+                    return -1;
+                }
+                openChunk();
+            }
+            int n = Math.min(length, plaintext.remaining());
+            plaintext.get(target, offset, n);
+            return n;
+        }
+        
+        @Override
+        public int available() {
+            return plaintext.remaining();
+        }
+        
+        @Override
+        public void close() {
+            plaintext.clear();
+            Arrays.fill(plaintext.array(), (byte) 0);
+            plaintext.limit(0);
+            finished = true;
+        }
+        
+        private void openChunk() throws IOException {
+            int segment = Math.min(source.remaining(), chunkSize + TAG_BYTES);
+            if (segment < TAG_BYTES) {
+                throw new IOException("Truncated encrypted payload");
+            }
+            boolean last = segment == source.remaining();
+            ByteBuffer chunk = source.slice(source.position(), segment);
+            source.position(source.position() + segment);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, dataKey, chunkNonce(noncePrefix, index++, last));
+                cipher.updateAAD(header);
+                plaintext.clear();
+                cipher.doFinal(chunk, plaintext);
+                plaintext.flip();
+            } catch (GeneralSecurityException e) {
+                plaintext.clear().limit(0);
+                throw new IOException("Failed to decrypt chunk " + (index - 1) + " (possible tampering)", e);
+            }
+            finished = last;
+        }
+    }
 }
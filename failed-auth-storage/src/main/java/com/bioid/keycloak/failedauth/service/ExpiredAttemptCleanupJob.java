@@ -0,0 +1,159 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.TimerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduled background job that deletes expired failed authentication attempts in chunks.
+ * 
+ * The job is scheduled on every node through Keycloak's {@link TimerProvider}, but each run is
+ * guarded by {@link ClusterProvider#executeIfNotExecuted}, so only one node per interval does the
+ * work. A run deletes chunks of {@code cleanupBatchSize} attempts with a pause between chunks and
+ * stops after {@code cleanupMaxRunMinutes}; whatever is left is picked up by the next run.
+ * 
+ * Progress is exported as Micrometer metrics ({@code bioid.failedauth.cleanup.*}).
+ */
+public class ExpiredAttemptCleanupJob {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredAttemptCleanupJob.class);
+    
+    static final String TASK_NAME = "failed-auth-expired-cleanup";
+    
+    private final KeycloakSessionFactory sessionFactory;
+    private final FailedAuthConfiguration config;
+    
+    private final Counter deletedAttempts;
+    private final Counter deletedChunks;
+    private final Timer runTimer;
+    private final AtomicLong lastRunDeleted = new AtomicLong();
+    private final AtomicLong lastRunEpochSeconds = new AtomicLong();
+    
+    public ExpiredAttemptCleanupJob(KeycloakSessionFactory sessionFactory,
+                                    FailedAuthConfiguration config) {
+        this(sessionFactory, config, Metrics.globalRegistry);
+    }
+    
+    ExpiredAttemptCleanupJob(KeycloakSessionFactory sessionFactory,
+                             FailedAuthConfiguration config,
+                             MeterRegistry registry) {
+        this.sessionFactory = sessionFactory;
+        this.config = config;
+        this.deletedAttempts = Counter.builder("bioid.failedauth.cleanup.deleted.attempts")
+            .description("Expired failed authentication attempts deleted")
+            .register(registry);
+        this.deletedChunks = Counter.builder("bioid.failedauth.cleanup.chunks")
+            .description("Cleanup chunks committed")
+            .register(registry);
+        this.runTimer = Timer.builder("bioid.failedauth.cleanup.run.duration")
+            .description("Duration of expired attempt cleanup runs")
+            .register(registry);
+        Gauge.builder("bioid.failedauth.cleanup.last.run.deleted", lastRunDeleted, AtomicLong::get)
+            .description("Attempts deleted by the last cleanup run")
+            .register(registry);
+        Gauge.builder("bioid.failedauth.cleanup.last.run.timestamp", lastRunEpochSeconds,
+                AtomicLong::get)
+            .description("Completion time of the last cleanup run")
+            .baseUnit("seconds")
+            .register(registry);
+    }
+    
+    /**
+     * Schedule the job if automatic cleanup is enabled.
+     */
+    public void start() {
+        if (!config.isAutoCleanupEnabled()) {
+            logger.info("Automatic failed auth cleanup is disabled");
+            return;
+        }
+        long intervalMillis = Duration.ofHours(config.getCleanupIntervalHours()).toMillis();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+            session.getProvider(TimerProvider.class).schedule(this::runIfNotRunElsewhere,
+                intervalMillis, TASK_NAME));
+        logger.info("Scheduled failed auth cleanup every {} hours", config.getCleanupIntervalHours());
+    }
+    
+    /**
+     * Cancel the scheduled job.
+     */
+    public void stop() {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+                session.getProvider(TimerProvider.class).cancelTask(TASK_NAME));
+        } catch (Exception e) {
+            logger.debug("Could not cancel failed auth cleanup task: {}", e.getMessage());
+        }
+    }
+    
+    private void runIfNotRunElsewhere() {
+        int intervalSeconds = (int) Duration.ofHours(config.getCleanupIntervalHours()).toSeconds();
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                ExecutionResult<Long> result = session.getProvider(ClusterProvider.class)
+                    .executeIfNotExecuted(TASK_NAME, intervalSeconds, this::runOnce);
+                if (!result.isExecuted()) {
+                    logger.debug("Failed auth cleanup already executed by another node");
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Failed auth cleanup run failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Delete expired attempts chunk by chunk until none are left or the run budget is used up.
+     * 
+     * @return Number of attempts deleted
+     */
+    long runOnce() throws InterruptedException {
+        FailedAuthImageStorageService storageService = new FailedAuthImageStorageService(config);
+        Instant cutoff = Instant.now();
+        Instant deadline = cutoff.plus(Duration.ofMinutes(config.getCleanupMaxRunMinutes()));
+        int chunkSize = config.getCleanupBatchSize();
+        long total = 0;
+        
+        Timer.Sample sample = Timer.start();
+        try {
+            while (true) {
+                int deleted = storageService.deleteExpiredChunk(cutoff, chunkSize);
+                total += deleted;
+                deletedAttempts.increment(deleted);
+                deletedChunks.increment();
+                
+                if (deleted < chunkSize) {
+                    break;
+                }
+                if (Instant.now().isAfter(deadline)) {
+                    logger.info("Failed auth cleanup reached its run budget after {} attempts, "
+                        + "continuing next run", total);
+                    break;
+                }
+                if (total % (chunkSize * 100L) == 0) {
+                    logger.info("Failed auth cleanup progress: {} expired attempts deleted", total);
+                }
+                Thread.sleep(config.getCleanupChunkPauseMillis());
+            }
+        } finally {
+            sample.stop(runTimer);
+            lastRunDeleted.set(total);
+            lastRunEpochSeconds.set(Instant.now().getEpochSecond());
+        }
+        
+        logger.info("Cleaned up {} expired failed authentication attempts", total);
+        return total;
+    }
+}
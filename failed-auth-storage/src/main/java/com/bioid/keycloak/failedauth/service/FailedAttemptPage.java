@@ -0,0 +1,93 @@
+package com.bioid.keycloak.failedauth.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of failed attempts in keyset order {@code (timestamp DESC, attemptId DESC)}.
+ * 
+ * The cursor is an opaque token encoding the sort key of the last item; passing it back returns
+ * the next page without counting or skipping rows.
+ */
+public class FailedAttemptPage {
+    
+    private final List<FailedAttemptSummary> attempts;
+    private final boolean hasMore;
+    private final String nextCursor;
+    
+    public FailedAttemptPage(List<FailedAttemptSummary> attempts, boolean hasMore) {
+        this.attempts = attempts;
+        this.hasMore = hasMore;
+        this.nextCursor = hasMore && !attempts.isEmpty()
+            ? Cursor.of(attempts.get(attempts.size() - 1)).encode()
+            : null;
+    }
+    
+    public List<FailedAttemptSummary> getAttempts() {
+        return attempts;
+    }
+    
+    public boolean isHasMore() {
+        return hasMore;
+    }
+    
+    /**
+     * @return Cursor for the next page, or null on the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    /**
+     * Sort key of the last attempt on a page.
+     */
+    public static class Cursor {
+        private final Instant timestamp;
+        private final String attemptId;
+        
+        Cursor(Instant timestamp, String attemptId) {
+            this.timestamp = timestamp;
+            this.attemptId = attemptId;
+        }
+        
+        static Cursor of(FailedAttemptSummary summary) {
+            return new Cursor(summary.getTimestamp(), summary.getAttemptId());
+        }
+        
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+        
+        public String getAttemptId() {
+            return attemptId;
+        }
+        
+        String encode() {
+            String key = timestamp.toString() + "|" + attemptId;
+            return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        /**
+         * Decode a cursor token.
+         * 
+         * @throws IllegalArgumentException if the token is malformed
+         */
+        public static Cursor decode(String token) {
+            try {
+                String key = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = key.indexOf('|');
+                if (separator <= 0 || separator == key.length() - 1) {
+                    throw new IllegalArgumentException("Invalid cursor");
+                }
+                return new Cursor(Instant.parse(key.substring(0, separator)),
+                    key.substring(separator + 1));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Invalid cursor", e);
+            }
+        }
+    }
+}
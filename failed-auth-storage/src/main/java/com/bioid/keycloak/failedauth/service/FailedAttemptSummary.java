@@ -0,0 +1,66 @@
+package com.bioid.keycloak.failedauth.service;
+
+import java.time.Instant;
+
+/**
+ * List view of a failed authentication attempt.
+ * 
+ * Populated directly by a JPQL constructor expression, so listing attempts neither hydrates
+ * entities nor touches image data.
+ */
+public class FailedAttemptSummary {
+    
+    private final String attemptId;
+    private final Instant timestamp;
+    private final String failureReason;
+    private final Integer imageCount;
+    private final Double avgQualityScore;
+    private final Boolean enrolled;
+    private final Integer retryAttempt;
+    private final String livenessMode;
+    
+    public FailedAttemptSummary(String attemptId, Instant timestamp, String failureReason,
+                                Integer imageCount, Double avgQualityScore, Boolean enrolled,
+                                Integer retryAttempt, String livenessMode) {
+        this.attemptId = attemptId;
+        this.timestamp = timestamp;
+        this.failureReason = failureReason;
+        this.imageCount = imageCount;
+        this.avgQualityScore = avgQualityScore;
+        this.enrolled = enrolled;
+        this.retryAttempt = retryAttempt;
+        this.livenessMode = livenessMode;
+    }
+    
+    public String getAttemptId() {
+        return attemptId;
+    }
+    
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+    
+    public String getFailureReason() {
+        return failureReason;
+    }
+    
+    public Integer getImageCount() {
+        return imageCount;
+    }
+    
+    public Double getAvgQualityScore() {
+        return avgQualityScore;
+    }
+    
+    public Boolean getEnrolled() {
+        return enrolled;
+    }
+    
+    public Integer getRetryAttempt() {
+        return retryAttempt;
+    }
+    
+    public String getLivenessMode() {
+        return livenessMode;
+    }
+}
@@ -0,0 +1,143 @@
+package com.bioid.keycloak.failedauth.service;
+
+import io.agroal.api.AgroalDataSource;
+import io.agroal.api.AgroalDataSourceMetrics;
+import io.agroal.api.security.NamePrincipal;
+import io.agroal.api.security.SimplePassword;
+import io.agroal.api.configuration.supplier.AgroalDataSourceConfigurationSupplier;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Agroal connection pool for the failed authentication database.
+ * 
+ * Agroal is the pool used by Keycloak's own Quarkus runtime, so no additional pool library is
+ * shipped. Prepared statements are cached per connection by the PostgreSQL driver.
+ */
+final class FailedAuthDataSource {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FailedAuthDataSource.class);
+    
+    private static final String METRIC_PREFIX = "bioid.failedauth.db.pool.";
+    
+    private FailedAuthDataSource() {
+    }
+    
+    /**
+     * Create the pool from {@code FAILED_AUTH_DB_*} environment variables.
+     */
+    static AgroalDataSource create(Map<String, String> env) throws SQLException {
+        int defaultMaxSize = Math.max(10, Runtime.getRuntime().availableProcessors() * 2);
+        int maxSize = intValue(env, "FAILED_AUTH_DB_POOL_SIZE", defaultMaxSize);
+        int minSize = Math.min(intValue(env, "FAILED_AUTH_DB_POOL_MIN_SIZE", 2), maxSize);
+        int acquireTimeoutSeconds = intValue(env, "FAILED_AUTH_DB_POOL_ACQUIRE_TIMEOUT_SECONDS", 5);
+        int statementCacheSize = intValue(env, "FAILED_AUTH_DB_STATEMENT_CACHE_SIZE", 256);
+        
+        AgroalDataSourceConfigurationSupplier configuration = new AgroalDataSourceConfigurationSupplier()
+            .metricsEnabled(true)
+            .connectionPoolConfiguration(pool -> pool
+                .minSize(minSize)
+                .initialSize(minSize)
+                .maxSize(maxSize)
+                .acquisitionTimeout(Duration.ofSeconds(acquireTimeoutSeconds))
+                .validationTimeout(Duration.ofMinutes(1))
+                .idleValidationTimeout(Duration.ofSeconds(30))
+                .reapTimeout(Duration.ofMinutes(5))
+                .maxLifetime(Duration.ofMinutes(30))
+                .leakTimeout(Duration.ofMinutes(1))
+                .connectionFactoryConfiguration(factory -> factory
+                    .jdbcUrl(env.getOrDefault("FAILED_AUTH_DB_URL",
+                        "jdbc:postgresql://localhost:5433/failed_auth"))
+                    .connectionProviderClass(org.postgresql.Driver.class)
+                    .principal(new NamePrincipal(
+                        env.getOrDefault("FAILED_AUTH_DB_USER", "failed_auth")))
+                    .credential(new SimplePassword(
+                        env.getOrDefault("FAILED_AUTH_DB_PASSWORD", "failed_auth_password")))
+                    // Server-side prepared statements after the first execution, cached per connection
+                    .jdbcProperty("prepareThreshold", "1")
+                    .jdbcProperty("preparedStatementCacheQueries", String.valueOf(statementCacheSize))
+                    .jdbcProperty("reWriteBatchedInserts", "true")));
+        
+        logger.info("Creating failed auth connection pool (min {}, max {})", minSize, maxSize);
+        return AgroalDataSource.from(configuration);
+    }
+    
+    /**
+     * Export pool metrics as {@code bioid.failedauth.db.pool.*} meters.
+     * 
+     * The meters read from the given pool; remove them with {@link #removeMetrics} when the pool
+     * is closed so that a replacement pool can register its own.
+     * 
+     * @return the registered meters
+     */
+    static List<Meter> registerMetrics(AgroalDataSource dataSource, MeterRegistry registry) {
+        AgroalDataSourceMetrics metrics = dataSource.getMetrics();
+        List<Meter> meters = new ArrayList<>();
+        meters.add(gauge(registry, "active", "Connections in use", metrics,
+            AgroalDataSourceMetrics::activeCount));
+        meters.add(gauge(registry, "available", "Idle connections", metrics,
+            AgroalDataSourceMetrics::availableCount));
+        meters.add(gauge(registry, "awaiting", "Threads waiting for a connection", metrics,
+            AgroalDataSourceMetrics::awaitingCount));
+        meters.add(gauge(registry, "max.used", "Maximum connections in use at the same time",
+            metrics, AgroalDataSourceMetrics::maxUsedCount));
+        meters.add(gauge(registry, "blocking.time.max",
+            "Longest wait for a connection in milliseconds", metrics,
+            m -> m.blockingTimeMax().toMillis()));
+        meters.add(counter(registry, "acquire", "Connection acquisitions", metrics,
+            AgroalDataSourceMetrics::acquireCount));
+        meters.add(counter(registry, "creation", "Connections created", metrics,
+            AgroalDataSourceMetrics::creationCount));
+        meters.add(counter(registry, "leak.detection",
+            "Connections held longer than the leak timeout", metrics,
+            AgroalDataSourceMetrics::leakDetectionCount));
+        return meters;
+    }
+    
+    /**
+     * Remove meters registered by {@link #registerMetrics}.
+     */
+    static void removeMetrics(List<Meter> meters, MeterRegistry registry) {
+        meters.forEach(registry::remove);
+    }
+    
+    private static Meter gauge(MeterRegistry registry, String name, String description,
+                              AgroalDataSourceMetrics metrics,
+                              ToDoubleFunction<AgroalDataSourceMetrics> value) {
+        return Gauge.builder(METRIC_PREFIX + name, metrics, value)
+            .description(description)
+            .register(registry);
+    }
+    
+    private static Meter counter(MeterRegistry registry, String name, String description,
+                                AgroalDataSourceMetrics metrics,
+                                ToDoubleFunction<AgroalDataSourceMetrics> value) {
+        return FunctionCounter.builder(METRIC_PREFIX + name, metrics, value)
+            .description(description)
+            .register(registry);
+    }
+    
+    private static int intValue(Map<String, String> env, String key, int defaultValue) {
+        String value = env.get(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid integer value for {}: {}, using default: {}",
+                    key, value, defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -1,21 +1,35 @@
 package com.bioid.keycloak.failedauth.service;
 
 import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
 import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
 import com.bioid.keycloak.failedauth.entity.*;
 import com.bioid.keycloak.failedauth.exception.*;
+import com.bioid.keycloak.failedauth.storage.BlobStore;
+import com.bioid.keycloak.failedauth.storage.FileSystemBlobStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.TypedQuery;
 import org.hibernate.cfg.Configuration;
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
@@ -36,21 +50,35 @@ public class FailedAuthImageStorageService {
     
     private static final Logger logger = LoggerFactory.getLogger(FailedAuthImageStorageService.class);
     
+    // Bound for the reference list of one IN query
+    private static final int REFERENCE_QUERY_SIZE = 1000;
+    
+    private static final Counter DUPLICATES_REFERENCED = Metrics.counter(
+        "bioid.failedauth.duplicate.images", "action", "referenced");
+    private static final Counter DUPLICATES_SKIPPED = Metrics.counter(
+        "bioid.failedauth.duplicate.images", "action", "skipped");
+    
     private final FailedAuthConfiguration config;
     private final EncryptionService encryptionService;
     private final ImageProcessingService imageProcessingService;
     private final ObjectMapper objectMapper;
-    private static EntityManagerFactory emf;
+    private final BlobStore blobStore;
+    private static volatile EntityManagerFactory emf;
+    private static AgroalDataSource dataSource;
+    private static List<Meter> poolMeters = List.of();
     
     public FailedAuthImageStorageService(FailedAuthConfiguration config) {
         this.config = config;
-        this.encryptionService = new EncryptionService();
+        this.encryptionService = EncryptionService.fromConfiguration(config);
         this.imageProcessingService = new ImageProcessingService(config);
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
+        this.blobStore = createBlobStore(config);
         
-        // Initialize EntityManagerFactory if not already done
-        initializeEntityManagerFactory();
+        // Initialize EntityManagerFactory if not already done (lock-free once initialized)
+        if (emf == null || !emf.isOpen()) {
+            initializeEntityManagerFactory();
+        }
         
         logger.info("FailedAuthImageStorageService initialized");
         config.logConfiguration();
@@ -101,31 +129,40 @@ public class FailedAuthImageStorageService {
             return null;
         }
         
+        EntityManager em = null;
+        EntityTransaction tx = null;
+        Set<String> evictedBlobs = Set.of();
+        Map<String, byte[]> writtenBlobs = new HashMap<>();
         try {
             logger.info("Storing failed authentication attempt for user: {}", user.getUsername());
             
+            // Get class ID from user
+            Long classId = getClassIdFromUser(session, realm, user);
+            if (classId == null) {
+                logger.warn("User {} has no class ID, cannot store failed attempt", user.getUsername());
+                return null;
+            }
+            
+            em = getEntityManager(session);
+            tx = em.getTransaction();
+            tx.begin();
+            
             // Check if user has disabled storage
-            FailedAuthUserPreferencesEntity prefs = getUserPreferences(session, user.getId(), realm.getId());
+            FailedAuthUserPreferencesEntity prefs = em.find(FailedAuthUserPreferencesEntity.class, user.getId());
             if (prefs != null && !prefs.getStorageEnabled()) {
                 logger.debug("User {} has disabled failed auth storage", user.getUsername());
+                tx.rollback();
                 return null;
             }
-            
-            // Check max attempts per user
-            long existingCount = countUserAttempts(session, user.getId());
-            if (existingCount >= config.getMaxAttemptsPerUser()) {
-                logger.warn("User {} has reached max attempts limit: {}", 
-                    user.getUsername(), config.getMaxAttemptsPerUser());
-                // Delete oldest attempt to make room
-                deleteOldestAttempt(session, user.getId());
+            if (prefs == null) {
+                prefs = new FailedAuthUserPreferencesEntity(user.getId(), realm.getId());
+                em.persist(prefs);
+                em.flush();
             }
             
-            // Get class ID from user
-            Long classId = getClassIdFromUser(user);
-            if (classId == null) {
-                logger.warn("User {} has no class ID, cannot store failed attempt", user.getUsername());
-                return null;
-            }
+            // Enforce max attempts per user: claim the next ring buffer slot and evict its occupant
+            int slot = claimSlot(em, user.getId());
+            evictedBlobs = evictSlot(em, user.getId(), slot);
             
             // Create attempt entity
             String attemptId = UUID.randomUUID().toString();
@@ -162,18 +199,27 @@ public class FailedAuthImageStorageService {
             attempt.setIpAddress(ipAddress);
             attempt.setUserAgent(userAgent);
             
-            // Set image count
-            attempt.setImageCount(images.size());
+            attempt.setSlot(slot);
+            
+            // Frames the user submitted shortly before, for near-duplicate detection
+            List<RecentImage> recentImages = config.isDedupEnabled()
+                ? findRecentImages(em, user.getId(), now.minusSeconds(config.getDedupWindowSeconds()))
+                : List.of();
             
-            // Process and store images
+            // Process and store images; stored images are indexed contiguously
             List<Double> qualityScores = new ArrayList<>();
-            EntityManager em = getEntityManager(session);
+            int skippedDuplicates = 0;
             
             for (int i = 0; i < images.size(); i++) {
                 try {
                     FailedAuthImageEntity imageEntity = processAndStoreImage(
-                        attempt, i, images.get(i)
+                        attempt, attempt.getImages().size(), images.get(i), recentImages,
+                        writtenBlobs
                     );
+                    if (imageEntity == null) {
+                        skippedDuplicates++;
+                        continue;
+                    }
                     attempt.addImage(imageEntity);
                     
                     if (imageEntity.getQualityScore() != null) {
@@ -185,6 +231,14 @@ public class FailedAuthImageStorageService {
                 }
             }
             
+            if (!images.isEmpty() && skippedDuplicates == images.size()) {
+                logger.info("Skipping failed attempt for user {}: all {} images duplicate recent frames",
+                    user.getUsername(), skippedDuplicates);
+                tx.rollback();
+                return null;
+            }
+            attempt.setImageCount(attempt.getImages().size());
+            
             // Calculate average quality score
             if (!qualityScores.isEmpty()) {
                 double avgQuality = qualityScores.stream()
@@ -198,22 +252,19 @@ public class FailedAuthImageStorageService {
             attempt.setEncrypted(config.isEncryptImages());
             attempt.setIntegrityVerified(config.isVerifyIntegrity());
             
-            // Persist attempt
+            // Persist attempt and update user preferences statistics
             em.persist(attempt);
-            em.flush();
-            
-            // Update user preferences statistics
-            if (prefs == null) {
-                prefs = new FailedAuthUserPreferencesEntity(user.getId(), realm.getId());
-                em.persist(prefs);
-            }
             prefs.incrementTotalAttempts();
-            em.merge(prefs);
+            AttemptStatistics.apply(em, user.getId(), realm.getId(), failureReason,
+                AttemptStatistics.Delta.ofStored(attempt.getAvgQualityScore(), config.getMinEnrollQualityScore()));
+            tx.commit();
+            
+            rewriteBlobs(writtenBlobs);
+            deleteUnreferencedBlobs(em, evictedBlobs);
             
             logger.info("Successfully stored failed attempt {} for user {}", 
                 attemptId, user.getUsername());
             
-            // Check if user should be notified
             // Check if user should be notified
             if (prefs.shouldNotify()) {
                 logger.info("User {} should be notified about failed attempts", user.getUsername());
@@ -225,49 +276,74 @@ public class FailedAuthImageStorageService {
             return attemptId;
             
         } catch (Exception e) {
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
             logger.error("Failed to store failed authentication attempt", e);
             throw new FailedAuthStorageException("Failed to store attempt", e);
+        } finally {
+            if (em != null) {
+                em.close();
+            }
         }
     }
     
     /**
      * Process and store a single image.
+     * 
+     * Depending on the dedup policy, a frame identical to one in {@code recentImages} shares the
+     * stored payload of the earlier frame instead of being encrypted and written again, or a
+     * frame that looks like one in {@code recentImages} is skipped and null is returned. A
+     * near match is never stored by reference: it is a different capture.
      */
     private FailedAuthImageEntity processAndStoreImage(
             FailedAuthAttemptEntity attempt,
             int imageIndex,
-            String base64Image) throws Exception {
+            String base64Image,
+            List<RecentImage> recentImages,
+            Map<String, byte[]> writtenBlobs) throws Exception {
         
         // Decode base64
         byte[] imageBytes = imageProcessingService.decodeBase64Image(base64Image);
         
-        // Validate image
-        if (!imageProcessingService.validateImage(imageBytes)) {
-            throw new Exception("Invalid image data");
-        }
-        
         if (!imageProcessingService.validateImageSize(imageBytes)) {
             throw new Exception("Image size exceeds maximum allowed");
         }
         
-        // Get image properties
-        int[] dimensions = imageProcessingService.getImageDimensions(imageBytes);
-        String format = imageProcessingService.detectImageFormat(imageBytes);
+        // Validate and read format/dimensions from the header; pixels are decoded at most
+        // once, subsampled, and only when a thumbnail is needed
+        ImageAnalysis analysis;
+        try {
+            analysis = imageProcessingService.analyze(
+                imageBytes, config.isIncludeThumbnails(), config.isDedupEnabled());
+        } catch (Exception e) {
+            throw new Exception("Invalid image data", e);
+        }
         
-        // Create thumbnail if enabled
-        byte[] thumbnailBytes = null;
-        if (config.isIncludeThumbnails()) {
-            try {
-                thumbnailBytes = imageProcessingService.createThumbnail(imageBytes);
-            } catch (Exception e) {
-                logger.warn("Failed to create thumbnail for image {}: {}", imageIndex, e.getMessage());
+        // Calculate checksum if integrity verification or dedup needs it
+        String checksum = null;
+        if (config.isVerifyIntegrity() || config.isDedupEnabled()) {
+            checksum = encryptionService.calculateChecksum(imageBytes);
+        }
+        
+        if (config.isDedupSkip()) {
+            if (findNearDuplicate(recentImages, analysis.getPerceptualHash()) != null) {
+                DUPLICATES_SKIPPED.increment();
+                return null;
+            }
+        } else if (blobStore != null) {
+            RecentImage identical = findIdentical(recentImages, checksum);
+            if (identical != null) {
+                DUPLICATES_REFERENCED.increment();
+                return identical.toImageEntity(attempt, imageIndex);
             }
         }
         
+        byte[] thumbnailBytes = analysis.getThumbnail();
+        
         // Encrypt images if enabled
         byte[] encryptedImage = imageBytes;
         byte[] encryptedThumbnail = thumbnailBytes;
-        String checksum = null;
         
         if (config.isEncryptImages()) {
             encryptedImage = encryptionService.encrypt(imageBytes);
@@ -276,20 +352,29 @@ public class FailedAuthImageStorageService {
             }
         }
         
-        // Calculate checksum if integrity verification enabled
-        if (config.isVerifyIntegrity()) {
-            checksum = encryptionService.calculateChecksum(imageBytes);
+        // Create image entity; with a blob store, payloads are written (and synced)
+        // before the row that references them
+        FailedAuthImageEntity imageEntity;
+        if (blobStore != null) {
+            imageEntity = new FailedAuthImageEntity(attempt, imageIndex, null, encryptedImage.length);
+            imageEntity.setImageRef(blobStore.put(encryptedImage));
+            writtenBlobs.put(imageEntity.getImageRef(), encryptedImage);
+            if (encryptedThumbnail != null) {
+                imageEntity.setThumbnailRef(blobStore.put(encryptedThumbnail));
+                writtenBlobs.put(imageEntity.getThumbnailRef(), encryptedThumbnail);
+            }
+        } else {
+            imageEntity = new FailedAuthImageEntity(
+                attempt, imageIndex, encryptedImage, encryptedImage.length
+            );
+            imageEntity.setThumbnailData(encryptedThumbnail);
         }
         
-        // Create image entity
-        FailedAuthImageEntity imageEntity = new FailedAuthImageEntity(
-            attempt, imageIndex, encryptedImage, encryptedImage.length
-        );
-        
-        imageEntity.setThumbnailData(encryptedThumbnail);
-        imageEntity.setWidth(dimensions[0]);
-        imageEntity.setHeight(dimensions[1]);
-        imageEntity.setFormat(format);
+        imageEntity.setChecksum(checksum);
+        imageEntity.setPerceptualHash(analysis.getPerceptualHash());
+        imageEntity.setWidth(analysis.getWidth());
+        imageEntity.setHeight(analysis.getHeight());
+        imageEntity.setFormat(analysis.getFormat());
         imageEntity.setCaptureTimestamp(Instant.now());
         
         // Note: Face detection results are not available at storage time
@@ -303,6 +388,172 @@ public class FailedAuthImageStorageService {
         return imageEntity;
     }
     
+    /**
+     * Load the perceptual hashes and checksums of a user's images stored since the given instant.
+     * 
+     * Candidates are found through {@code idx_user_timestamp} and bounded by the dedup window
+     * and {@code maxAttemptsPerUser}; they are compared in memory.
+     */
+    private List<RecentImage> findRecentImages(EntityManager em, String userId, Instant since) {
+        return em.createQuery(
+                "SELECT i.perceptualHash, i.imageRef, i.thumbnailRef, i.checksum, i.fileSize, "
+                    + "i.width, i.height, i.format "
+                    + "FROM FailedAuthImageEntity i JOIN i.attempt a "
+                    + "WHERE a.userId = :userId AND a.timestamp >= :since "
+                    + "AND a.encrypted = :encrypted AND i.perceptualHash IS NOT NULL "
+                    + "ORDER BY a.timestamp DESC",
+                Object[].class)
+            .setParameter("userId", userId)
+            .setParameter("since", since)
+            .setParameter("encrypted", config.isEncryptImages())
+            .getResultList()
+            .stream()
+            .map(row -> new RecentImage((Long) row[0], (String) row[1], (String) row[2],
+                (String) row[3], (Integer) row[4], (Integer) row[5], (Integer) row[6], (String) row[7]))
+            .collect(Collectors.toList());
+    }
+    
+    private RecentImage findNearDuplicate(List<RecentImage> recentImages, Long perceptualHash) {
+        if (perceptualHash == null) {
+            return null;
+        }
+        int maxDistance = config.getDedupMaxDistance();
+        for (RecentImage recent : recentImages) {
+            if (PerceptualHash.distance(recent.perceptualHash(), perceptualHash) <= maxDistance) {
+                return recent;
+            }
+        }
+        return null;
+    }
+    
+    private RecentImage findIdentical(List<RecentImage> recentImages, String checksum) {
+        if (checksum == null) {
+            return null;
+        }
+        for (RecentImage recent : recentImages) {
+            if (recent.imageRef() != null && checksum.equals(recent.checksum())) {
+                return recent;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Stored frame of an earlier attempt, as needed to reference its payload.
+     */
+    private record RecentImage(long perceptualHash, String imageRef, String thumbnailRef,
+                               String checksum, Integer fileSize, Integer width, Integer height,
+                               String format) {
+        
+        FailedAuthImageEntity toImageEntity(FailedAuthAttemptEntity attempt, int imageIndex) {
+            FailedAuthImageEntity image = new FailedAuthImageEntity(attempt, imageIndex, null, fileSize);
+            image.setImageRef(imageRef);
+            image.setThumbnailRef(thumbnailRef);
+            image.setChecksum(checksum);
+            image.setPerceptualHash(perceptualHash);
+            image.setWidth(width);
+            image.setHeight(height);
+            image.setFormat(format);
+            image.setCaptureTimestamp(Instant.now());
+            image.setRecommendedForEnrollment(false);
+            return image;
+        }
+    }
+    
+    /**
+     * Create the configured blob store, or null to keep image payloads in the database.
+     */
+    private static BlobStore createBlobStore(FailedAuthConfiguration config) {
+        if (!config.isFileSystemBlobStore()) {
+            return null;
+        }
+        try {
+            return new FileSystemBlobStore(Path.of(config.getBlobStorePath()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize failed auth blob store at "
+                + config.getBlobStorePath(), e);
+        }
+    }
+    
+    /**
+     * Load the stored (possibly encrypted) payload of an image, from the blob store or inline.
+     * 
+     * @return Payload bytes, or null if no payload is stored
+     */
+    private byte[] loadImagePayload(FailedAuthAttemptEntity attempt, FailedAuthImageEntity image,
+                                    boolean thumbnail) throws Exception {
+        String reference = thumbnail ? image.getThumbnailRef() : image.getImageRef();
+        if (reference != null) {
+            if (blobStore == null) {
+                throw new Exception("Image is stored in a blob store that is not configured");
+            }
+            // Decrypt straight from the memory-mapped blob
+            return attempt.getEncrypted()
+                ? encryptionService.decrypt(blobStore.read(reference))
+                : blobStore.readAllBytes(reference);
+        }
+        
+        byte[] data = thumbnail ? image.getThumbnailData() : image.getImageData();
+        if (data == null) {
+            return null;
+        }
+        return attempt.getEncrypted() ? encryptionService.decrypt(data) : data;
+    }
+    
+    /**
+     * Move one batch of inline image payloads into the blob store.
+     * 
+     * Runs in its own transaction. The selection is based on row state only, so an interrupted
+     * migration resumes where it stopped, and rewriting a blob after a failed commit yields the
+     * same content-addressed reference.
+     * 
+     * @param batchSize Maximum number of images to migrate
+     * @return Number of images migrated (0 when done or no blob store is configured)
+     */
+    public int migrateInlineImages(int batchSize) throws Exception {
+        if (blobStore == null) {
+            return 0;
+        }
+        
+        EntityManager em = getEntityManager(null);
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            TypedQuery<FailedAuthImageEntity> query = em.createQuery(
+                "SELECT i FROM FailedAuthImageEntity i WHERE i.imageRef IS NULL AND i.imageData IS NOT NULL ORDER BY i.imageId",
+                FailedAuthImageEntity.class
+            );
+            query.setMaxResults(batchSize);
+            
+            List<FailedAuthImageEntity> images = query.getResultList();
+            Map<String, byte[]> writtenBlobs = new HashMap<>();
+            for (FailedAuthImageEntity image : images) {
+                image.setImageRef(blobStore.put(image.getImageData()));
+                writtenBlobs.put(image.getImageRef(), image.getImageData());
+                image.setImageData(null);
+                if (image.getThumbnailData() != null) {
+                    image.setThumbnailRef(blobStore.put(image.getThumbnailData()));
+                    writtenBlobs.put(image.getThumbnailRef(), image.getThumbnailData());
+                    image.setThumbnailData(null);
+                }
+            }
+            tx.commit();
+            rewriteBlobs(writtenBlobs);
+            
+            if (!images.isEmpty()) {
+                logger.info("Migrated {} failed auth images to the blob store", images.size());
+            }
+            return images.size();
+        } catch (Exception e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+    
     /**
      * Initialize the EntityManagerFactory programmatically without persistence.xml.
      * This uses a separate database connection from Keycloak's main database.
@@ -313,37 +564,35 @@ public class FailedAuthImageStorageService {
             try {
                 logger.info("Initializing EntityManagerFactory for failed-auth-storage");
                 
-                // Build properties from environment variables
-                Map<String, String> properties = new HashMap<>();
+                Map<String, String> env = System.getenv();
                 
-                // Database connection
-                String dbUrl = System.getenv().getOrDefault("FAILED_AUTH_DB_URL", 
-                    "jdbc:postgresql://localhost:5433/failed_auth");
-                String dbUser = System.getenv().getOrDefault("FAILED_AUTH_DB_USER", "failed_auth");
-                String dbPassword = System.getenv().getOrDefault("FAILED_AUTH_DB_PASSWORD", "failed_auth_password");
+                // Pooled connections (Agroal, as used by Keycloak itself)
+                dataSource = FailedAuthDataSource.create(env);
+                poolMeters = FailedAuthDataSource.registerMetrics(dataSource, Metrics.globalRegistry);
                 
-                properties.put("jakarta.persistence.jdbc.url", dbUrl);
-                properties.put("jakarta.persistence.jdbc.user", dbUser);
-                properties.put("jakarta.persistence.jdbc.password", dbPassword);
-                properties.put("jakarta.persistence.jdbc.driver", "org.postgresql.Driver");
+                // Build properties from environment variables
+                Map<String, String> properties = new HashMap<>();
                 
                 // Hibernate settings
                 properties.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
-                properties.put("hibernate.hbm2ddl.auto", 
-                    System.getenv().getOrDefault("FAILED_AUTH_DB_SCHEMA_UPDATE", "update"));
+                String schemaUpdate = env.getOrDefault("FAILED_AUTH_DB_SCHEMA_UPDATE", "update");
+                properties.put("hibernate.hbm2ddl.auto", schemaUpdate);
                 properties.put("hibernate.show_sql", 
-                    System.getenv().getOrDefault("FAILED_AUTH_DB_SHOW_SQL", "false"));
+                    env.getOrDefault("FAILED_AUTH_DB_SHOW_SQL", "false"));
                 properties.put("hibernate.format_sql", "false");
                 
-                // Connection settings - use Hibernate's built-in connection handling
-                // (no external pool needed, compatible with Keycloak/Quarkus runtime)
-                properties.put("hibernate.connection.pool_size", 
-                    System.getenv().getOrDefault("FAILED_AUTH_DB_POOL_SIZE", "10"));
+                // JDBC batching; statements are grouped by entity so batches stay intact
+                properties.put("hibernate.jdbc.batch_size", 
+                    env.getOrDefault("FAILED_AUTH_DB_BATCH_SIZE", "25"));
+                properties.put("hibernate.order_inserts", "true");
+                properties.put("hibernate.order_updates", "true");
+                properties.put("hibernate.jdbc.batch_versioned_data", "true");
                 
                 // Entity classes
                 properties.put("hibernate.archive.autodetection", "class");
                 
-                logger.info("Creating EntityManagerFactory with database URL: {}", dbUrl);
+                logger.info("Creating EntityManagerFactory with database URL: {}",
+                    env.getOrDefault("FAILED_AUTH_DB_URL", "jdbc:postgresql://localhost:5433/failed_auth"));
                 
                 // Create using Hibernate directly to avoid persistence.xml
                 org.hibernate.cfg.Configuration configuration = new org.hibernate.cfg.Configuration();
@@ -354,16 +603,22 @@ public class FailedAuthImageStorageService {
                 configuration.addAnnotatedClass(FailedAuthAuditLogEntity.class);
                 configuration.addAnnotatedClass(FailedAuthUserPreferencesEntity.class);
                 configuration.addAnnotatedClass(FailedAuthRealmConfigEntity.class);
+                configuration.addAnnotatedClass(FailedAuthStatisticsEntity.class);
                 
                 // Set properties
                 properties.forEach(configuration::setProperty);
+                configuration.getProperties().put("hibernate.connection.datasource", dataSource);
                 
                 // Build EntityManagerFactory
                 emf = configuration.buildSessionFactory().unwrap(EntityManagerFactory.class);
+                if ("update".equals(schemaUpdate)) {
+                    FailedAuthSchemaMigrations.apply(dataSource);
+                }
                 
                 logger.info("EntityManagerFactory initialized successfully");
             } catch (Exception e) {
                 logger.error("Failed to initialize EntityManagerFactory", e);
+                closeDataSource();
                 throw new RuntimeException("Failed to initialize failed auth storage", e);
             }
         }
@@ -374,10 +629,12 @@ public class FailedAuthImageStorageService {
      * Each call creates a new EntityManager that must be closed by the caller.
      */
     private EntityManager getEntityManager(KeycloakSession session) {
-        if (emf == null || !emf.isOpen()) {
+        EntityManagerFactory factory = emf;
+        if (factory == null || !factory.isOpen()) {
             initializeEntityManagerFactory();
+            factory = emf;
         }
-        return emf.createEntityManager();
+        return factory.createEntityManager();
     }
     
     /**
@@ -390,116 +647,183 @@ public class FailedAuthImageStorageService {
             emf.close();
             emf = null;
         }
+        closeDataSource();
+    }
+    
+    private static void closeDataSource() {
+        // Meters read from the pool; drop them so the next pool can register its own
+        FailedAuthDataSource.removeMetrics(poolMeters, Metrics.globalRegistry);
+        poolMeters = List.of();
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
     }
     
     /**
-     * Get user preferences, creating default if not exists.
+     * Claim the next ring buffer slot for a user.
+     * 
+     * The per-user sequence in {@code failed_auth_user_preferences.next_slot} is advanced with a
+     * single atomic statement, which also serializes concurrent inserts for the same user on the
+     * preferences row until the transaction ends.
+     * 
+     * {@code UPDATE ... RETURNING} requires PostgreSQL, which is the only database this module
+     * supports (see the dialect set in {@link #initializeEntityManagerFactory()}).
      */
-    private FailedAuthUserPreferencesEntity getUserPreferences(
-            KeycloakSession session, String userId, String realmId) {
-        EntityManager em = getEntityManager(session);
-        return em.find(FailedAuthUserPreferencesEntity.class, userId);
+    private int claimSlot(EntityManager em, String userId) {
+        Number sequence = (Number) em.createNativeQuery(
+                "UPDATE failed_auth_user_preferences SET next_slot = COALESCE(next_slot, 0) + 1 "
+                    + "WHERE user_id = :userId RETURNING next_slot")
+            .setParameter("userId", userId)
+            .getSingleResult();
+        return slotFor(sequence.longValue(), config.getMaxAttemptsPerUser());
     }
     
     /**
-     * Count existing attempts for a user.
+     * Map the n-th stored attempt (1-based) of a user onto one of {@code capacity} slots.
      */
-    private long countUserAttempts(KeycloakSession session, String userId) {
-        EntityManager em = getEntityManager(session);
-        TypedQuery<Long> query = em.createQuery(
-            "SELECT COUNT(a) FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.enrolled = false",
-            Long.class
-        );
-        query.setParameter("userId", userId);
-        return query.getSingleResult();
+    static int slotFor(long sequence, int capacity) {
+        return (int) Math.floorMod(sequence - 1, (long) Math.max(1, capacity));
     }
     
     /**
-     * Delete oldest unenrolled attempt for a user.
+     * Free a slot: delete the unenrolled attempt occupying it, or release an enrolled one.
+     * 
+     * @return Blob references of the deleted images, to be released after commit
      */
-    private void deleteOldestAttempt(KeycloakSession session, String userId) {
-        EntityManager em = getEntityManager(session);
-        TypedQuery<FailedAuthAttemptEntity> query = em.createQuery(
-            "SELECT a FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.enrolled = false ORDER BY a.timestamp ASC",
-            FailedAuthAttemptEntity.class
-        );
-        query.setParameter("userId", userId);
-        query.setMaxResults(1);
-        
-        List<FailedAuthAttemptEntity> results = query.getResultList();
-        if (!results.isEmpty()) {
-            FailedAuthAttemptEntity oldest = results.get(0);
-            logger.info("Deleting oldest attempt {} to make room for new attempt", oldest.getAttemptId());
-            em.remove(oldest);
+    private Set<String> evictSlot(EntityManager em, String userId, int slot) {
+        List<Object[]> occupant = em.createQuery(
+                "SELECT a.attemptId, a.enrolled FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.slot = :slot",
+                Object[].class)
+            .setParameter("userId", userId)
+            .setParameter("slot", slot)
+            .getResultList();
+        if (occupant.isEmpty()) {
+            return Set.of();
+        }
+        String attemptId = (String) occupant.get(0)[0];
+        if (Boolean.TRUE.equals(occupant.get(0)[1])) {
+            em.createQuery("UPDATE FailedAuthAttemptEntity a SET a.slot = NULL WHERE a.attemptId = :id")
+                .setParameter("id", attemptId)
+                .executeUpdate();
+            return Set.of();
         }
+        logger.info("Evicting attempt {} from slot {} to make room for new attempt", attemptId, slot);
+        Set<String> blobReferences = new HashSet<>();
+        bulkDeleteAttempts(em, List.of(attemptId), blobReferences);
+        return blobReferences;
     }
     
     /**
-     * Get class ID from user attributes.
+     * Get the class ID of the template the failed verification ran against.
+     * 
+     * The {@value FaceCredentialProvider#CLASS_ID_ATTRIBUTE} attribute holds one value per face
+     * credential. A single value is used directly; with several, the attempt is attributed to the
+     * most recent credential, which is the one verification uses.
      */
-    private Long getClassIdFromUser(UserModel user) {
-        String classIdStr = user.getFirstAttribute("classId");
-        if (classIdStr != null && !classIdStr.isEmpty()) {
+    private Long getClassIdFromUser(KeycloakSession session, RealmModel realm, UserModel user) {
+        List<String> classIds = user.getAttributeStream(FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+            .filter(value -> value != null && !value.isEmpty())
+            .distinct()
+            .collect(Collectors.toList());
+        if (classIds.size() > 1) {
+            FaceCredentialProvider provider = (FaceCredentialProvider) session.getProvider(
+                CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+            FaceCredentialModel credential = provider != null
+                ? provider.getMostRecentFaceCredential(realm, user) : null;
+            if (credential == null) {
+                logger.warn("User {} has {} class IDs and no face credential to choose from",
+                    user.getUsername(), classIds.size());
+                return null;
+            }
+            return credential.getClassId();
+        }
+        if (classIds.size() == 1) {
             try {
-                return Long.parseLong(classIdStr);
+                return Long.parseLong(classIds.get(0));
             } catch (NumberFormatException e) {
-                logger.warn("Invalid classId format for user {}: {}", user.getUsername(), classIdStr);
+                logger.warn("Invalid classId format for user {}: {}",
+                    user.getUsername(), classIds.get(0));
             }
         }
         return null;
     }
     
     /**
-     * Get failed attempts for a user with pagination and filtering.
+     * Get one page of failed attempt summaries for a user using keyset pagination.
+     * 
+     * Rows are ordered by {@code (timestamp DESC, attemptId DESC)} and the next page starts
+     * strictly after the cursor, which the {@code idx_user_timestamp} index serves directly.
+     * One extra row is fetched to determine whether more pages exist, so no count is needed.
      * 
      * @param session Keycloak session
      * @param userId User ID
      * @param enrolledFilter Filter by enrollment status (null = all)
      * @param minQuality Minimum quality score filter
-     * @param page Page number (0-based)
+     * @param cursor Cursor from the previous page (null = first page)
      * @param pageSize Page size
-     * @return List of attempt entities
+     * @return Page of attempt summaries
      */
-    public List<FailedAuthAttemptEntity> getFailedAttempts(
+    public FailedAttemptPage getFailedAttemptPage(
             KeycloakSession session,
             String userId,
             Boolean enrolledFilter,
             Double minQuality,
-            int page,
+            FailedAttemptPage.Cursor cursor,
             int pageSize) {
         
+        List<FailedAttemptSummary> rows;
         EntityManager em = getEntityManager(session);
-        
-        StringBuilder queryStr = new StringBuilder(
-            "SELECT a FROM FailedAuthAttemptEntity a WHERE a.userId = :userId"
-        );
-        
-        if (enrolledFilter != null) {
-            queryStr.append(" AND a.enrolled = :enrolled");
-        }
-        
-        if (minQuality != null) {
-            queryStr.append(" AND a.avgQualityScore >= :minQuality");
-        }
-        
-        queryStr.append(" ORDER BY a.timestamp DESC");
-        
-        TypedQuery<FailedAuthAttemptEntity> query = em.createQuery(
-            queryStr.toString(), FailedAuthAttemptEntity.class
-        );
-        
-        query.setParameter("userId", userId);
-        if (enrolledFilter != null) {
-            query.setParameter("enrolled", enrolledFilter);
-        }
-        if (minQuality != null) {
-            query.setParameter("minQuality", minQuality);
+        try {
+            StringBuilder queryStr = new StringBuilder(
+                "SELECT new com.bioid.keycloak.failedauth.service.FailedAttemptSummary("
+                    + "a.attemptId, a.timestamp, a.failureReason, a.imageCount, a.avgQualityScore, "
+                    + "a.enrolled, a.retryAttempt, a.livenessMode) "
+                    + "FROM FailedAuthAttemptEntity a WHERE a.userId = :userId"
+            );
+            
+            if (enrolledFilter != null) {
+                queryStr.append(" AND a.enrolled = :enrolled");
+            }
+            
+            if (minQuality != null) {
+                queryStr.append(" AND a.avgQualityScore >= :minQuality");
+            }
+            
+            if (cursor != null) {
+                queryStr.append(" AND (a.timestamp < :cursorTimestamp"
+                    + " OR (a.timestamp = :cursorTimestamp AND a.attemptId < :cursorAttemptId))");
+            }
+            
+            queryStr.append(" ORDER BY a.timestamp DESC, a.attemptId DESC");
+            
+            TypedQuery<FailedAttemptSummary> query = em.createQuery(
+                queryStr.toString(), FailedAttemptSummary.class
+            );
+            
+            query.setParameter("userId", userId);
+            if (enrolledFilter != null) {
+                query.setParameter("enrolled", enrolledFilter);
+            }
+            if (minQuality != null) {
+                query.setParameter("minQuality", minQuality);
+            }
+            if (cursor != null) {
+                query.setParameter("cursorTimestamp", cursor.getTimestamp());
+                query.setParameter("cursorAttemptId", cursor.getAttemptId());
+            }
+            
+            query.setMaxResults(pageSize + 1);
+            
+            rows = query.getResultList();
+        } finally {
+            em.close();
         }
         
-        query.setFirstResult(page * pageSize);
-        query.setMaxResults(pageSize);
+        boolean hasMore = rows.size() > pageSize;
+        List<FailedAttemptSummary> attempts = hasMore ? rows.subList(0, pageSize) : rows;
         
-        return query.getResultList();
+        return new FailedAttemptPage(new ArrayList<>(attempts), hasMore);
     }
     
     /**
@@ -532,42 +856,98 @@ public class FailedAuthImageStorageService {
     }
     
     /**
-     * Get decrypted image data.
+     * Load a single decrypted image or thumbnail for serving.
+     * 
+     * Uses a projection query that fetches only the requested payload column of one image
+     * instead of loading the attempt with all of its images. Encrypted payloads are not
+     * decrypted here: the returned image decrypts them chunk by chunk while it is written.
      * 
      * @param session Keycloak session
      * @param attemptId Attempt ID
      * @param imageIndex Image index
      * @param userId User ID (for authorization)
      * @param thumbnail Whether to get thumbnail or full image
-     * @return Decrypted image bytes
-     * @throws Exception if retrieval fails
+     * @return Image content with entity tag and content type
+     * @throws AttemptNotFoundException if the attempt or image does not exist
+     * @throws UnauthorizedAccessException if user doesn't own attempt
+     * @throws Exception if the payload cannot be read or decrypted
      */
-    public byte[] getImage(
+    public StoredImage openImage(
             KeycloakSession session,
             String attemptId,
             int imageIndex,
             String userId,
             boolean thumbnail) throws Exception {
         
-        FailedAuthAttemptEntity attempt = getAttempt(session, attemptId, userId);
-        
-        FailedAuthImageEntity image = attempt.getImages().stream()
-            .filter(img -> img.getImageIndex() == imageIndex)
-            .findFirst()
-            .orElseThrow(() -> new Exception("Image not found: " + imageIndex));
+        String refColumn = thumbnail ? "i.thumbnailRef" : "i.imageRef";
+        String dataColumn = thumbnail ? "i.thumbnailData" : "i.imageData";
         
-        byte[] encryptedData = thumbnail ? image.getThumbnailData() : image.getImageData();
+        List<Object[]> rows;
+        EntityManager em = getEntityManager(session);
+        try {
+            TypedQuery<Object[]> query = em.createQuery(
+                "SELECT a.userId, a.encrypted, i.imageId, i.format, i.checksum, " + refColumn + ", " + dataColumn
+                    + " FROM FailedAuthImageEntity i JOIN i.attempt a"
+                    + " WHERE a.attemptId = :attemptId AND i.imageIndex = :imageIndex",
+                Object[].class
+            );
+            query.setParameter("attemptId", attemptId);
+            query.setParameter("imageIndex", imageIndex);
+            rows = query.getResultList();
+        } finally {
+            em.close();
+        }
+        if (rows.isEmpty()) {
+            throw new AttemptNotFoundException(attemptId);
+        }
+        Object[] row = rows.get(0);
+        if (!userId.equals(row[0])) {
+            throw new UnauthorizedAccessException(userId, attemptId);
+        }
         
-        if (encryptedData == null) {
+        boolean encrypted = Boolean.TRUE.equals(row[1]);
+        Long imageId = (Long) row[2];
+        String format = (String) row[3];
+        String checksum = (String) row[4];
+        String reference = (String) row[5];
+        byte[] inlineData = (byte[]) row[6];
+        
+        ByteBuffer stored;
+        if (reference != null) {
+            if (blobStore == null) {
+                throw new Exception("Image is stored in a blob store that is not configured");
+            }
+            stored = blobStore.read(reference);
+        } else if (inlineData != null) {
+            stored = ByteBuffer.wrap(inlineData);
+        } else {
             throw new Exception("Image data not available");
         }
         
-        // Decrypt if encrypted
-        if (attempt.getEncrypted()) {
-            return encryptionService.decrypt(encryptedData);
+        // Encrypted payloads are authenticated per chunk by their GCM tags as they are decrypted;
+        // the plaintext checksum is only needed for unencrypted payloads
+        if (!encrypted && !thumbnail && checksum != null && config.isVerifyIntegrity()
+                && !encryptionService.verifyChecksum(stored, checksum)) {
+            throw new Exception("Image integrity check failed");
+        }
+        
+        // Stored images are immutable: the plaintext checksum, or else the content address of
+        // the stored payload, identifies the representation
+        String etag;
+        if (!thumbnail && checksum != null) {
+            etag = checksum;
+        } else if (reference != null) {
+            etag = reference;
+        } else {
+            etag = "img-" + imageId + (thumbnail ? "-t" : "");
         }
+        String contentType = !thumbnail && "PNG".equals(format) ? "image/png" : "image/jpeg";
         
-        return encryptedData;
+        if (!encrypted) {
+            return new StoredImage(etag, contentType, stored);
+        }
+        return new StoredImage(etag, contentType, encryptionService.plaintextLength(stored),
+            offset -> encryptionService.decryptingStream(stored, offset));
     }
     
     /**
@@ -586,29 +966,40 @@ public class FailedAuthImageStorageService {
         FailedAuthAttemptEntity attempt = getAttempt(session, attemptId, userId);
         
         EntityManager em = getEntityManager(session);
-        
-        // Create audit log
-        FailedAuthAuditLogEntity auditLog = new FailedAuthAuditLogEntity(
-            attempt, userId, "DELETE", userId
-        );
-        em.persist(auditLog);
-        
-        // Update user preferences
-        FailedAuthUserPreferencesEntity prefs = getUserPreferences(session, userId, attempt.getRealmId());
-        if (prefs != null) {
-            prefs.incrementDeletedAttempts();
-            em.merge(prefs);
+        EntityTransaction tx = em.getTransaction();
+        Set<String> blobReferences = new HashSet<>();
+        try {
+            tx.begin();
+            
+            // Update user preferences
+            FailedAuthUserPreferencesEntity prefs = em.find(FailedAuthUserPreferencesEntity.class, userId);
+            if (prefs != null) {
+                prefs.incrementDeletedAttempts();
+            }
+            
+            // Delete attempt with its images and audit log entries
+            bulkDeleteAttempts(em, List.of(attempt.getAttemptId()), blobReferences);
+            tx.commit();
+            
+            deleteUnreferencedBlobs(em, blobReferences);
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
         }
         
-        // Delete attempt (cascade will delete images and audit logs)
-        em.remove(attempt);
-        
         logger.info("Deleted failed attempt {} for user {}", attemptId, userId);
     }
     
     /**
      * Cleanup expired attempts.
      * 
+     * Deletes at most one chunk of {@code cleanupBatchSize} attempts; the
+     * {@link ExpiredAttemptCleanupJob} calls {@link #deleteExpiredChunk} repeatedly instead.
+     * 
      * @param session Keycloak session
      * @return Number of attempts cleaned up
      */
@@ -617,24 +1008,169 @@ public class FailedAuthImageStorageService {
             return 0;
         }
         
-        EntityManager em = getEntityManager(session);
-        
-        TypedQuery<FailedAuthAttemptEntity> query = em.createQuery(
-            "SELECT a FROM FailedAuthAttemptEntity a WHERE a.expiresAt < :now",
-            FailedAuthAttemptEntity.class
-        );
-        query.setParameter("now", Instant.now());
-        query.setMaxResults(config.getCleanupBatchSize());
-        
-        List<FailedAuthAttemptEntity> expired = query.getResultList();
+        int deleted = deleteExpiredChunk(Instant.now(), config.getCleanupBatchSize());
+        logger.info("Cleaned up {} expired failed authentication attempts", deleted);
+        return deleted;
+    }
+    
+    /**
+     * Delete one chunk of attempts that expired before the cutoff, using set-based deletes.
+     * 
+     * The chunk is selected in {@code expires_at} order through {@code idx_expires}. Images and
+     * audit log entries of the chunk are deleted with one statement each before the attempts, all
+     * in a single transaction, so no entities are loaded. Because the selection only depends on
+     * row state, an interrupted cleanup resumes with the next call.
+     * 
+     * @param cutoff Delete attempts with {@code expiresAt} before this instant
+     * @param chunkSize Maximum number of attempts to delete
+     * @return Number of attempts deleted
+     */
+    public int deleteExpiredChunk(Instant cutoff, int chunkSize) {
+        EntityManager em = getEntityManager(null);
+        EntityTransaction tx = em.getTransaction();
+        Set<String> blobReferences = new HashSet<>();
+        try {
+            tx.begin();
+            List<String> attemptIds = em.createQuery(
+                    "SELECT a.attemptId FROM FailedAuthAttemptEntity a WHERE a.expiresAt < :cutoff ORDER BY a.expiresAt, a.attemptId",
+                    String.class)
+                .setParameter("cutoff", cutoff)
+                .setMaxResults(chunkSize)
+                .getResultList();
+            
+            if (attemptIds.isEmpty()) {
+                tx.commit();
+                return 0;
+            }
+            
+            int deleted = bulkDeleteAttempts(em, attemptIds, blobReferences);
+            tx.commit();
+            
+            deleteUnreferencedBlobs(em, blobReferences);
+            return deleted;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * Delete attempts with their images and audit log entries, one statement per table,
+     * and subtract them from the statistics summary.
+     * 
+     * @param blobReferences Receives the blob references of the deleted images
+     * @return Number of attempts deleted
+     */
+    private int bulkDeleteAttempts(EntityManager em, List<String> attemptIds, Set<String> blobReferences) {
+        if (blobStore != null) {
+            List<Object[]> references = em.createQuery(
+                    "SELECT i.imageRef, i.thumbnailRef FROM FailedAuthImageEntity i WHERE i.attempt.attemptId IN :ids",
+                    Object[].class)
+                .setParameter("ids", attemptIds)
+                .getResultList();
+            for (Object[] row : references) {
+                for (Object reference : row) {
+                    if (reference != null) {
+                        blobReferences.add((String) reference);
+                    }
+                }
+            }
+        }
         
-        for (FailedAuthAttemptEntity attempt : expired) {
-            em.remove(attempt);
+        AttemptStatistics.PendingDeletion statistics =
+            AttemptStatistics.collectDeletion(em, attemptIds, config.getMinEnrollQualityScore());
+        
+        em.createQuery("DELETE FROM FailedAuthImageEntity i WHERE i.attempt.attemptId IN :ids")
+            .setParameter("ids", attemptIds)
+            .executeUpdate();
+        em.createQuery("DELETE FROM FailedAuthAuditLogEntity l WHERE l.attempt.attemptId IN :ids")
+            .setParameter("ids", attemptIds)
+            .executeUpdate();
+        int deleted = em.createQuery("DELETE FROM FailedAuthAttemptEntity a WHERE a.attemptId IN :ids")
+            .setParameter("ids", attemptIds)
+            .executeUpdate();
+        
+        statistics.apply(em);
+        return deleted;
+    }
+    
+    /**
+     * Delete blobs whose rows were removed by a bulk delete, unless still referenced elsewhere.
+     * 
+     * A row that points to one of the blobs may be committed while this runs, because
+     * {@link BlobStore#put(byte[])} of existing content writes nothing. The blobs are therefore
+     * retired first and the references checked again; blobs referenced by then are restored.
+     */
+    private void deleteUnreferencedBlobs(EntityManager em, Set<String> references) {
+        if (blobStore == null || references.isEmpty()) {
+            return;
         }
+        Set<String> candidates = new HashSet<>(references);
+        candidates.removeAll(findReferencedBlobs(em, candidates));
         
-        logger.info("Cleaned up {} expired failed authentication attempts", expired.size());
+        Set<String> retired = new HashSet<>();
+        for (String reference : candidates) {
+            try {
+                if (blobStore.retire(reference)) {
+                    retired.add(reference);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to delete blob {}: {}", reference, e.getMessage());
+            }
+        }
+        if (retired.isEmpty()) {
+            return;
+        }
         
-        return expired.size();
+        Set<String> referencedAgain = findReferencedBlobs(em, retired);
+        for (String reference : retired) {
+            try {
+                if (referencedAgain.contains(reference)) {
+                    blobStore.restore(reference);
+                } else {
+                    blobStore.purge(reference);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to delete blob {}: {}", reference, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Find which of the given blobs are referenced by an image row, with one query per
+     * {@value #REFERENCE_QUERY_SIZE} references.
+     */
+    private static Set<String> findReferencedBlobs(EntityManager em, Set<String> references) {
+        Set<String> referenced = new HashSet<>();
+        List<String> pending = new ArrayList<>(references);
+        for (int i = 0; i < pending.size(); i += REFERENCE_QUERY_SIZE) {
+            List<String> chunk = pending.subList(i, Math.min(i + REFERENCE_QUERY_SIZE, pending.size()));
+            referenced.addAll(em.createQuery(
+                    "SELECT i.imageRef FROM FailedAuthImageEntity i WHERE i.imageRef IN (:refs)"
+                    + " UNION SELECT i.thumbnailRef FROM FailedAuthImageEntity i WHERE i.thumbnailRef IN (:refs)",
+                    String.class)
+                .setParameter("refs", chunk)
+                .getResultList());
+        }
+        return referenced;
+    }
+    
+    /**
+     * Write blobs again once the rows that reference them are committed. An unreferenced-blob
+     * delete that checked the references before the commit may have removed them meanwhile.
+     */
+    private void rewriteBlobs(Map<String, byte[]> blobs) {
+        for (Map.Entry<String, byte[]> blob : blobs.entrySet()) {
+            try {
+                blobStore.put(blob.getValue());
+            } catch (IOException e) {
+                logger.error("Failed to rewrite blob {}: {}", blob.getKey(), e.getMessage());
+            }
+        }
     }
     
     /**
@@ -702,10 +1238,12 @@ public class FailedAuthImageStorageService {
                     }
                 }
                 
-                // Decrypt image
-                byte[] imageData = imageEntity.getImageData();
-                if (attempt.getEncrypted()) {
-                    imageData = encryptionService.decrypt(imageData);
+                // Load and decrypt image
+                byte[] imageData = loadImagePayload(attempt, imageEntity, false);
+                if (imageData == null) {
+                    throw new EnrollmentException(
+                        "Image data not available: " + index, "IMAGE_NOT_FOUND"
+                    );
                 }
                 
                 imagesToEnroll.add(imageData);
@@ -749,36 +1287,51 @@ public class FailedAuthImageStorageService {
             
             // Update attempt entity
             EntityManager em = getEntityManager(session);
-            attempt.setEnrolled(true);
-            attempt.setEnrolledAt(Instant.now());
-            attempt.setEnrolledBy(user.getId());
-            attempt.setEnrolledImageIndices(objectMapper.writeValueAsString(imageIndices));
-            
-            // Create enrollment result JSON
-            Map<String, Object> enrollmentResultMap = new HashMap<>();
-            enrollmentResultMap.put("success", true);
-            enrollmentResultMap.put("enrolledImages", enrolledImages);
-            enrollmentResultMap.put("newFeatureVectors", newFeatureVectors);
-            enrollmentResultMap.put("timestamp", Instant.now().toString());
-            attempt.setEnrollmentResult(objectMapper.writeValueAsString(enrollmentResultMap));
-            
-            em.merge(attempt);
-            
-            // Create audit log
-            FailedAuthAuditLogEntity auditLog = new FailedAuthAuditLogEntity(
-                attempt, user.getId(), "ENROLL", user.getId()
-            );
-            Map<String, Object> auditDetails = new HashMap<>();
-            auditDetails.put("imageIndices", imageIndices);
-            auditDetails.put("enrolledImages", enrolledImages);
-            auditLog.setDetails(objectMapper.writeValueAsString(auditDetails));
-            em.persist(auditLog);
-            
-            // Update user preferences
-            FailedAuthUserPreferencesEntity prefs = getUserPreferences(session, user.getId(), realm.getId());
-            if (prefs != null) {
-                prefs.incrementEnrolledAttempts();
-                em.merge(prefs);
+            EntityTransaction tx = em.getTransaction();
+            try {
+                tx.begin();
+                FailedAuthAttemptEntity managed = em.merge(attempt);
+                managed.setEnrolled(true);
+                managed.setSlot(null); // enrolled attempts leave the ring buffer and are never evicted
+                managed.setEnrolledAt(Instant.now());
+                managed.setEnrolledBy(user.getId());
+                managed.setEnrolledImageIndices(objectMapper.writeValueAsString(imageIndices));
+                
+                // Create enrollment result JSON
+                Map<String, Object> enrollmentResultMap = new HashMap<>();
+                enrollmentResultMap.put("success", true);
+                enrollmentResultMap.put("enrolledImages", enrolledImages);
+                enrollmentResultMap.put("newFeatureVectors", newFeatureVectors);
+                enrollmentResultMap.put("timestamp", Instant.now().toString());
+                managed.setEnrollmentResult(objectMapper.writeValueAsString(enrollmentResultMap));
+                
+                // Create audit log
+                FailedAuthAuditLogEntity auditLog = new FailedAuthAuditLogEntity(
+                    managed, user.getId(), "ENROLL", user.getId()
+                );
+                Map<String, Object> auditDetails = new HashMap<>();
+                auditDetails.put("imageIndices", imageIndices);
+                auditDetails.put("enrolledImages", enrolledImages);
+                auditLog.setDetails(objectMapper.writeValueAsString(auditDetails));
+                em.persist(auditLog);
+                
+                // Update user preferences
+                FailedAuthUserPreferencesEntity prefs = em.find(FailedAuthUserPreferencesEntity.class, user.getId());
+                if (prefs != null) {
+                    prefs.incrementEnrolledAttempts();
+                }
+                
+                em.flush();
+                AttemptStatistics.apply(em, managed.getUserId(), managed.getRealmId(), managed.getFailureReason(),
+                    AttemptStatistics.Delta.ofEnrollment(managed.getAvgQualityScore(), config.getMinEnrollQualityScore()));
+                tx.commit();
+            } catch (RuntimeException e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            } finally {
+                em.close();
             }
             
             logger.info("Successfully enrolled {} images from attempt {} for user {}", 
@@ -805,54 +1358,100 @@ public class FailedAuthImageStorageService {
     /**
      * Get statistics for a user's failed attempts.
      * 
+     * Reads the incrementally maintained summary rows instead of aggregating attempts.
+     * 
      * @param session Keycloak session
      * @param userId User ID
      * @return Statistics object
      */
     public FailedAttemptStatistics getStatistics(KeycloakSession session, String userId) {
         EntityManager em = getEntityManager(session);
-        
-        // Get total count
-        TypedQuery<Long> totalQuery = em.createQuery(
-            "SELECT COUNT(a) FROM FailedAuthAttemptEntity a WHERE a.userId = :userId",
-            Long.class
-        );
-        totalQuery.setParameter("userId", userId);
-        long totalCount = totalQuery.getSingleResult();
-        
-        // Get enrolled count
-        TypedQuery<Long> enrolledQuery = em.createQuery(
-            "SELECT COUNT(a) FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.enrolled = true",
-            Long.class
-        );
-        enrolledQuery.setParameter("userId", userId);
-        long enrolledCount = enrolledQuery.getSingleResult();
-        
-        // Get average quality
-        TypedQuery<Double> avgQualityQuery = em.createQuery(
-            "SELECT AVG(a.avgQualityScore) FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.avgQualityScore IS NOT NULL",
-            Double.class
-        );
-        avgQualityQuery.setParameter("userId", userId);
-        Double avgQuality = avgQualityQuery.getSingleResult();
-        
-        // Get recommended count
-        TypedQuery<Long> recommendedQuery = em.createQuery(
-            "SELECT COUNT(a) FROM FailedAuthAttemptEntity a WHERE a.userId = :userId AND a.enrolled = false AND a.avgQualityScore >= :minQuality",
-            Long.class
-        );
-        recommendedQuery.setParameter("userId", userId);
-        recommendedQuery.setParameter("minQuality", config.getMinEnrollQualityScore());
-        long recommendedCount = recommendedQuery.getSingleResult();
-        
-        FailedAttemptStatistics stats = new FailedAttemptStatistics();
-        stats.setTotalCount((int) totalCount);
-        stats.setEnrolledCount((int) enrolledCount);
-        stats.setUnenrolledCount((int) (totalCount - enrolledCount));
-        stats.setRecommendedCount((int) recommendedCount);
-        stats.setAvgQualityScore(avgQuality != null ? avgQuality : 0.0);
-        
-        return stats;
+        try {
+            return AttemptStatistics.read(em, FailedAuthStatisticsEntity.SCOPE_USER, userId);
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * Get statistics for all failed attempts of a realm.
+     * 
+     * @param realmId Realm ID
+     * @return Statistics object
+     */
+    public FailedAttemptStatistics getRealmStatistics(String realmId) {
+        EntityManager em = getEntityManager(null);
+        try {
+            return AttemptStatistics.read(em, FailedAuthStatisticsEntity.SCOPE_REALM, realmId);
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * Mark an attempt as reviewed by its owner.
+     * 
+     * Only the first review is recorded and counted.
+     * 
+     * @param attempt Attempt being reviewed
+     * @param userId User ID of the reviewer
+     * @return true if the attempt was not reviewed before
+     */
+    public boolean markReviewed(FailedAuthAttemptEntity attempt, String userId) {
+        if (Boolean.TRUE.equals(attempt.getReviewed())) {
+            return false;
+        }
+        EntityManager em = getEntityManager(null);
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            int updated = em.createQuery(
+                    "UPDATE FailedAuthAttemptEntity a SET a.reviewed = true, a.reviewedAt = :now, a.reviewedBy = :userId "
+                        + "WHERE a.attemptId = :attemptId AND (a.reviewed = false OR a.reviewed IS NULL)")
+                .setParameter("now", Instant.now())
+                .setParameter("userId", userId)
+                .setParameter("attemptId", attempt.getAttemptId())
+                .executeUpdate();
+            if (updated > 0) {
+                AttemptStatistics.apply(em, attempt.getUserId(), attempt.getRealmId(), attempt.getFailureReason(),
+                    AttemptStatistics.Delta.ofReview());
+            }
+            tx.commit();
+            return updated > 0;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
+    }
+    
+    /**
+     * Rebuild the statistics summary from the attempts table.
+     * 
+     * Corrects drift from changes made outside this service (manual SQL, restored backups)
+     * or from a changed enrollment quality threshold.
+     * 
+     * @return Number of statistics rows written
+     */
+    public int reconcileStatistics() {
+        EntityManager em = getEntityManager(null);
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            int rows = AttemptStatistics.rebuild(em, config.getMinEnrollQualityScore());
+            tx.commit();
+            return rows;
+        } catch (RuntimeException e) {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            throw e;
+        } finally {
+            em.close();
+        }
     }
     
     /**
@@ -889,8 +1488,10 @@ public class FailedAuthImageStorageService {
         private int totalCount;
         private int enrolledCount;
         private int unenrolledCount;
+        private int reviewedCount;
         private int recommendedCount;
         private double avgQualityScore;
+        private Map<String, Integer> failureReasons = Map.of();
         
         // Getters and setters
         public int getTotalCount() { return totalCount; }
@@ -902,10 +1503,16 @@ public class FailedAuthImageStorageService {
         public int getUnenrolledCount() { return unenrolledCount; }
         public void setUnenrolledCount(int unenrolledCount) { this.unenrolledCount = unenrolledCount; }
         
+        public int getReviewedCount() { return reviewedCount; }
+        public void setReviewedCount(int reviewedCount) { this.reviewedCount = reviewedCount; }
+        
         public int getRecommendedCount() { return recommendedCount; }
         public void setRecommendedCount(int recommendedCount) { this.recommendedCount = recommendedCount; }
         
         public double getAvgQualityScore() { return avgQualityScore; }
         public void setAvgQualityScore(double avgQualityScore) { this.avgQualityScore = avgQualityScore; }
+        
+        public Map<String, Integer> getFailureReasons() { return failureReasons; }
+        public void setFailureReasons(Map<String, Integer> failureReasons) { this.failureReasons = failureReasons; }
     }
 }
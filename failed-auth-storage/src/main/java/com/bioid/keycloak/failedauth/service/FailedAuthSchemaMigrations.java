@@ -0,0 +1,58 @@
+package com.bioid.keycloak.failedauth.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Schema changes that Hibernate's {@code hbm2ddl=update} cannot make.
+ *
+ * Schema auto-update only adds tables and columns; it never relaxes an existing constraint. The
+ * statements here are run after the update, in order, and must be idempotent because they run on
+ * every start. They target PostgreSQL, the only database the failed-auth storage supports.
+ */
+final class FailedAuthSchemaMigrations {
+
+    private static final Logger logger = LoggerFactory.getLogger(FailedAuthSchemaMigrations.class);
+
+    static final List<String> STATEMENTS = List.of(
+        // Rows whose payload lives in the blob store have no inline image
+        "ALTER TABLE IF EXISTS failed_auth_images ALTER COLUMN image_data DROP NOT NULL",
+        // Unreferenced-blob checks look rows up by reference; auto-update does not add indexes
+        // to existing tables
+        "CREATE INDEX IF NOT EXISTS idx_image_ref ON failed_auth_images (image_ref)",
+        "CREATE INDEX IF NOT EXISTS idx_thumbnail_ref ON failed_auth_images (thumbnail_ref)"
+    );
+
+    private FailedAuthSchemaMigrations() {
+    }
+
+    /**
+     * Apply all migrations in one transaction.
+     *
+     * @throws SQLException if a migration fails; nothing is applied in that case
+     */
+    static void apply(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : STATEMENTS) {
+                    statement.execute(sql);
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        logger.debug("Applied {} failed auth schema migration(s)", STATEMENTS.size());
+    }
+}
@@ -0,0 +1,55 @@
+package com.bioid.keycloak.failedauth.service;
+
+/**
+ * Result of analyzing a stored image once: format and dimensions from the image header, and an
+ * optional thumbnail and perceptual hash from a single subsampled decode.
+ */
+public class ImageAnalysis {
+    
+    private final String format;
+    private final int width;
+    private final int height;
+    private final byte[] thumbnail;
+    private final Long perceptualHash;
+    
+    public ImageAnalysis(String format, int width, int height, byte[] thumbnail) {
+        this(format, width, height, thumbnail, null);
+    }
+    
+    public ImageAnalysis(String format, int width, int height, byte[] thumbnail, Long perceptualHash) {
+        this.format = format;
+        this.width = width;
+        this.height = height;
+        this.thumbnail = thumbnail;
+        this.perceptualHash = perceptualHash;
+    }
+    
+    /**
+     * @return Format name ("JPEG", "PNG") or "UNKNOWN"
+     */
+    public String getFormat() {
+        return format;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+    
+    /**
+     * @return Thumbnail JPEG bytes, or null if no thumbnail was requested
+     */
+    public byte[] getThumbnail() {
+        return thumbnail;
+    }
+    
+    /**
+     * @return {@link PerceptualHash#dHash} of the image, or null if no hash was requested
+     */
+    public Long getPerceptualHash() {
+        return perceptualHash;
+    }
+}
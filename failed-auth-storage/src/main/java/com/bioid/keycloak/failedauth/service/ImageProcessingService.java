@@ -7,14 +7,19 @@ import org.slf4j.LoggerFactory;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Locale;
 
 /**
  * Service for processing images (thumbnails, compression, format conversion).
@@ -51,6 +56,104 @@ public class ImageProcessingService {
         }
     }
     
+    /**
+     * Analyze an image in a single pass.
+     * 
+     * <p>Format and dimensions come from the image header via {@link ImageReader} without decoding
+     * pixels. If a thumbnail is requested, the pixels are decoded exactly once, subsampled close to
+     * twice the thumbnail size, and then scaled down with high quality.
+     * 
+     * @param imageBytes Image bytes
+     * @param createThumbnail Whether to decode the image and create a thumbnail
+     * @return Analysis result
+     * @throws Exception if the image cannot be read
+     */
+    public ImageAnalysis analyze(byte[] imageBytes, boolean createThumbnail) throws Exception {
+        return analyze(imageBytes, createThumbnail, false);
+    }
+    
+    /**
+     * Analyze an image, optionally creating a thumbnail and a perceptual hash.
+     * 
+     * Both are computed from the same subsampled decode; a hash alone only needs a decode at
+     * about {@value PerceptualHash#SOURCE_WIDTH} pixels width.
+     * 
+     * @param imageBytes Image bytes
+     * @param createThumbnail Whether to create a thumbnail
+     * @param computeHash Whether to compute a {@link PerceptualHash#dHash}
+     * @return Analysis result
+     * @throws Exception if the image cannot be read
+     */
+    public ImageAnalysis analyze(byte[] imageBytes, boolean createThumbnail, boolean computeHash)
+            throws Exception {
+        try (ImageInputStream input =
+                 ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = input != null
+                ? ImageIO.getImageReaders(input) : Collections.emptyIterator();
+            if (!readers.hasNext()) {
+                throw new Exception("Unsupported image format");
+            }
+            
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if (width <= 0 || height <= 0) {
+                    throw new Exception("Invalid image dimensions");
+                }
+                String format = normalizeFormat(reader.getFormatName());
+                
+                byte[] thumbnail = null;
+                Long perceptualHash = null;
+                if (createThumbnail || computeHash) {
+                    int thumbnailSize = config.getThumbnailSize();
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    // Thumbnails are fit to width; keep at least twice the target width for quality
+                    int subsampling = createThumbnail
+                        ? Math.max(1, width / (thumbnailSize * 2))
+                        : Math.max(1, width / PerceptualHash.SOURCE_WIDTH);
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    
+                    BufferedImage decoded = reader.read(0, param);
+                    if (computeHash) {
+                        perceptualHash = PerceptualHash.dHash(decoded);
+                    }
+                    if (createThumbnail) {
+                        thumbnail = compressToJpeg(scaleToThumbnail(decoded, thumbnailSize),
+                            config.getThumbnailQuality());
+                    }
+                }
+                
+                return new ImageAnalysis(format, width, height, thumbnail, perceptualHash);
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            logger.debug("Image analysis failed: {}", e.getMessage());
+            throw new Exception("Failed to analyze image", e);
+        }
+    }
+    
+    private static String normalizeFormat(String formatName) {
+        String upper = formatName != null ? formatName.toUpperCase(Locale.ROOT) : "";
+        if (upper.equals("JPEG") || upper.equals("JPG")) {
+            return "JPEG";
+        }
+        return upper.equals("PNG") ? "PNG" : "UNKNOWN";
+    }
+    
+    private static BufferedImage scaleToThumbnail(BufferedImage image, int thumbnailSize) {
+        return Scalr.resize(
+            image,
+            Scalr.Method.QUALITY,
+            Scalr.Mode.FIT_TO_WIDTH,
+            thumbnailSize,
+            thumbnailSize,
+            Scalr.OP_ANTIALIAS
+        );
+    }
+    
     /**
      * Create thumbnail from image bytes.
      * 
@@ -70,14 +173,7 @@ public class ImageProcessingService {
             }
             
             // Create thumbnail using imgscalr (high-quality scaling)
-            BufferedImage thumbnail = Scalr.resize(
-                originalImage,
-                Scalr.Method.QUALITY,
-                Scalr.Mode.FIT_TO_WIDTH,
-                thumbnailSize,
-                thumbnailSize,
-                Scalr.OP_ANTIALIAS
-            );
+            BufferedImage thumbnail = scaleToThumbnail(originalImage, thumbnailSize);
             
             // Compress to JPEG
             return compressToJpeg(thumbnail, quality);
@@ -137,11 +233,8 @@ public class ImageProcessingService {
      */
     public int[] getImageDimensions(byte[] imageBytes) throws Exception {
         try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
-            if (image == null) {
-                throw new Exception("Failed to read image");
-            }
-            return new int[]{image.getWidth(), image.getHeight()};
+            ImageAnalysis analysis = analyze(imageBytes, false);
+            return new int[]{analysis.getWidth(), analysis.getHeight()};
         } catch (Exception e) {
             logger.error("Failed to get image dimensions", e);
             throw new Exception("Failed to read image dimensions", e);
@@ -156,29 +249,7 @@ public class ImageProcessingService {
      */
     public String detectImageFormat(byte[] imageBytes) {
         try {
-            ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes);
-            BufferedImage image = ImageIO.read(inputStream);
-            if (image == null) {
-                return "UNKNOWN";
-            }
-            
-            // Try to detect format from magic bytes
-            if (imageBytes.length >= 3) {
-                // JPEG: FF D8 FF
-                if (imageBytes[0] == (byte) 0xFF && 
-                    imageBytes[1] == (byte) 0xD8 && 
-                    imageBytes[2] == (byte) 0xFF) {
-                    return "JPEG";
-                }
-                // PNG: 89 50 4E 47
-                if (imageBytes[0] == (byte) 0x89 && 
-                    imageBytes[1] == (byte) 0x50 && 
-                    imageBytes[2] == (byte) 0x4E) {
-                    return "PNG";
-                }
-            }
-            
-            return "UNKNOWN";
+            return analyze(imageBytes, false).getFormat();
         } catch (Exception e) {
             logger.warn("Failed to detect image format", e);
             return "UNKNOWN";
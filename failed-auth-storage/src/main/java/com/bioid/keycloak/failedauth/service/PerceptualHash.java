@@ -0,0 +1,71 @@
+package com.bioid.keycloak.failedauth.service;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64-bit difference hash (dHash) for detecting near-identical frames.
+ * 
+ * The image is reduced to a 9x8 grid of average luma values, and each bit records whether a
+ * cell is brighter than its right neighbour. Re-encoded, rescaled or slightly shifted copies of
+ * a frame differ in only a few bits, so the Hamming distance between two hashes measures how
+ * similar two frames look.
+ */
+public final class PerceptualHash {
+    
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    
+    /**
+     * Width a source image needs for a stable hash; decoders may subsample down to it.
+     */
+    static final int SOURCE_WIDTH = COLUMNS * 8;
+    
+    private PerceptualHash() {
+    }
+    
+    /**
+     * Compute the difference hash of an image.
+     */
+    public static long dHash(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long[] sums = new long[COLUMNS * ROWS];
+        int[] counts = new int[COLUMNS * ROWS];
+        int[] row = new int[width];
+        
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellRow = y * ROWS / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                int luma = (299 * ((rgb >> 16) & 0xFF) + 587 * ((rgb >> 8) & 0xFF) + 114 * (rgb & 0xFF)) / 1000;
+                int cell = cellRow * COLUMNS + x * COLUMNS / width;
+                sums[cell] += luma;
+                counts[cell]++;
+            }
+        }
+        
+        long hash = 0;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLUMNS - 1; c++) {
+                int left = r * COLUMNS + c;
+                hash <<= 1;
+                if (average(sums, counts, left) < average(sums, counts, left + 1)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+    
+    /**
+     * Number of differing bits between two hashes (0 = identical, 64 = inverse).
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+    
+    private static long average(long[] sums, int[] counts, int cell) {
+        return counts[cell] > 0 ? sums[cell] / counts[cell] : 0;
+    }
+}
@@ -0,0 +1,130 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.TimerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduled background job that rebuilds the failed attempt statistics summary.
+ * 
+ * The summary is maintained incrementally on every insert, enrollment, review and delete; this
+ * job periodically recomputes it from {@code failed_auth_attempts} to correct any drift. Like
+ * {@link ExpiredAttemptCleanupJob}, it is scheduled on every node and guarded by
+ * {@link ClusterProvider#executeIfNotExecuted}, so one node per interval does the work.
+ * A non-positive {@code statisticsReconcileIntervalMinutes} disables the job.
+ */
+public class StatisticsReconciliationJob {
+    
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsReconciliationJob.class);
+    
+    static final String TASK_NAME = "failed-auth-statistics-reconcile";
+    
+    private final KeycloakSessionFactory sessionFactory;
+    private final FailedAuthConfiguration config;
+    
+    private final Timer runTimer;
+    private final AtomicLong lastRunRows = new AtomicLong();
+    private final AtomicLong lastRunEpochSeconds = new AtomicLong();
+    
+    public StatisticsReconciliationJob(KeycloakSessionFactory sessionFactory,
+                                       FailedAuthConfiguration config) {
+        this(sessionFactory, config, Metrics.globalRegistry);
+    }
+    
+    StatisticsReconciliationJob(KeycloakSessionFactory sessionFactory,
+                                FailedAuthConfiguration config,
+                                MeterRegistry registry) {
+        this.sessionFactory = sessionFactory;
+        this.config = config;
+        this.runTimer = Timer.builder("bioid.failedauth.statistics.reconcile.duration")
+            .description("Duration of statistics reconciliation runs")
+            .register(registry);
+        Gauge.builder("bioid.failedauth.statistics.rows", lastRunRows, AtomicLong::get)
+            .description("Statistics rows written by the last reconciliation run")
+            .register(registry);
+        Gauge.builder("bioid.failedauth.statistics.last.reconcile.timestamp", lastRunEpochSeconds,
+                AtomicLong::get)
+            .description("Completion time of the last statistics reconciliation run")
+            .baseUnit("seconds")
+            .register(registry);
+    }
+    
+    /**
+     * Schedule the job unless it is disabled, and run it once in the background so that the
+     * summary is populated right after an upgrade.
+     */
+    public void start() {
+        int intervalMinutes = config.getStatisticsReconcileIntervalMinutes();
+        if (intervalMinutes <= 0) {
+            logger.info("Failed auth statistics reconciliation is disabled");
+            return;
+        }
+        long intervalMillis = Duration.ofMinutes(intervalMinutes).toMillis();
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+            session.getProvider(TimerProvider.class).schedule(this::runIfNotRunElsewhere,
+                intervalMillis, TASK_NAME));
+        logger.info("Scheduled failed auth statistics reconciliation every {} minutes", intervalMinutes);
+        CompletableFuture.runAsync(this::runIfNotRunElsewhere);
+    }
+    
+    /**
+     * Cancel the scheduled job.
+     */
+    public void stop() {
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session ->
+                session.getProvider(TimerProvider.class).cancelTask(TASK_NAME));
+        } catch (Exception e) {
+            logger.debug("Could not cancel failed auth statistics task: {}", e.getMessage());
+        }
+    }
+    
+    private void runIfNotRunElsewhere() {
+        int intervalSeconds = (int) Duration.ofMinutes(
+            config.getStatisticsReconcileIntervalMinutes()).toSeconds();
+        try {
+            KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+                ExecutionResult<Integer> result = session.getProvider(ClusterProvider.class)
+                    .executeIfNotExecuted(TASK_NAME, intervalSeconds, this::runOnce);
+                if (!result.isExecuted()) {
+                    logger.debug("Failed auth statistics already reconciled by another node");
+                }
+            });
+        } catch (Exception e) {
+            logger.warn("Failed auth statistics reconciliation failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Rebuild the statistics summary once.
+     * 
+     * @return Number of statistics rows written
+     */
+    int runOnce() {
+        FailedAuthImageStorageService storageService = new FailedAuthImageStorageService(config);
+        Timer.Sample sample = Timer.start();
+        try {
+            int rows = storageService.reconcileStatistics();
+            lastRunRows.set(rows);
+            logger.info("Reconciled failed auth statistics: {} rows", rows);
+            return rows;
+        } finally {
+            sample.stop(runTimer);
+            lastRunEpochSeconds.set(Instant.now().getEpochSecond());
+        }
+    }
+}
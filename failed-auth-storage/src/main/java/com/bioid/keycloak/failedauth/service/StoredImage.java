@@ -0,0 +1,136 @@
+package com.bioid.keycloak.failedauth.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A single image or thumbnail, ready to be served.
+ *
+ * Its length is known before any byte is produced, so callers can answer range requests.
+ * Content is produced on demand from a {@link Source}: plain payloads are read straight from a
+ * read-only (possibly memory-mapped) buffer, encrypted payloads are decrypted chunk by chunk
+ * while they are written.
+ */
+public class StoredImage {
+
+    private static final int WRITE_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Opens the content at a byte offset.
+     */
+    @FunctionalInterface
+    public interface Source {
+        InputStream open(long offset) throws IOException;
+    }
+
+    private final String etag;
+    private final String contentType;
+    private final long length;
+    private final Source source;
+
+    public StoredImage(String etag, String contentType, ByteBuffer content) {
+        this(etag, contentType, content.remaining(), sourceOf(content.asReadOnlyBuffer()));
+    }
+
+    public StoredImage(String etag, String contentType, long length, Source source) {
+        this.etag = etag;
+        this.contentType = contentType;
+        this.length = length;
+        this.source = source;
+    }
+
+    /**
+     * @return Strong entity tag value (without quotes); stored images never change
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @param offset Byte offset to start at
+     * @return Stream of the content from {@code offset} to the end
+     * @throws IOException if the content cannot be read or fails authentication
+     */
+    public InputStream openStream(long offset) throws IOException {
+        return source.open(offset);
+    }
+
+    /**
+     * Write a range of the content without materializing it.
+     *
+     * @param output Destination
+     * @param offset First byte to write
+     * @param count Number of bytes to write
+     * @throws IOException if the content cannot be read or written
+     */
+    public void writeTo(OutputStream output, long offset, long count) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(WRITE_CHUNK_SIZE, Math.max(count, 1))];
+        try (InputStream input = source.open(offset)) {
+            long remaining = count;
+            while (remaining > 0) {
+                int read = input.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+                if (read < 0) {
+                    throw new IOException("Image content ended " + remaining + " bytes early");
+                }
+                output.write(chunk, 0, read);
+                remaining -= read;
+            }
+        }
+        output.flush();
+    }
+
+    /**
+     * @return Copy of the content as a byte array
+     */
+    public byte[] toByteArray() throws IOException {
+        try (InputStream input = source.open(0)) {
+            return input.readNBytes(Math.toIntExact(length));
+        }
+    }
+
+    private static Source sourceOf(ByteBuffer content) {
+        return offset -> {
+            ByteBuffer view = content.duplicate();
+            view.position((int) Math.min(offset, view.limit()));
+            if (view.hasArray()) {
+                return new ByteArrayInputStream(
+                    view.array(), view.arrayOffset() + view.position(), view.remaining());
+            }
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return view.hasRemaining() ? view.get() & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] target, int off, int len) {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (!view.hasRemaining()) {
+                        return -1;
+                    }
+                    int n = Math.min(len, view.remaining());
+                    view.get(target, off, n);
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return view.remaining();
+                }
+            };
+        };
+    }
+}
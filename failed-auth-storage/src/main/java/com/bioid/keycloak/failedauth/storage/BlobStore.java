@@ -0,0 +1,77 @@
+package com.bioid.keycloak.failedauth.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Storage for failed authentication image payloads kept outside the database.
+ * 
+ * Blobs are immutable and addressed by a reference returned from {@link #put(byte[])}. The
+ * database only stores the reference, so rows stay small and image reads do not go through JDBC.
+ */
+public interface BlobStore {
+    
+    /**
+     * Store a blob durably.
+     * 
+     * @param data Blob content (already encrypted if encryption is enabled)
+     * @return Reference to store in the entity
+     * @throws IOException if the blob cannot be written
+     */
+    String put(byte[] data) throws IOException;
+    
+    /**
+     * Read a blob.
+     * 
+     * @param reference Reference returned by {@link #put(byte[])}
+     * @return Read-only buffer with the blob content
+     * @throws IOException if the blob does not exist or cannot be read
+     */
+    ByteBuffer read(String reference) throws IOException;
+    
+    /**
+     * Read a blob into a byte array.
+     */
+    default byte[] readAllBytes(String reference) throws IOException {
+        ByteBuffer buffer = read(reference);
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+    
+    /**
+     * Check whether a blob exists.
+     */
+    boolean exists(String reference);
+    
+    /**
+     * Delete a blob.
+     * 
+     * @return true if the blob existed
+     * @throws IOException if the blob cannot be deleted
+     */
+    boolean delete(String reference) throws IOException;
+    
+    /**
+     * Move a blob aside ahead of deleting it. A retired blob cannot be read, and a
+     * {@link #put(byte[])} of the same content writes a new copy.
+     * 
+     * @return true if the blob existed and was retired by this call
+     * @throws IOException if the blob cannot be moved
+     */
+    boolean retire(String reference) throws IOException;
+    
+    /**
+     * Bring a retired blob back. Nothing changes if a new copy was written in the meantime.
+     * 
+     * @throws IOException if the blob cannot be moved back
+     */
+    void restore(String reference) throws IOException;
+    
+    /**
+     * Delete a retired blob.
+     * 
+     * @throws IOException if the blob cannot be deleted
+     */
+    void purge(String reference) throws IOException;
+}
@@ -0,0 +1,168 @@
+package com.bioid.keycloak.failedauth.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed blob store on the local (or a shared) filesystem.
+ * 
+ * Each blob is stored under its SHA-256 hash, sharded by the first two bytes of the hash
+ * ({@code <root>/ab/cd/abcd...}) to keep directories small. Writes go to a temporary file that
+ * is fsynced and atomically renamed into place, and the parent directory is fsynced as well, so
+ * a reference is only handed out once the blob survives a crash. Storing the same content twice
+ * yields the same reference, which makes retried writes idempotent.
+ * 
+ * Reads memory-map the file instead of copying it into the heap. Retired blobs are renamed to
+ * {@code <reference>.retired} next to the blob until they are purged or restored.
+ * 
+ * In a cluster, the root directory must be shared between all Keycloak nodes.
+ */
+public class FileSystemBlobStore implements BlobStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemBlobStore.class);
+    
+    private static final Pattern REFERENCE_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final HexFormat HEX = HexFormat.of();
+    private static final String RETIRED_SUFFIX = ".retired";
+    
+    private final Path root;
+    
+    public FileSystemBlobStore(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+        logger.info("Failed auth blob store initialized at {}", this.root);
+    }
+    
+    @Override
+    public String put(byte[] data) throws IOException {
+        String reference = HEX.formatHex(sha256(data));
+        Path target = pathOf(reference);
+        if (Files.exists(target)) {
+            return reference;
+        }
+        
+        Path directory = target.getParent();
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(reference + ".tmp-" + UUID.randomUUID());
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(directory);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return reference;
+    }
+    
+    @Override
+    public ByteBuffer read(String reference) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(reference), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+    
+    @Override
+    public boolean exists(String reference) {
+        return Files.exists(pathOf(reference));
+    }
+    
+    @Override
+    public boolean delete(String reference) throws IOException {
+        return Files.deleteIfExists(pathOf(reference));
+    }
+    
+    @Override
+    public boolean retire(String reference) throws IOException {
+        Path target = pathOf(reference);
+        try {
+            Files.move(target, retiredPathOf(target), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Deleted or retired by someone else
+            return false;
+        }
+    }
+    
+    @Override
+    public void restore(String reference) throws IOException {
+        Path target = pathOf(reference);
+        Path retired = retiredPathOf(target);
+        try {
+            Files.move(retired, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // A new copy of the same content was written meanwhile
+            Files.deleteIfExists(retired);
+        } catch (NoSuchFileException e) {
+            logger.debug("Retired blob {} no longer exists", reference);
+        }
+    }
+    
+    @Override
+    public void purge(String reference) throws IOException {
+        Files.deleteIfExists(retiredPathOf(pathOf(reference)));
+    }
+    
+    private static Path retiredPathOf(Path target) {
+        return target.resolveSibling(target.getFileName() + RETIRED_SUFFIX);
+    }
+    
+    /**
+     * Resolve the sharded path of a reference.
+     * 
+     * @throws IllegalArgumentException if the reference is not a SHA-256 hex string
+     */
+    Path pathOf(String reference) {
+        if (reference == null || !REFERENCE_PATTERN.matcher(reference).matches()) {
+            throw new IllegalArgumentException("Invalid blob reference: " + reference);
+        }
+        return root.resolve(reference.substring(0, 2))
+            .resolve(reference.substring(2, 4))
+            .resolve(reference);
+    }
+    
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform (e.g. Windows); the file itself is already synced
+            logger.debug("Could not fsync directory {}: {}", directory, e.getMessage());
+        }
+    }
+    
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
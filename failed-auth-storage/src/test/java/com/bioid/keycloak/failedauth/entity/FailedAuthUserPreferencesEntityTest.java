@@ -42,6 +42,7 @@ class FailedAuthUserPreferencesEntityTest {
         assertThat(preferences.getTotalAttempts()).isEqualTo(0);
         assertThat(preferences.getEnrolledAttempts()).isEqualTo(0);
         assertThat(preferences.getDeletedAttempts()).isEqualTo(0);
+        assertThat(preferences.getNextSlot()).isEqualTo(0L);
     }
     
     @Test
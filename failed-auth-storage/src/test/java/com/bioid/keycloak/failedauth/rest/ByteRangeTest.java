@@ -0,0 +1,66 @@
+package com.bioid.keycloak.failedauth.rest;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for ByteRange.
+ */
+@DisplayName("ByteRange Tests")
+class ByteRangeTest {
+    
+    @Test
+    @DisplayName("Should parse bounded, open-ended and suffix ranges")
+    void testParseRanges() {
+        ByteRange bounded = ByteRange.parse("bytes=0-99", 1000);
+        assertThat(bounded.getStart()).isEqualTo(0);
+        assertThat(bounded.getEnd()).isEqualTo(99);
+        assertThat(bounded.toContentRange(1000)).isEqualTo("bytes 0-99/1000");
+        
+        ByteRange openEnded = ByteRange.parse("bytes=900-", 1000);
+        assertThat(openEnded.getStart()).isEqualTo(900);
+        assertThat(openEnded.getLength()).isEqualTo(100);
+        
+        ByteRange suffix = ByteRange.parse("bytes=-100", 1000);
+        assertThat(suffix.getStart()).isEqualTo(900);
+        assertThat(suffix.getEnd()).isEqualTo(999);
+    }
+    
+    @Test
+    @DisplayName("Should clamp ranges that extend past the end")
+    void testClampRange() {
+        ByteRange range = ByteRange.parse("bytes=500-5000", 1000);
+        
+        assertThat(range.getEnd()).isEqualTo(999);
+        assertThat(ByteRange.parse("bytes=-5000", 1000).getStart()).isEqualTo(0);
+    }
+    
+    @Test
+    @DisplayName("Should report unsatisfiable ranges")
+    void testUnsatisfiable() {
+        assertThat(ByteRange.parse("bytes=1000-", 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+        assertThat(ByteRange.parse("bytes=-0", 1000)).isSameAs(ByteRange.UNSATISFIABLE);
+    }
+    
+    @Test
+    @DisplayName("Should ignore missing, invalid and multi-range headers")
+    void testIgnoredHeaders() {
+        assertThat(ByteRange.parse(null, 1000)).isNull();
+        assertThat(ByteRange.parse("items=0-10", 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=abc-", 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=50-10", 1000)).isNull();
+        assertThat(ByteRange.parse("bytes=0-10,20-30", 1000)).isNull();
+    }
+    
+    @Test
+    @DisplayName("Should honor If-Range only for the current strong entity tag")
+    void testIfRange() {
+        assertThat(ByteRange.ifRangeMatches(null, "abc")).isTrue();
+        assertThat(ByteRange.ifRangeMatches("\"abc\"", "abc")).isTrue();
+        assertThat(ByteRange.ifRangeMatches("\"old\"", "abc")).isFalse();
+        assertThat(ByteRange.ifRangeMatches("W/\"abc\"", "abc")).isFalse();
+        assertThat(ByteRange.ifRangeMatches("abc", "abc")).isFalse();
+    }
+}
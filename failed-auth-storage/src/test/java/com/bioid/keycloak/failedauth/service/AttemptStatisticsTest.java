@@ -0,0 +1,71 @@
+package com.bioid.keycloak.failedauth.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for the statistics deltas of AttemptStatistics.
+ */
+@DisplayName("AttemptStatistics Tests")
+class AttemptStatisticsTest {
+    
+    private static final double MIN_ENROLL_QUALITY = 0.7;
+    
+    @Test
+    @DisplayName("Should count a stored attempt above the enrollment threshold as recommended")
+    void testStoredRecommended() {
+        // When
+        AttemptStatistics.Delta delta = AttemptStatistics.Delta.ofStored(0.8, MIN_ENROLL_QUALITY);
+        
+        // Then
+        assertThat(delta.total()).isEqualTo(1);
+        assertThat(delta.recommended()).isEqualTo(1);
+        assertThat(delta.qualitySum()).isEqualTo(0.8);
+        assertThat(delta.qualityCount()).isEqualTo(1);
+    }
+    
+    @Test
+    @DisplayName("Should not count quality of a stored attempt without quality score")
+    void testStoredWithoutQuality() {
+        // When
+        AttemptStatistics.Delta delta = AttemptStatistics.Delta.ofStored(null, MIN_ENROLL_QUALITY);
+        
+        // Then
+        assertThat(delta.total()).isEqualTo(1);
+        assertThat(delta.recommended()).isZero();
+        assertThat(delta.qualityCount()).isZero();
+    }
+    
+    @Test
+    @DisplayName("Should move an enrolled attempt out of the recommended count")
+    void testEnrolled() {
+        // When
+        AttemptStatistics.Delta delta = AttemptStatistics.Delta.ofEnrollment(0.8, MIN_ENROLL_QUALITY);
+        
+        // Then
+        assertThat(delta.total()).isZero();
+        assertThat(delta.enrolled()).isEqualTo(1);
+        assertThat(delta.recommended()).isEqualTo(-1);
+    }
+    
+    @Test
+    @DisplayName("Should cancel out when an attempt is stored, enrolled and deleted")
+    void testLifecycleCancelsOut() {
+        // Given
+        AttemptStatistics.Delta stored = AttemptStatistics.Delta.ofStored(0.9, MIN_ENROLL_QUALITY);
+        AttemptStatistics.Delta enrolled = AttemptStatistics.Delta.ofEnrollment(0.9, MIN_ENROLL_QUALITY);
+        AttemptStatistics.Delta reviewed = AttemptStatistics.Delta.ofReview();
+        AttemptStatistics.Delta current = stored.plus(enrolled).plus(reviewed);
+        
+        // When
+        AttemptStatistics.Delta result = current.plus(current.negate());
+        
+        // Then
+        assertThat(current.enrolled()).isEqualTo(1);
+        assertThat(current.reviewed()).isEqualTo(1);
+        assertThat(current.recommended()).isZero();
+        assertThat(result).isEqualTo(new AttemptStatistics.Delta(0, 0, 0, 0, 0.0, 0));
+    }
+}
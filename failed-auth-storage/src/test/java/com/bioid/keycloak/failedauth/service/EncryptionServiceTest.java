@@ -4,8 +4,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import static org.assertj.core.api.Assertions.*;
 
@@ -22,6 +31,20 @@ class EncryptionServiceTest {
         encryptionService = new EncryptionService();
     }
     
+    @Test
+    @DisplayName("Should decrypt data from a buffer")
+    void testDecryptFromBuffer() throws Exception {
+        // Given
+        byte[] plaintext = "Buffered image payload".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = encryptionService.encrypt(plaintext);
+        
+        // When
+        byte[] decrypted = encryptionService.decrypt(ByteBuffer.wrap(encrypted).asReadOnlyBuffer());
+        
+        // Then
+        assertThat(decrypted).isEqualTo(plaintext);
+    }
+    
     @Test
     @DisplayName("Should encrypt and decrypt data successfully")
     void testEncryptDecrypt() throws Exception {
@@ -262,4 +285,168 @@ class EncryptionServiceTest {
         // Then
         assertThat(currentData).isEqualTo(originalData);
     }
+    
+    @Test
+    @DisplayName("Should round-trip data across chunk boundaries")
+    void testChunkBoundaries() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        
+        for (int length : new int[] {0, 1, 15, 16, 17, 32, 33, 100}) {
+            byte[] plaintext = randomBytes(length);
+            
+            // When
+            byte[] encrypted = chunked.encrypt(plaintext);
+            
+            // Then
+            assertThat(encrypted).hasSize(chunked.encryptedLength(length));
+            assertThat(chunked.plaintextLength(ByteBuffer.wrap(encrypted))).isEqualTo(length);
+            assertThat(chunked.decrypt(encrypted)).isEqualTo(plaintext);
+        }
+    }
+    
+    @Test
+    @DisplayName("Should decrypt from a plaintext offset without reading earlier chunks")
+    void testDecryptFromOffset() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        byte[] plaintext = randomBytes(100);
+        byte[] encrypted = chunked.encrypt(plaintext);
+        // Corrupt the first chunk; seeking past it must not touch it
+        encrypted[EncryptionService.HEADER_LENGTH] ^= 1;
+        
+        // When
+        byte[] tail;
+        try (InputStream input = chunked.decryptingStream(ByteBuffer.wrap(encrypted), 37)) {
+            tail = input.readAllBytes();
+        }
+        
+        // Then
+        assertThat(tail).isEqualTo(Arrays.copyOfRange(plaintext, 37, 100));
+        assertThatThrownBy(() -> chunked.decryptingStream(ByteBuffer.wrap(encrypted), 0).readAllBytes())
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("chunk 0");
+    }
+    
+    @Test
+    @DisplayName("Should write the same format through the encrypting stream")
+    void testEncryptingStream() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        byte[] plaintext = randomBytes(50);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        
+        // When - write in uneven pieces
+        try (OutputStream output = chunked.encryptingStream(sink)) {
+            output.write(plaintext, 0, 7);
+            output.write(plaintext[7]);
+            output.write(plaintext, 8, 42);
+        }
+        
+        // Then
+        assertThat(sink.size()).isEqualTo(chunked.encryptedLength(50));
+        assertThat(chunked.decrypt(sink.toByteArray())).isEqualTo(plaintext);
+    }
+    
+    @Test
+    @DisplayName("Should detect truncation at a chunk boundary")
+    void testTruncatedAtChunkBoundary() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        byte[] encrypted = chunked.encrypt(randomBytes(40));
+        int withoutLastChunk = EncryptionService.HEADER_LENGTH + 2 * (16 + 16);
+        
+        // Then - the remaining chunks were not sealed as the last one
+        assertThatThrownBy(() -> chunked.decrypt(Arrays.copyOf(encrypted, withoutLastChunk)))
+            .isInstanceOf(Exception.class)
+            .hasMessageContaining("decrypt");
+    }
+    
+    @Test
+    @DisplayName("Should detect reordered chunks")
+    void testReorderedChunks() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        byte[] encrypted = chunked.encrypt(randomBytes(64));
+        int first = EncryptionService.HEADER_LENGTH;
+        int second = first + 32;
+        byte[] firstChunk = Arrays.copyOfRange(encrypted, first, second);
+        System.arraycopy(encrypted, second, encrypted, first, 32);
+        System.arraycopy(firstChunk, 0, encrypted, second, 32);
+        
+        // Then
+        assertThatThrownBy(() -> chunked.decrypt(encrypted))
+            .isInstanceOf(Exception.class)
+            .hasMessageContaining("decrypt");
+    }
+    
+    @Test
+    @DisplayName("Should reject a corrupted chunk size before using it")
+    void testCorruptedChunkSize() throws Exception {
+        // Given
+        EncryptionService chunked = new EncryptionService(randomKey(), 16);
+        byte[] encrypted = chunked.encrypt(randomBytes(64));
+        
+        for (int corrupted : new int[] {0, -1, EncryptionService.MAX_CHUNK_SIZE + 1, Integer.MAX_VALUE}) {
+            // When - the chunk size follows the 4 byte magic
+            ByteBuffer payload = ByteBuffer.wrap(encrypted.clone());
+            payload.putInt(4, corrupted);
+            
+            // Then - no division by zero or huge buffer, just a malformed payload
+            assertThatThrownBy(() -> chunked.plaintextLength(payload))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Malformed");
+            assertThatThrownBy(() -> chunked.decryptingStream(payload, 20))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Malformed");
+        }
+    }
+    
+    @Test
+    @DisplayName("Should decrypt payloads from another instance with the same master key")
+    void testSharedMasterKey() throws Exception {
+        // Given
+        byte[] masterKey = randomKey();
+        byte[] plaintext = randomBytes(1000);
+        byte[] encrypted = new EncryptionService(masterKey).encrypt(plaintext);
+        
+        // When
+        byte[] decrypted = new EncryptionService(masterKey.clone()).decrypt(encrypted);
+        
+        // Then
+        assertThat(decrypted).isEqualTo(plaintext);
+        assertThatThrownBy(() -> new EncryptionService(randomKey()).decrypt(encrypted))
+            .isInstanceOf(Exception.class)
+            .hasStackTraceContaining("another master key");
+    }
+    
+    @Test
+    @DisplayName("Should still decrypt payloads in the single-shot format")
+    void testLegacyFormat() throws Exception {
+        // Given
+        byte[] masterKey = randomKey();
+        byte[] plaintext = "Legacy image payload".getBytes(StandardCharsets.UTF_8);
+        byte[] iv = randomBytes(12);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(masterKey, "AES"), new GCMParameterSpec(128, iv));
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] legacy = new byte[iv.length + ciphertext.length];
+        System.arraycopy(iv, 0, legacy, 0, iv.length);
+        System.arraycopy(ciphertext, 0, legacy, iv.length, ciphertext.length);
+        EncryptionService service = new EncryptionService(masterKey);
+        
+        // When/Then
+        assertThat(service.decrypt(legacy)).isEqualTo(plaintext);
+        assertThat(service.plaintextLength(ByteBuffer.wrap(legacy))).isEqualTo(plaintext.length);
+    }
+    
+    private static byte[] randomKey() {
+        return randomBytes(32);
+    }
+    
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new SecureRandom().nextBytes(data);
+        return data;
+    }
 }
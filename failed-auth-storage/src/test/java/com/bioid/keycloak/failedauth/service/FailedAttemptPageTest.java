@@ -0,0 +1,56 @@
+package com.bioid.keycloak.failedauth.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for FailedAttemptPage.
+ */
+@DisplayName("FailedAttemptPage Tests")
+class FailedAttemptPageTest {
+    
+    private static FailedAttemptSummary summary(String attemptId, Instant timestamp) {
+        return new FailedAttemptSummary(attemptId, timestamp, "LOW_SCORE", 3, 0.7, false, 1, "PASSIVE");
+    }
+    
+    @Test
+    @DisplayName("Should encode the last item as cursor when more pages exist")
+    void testNextCursorRoundTrip() {
+        // Given
+        Instant timestamp = Instant.parse("2025-03-01T10:15:30.123456Z");
+        FailedAttemptPage page = new FailedAttemptPage(List.of(
+            summary("b", timestamp.plusSeconds(5)),
+            summary("a", timestamp)
+        ), true);
+        
+        // When
+        FailedAttemptPage.Cursor cursor = FailedAttemptPage.Cursor.decode(page.getNextCursor());
+        
+        // Then
+        assertThat(page.isHasMore()).isTrue();
+        assertThat(cursor.getTimestamp()).isEqualTo(timestamp);
+        assertThat(cursor.getAttemptId()).isEqualTo("a");
+    }
+    
+    @Test
+    @DisplayName("Should not return a cursor on the last page")
+    void testLastPage() {
+        FailedAttemptPage page = new FailedAttemptPage(List.of(summary("a", Instant.now())), false);
+        
+        assertThat(page.getNextCursor()).isNull();
+    }
+    
+    @Test
+    @DisplayName("Should reject malformed cursors")
+    void testInvalidCursor() {
+        assertThatThrownBy(() -> FailedAttemptPage.Cursor.decode("not-a-cursor!"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FailedAttemptPage.Cursor.decode("bm8tc2VwYXJhdG9y"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
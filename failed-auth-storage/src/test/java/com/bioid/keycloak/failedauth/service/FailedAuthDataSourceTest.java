@@ -0,0 +1,88 @@
+package com.bioid.keycloak.failedauth.service;
+
+import io.agroal.api.AgroalDataSource;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for FailedAuthDataSource.
+ */
+@DisplayName("FailedAuthDataSource Tests")
+class FailedAuthDataSourceTest {
+    
+    @Test
+    @DisplayName("Should configure the pool from environment variables")
+    void testPoolConfiguration() throws Exception {
+        // Given
+        Map<String, String> env = Map.of(
+            "FAILED_AUTH_DB_URL", "jdbc:postgresql://db.example:5432/failed_auth",
+            "FAILED_AUTH_DB_POOL_SIZE", "32",
+            "FAILED_AUTH_DB_POOL_MIN_SIZE", "0",
+            "FAILED_AUTH_DB_POOL_ACQUIRE_TIMEOUT_SECONDS", "3"
+        );
+        
+        // When
+        try (AgroalDataSource dataSource = FailedAuthDataSource.create(env)) {
+            var pool = dataSource.getConfiguration().connectionPoolConfiguration();
+            
+            // Then
+            assertThat(pool.maxSize()).isEqualTo(32);
+            assertThat(pool.minSize()).isZero();
+            assertThat(pool.acquisitionTimeout()).isEqualTo(Duration.ofSeconds(3));
+            assertThat(pool.connectionFactoryConfiguration().jdbcUrl())
+                .isEqualTo("jdbc:postgresql://db.example:5432/failed_auth");
+            assertThat(pool.connectionFactoryConfiguration().jdbcProperties())
+                .containsEntry("preparedStatementCacheQueries", "256");
+        }
+    }
+    
+    @Test
+    @DisplayName("Should export pool metrics")
+    void testRegisterMetrics() throws Exception {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        
+        try (AgroalDataSource dataSource =
+                 FailedAuthDataSource.create(Map.of("FAILED_AUTH_DB_POOL_MIN_SIZE", "0"))) {
+            // When
+            FailedAuthDataSource.registerMetrics(dataSource, registry);
+            
+            // Then
+            assertThat(registry.get("bioid.failedauth.db.pool.active").gauge().value()).isZero();
+            assertThat(registry.get("bioid.failedauth.db.pool.awaiting").gauge().value()).isZero();
+            assertThat(registry.get("bioid.failedauth.db.pool.acquire").functionCounter().count())
+                .isZero();
+        }
+    }
+    
+    @Test
+    @DisplayName("Should remove pool metrics so a new pool can register its own")
+    void testRemoveMetrics() throws Exception {
+        // Given
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Map<String, String> env = Map.of("FAILED_AUTH_DB_POOL_MIN_SIZE", "0");
+        
+        try (AgroalDataSource first = FailedAuthDataSource.create(env);
+             AgroalDataSource second = FailedAuthDataSource.create(env)) {
+            List<Meter> meters = FailedAuthDataSource.registerMetrics(first, registry);
+            
+            // When
+            FailedAuthDataSource.removeMetrics(meters, registry);
+            List<Meter> replacement = FailedAuthDataSource.registerMetrics(second, registry);
+            
+            // Then
+            assertThat(registry.getMeters()).hasSameSizeAs(replacement);
+            assertThat(registry.get("bioid.failedauth.db.pool.active").gauge())
+                .isSameAs(replacement.get(0))
+                .isNotSameAs(meters.get(0));
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.bioid.keycloak.failedauth.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for FailedAuthSchemaMigrations.
+ */
+@DisplayName("FailedAuthSchemaMigrations Tests")
+class FailedAuthSchemaMigrationsTest {
+
+    private final List<String> calls = new ArrayList<>();
+    private SQLException executeFailure;
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        Statement statement = proxy(Statement.class, (method, args) -> {
+            if (method.equals("execute")) {
+                calls.add("execute " + args[0]);
+                if (executeFailure != null) {
+                    throw executeFailure;
+                }
+                return true;
+            }
+            calls.add(method);
+            return null;
+        });
+        Connection connection = proxy(Connection.class, (method, args) -> {
+            switch (method) {
+                case "getAutoCommit":
+                    return true;
+                case "createStatement":
+                    return statement;
+                case "setAutoCommit":
+                    calls.add("setAutoCommit " + args[0]);
+                    return null;
+                default:
+                    calls.add(method);
+                    return null;
+            }
+        });
+        dataSource = proxy(DataSource.class, (method, args) ->
+            method.equals("getConnection") ? connection : null);
+    }
+
+    @Test
+    @DisplayName("Should relax the image_data constraint and index blob references in one transaction")
+    void testDropsNotNullOnImageData() throws Exception {
+        // When
+        FailedAuthSchemaMigrations.apply(dataSource);
+
+        // Then
+        assertThat(calls).containsExactly(
+            "setAutoCommit false",
+            "execute ALTER TABLE IF EXISTS failed_auth_images ALTER COLUMN image_data DROP NOT NULL",
+            "execute CREATE INDEX IF NOT EXISTS idx_image_ref ON failed_auth_images (image_ref)",
+            "execute CREATE INDEX IF NOT EXISTS idx_thumbnail_ref ON failed_auth_images (thumbnail_ref)",
+            "commit",
+            "close",
+            "setAutoCommit true",
+            "close");
+    }
+
+    @Test
+    @DisplayName("Should roll back and rethrow when a migration fails")
+    void testRollsBackOnFailure() {
+        // Given
+        executeFailure = new SQLException("permission denied");
+
+        // When / Then
+        assertThatThrownBy(() -> FailedAuthSchemaMigrations.apply(dataSource))
+            .isSameAs(executeFailure);
+        assertThat(calls)
+            .contains("rollback", "setAutoCommit true")
+            .doesNotContain("commit")
+            .endsWith("close");
+    }
+
+    private interface Handler {
+        Object handle(String method, Object[] args) throws Exception;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+            (proxy, method, args) -> handler.handle(method.getName(), args)));
+    }
+}
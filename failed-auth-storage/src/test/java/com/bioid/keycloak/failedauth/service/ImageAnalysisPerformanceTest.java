@@ -0,0 +1,80 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Checks the work {@link ImageProcessingService#analyze(byte[], boolean)} saves compared with the
+ * previous pipeline, which fully decoded each stored image once per property it needed. The
+ * savings are asserted through behavior rather than wall-clock timings, which are unreliable on
+ * shared build machines.
+ */
+@DisplayName("Image Analysis Performance Tests")
+class ImageAnalysisPerformanceTest {
+
+    private FailedAuthConfiguration config;
+    private ImageProcessingService imageProcessingService;
+    private byte[] cameraFrame;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        config = FailedAuthConfiguration.getInstance();
+        imageProcessingService = new ImageProcessingService(config);
+        cameraFrame = createTestImage(1920, 1080);
+    }
+
+    @Test
+    @DisplayName("Header-only analysis should not decode the image data")
+    void headerOnlyAnalysisShouldNotDecodePixels() throws Exception {
+        // Keep the JPEG header but drop most of the compressed scan data: a full decode could not
+        // produce the image, reading the header still yields format and dimensions
+        byte[] headerOnly = Arrays.copyOf(cameraFrame, 2048);
+
+        ImageAnalysis analysis = imageProcessingService.analyze(headerOnly, false);
+
+        assertThat(analysis.getFormat()).isEqualTo("JPEG");
+        assertThat(analysis.getWidth()).isEqualTo(1920);
+        assertThat(analysis.getHeight()).isEqualTo(1080);
+        assertThat(analysis.getThumbnail()).isNull();
+    }
+
+    @Test
+    @DisplayName("Analysis with thumbnail should produce the thumbnail from one subsampled decode")
+    void analysisWithThumbnailShouldMatchSeparateSteps() throws Exception {
+        ImageAnalysis analysis = imageProcessingService.analyze(cameraFrame, true);
+
+        assertThat(analysis.getFormat()).isEqualTo("JPEG");
+        assertThat(analysis.getWidth()).isEqualTo(1920);
+        assertThat(analysis.getHeight()).isEqualTo(1080);
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(analysis.getThumbnail()));
+        BufferedImage legacyThumbnail = ImageIO.read(
+            new ByteArrayInputStream(imageProcessingService.createThumbnail(cameraFrame)));
+        assertThat(thumbnail.getWidth())
+            .isEqualTo(config.getThumbnailSize())
+            .isEqualTo(legacyThumbnail.getWidth());
+        assertThat(thumbnail.getHeight()).isCloseTo(legacyThumbnail.getHeight(), within(1));
+    }
+
+    private byte[] createTestImage(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = (x * 255 / width) << 16 | (y * 255 / height) << 8 | ((x ^ y) & 0xFF);
+                image.setRGB(x, y, rgb);
+            }
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(image, "JPEG", baos);
+        return baos.toByteArray();
+    }
+}
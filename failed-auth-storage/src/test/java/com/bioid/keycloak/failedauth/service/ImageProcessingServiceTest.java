@@ -330,6 +330,49 @@ class ImageProcessingServiceTest {
         assertThat(dimensions[1]).isGreaterThan(0);
     }
     
+    @Test
+    @DisplayName("Should analyze format and dimensions without thumbnail")
+    void testAnalyzeWithoutThumbnail() throws Exception {
+        // When
+        ImageAnalysis analysis = imageProcessingService.analyze(testImageBytes, false);
+        
+        // Then
+        assertThat(analysis.getFormat()).isEqualTo("JPEG");
+        assertThat(analysis.getWidth()).isEqualTo(640);
+        assertThat(analysis.getHeight()).isEqualTo(480);
+        assertThat(analysis.getThumbnail()).isNull();
+    }
+    
+    @Test
+    @DisplayName("Should create subsampled thumbnail during analysis")
+    void testAnalyzeWithThumbnail() throws Exception {
+        // Given
+        byte[] largeImage = createTestImage(2000, 1500);
+        
+        // When
+        ImageAnalysis analysis = imageProcessingService.analyze(largeImage, true);
+        
+        // Then
+        assertThat(analysis.getWidth()).isEqualTo(2000);
+        assertThat(analysis.getHeight()).isEqualTo(1500);
+        assertThat(analysis.getThumbnail()).isNotNull();
+        
+        int[] dimensions = imageProcessingService.getImageDimensions(analysis.getThumbnail());
+        assertThat(dimensions[0]).isEqualTo(300);
+        assertThat(dimensions[1]).isEqualTo(225);
+    }
+    
+    @Test
+    @DisplayName("Should reject invalid data during analysis")
+    void testAnalyzeInvalidImage() {
+        // Given
+        byte[] invalidData = "not an image".getBytes();
+        
+        // When/Then
+        assertThatThrownBy(() -> imageProcessingService.analyze(invalidData, true))
+            .isInstanceOf(Exception.class);
+    }
+    
     @Test
     @DisplayName("Should handle empty image data")
     void testEmptyImageData() {
@@ -0,0 +1,110 @@
+package com.bioid.keycloak.failedauth.service;
+
+import com.bioid.keycloak.failedauth.config.FailedAuthConfiguration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for PerceptualHash.
+ */
+@DisplayName("PerceptualHash Tests")
+class PerceptualHashTest {
+    
+    /**
+     * Helper method to create a frame with a bright oval ("face") on a gradient background.
+     */
+    private BufferedImage createFrame(int width, int height, int faceOffsetX) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int x = 0; x < width; x++) {
+            int level = 40 + x * 120 / width;
+            g.setColor(new Color(level, level, level + 20));
+            g.drawLine(x, 0, x, height);
+        }
+        g.setColor(new Color(230, 190, 160));
+        g.fillOval(width / 3 + faceOffsetX, height / 5, width / 3, height * 3 / 5);
+        g.dispose();
+        return image;
+    }
+    
+    private BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
+    }
+    
+    @Test
+    @DisplayName("Should hash identical frames equally")
+    void testIdenticalFrames() {
+        // Given
+        BufferedImage frame = createFrame(640, 480, 0);
+        
+        // Then
+        assertThat(PerceptualHash.dHash(frame)).isEqualTo(PerceptualHash.dHash(createFrame(640, 480, 0)));
+    }
+    
+    @Test
+    @DisplayName("Should keep a rescaled copy within a small distance")
+    void testRescaledFrame() {
+        // Given
+        BufferedImage frame = createFrame(640, 480, 0);
+        
+        // When
+        int distance = PerceptualHash.distance(
+            PerceptualHash.dHash(frame), PerceptualHash.dHash(scale(frame, 160, 120)));
+        
+        // Then
+        assertThat(distance).isLessThanOrEqualTo(3);
+    }
+    
+    @Test
+    @DisplayName("Should separate clearly different frames")
+    void testDifferentFrames() {
+        // Given
+        long centered = PerceptualHash.dHash(createFrame(640, 480, 0));
+        long shifted = PerceptualHash.dHash(createFrame(640, 480, 200));
+        
+        // Then
+        assertThat(PerceptualHash.distance(centered, shifted)).isGreaterThan(10);
+    }
+    
+    @Test
+    @DisplayName("Should compute the hash during analysis without a thumbnail")
+    void testAnalyzeComputesHash() throws Exception {
+        // Given
+        ImageProcessingService service = new ImageProcessingService(FailedAuthConfiguration.getInstance());
+        BufferedImage frame = createFrame(1280, 960, 0);
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(frame, "JPEG", jpeg);
+        
+        // When
+        ImageAnalysis analysis = service.analyze(jpeg.toByteArray(), false, true);
+        
+        // Then
+        assertThat(analysis.getThumbnail()).isNull();
+        assertThat(analysis.getPerceptualHash()).isNotNull();
+        assertThat(PerceptualHash.distance(analysis.getPerceptualHash(), PerceptualHash.dHash(frame)))
+            .isLessThanOrEqualTo(3);
+    }
+    
+    @Test
+    @DisplayName("Should count differing bits")
+    void testDistance() {
+        assertThat(PerceptualHash.distance(0L, 0L)).isZero();
+        assertThat(PerceptualHash.distance(0L, -1L)).isEqualTo(64);
+        assertThat(PerceptualHash.distance(0b1010L, 0b0110L)).isEqualTo(2);
+    }
+}
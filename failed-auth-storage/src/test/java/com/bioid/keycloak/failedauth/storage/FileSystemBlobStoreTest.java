@@ -0,0 +1,135 @@
+package com.bioid.keycloak.failedauth.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for FileSystemBlobStore.
+ */
+@DisplayName("FileSystemBlobStore Tests")
+class FileSystemBlobStoreTest {
+    
+    @TempDir
+    Path root;
+    
+    private FileSystemBlobStore blobStore;
+    
+    @BeforeEach
+    void setUp() throws Exception {
+        blobStore = new FileSystemBlobStore(root);
+    }
+    
+    @Test
+    @DisplayName("Should store and read blobs under sharded content-addressed paths")
+    void testPutAndRead() throws Exception {
+        // Given
+        byte[] data = "encrypted image payload".getBytes(StandardCharsets.UTF_8);
+        
+        // When
+        String reference = blobStore.put(data);
+        ByteBuffer buffer = blobStore.read(reference);
+        
+        // Then
+        assertThat(reference).matches("[0-9a-f]{64}");
+        assertThat(root.resolve(reference.substring(0, 2)).resolve(reference.substring(2, 4))
+            .resolve(reference)).exists();
+        assertThat(buffer.isReadOnly()).isTrue();
+        assertThat(blobStore.readAllBytes(reference)).isEqualTo(data);
+    }
+    
+    @Test
+    @DisplayName("Should return the same reference for identical content without leftovers")
+    void testIdempotentPut() throws Exception {
+        // Given
+        byte[] data = new byte[] {1, 2, 3, 4};
+        
+        // When
+        String first = blobStore.put(data);
+        String second = blobStore.put(data.clone());
+        
+        // Then
+        assertThat(second).isEqualTo(first);
+        try (Stream<Path> files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isEqualTo(1);
+        }
+    }
+    
+    @Test
+    @DisplayName("Should delete blobs")
+    void testDelete() throws Exception {
+        // Given
+        String reference = blobStore.put(new byte[] {42});
+        
+        // When
+        boolean deleted = blobStore.delete(reference);
+        
+        // Then
+        assertThat(deleted).isTrue();
+        assertThat(blobStore.exists(reference)).isFalse();
+        assertThat(blobStore.delete(reference)).isFalse();
+        assertThatThrownBy(() -> blobStore.read(reference)).isInstanceOf(NoSuchFileException.class);
+    }
+    
+    @Test
+    @DisplayName("Should hide retired blobs until they are restored or purged")
+    void testRetireRestoreAndPurge() throws Exception {
+        // Given
+        byte[] data = new byte[] {7, 8, 9};
+        String reference = blobStore.put(data);
+        
+        // When / Then: a retired blob is gone for readers and can be brought back
+        assertThat(blobStore.retire(reference)).isTrue();
+        assertThat(blobStore.exists(reference)).isFalse();
+        assertThat(blobStore.retire(reference)).isFalse();
+        blobStore.restore(reference);
+        assertThat(blobStore.readAllBytes(reference)).isEqualTo(data);
+        
+        // When / Then: a purged blob is gone for good
+        assertThat(blobStore.retire(reference)).isTrue();
+        blobStore.purge(reference);
+        blobStore.restore(reference);
+        assertThat(blobStore.exists(reference)).isFalse();
+        try (Stream<Path> files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isZero();
+        }
+    }
+    
+    @Test
+    @DisplayName("Should keep a copy written while the blob was retired")
+    void testRestoreAfterConcurrentPut() throws Exception {
+        // Given: a row committed meanwhile wrote the same content again
+        byte[] data = new byte[] {5, 5, 5};
+        String reference = blobStore.put(data);
+        blobStore.retire(reference);
+        blobStore.put(data);
+        
+        // When
+        blobStore.restore(reference);
+        
+        // Then
+        assertThat(blobStore.readAllBytes(reference)).isEqualTo(data);
+        try (Stream<Path> files = Files.walk(root)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isEqualTo(1);
+        }
+    }
+    
+    @Test
+    @DisplayName("Should reject references that are not content hashes")
+    void testRejectInvalidReference() {
+        assertThatThrownBy(() -> blobStore.read("../../etc/passwd"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> blobStore.exists(null))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -15,9 +15,13 @@ import com.bioid.keycloak.admin.dto.LivenessStatistics;
 import com.bioid.keycloak.admin.dto.LivenessTestRequest;
 import com.bioid.keycloak.admin.dto.LivenessTestResult;
 import com.bioid.keycloak.admin.dto.TemplateDetails;
+import com.bioid.keycloak.admin.dto.TemplateDto;
 import com.bioid.keycloak.admin.dto.TemplateListResponse;
 import com.bioid.keycloak.admin.dto.TemplateStatistics;
 import com.bioid.keycloak.admin.dto.TemplateUpgradeResult;
+import com.bioid.keycloak.admin.inventory.TemplateHealth;
+import com.bioid.keycloak.admin.inventory.TemplateInventory;
+import com.bioid.keycloak.admin.inventory.TemplateInventoryEntity;
 import com.bioid.keycloak.admin.service.DeletionRequestService;
 import com.bioid.keycloak.client.config.BioIdConfiguration;
 import com.bioid.keycloak.health.FaceRecognitionHealthCheck;
@@ -26,7 +30,12 @@ import jakarta.enterprise.inject.Vetoed;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.slf4j.Logger;
@@ -47,6 +56,8 @@ public class FaceRecognitionAdminResource {
 
   private static final Logger logger = LoggerFactory.getLogger(FaceRecognitionAdminResource.class);
 
+  private static final int MAX_PAGE_SIZE = 500;
+
   private final KeycloakSession session;
   private final RealmModel realm;
   private final BioIdConfiguration configuration;
@@ -215,7 +226,7 @@ public class FaceRecognitionAdminResource {
     }
   }
 
-  /** Get templates with pagination and filtering. */
+  /** Get templates with pagination and filtering, served from the template inventory. */
   @GET
   @Path("/templates")
   public Response getTemplates(
@@ -226,16 +237,33 @@ public class FaceRecognitionAdminResource {
       @QueryParam("healthStatus") String healthStatus,
       @QueryParam("encoderVersion") String encoderVersion) {
     try {
-      // This would integrate with AdminService to get template data
-      // For now, return mock data structure
+      if (offset < 0 || limit < 1 || limit > MAX_PAGE_SIZE) {
+        throw new IllegalArgumentException(
+            "Offset must not be negative and limit must be between 1 and " + MAX_PAGE_SIZE);
+      }
+      TemplateInventory.Page page =
+          new TemplateInventory(session, realm.getId())
+              .page(
+                  search,
+                  TemplateInventory.SearchType.parse(searchType),
+                  TemplateHealth.parse(healthStatus),
+                  parseEncoderVersion(encoderVersion),
+                  offset,
+                  limit);
+
       TemplateListResponse response = TemplateListResponse.builder()
-          .templates(java.util.Collections.emptyList())
-          .totalCount(0)
+          .templates(page.rows().stream().map(FaceRecognitionAdminResource::toTemplateDto).toList())
+          .totalCount((int) page.totalCount())
           .offset(offset)
           .limit(limit)
           .build();
 
       return Response.ok(response).build();
+    } catch (IllegalArgumentException e) {
+      logger.warn("Invalid template query: {}", e.getMessage());
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(new ErrorResponse(e.getMessage()))
+          .build();
     } catch (Exception e) {
       logger.error("Failed to get templates", e);
       return Response.serverError()
@@ -249,12 +277,13 @@ public class FaceRecognitionAdminResource {
   @Path("/template-statistics")
   public Response getTemplateStatistics() {
     try {
-      // This would integrate with AdminService to get statistics
+      Map<TemplateHealth, Long> counts =
+          new TemplateInventory(session, realm.getId()).countByHealth();
       TemplateStatistics stats = TemplateStatistics.builder()
-          .totalTemplates(0)
-          .healthyTemplates(0)
-          .needsUpgrade(0)
-          .expiringSoon(0)
+          .totalTemplates((int) counts.values().stream().mapToLong(Long::longValue).sum())
+          .healthyTemplates(counts.get(TemplateHealth.HEALTHY).intValue())
+          .needsUpgrade(counts.get(TemplateHealth.NEEDS_UPGRADE).intValue())
+          .expiringSoon(counts.get(TemplateHealth.EXPIRING).intValue())
           .build();
 
       return Response.ok(stats).build();
@@ -490,17 +519,32 @@ public class FaceRecognitionAdminResource {
     }
   }
 
-  /** Get enrollment statistics for dashboard. */
+  /** Get enrollment statistics for dashboard, counted from the template inventory. */
   @GET
   @Path("/enrollment-statistics")
   public Response getEnrollmentStatistics() {
     try {
-      // This would integrate with AdminService to get enrollment statistics
+      TemplateInventory inventory = new TemplateInventory(session, realm.getId());
+      LocalDate today = LocalDate.now(ZoneOffset.UTC);
+      long now = System.currentTimeMillis();
+
+      // Enrollments per day of the last week, oldest first
+      List<EnrollmentStatistics.TrendDataPoint> trend = new ArrayList<>();
+      int thisWeek = 0;
+      for (int daysAgo = 6; daysAgo >= 0; daysAgo--) {
+        LocalDate day = today.minusDays(daysAgo);
+        int count = (int) inventory.countEnrolled(startOfDay(day), startOfDay(day.plusDays(1)));
+        trend.add(new EnrollmentStatistics.TrendDataPoint(day.toString(), count));
+        thisWeek += count;
+      }
+      int total = (int) inventory.countEnrolled(0, now + 1);
+
+      // Success rate is not tracked; enrollments are only recorded when they succeed
       EnrollmentStatistics stats = EnrollmentStatistics.builder()
-          .totalEnrollments(150)
-          .successRate(92.5)
-          .enrollmentsToday(5)
-          .enrollmentsThisWeek(23)
+          .totalEnrollments(total)
+          .enrollmentsToday(trend.get(trend.size() - 1).getValue())
+          .enrollmentsThisWeek(thisWeek)
+          .trendData(trend)
           .build();
 
       return Response.ok(stats).build();
@@ -620,6 +664,44 @@ public class FaceRecognitionAdminResource {
     }
   }
 
+  private static Integer parseEncoderVersion(String value) {
+    if (value == null || value.isBlank() || "all".equalsIgnoreCase(value.trim())) {
+      return null;
+    }
+    String version = value.trim();
+    if (version.startsWith("v") || version.startsWith("V")) {
+      version = version.substring(1);
+    }
+    try {
+      return Integer.valueOf(version);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid encoder version: " + value);
+    }
+  }
+
+  private static TemplateDto toTemplateDto(TemplateInventoryEntity row) {
+    return TemplateDto.builder()
+        .classId(row.getClassId())
+        .username(row.getUsername())
+        .email(row.getEmail())
+        .healthStatus(row.getHealthStatus())
+        .encoderVersion(row.getEncoderVersion())
+        .featureVectors(row.getFeatureVectors())
+        .enrolledAt(toInstant(row.getEnrolledAt()))
+        .expiresAt(toInstant(row.getExpiresAt()))
+        .lastVerifiedAt(toInstant(row.getLastVerifiedAt()))
+        .needsUpgrade(TemplateHealth.NEEDS_UPGRADE.name().equals(row.getHealthStatus()))
+        .build();
+  }
+
+  private static Instant toInstant(Long epochMillis) {
+    return epochMillis != null ? Instant.ofEpochMilli(epochMillis) : null;
+  }
+
+  private static long startOfDay(LocalDate day) {
+    return day.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+  }
+
   private void validateConfiguration(FaceRecognitionConfigDto config) {
     if (config.getVerificationThreshold() < 0.001 || config.getVerificationThreshold() > 1.0) {
       throw new IllegalArgumentException("Verification threshold must be between 0.001 and 1.0");
@@ -16,6 +16,7 @@ public class TemplateDto {
     private Instant enrolledAt;
     private Instant lastAuthentication;
     private Instant expiresAt;
+    private Instant lastVerifiedAt;
     private boolean needsUpgrade;
     private List<String> tags;
 
@@ -31,6 +32,7 @@ public class TemplateDto {
         this.enrolledAt = builder.enrolledAt;
         this.lastAuthentication = builder.lastAuthentication;
         this.expiresAt = builder.expiresAt;
+        this.lastVerifiedAt = builder.lastVerifiedAt;
         this.needsUpgrade = builder.needsUpgrade;
         this.tags = builder.tags;
     }
@@ -111,6 +113,14 @@ public class TemplateDto {
         this.expiresAt = expiresAt;
     }
 
+    public Instant getLastVerifiedAt() {
+        return lastVerifiedAt;
+    }
+
+    public void setLastVerifiedAt(Instant lastVerifiedAt) {
+        this.lastVerifiedAt = lastVerifiedAt;
+    }
+
     public boolean isNeedsUpgrade() {
         return needsUpgrade;
     }
@@ -137,6 +147,7 @@ public class TemplateDto {
         private Instant enrolledAt;
         private Instant lastAuthentication;
         private Instant expiresAt;
+        private Instant lastVerifiedAt;
         private boolean needsUpgrade;
         private List<String> tags;
 
@@ -185,6 +196,11 @@ public class TemplateDto {
             return this;
         }
 
+        public Builder lastVerifiedAt(Instant lastVerifiedAt) {
+            this.lastVerifiedAt = lastVerifiedAt;
+            return this;
+        }
+
         public Builder needsUpgrade(boolean needsUpgrade) {
             this.needsUpgrade = needsUpgrade;
             return this;
@@ -0,0 +1,58 @@
+package com.bioid.keycloak.admin.inventory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+
+/** Health of a face template as shown in the admin template inventory. */
+public enum TemplateHealth {
+  /** Template exists in BWS with a current encoder and is not about to expire. */
+  HEALTHY,
+  /** Template was created with an outdated encoder version. */
+  NEEDS_UPGRADE,
+  /** Credential expires within {@link #EXPIRING_WITHIN}. */
+  EXPIRING,
+  /** Template is missing in BWS. */
+  ISSUES;
+
+  /** Encoder versions below this need an upgrade. */
+  static final int MIN_ENCODER_VERSION = 3;
+
+  static final Duration EXPIRING_WITHIN = Duration.ofDays(30);
+
+  /**
+   * Classify a template.
+   *
+   * @param availableInBws whether BWS has the template, or null if not checked yet
+   * @param encoderVersion encoder version of the template
+   * @param expiresAt expiry of the credential, or null if it does not expire
+   * @param now current time
+   * @return the most severe health that applies
+   */
+  static TemplateHealth of(
+      Boolean availableInBws, int encoderVersion, Instant expiresAt, Instant now) {
+    if (Boolean.FALSE.equals(availableInBws)) {
+      return ISSUES;
+    }
+    if (encoderVersion > 0 && encoderVersion < MIN_ENCODER_VERSION) {
+      return NEEDS_UPGRADE;
+    }
+    if (expiresAt != null && expiresAt.isBefore(now.plus(EXPIRING_WITHIN))) {
+      return EXPIRING;
+    }
+    return HEALTHY;
+  }
+
+  /**
+   * Parse a health filter as sent by the admin UI, e.g. {@code "needs upgrade"}.
+   *
+   * @return the health, or null for no filter ({@code "all"} or empty)
+   * @throws IllegalArgumentException if the value is not a known health
+   */
+  public static TemplateHealth parse(String value) {
+    if (value == null || value.isBlank() || "all".equalsIgnoreCase(value.trim())) {
+      return null;
+    }
+    return valueOf(value.trim().replace(' ', '_').replace('-', '_').toUpperCase(Locale.ROOT));
+  }
+}
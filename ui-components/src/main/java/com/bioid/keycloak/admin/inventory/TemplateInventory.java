@@ -0,0 +1,167 @@
+package com.bioid.keycloak.admin.inventory;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+
+/**
+ * Read access to the template inventory of a realm.
+ *
+ * <p>Every query is served by one of the indexes of {@link TemplateInventoryEntity}; BWS is never
+ * called. Username and email searches are prefix searches on the lowercase values Keycloak stores;
+ * on PostgreSQL they use the {@code varchar_pattern_ops} indexes of the changelog, because the
+ * default indexes only serve {@code LIKE} under the C collation. Class ID searches are exact.
+ */
+public class TemplateInventory {
+
+  /** Field a search term is matched against. */
+  public enum SearchType {
+    USERNAME,
+    EMAIL,
+    CLASS_ID;
+
+    /**
+     * Parse a search type as sent by the admin UI, e.g. {@code "class id"}.
+     *
+     * @throws IllegalArgumentException if the value is not a known search type
+     */
+    public static SearchType parse(String value) {
+      if (value == null || value.isBlank()) {
+        return USERNAME;
+      }
+      return valueOf(value.trim().replace(' ', '_').replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /**
+   * One page of templates.
+   *
+   * @param rows templates of the page, ordered by username
+   * @param totalCount templates matching the filters on all pages
+   */
+  public record Page(List<TemplateInventoryEntity> rows, long totalCount) {}
+
+  private final EntityManager em;
+  private final String realmId;
+
+  public TemplateInventory(KeycloakSession session, String realmId) {
+    this(session.getProvider(JpaConnectionProvider.class).getEntityManager(), realmId);
+  }
+
+  TemplateInventory(EntityManager em, String realmId) {
+    this.em = em;
+    this.realmId = realmId;
+  }
+
+  /**
+   * Get one page of templates.
+   *
+   * @param search search term, or null for all templates
+   * @param searchType field the search term is matched against
+   * @param health health filter, or null for all
+   * @param encoderVersion encoder version filter, or null for all
+   * @param offset index of the first template
+   * @param limit maximum number of templates
+   * @throws IllegalArgumentException if a class ID search term is not a number
+   */
+  public Page page(
+      String search,
+      SearchType searchType,
+      TemplateHealth health,
+      Integer encoderVersion,
+      int offset,
+      int limit) {
+    StringBuilder where = new StringBuilder(" WHERE t.realmId = :realmId");
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("realmId", realmId);
+
+    if (search != null && !search.isBlank()) {
+      String term = search.trim();
+      if (searchType == SearchType.CLASS_ID) {
+        long classId;
+        try {
+          classId = Long.parseLong(term);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Class ID must be a number: " + term);
+        }
+        where.append(" AND t.classId = :classId");
+        parameters.put("classId", classId);
+      } else {
+        String field = searchType == SearchType.EMAIL ? "t.email" : "t.username";
+        where.append(" AND ").append(field).append(" LIKE :prefix ESCAPE '\\'");
+        parameters.put("prefix", escapeLike(term.toLowerCase(Locale.ROOT)) + "%");
+      }
+    }
+    if (health != null) {
+      where.append(" AND t.healthStatus = :health");
+      parameters.put("health", health.name());
+    }
+    if (encoderVersion != null) {
+      where.append(" AND t.encoderVersion = :encoderVersion");
+      parameters.put("encoderVersion", encoderVersion);
+    }
+
+    TypedQuery<Long> count =
+        em.createQuery("SELECT COUNT(t) FROM TemplateInventoryEntity t" + where, Long.class);
+    parameters.forEach(count::setParameter);
+    long totalCount = count.getSingleResult();
+    if (totalCount == 0 || offset >= totalCount) {
+      return new Page(List.of(), totalCount);
+    }
+
+    TypedQuery<TemplateInventoryEntity> rows =
+        em.createQuery(
+            "SELECT t FROM TemplateInventoryEntity t"
+                + where
+                + " ORDER BY t.username, t.credentialId",
+            TemplateInventoryEntity.class);
+    parameters.forEach(rows::setParameter);
+    return new Page(
+        rows.setFirstResult(offset).setMaxResults(limit).getResultList(), totalCount);
+  }
+
+  /** @return number of templates by health */
+  public Map<TemplateHealth, Long> countByHealth() {
+    Map<TemplateHealth, Long> counts = new EnumMap<>(TemplateHealth.class);
+    for (TemplateHealth health : TemplateHealth.values()) {
+      counts.put(health, 0L);
+    }
+    for (Object[] row :
+        em.createQuery(
+                "SELECT t.healthStatus, COUNT(t) FROM TemplateInventoryEntity t"
+                    + " WHERE t.realmId = :realmId GROUP BY t.healthStatus",
+                Object[].class)
+            .setParameter("realmId", realmId)
+            .getResultList()) {
+      counts.put(TemplateHealth.valueOf((String) row[0]), (Long) row[1]);
+    }
+    return counts;
+  }
+
+  /**
+   * Count templates enrolled in a time range.
+   *
+   * @param from start of the range in epoch milliseconds, inclusive
+   * @param to end of the range in epoch milliseconds, exclusive
+   */
+  public long countEnrolled(long from, long to) {
+    return em.createQuery(
+            "SELECT COUNT(t) FROM TemplateInventoryEntity t WHERE t.realmId = :realmId"
+                + " AND t.enrolledAt >= :from AND t.enrolledAt < :to",
+            Long.class)
+        .setParameter("realmId", realmId)
+        .setParameter("from", from)
+        .setParameter("to", to)
+        .getSingleResult();
+  }
+
+  private static String escapeLike(String value) {
+    return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+  }
+}
@@ -0,0 +1,177 @@
+package com.bioid.keycloak.admin.inventory;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+
+/**
+ * One row of the admin template inventory per face credential.
+ *
+ * <p>Rows copy what the admin UI lists and filters on from the credential, the user and BWS, so
+ * pages are served from this table alone. The indexes follow the supported filters; all of them
+ * lead with the realm and end with the username, the listing order. The table is created by
+ * {@code META-INF/bioid-template-inventory-changelog.xml} and maintained by {@link
+ * TemplateInventoryRefreshJob}.
+ */
+@Entity
+@Table(
+    name = "BIOID_TEMPLATE_INVENTORY",
+    indexes = {
+      @Index(name = "IDX_BIOID_INV_USERNAME", columnList = "REALM_ID, USERNAME"),
+      @Index(name = "IDX_BIOID_INV_EMAIL", columnList = "REALM_ID, EMAIL"),
+      @Index(name = "IDX_BIOID_INV_CLASS_ID", columnList = "REALM_ID, CLASS_ID"),
+      @Index(name = "IDX_BIOID_INV_HEALTH", columnList = "REALM_ID, HEALTH_STATUS, USERNAME"),
+      @Index(name = "IDX_BIOID_INV_ENCODER", columnList = "REALM_ID, ENCODER_VERSION, USERNAME"),
+      @Index(name = "IDX_BIOID_INV_ENROLLED", columnList = "REALM_ID, ENROLLED_AT"),
+      @Index(name = "IDX_BIOID_INV_VERIFIED", columnList = "REALM_ID, LAST_VERIFIED_AT")
+    })
+public class TemplateInventoryEntity {
+
+  @Id
+  @Column(name = "CREDENTIAL_ID", length = 36)
+  private String credentialId;
+
+  @Column(name = "REALM_ID", length = 36, nullable = false)
+  private String realmId;
+
+  @Column(name = "USER_ID", length = 36, nullable = false)
+  private String userId;
+
+  @Column(name = "USERNAME", length = 255)
+  private String username;
+
+  @Column(name = "EMAIL", length = 255)
+  private String email;
+
+  @Column(name = "CLASS_ID", nullable = false)
+  private long classId;
+
+  @Column(name = "ENCODER_VERSION", nullable = false)
+  private int encoderVersion;
+
+  @Column(name = "FEATURE_VECTORS", nullable = false)
+  private int featureVectors;
+
+  @Column(name = "THUMBNAILS_STORED", nullable = false)
+  private int thumbnailsStored;
+
+  @Column(name = "HEALTH_STATUS", length = 20, nullable = false)
+  private String healthStatus;
+
+  // Epoch milliseconds, like Keycloak's credential timestamps
+  @Column(name = "ENROLLED_AT")
+  private Long enrolledAt;
+
+  @Column(name = "EXPIRES_AT")
+  private Long expiresAt;
+
+  // Last successful BWS status check, null until the first one
+  @Column(name = "LAST_VERIFIED_AT")
+  private Long lastVerifiedAt;
+
+  public String getCredentialId() {
+    return credentialId;
+  }
+
+  public void setCredentialId(String credentialId) {
+    this.credentialId = credentialId;
+  }
+
+  public String getRealmId() {
+    return realmId;
+  }
+
+  public void setRealmId(String realmId) {
+    this.realmId = realmId;
+  }
+
+  public String getUserId() {
+    return userId;
+  }
+
+  public void setUserId(String userId) {
+    this.userId = userId;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public void setEmail(String email) {
+    this.email = email;
+  }
+
+  public long getClassId() {
+    return classId;
+  }
+
+  public void setClassId(long classId) {
+    this.classId = classId;
+  }
+
+  public int getEncoderVersion() {
+    return encoderVersion;
+  }
+
+  public void setEncoderVersion(int encoderVersion) {
+    this.encoderVersion = encoderVersion;
+  }
+
+  public int getFeatureVectors() {
+    return featureVectors;
+  }
+
+  public void setFeatureVectors(int featureVectors) {
+    this.featureVectors = featureVectors;
+  }
+
+  public int getThumbnailsStored() {
+    return thumbnailsStored;
+  }
+
+  public void setThumbnailsStored(int thumbnailsStored) {
+    this.thumbnailsStored = thumbnailsStored;
+  }
+
+  public String getHealthStatus() {
+    return healthStatus;
+  }
+
+  public void setHealthStatus(String healthStatus) {
+    this.healthStatus = healthStatus;
+  }
+
+  public Long getEnrolledAt() {
+    return enrolledAt;
+  }
+
+  public void setEnrolledAt(Long enrolledAt) {
+    this.enrolledAt = enrolledAt;
+  }
+
+  public Long getExpiresAt() {
+    return expiresAt;
+  }
+
+  public void setExpiresAt(Long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+
+  public Long getLastVerifiedAt() {
+    return lastVerifiedAt;
+  }
+
+  public void setLastVerifiedAt(Long lastVerifiedAt) {
+    this.lastVerifiedAt = lastVerifiedAt;
+  }
+}
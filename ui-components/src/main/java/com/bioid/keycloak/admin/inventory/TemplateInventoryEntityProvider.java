@@ -0,0 +1,30 @@
+package com.bioid.keycloak.admin.inventory;
+
+import java.util.List;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+/** Adds {@link TemplateInventoryEntity} and its table to Keycloak's database. */
+public class TemplateInventoryEntityProvider implements JpaEntityProvider {
+
+  static final String CHANGELOG_LOCATION = "META-INF/bioid-template-inventory-changelog.xml";
+
+  @Override
+  public List<Class<?>> getEntities() {
+    return List.of(TemplateInventoryEntity.class);
+  }
+
+  @Override
+  public String getChangelogLocation() {
+    return CHANGELOG_LOCATION;
+  }
+
+  @Override
+  public String getFactoryId() {
+    return TemplateInventoryEntityProviderFactory.ID;
+  }
+
+  @Override
+  public void close() {
+    // No resources to close
+  }
+}
@@ -0,0 +1,46 @@
+package com.bioid.keycloak.admin.inventory;
+
+import org.keycloak.Config;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/**
+ * Factory for the template inventory entity provider. Also schedules the {@link
+ * TemplateInventoryRefreshJob} that fills the table.
+ */
+public class TemplateInventoryEntityProviderFactory implements JpaEntityProviderFactory {
+
+  public static final String ID = "bioid-template-inventory";
+
+  private TemplateInventoryRefreshJob refreshJob;
+
+  @Override
+  public String getId() {
+    return ID;
+  }
+
+  @Override
+  public JpaEntityProvider create(KeycloakSession session) {
+    return new TemplateInventoryEntityProvider();
+  }
+
+  @Override
+  public void init(Config.Scope config) {
+    // No initialization needed
+  }
+
+  @Override
+  public void postInit(KeycloakSessionFactory factory) {
+    refreshJob = new TemplateInventoryRefreshJob(factory);
+    refreshJob.start();
+  }
+
+  @Override
+  public void close() {
+    if (refreshJob != null) {
+      refreshJob.stop();
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package com.bioid.keycloak.admin.inventory;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import jakarta.persistence.EntityManager;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.TimerProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the template inventory in step with the face credentials and BWS.
+ *
+ * <p>Every {@value #REFRESH_INTERVAL_MINUTES} minutes, on one node per interval, each realm is
+ * refreshed in two passes:
+ *
+ * <ol>
+ *   <li>The face credentials are copied into the inventory in pages of {@value #BATCH_SIZE}, one
+ *       transaction per page, and rows of deleted credentials are removed. Health is recomputed
+ *       from the stored BWS result, so expiring templates move on without calling BWS.
+ *   <li>Rows not verified within {@link #VERIFY_AFTER} are checked against BWS. The status calls of
+ *       a page run on virtual threads, at most {@value #CONCURRENCY} at a time and outside any
+ *       transaction; the results are written back in one transaction per page. Rows whose call
+ *       failed are left for the next run.
+ * </ol>
+ */
+public class TemplateInventoryRefreshJob {
+
+  private static final Logger logger = LoggerFactory.getLogger(TemplateInventoryRefreshJob.class);
+
+  static final String TASK_NAME = "bioid-template-inventory-refresh";
+  static final int REFRESH_INTERVAL_MINUTES = 15;
+  static final Duration VERIFY_AFTER = Duration.ofHours(24);
+  static final int BATCH_SIZE = 200;
+  static final int CONCURRENCY = 16;
+  // Cluster lock timeout; longer than a refresh of large realms is expected to take, so the lock
+  // does not expire and let a second node start while the first one still runs
+  static final int TASK_TIMEOUT_SECONDS = 6 * 3600;
+
+  private static final String CREDENTIAL_QUERY =
+      "SELECT c.id, u.id, u.username, u.email, c.createdDate, c.credentialData, c.secretData"
+          + " FROM CredentialEntity c JOIN c.user u"
+          + " WHERE u.realmId = :realmId AND c.type = :type AND c.id > :cursor"
+          + " ORDER BY c.id";
+
+  private static final String DELETED_QUERY =
+      "DELETE FROM TemplateInventoryEntity t WHERE t.realmId = :realmId"
+          + " AND NOT EXISTS (SELECT c.id FROM CredentialEntity c WHERE c.id = t.credentialId)";
+
+  private static final String UNVERIFIED_QUERY =
+      "SELECT t FROM TemplateInventoryEntity t WHERE t.realmId = :realmId"
+          + " AND (t.lastVerifiedAt IS NULL OR t.lastVerifiedAt < :verifiedBefore)"
+          + " AND t.credentialId > :cursor ORDER BY t.credentialId";
+
+  private final KeycloakSessionFactory sessionFactory;
+
+  public TemplateInventoryRefreshJob(KeycloakSessionFactory sessionFactory) {
+    this.sessionFactory = sessionFactory;
+  }
+
+  /** Schedule the refresh and run it once in the background. */
+  public void start() {
+    KeycloakModelUtils.runJobInTransaction(
+        sessionFactory,
+        session ->
+            session
+                .getProvider(TimerProvider.class)
+                .schedule(
+                    this::refreshIfNotRunElsewhere,
+                    Duration.ofMinutes(REFRESH_INTERVAL_MINUTES).toMillis(),
+                    TASK_NAME));
+    logger.info("Scheduled template inventory refresh every {} minutes", REFRESH_INTERVAL_MINUTES);
+    CompletableFuture.runAsync(this::refreshIfNotRunElsewhere);
+  }
+
+  /** Cancel the scheduled refresh. */
+  public void stop() {
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          sessionFactory, session -> session.getProvider(TimerProvider.class).cancelTask(TASK_NAME));
+    } catch (Exception e) {
+      logger.debug("Could not cancel template inventory refresh: {}", e.getMessage());
+    }
+  }
+
+  private void refreshIfNotRunElsewhere() {
+    try {
+      KeycloakModelUtils.runJobInTransaction(
+          sessionFactory,
+          session -> {
+            ExecutionResult<Integer> result =
+                session
+                    .getProvider(ClusterProvider.class)
+                    .executeIfNotExecuted(TASK_NAME, TASK_TIMEOUT_SECONDS, this::refreshAll);
+            if (!result.isExecuted()) {
+              logger.debug("Template inventory already refreshed by another node");
+            }
+          });
+    } catch (Exception e) {
+      logger.warn("Template inventory refresh failed: {}", e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Refresh the inventory of all realms.
+   *
+   * @return number of realms refreshed
+   */
+  int refreshAll() {
+    List<String> realmIds =
+        KeycloakModelUtils.runJobInTransactionWithResult(
+            sessionFactory,
+            session -> session.realms().getRealmsStream().map(RealmModel::getId).toList());
+    int refreshed = 0;
+    for (String realmId : realmIds) {
+      try {
+        int synced = sync(realmId);
+        int verified = verify(realmId);
+        logger.debug(
+            "Template inventory of realm {}: {} credentials synced, {} verified in BWS",
+            realmId,
+            synced,
+            verified);
+        refreshed++;
+      } catch (Exception e) {
+        logger.warn("Failed to refresh template inventory of realm {}: {}", realmId, e.getMessage());
+      }
+    }
+    logger.info("Refreshed template inventory of {} realms", refreshed);
+    return refreshed;
+  }
+
+  /**
+   * Copy the face credentials of a realm into the inventory.
+   *
+   * @return number of credentials copied
+   */
+  int sync(String realmId) {
+    int synced = 0;
+    String cursor = "";
+    while (true) {
+      String after = cursor;
+      List<Object[]> page =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              sessionFactory, session -> syncPage(entityManager(session), realmId, after));
+      synced += page.size();
+      if (page.size() < BATCH_SIZE) {
+        break;
+      }
+      cursor = (String) page.get(page.size() - 1)[0];
+    }
+    KeycloakModelUtils.runJobInTransaction(
+        sessionFactory,
+        session ->
+            entityManager(session)
+                .createQuery(DELETED_QUERY)
+                .setParameter("realmId", realmId)
+                .executeUpdate());
+    return synced;
+  }
+
+  private static List<Object[]> syncPage(EntityManager em, String realmId, String cursor) {
+    List<Object[]> rows =
+        em.createQuery(CREDENTIAL_QUERY, Object[].class)
+            .setParameter("realmId", realmId)
+            .setParameter("type", FaceCredentialProvider.TYPE)
+            .setParameter("cursor", cursor)
+            .setMaxResults(BATCH_SIZE)
+            .getResultList();
+    if (rows.isEmpty()) {
+      return rows;
+    }
+
+    Map<String, TemplateInventoryEntity> existing = new HashMap<>();
+    em.createQuery(
+            "SELECT t FROM TemplateInventoryEntity t WHERE t.credentialId IN :ids",
+            TemplateInventoryEntity.class)
+        .setParameter("ids", rows.stream().map(row -> (String) row[0]).toList())
+        .getResultList()
+        .forEach(row -> existing.put(row.getCredentialId(), row));
+
+    Instant now = Instant.now();
+    for (Object[] row : rows) {
+      FaceCredentialModel credential = toFaceCredential(row);
+      if (credential == null) {
+        continue;
+      }
+      TemplateInventoryEntity entity = existing.get((String) row[0]);
+      boolean created = entity == null;
+      if (created) {
+        entity = new TemplateInventoryEntity();
+        entity.setCredentialId((String) row[0]);
+        entity.setRealmId(realmId);
+      }
+      update(entity, (String) row[1], (String) row[2], (String) row[3], credential, now);
+      if (created) {
+        em.persist(entity);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Copy a credential into its inventory row.
+   *
+   * <p>A changed class ID discards the BWS result, so the row is verified again.
+   */
+  static void update(
+      TemplateInventoryEntity entity,
+      String userId,
+      String username,
+      String email,
+      FaceCredentialModel credential,
+      Instant now) {
+    if (entity.getClassId() != credential.getClassId()) {
+      entity.setLastVerifiedAt(null);
+    }
+    entity.setUserId(userId);
+    entity.setUsername(username);
+    entity.setEmail(email);
+    entity.setClassId(credential.getClassId());
+    entity.setEnrolledAt(credential.getCreatedDate());
+    entity.setExpiresAt(toMillis(credential.getExpiresAt()));
+    if (entity.getLastVerifiedAt() == null) {
+      // BWS values win once verified
+      entity.setEncoderVersion(credential.getEncoderVersion());
+      entity.setFeatureVectors(credential.getFeatureVectors());
+      entity.setThumbnailsStored(credential.getThumbnailsStored());
+    }
+    Boolean availableInBws =
+        entity.getLastVerifiedAt() == null
+            ? null
+            : !TemplateHealth.ISSUES.name().equals(entity.getHealthStatus());
+    entity.setHealthStatus(health(entity, availableInBws, now).name());
+  }
+
+  /**
+   * Check the unverified rows of a realm against BWS.
+   *
+   * @return number of rows verified
+   */
+  int verify(String realmId) {
+    int verified = 0;
+    String cursor = "";
+    long verifiedBefore = System.currentTimeMillis() - VERIFY_AFTER.toMillis();
+    while (true) {
+      String after = cursor;
+      Map<String, Long> page = new LinkedHashMap<>();
+      BioIdClient client =
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              sessionFactory,
+              session -> {
+                entityManager(session)
+                    .createQuery(UNVERIFIED_QUERY, TemplateInventoryEntity.class)
+                    .setParameter("realmId", realmId)
+                    .setParameter("verifiedBefore", verifiedBefore)
+                    .setParameter("cursor", after)
+                    .setMaxResults(BATCH_SIZE)
+                    .getResultList()
+                    .forEach(row -> page.put(row.getCredentialId(), row.getClassId()));
+                return bioIdClient(session);
+              });
+      if (page.isEmpty()) {
+        break;
+      }
+      if (client == null) {
+        logger.debug("No BioID client available, skipping BWS verification of realm {}", realmId);
+        break;
+      }
+
+      Map<Long, BioIdClient.TemplateStatusDetails> statuses = probe(client, page.values());
+      Instant now = Instant.now();
+      verified +=
+          KeycloakModelUtils.runJobInTransactionWithResult(
+              sessionFactory,
+              session -> {
+                EntityManager em = entityManager(session);
+                int applied = 0;
+                for (Map.Entry<String, Long> entry : page.entrySet()) {
+                  BioIdClient.TemplateStatusDetails status = statuses.get(entry.getValue());
+                  TemplateInventoryEntity entity =
+                      em.find(TemplateInventoryEntity.class, entry.getKey());
+                  // Skip rows deleted or re-enrolled while BWS was called
+                  if (status != null && entity != null && entity.getClassId() == entry.getValue()) {
+                    apply(entity, status, now);
+                    applied++;
+                  }
+                }
+                return applied;
+              });
+
+      if (page.size() < BATCH_SIZE) {
+        break;
+      }
+      for (String credentialId : page.keySet()) {
+        cursor = credentialId;
+      }
+    }
+    return verified;
+  }
+
+  /**
+   * Get the BWS status of class IDs in parallel.
+   *
+   * @return status by class ID; class IDs whose call failed are missing
+   */
+  static Map<Long, BioIdClient.TemplateStatusDetails> probe(
+      BioIdClient client, Collection<Long> classIds) {
+    Map<Long, BioIdClient.TemplateStatusDetails> statuses = new ConcurrentHashMap<>();
+    Semaphore permits = new Semaphore(CONCURRENCY);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Long classId : classIds) {
+        executor.submit(
+            () -> {
+              permits.acquireUninterruptibly();
+              try {
+                statuses.put(classId, client.getTemplateStatusDetails(classId, false));
+              } catch (Exception e) {
+                logger.debug("Could not read BWS status of class ID {}: {}", classId, e.getMessage());
+              } finally {
+                permits.release();
+              }
+            });
+      }
+    }
+    return statuses;
+  }
+
+  /** Store a BWS status in an inventory row. */
+  static void apply(TemplateInventoryEntity entity, BioIdClient.TemplateStatusDetails status,
+      Instant now) {
+    if (status.isAvailable()) {
+      entity.setEncoderVersion(status.getEncoderVersion());
+      entity.setFeatureVectors(status.getFeatureVectors());
+      entity.setThumbnailsStored(status.getThumbnailsStored());
+    }
+    entity.setLastVerifiedAt(now.toEpochMilli());
+    entity.setHealthStatus(health(entity, status.isAvailable(), now).name());
+  }
+
+  private static TemplateHealth health(
+      TemplateInventoryEntity entity, Boolean availableInBws, Instant now) {
+    Instant expiresAt =
+        entity.getExpiresAt() != null ? Instant.ofEpochMilli(entity.getExpiresAt()) : null;
+    return TemplateHealth.of(availableInBws, entity.getEncoderVersion(), expiresAt, now);
+  }
+
+  private static BioIdClient bioIdClient(KeycloakSession session) {
+    CredentialProvider<?> provider =
+        session.getProvider(CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+    return provider instanceof FaceCredentialProvider face ? face.getBioIdClient() : null;
+  }
+
+  private static EntityManager entityManager(KeycloakSession session) {
+    return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+  }
+
+  private static FaceCredentialModel toFaceCredential(Object[] row) {
+    CredentialModel model = new CredentialModel();
+    model.setId((String) row[0]);
+    model.setType(FaceCredentialProvider.TYPE);
+    model.setCreatedDate((Long) row[4]);
+    model.setCredentialData((String) row[5]);
+    model.setSecretData((String) row[6]);
+    try {
+      return FaceCredentialModel.createFromCredentialModel(model);
+    } catch (RuntimeException e) {
+      logger.warn("Skipping unreadable face credential {}: {}", row[0], e.getMessage());
+      return null;
+    }
+  }
+
+  private static Long toMillis(Instant instant) {
+    return instant != null ? instant.toEpochMilli() : null;
+  }
+}
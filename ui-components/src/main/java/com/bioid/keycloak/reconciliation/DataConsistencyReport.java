@@ -2,6 +2,7 @@ package com.bioid.keycloak.reconciliation;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -19,6 +20,9 @@ public class DataConsistencyReport {
     private ConsistencyCheckStatus status = ConsistencyCheckStatus.RUNNING;
     private String errorMessage;
     private List<ConsistencyIssue> issues = new ArrayList<>();
+    // Issues that were counted but not kept, to bound the size of large reports
+    private Map<ConsistencyIssueType, Long> omittedIssues = new EnumMap<>(ConsistencyIssueType.class);
+    private long itemsScanned;
     private ConsistencyStatistics statistics = new ConsistencyStatistics();
 
     public DataConsistencyReport(String realmId, String realmName) {
@@ -94,9 +98,31 @@ public class DataConsistencyReport {
         return statistics;
     }
 
+    /**
+     * Count an issue without keeping its details.
+     */
+    public void addOmittedIssues(ConsistencyIssueType type, long count) {
+        if (count > 0) {
+            omittedIssues.merge(type, count, Long::sum);
+            updateStatistics();
+        }
+    }
+
+    public Map<ConsistencyIssueType, Long> getOmittedIssues() {
+        return new EnumMap<>(omittedIssues);
+    }
+
+    public long getItemsScanned() {
+        return itemsScanned;
+    }
+
+    public void setItemsScanned(long itemsScanned) {
+        this.itemsScanned = itemsScanned;
+    }
+
     // Utility methods
     public int getTotalIssues() {
-        return issues.size();
+        return issues.size() + (int) omittedIssues.values().stream().mapToLong(Long::longValue).sum();
     }
 
     public long getDurationMs() {
@@ -129,10 +155,11 @@ public class DataConsistencyReport {
 
     private void updateStatistics() {
         statistics = new ConsistencyStatistics();
-        statistics.setTotalIssues(issues.size());
+        statistics.setTotalIssues(getTotalIssues());
         
         Map<ConsistencyIssueType, Long> issuesByType = issues.stream()
             .collect(Collectors.groupingBy(ConsistencyIssue::getType, Collectors.counting()));
+        omittedIssues.forEach((type, count) -> issuesByType.merge(type, count, Long::sum));
         
         statistics.setOrphanedCredentials(issuesByType.getOrDefault(ConsistencyIssueType.ORPHANED_CREDENTIAL, 0L).intValue());
         statistics.setOrphanedTemplates(issuesByType.getOrDefault(ConsistencyIssueType.ORPHANED_TEMPLATE, 0L).intValue());
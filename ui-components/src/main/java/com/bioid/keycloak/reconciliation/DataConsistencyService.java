@@ -4,12 +4,16 @@ import com.bioid.keycloak.error.AdminException;
 import com.bioid.keycloak.error.AdminErrorType;
 import com.bioid.keycloak.error.AdminErrorHandler;
 import com.bioid.keycloak.client.BioIdClient;
-// Note: FaceTemplateStatus would need to be imported from the actual client package
+import com.bioid.keycloak.client.exception.BioIdException;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.credential.FaceTemplateStatistics;
 import org.jboss.logging.Logger;
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.RealmModel;
 import org.keycloak.models.UserModel;
-import org.keycloak.models.credential.OTPCredentialModel;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -45,23 +49,9 @@ public class DataConsistencyService {
         DataConsistencyReport report = new DataConsistencyReport(realm.getId(), realm.getName());
         
         try {
-            // Get all users with face credentials in Keycloak
-            Map<String, UserCredentialInfo> keycloakCredentials = getUsersWithFaceCredentials(realm);
-            logger.debugf("Found %d users with face credentials in Keycloak", keycloakCredentials.size());
-            
-            // Get all templates from BioID
-            Map<Long, Object> bioIdTemplates = getBioIdTemplates(keycloakCredentials.keySet());
-            logger.debugf("Found %d templates in BioID", bioIdTemplates.size());
-            
-            // Analyze consistency
-            analyzeConsistency(keycloakCredentials, bioIdTemplates, report);
-            
-            report.setCompletedAt(Instant.now());
-            report.setStatus(ConsistencyCheckStatus.COMPLETED);
-            
-            logger.infof("Data consistency check completed for realm %s: %d issues found", 
-                realm.getName(), report.getTotalIssues());
-            
+            // Sorted pass over the class ID index, probing BioID in parallel per batch
+            report = new TemplateReconciler(session.getKeycloakSessionFactory(), realm, bioIdClient)
+                .run();
         } catch (Exception e) {
             logger.errorf(e, "Data consistency check failed for realm: %s", realm.getName());
             report.setStatus(ConsistencyCheckStatus.FAILED);
@@ -222,7 +212,7 @@ public class DataConsistencyService {
             for (ConsistencyIssue issue : orphanedTemplates) {
                 try {
                     if (!dryRun) {
-                        cleanupOrphanedTemplate(issue);
+                        cleanupOrphanedTemplate(issue, realm);
                         result.addCleanedTemplate(issue.getClassId());
                     } else {
                         result.addTemplateToClean(issue.getClassId());
@@ -249,158 +239,6 @@ public class DataConsistencyService {
         return result;
     }
 
-    /**
-     * Get all users with face credentials from Keycloak
-     */
-    private Map<String, UserCredentialInfo> getUsersWithFaceCredentials(RealmModel realm) {
-        Map<String, UserCredentialInfo> credentials = new HashMap<>();
-        
-        session.users().searchForUserStream(realm, Map.of()).forEach(user -> {
-            // Check for face authentication credentials
-            user.credentialManager().getStoredCredentialsStream()
-                .filter(cred -> "face-recognition".equals(cred.getType()))
-                .forEach(cred -> {
-                    UserCredentialInfo info = new UserCredentialInfo();
-                    info.setUserId(user.getId());
-                    info.setUsername(user.getUsername());
-                    info.setCredentialId(cred.getId());
-                    info.setCreatedDate(cred.getCreatedDate());
-                    
-                    // Extract class ID from credential data
-                    String credentialData = cred.getCredentialData();
-                    if (credentialData != null) {
-                        try {
-                            // Parse credential data to extract class ID
-                            Long classId = extractClassIdFromCredentialData(credentialData);
-                            info.setClassId(classId);
-                        } catch (Exception e) {
-                            logger.warnf("Failed to extract class ID from credential for user %s: %s", 
-                                user.getUsername(), e.getMessage());
-                        }
-                    }
-                    
-                    credentials.put(user.getId(), info);
-                });
-        });
-        
-        return credentials;
-    }
-
-    /**
-     * Get template status from BioID for all users
-     */
-    private Map<Long, Object> getBioIdTemplates(Set<String> userIds) {
-        Map<Long, Object> templates = new HashMap<>();
-        
-        // Extract class IDs from user credentials
-        List<Long> classIds = new ArrayList<>();
-        // This would need to be implemented based on how class IDs are stored
-        
-        try {
-            // Batch query template status from BioID
-            for (Long classId : classIds) {
-                try {
-                    // Note: This would need to be implemented with actual BioID client method
-                    Object status = errorHandler.executeWithRetry(() -> {
-                        // bioIdClient.getTemplateStatus(classId, false);
-                        return new Object(); // Placeholder
-                    });
-                    templates.put(classId, status);
-                } catch (AdminException e) {
-                    if (e.getErrorType() != AdminErrorType.TEMPLATE_NOT_FOUND) {
-                        logger.warnf("Failed to get template status for class ID %d: %s", classId, e.getMessage());
-                    }
-                }
-            }
-        } catch (Exception e) {
-            throw new AdminException(AdminErrorType.SERVICE_UNAVAILABLE, 
-                "Failed to retrieve template status from BioID", e);
-        }
-        
-        return templates;
-    }
-
-    /**
-     * Analyze consistency between Keycloak and BioID data
-     */
-    private void analyzeConsistency(Map<String, UserCredentialInfo> keycloakCredentials,
-                                  Map<Long, Object> bioIdTemplates,
-                                  DataConsistencyReport report) {
-        
-        // Find orphaned credentials (in Keycloak but not in BioID)
-        for (UserCredentialInfo credInfo : keycloakCredentials.values()) {
-            if (credInfo.getClassId() != null && !bioIdTemplates.containsKey(credInfo.getClassId())) {
-                ConsistencyIssue issue = new ConsistencyIssue();
-                issue.setIssueId(UUID.randomUUID().toString());
-                issue.setType(ConsistencyIssueType.ORPHANED_CREDENTIAL);
-                issue.setUserId(credInfo.getUserId());
-                issue.setClassId(credInfo.getClassId());
-                issue.setSeverity(IssueSeverity.HIGH);
-                issue.setDescription(String.format("User %s has face credential but no corresponding template in BioID", 
-                    credInfo.getUsername()));
-                issue.setDetectedAt(Instant.now());
-                
-                report.addIssue(issue);
-            }
-        }
-        
-        // Find orphaned templates (in BioID but not in Keycloak)
-        Set<Long> keycloakClassIds = keycloakCredentials.values().stream()
-            .map(UserCredentialInfo::getClassId)
-            .filter(Objects::nonNull)
-            .collect(Collectors.toSet());
-        
-        for (Long classId : bioIdTemplates.keySet()) {
-            if (!keycloakClassIds.contains(classId)) {
-                ConsistencyIssue issue = new ConsistencyIssue();
-                issue.setIssueId(UUID.randomUUID().toString());
-                issue.setType(ConsistencyIssueType.ORPHANED_TEMPLATE);
-                issue.setClassId(classId);
-                issue.setSeverity(IssueSeverity.MEDIUM);
-                issue.setDescription(String.format("Template %d exists in BioID but no corresponding credential in Keycloak", classId));
-                issue.setDetectedAt(Instant.now());
-                
-                report.addIssue(issue);
-            }
-        }
-        
-        // Find sync mismatches (different metadata)
-        for (UserCredentialInfo credInfo : keycloakCredentials.values()) {
-            if (credInfo.getClassId() != null) {
-                Object templateStatus = bioIdTemplates.get(credInfo.getClassId());
-                if (templateStatus != null) {
-                    // Check for metadata mismatches
-                    if (hasMetadataMismatch(credInfo, templateStatus)) {
-                        ConsistencyIssue issue = new ConsistencyIssue();
-                        issue.setIssueId(UUID.randomUUID().toString());
-                        issue.setType(ConsistencyIssueType.METADATA_MISMATCH);
-                        issue.setUserId(credInfo.getUserId());
-                        issue.setClassId(credInfo.getClassId());
-                        issue.setSeverity(IssueSeverity.LOW);
-                        issue.setDescription(String.format("Metadata mismatch between Keycloak and BioID for user %s", 
-                            credInfo.getUsername()));
-                        issue.setDetectedAt(Instant.now());
-                        
-                        report.addIssue(issue);
-                    }
-                }
-            }
-        }
-    }
-
-    // Helper methods for extracting data and determining actions
-    private Long extractClassIdFromCredentialData(String credentialData) {
-        // Implementation would depend on how credential data is structured
-        // This is a placeholder
-        return null;
-    }
-
-    private boolean hasMetadataMismatch(UserCredentialInfo credInfo, Object templateStatus) {
-        // Compare metadata between Keycloak credential and BioID template
-        // This is a placeholder implementation
-        return false;
-    }
-
     private SynchronizationAction determineSynchronizationAction(ConsistencyIssue issue) {
         // Determine what action to take for synchronization
         return new SynchronizationAction(issue.getIssueId(), SynchronizationActionType.UPDATE_METADATA, 
@@ -428,28 +266,92 @@ public class DataConsistencyService {
         logger.debugf("Executing repair action: %s", action.getDescription());
     }
 
+    /**
+     * Remove a face credential whose template no longer exists in BioID. The template status is
+     * read again first, so a credential whose template reappeared since the check is kept.
+     *
+     * @throws AdminException if the credential was not removed
+     */
     private void cleanupOrphanedCredential(ConsistencyIssue issue, RealmModel realm) {
-        // Remove orphaned credential from Keycloak
         UserModel user = session.users().getUserById(realm, issue.getUserId());
-        if (user != null) {
-            // Note: This would need to be implemented with actual credential removal method
-            // user.credentialManager().removeStoredCredential(issue.getCredentialId());
-            logger.infof("Removed orphaned credential for user: %s", user.getUsername());
+        if (user == null || issue.getCredentialId() == null || issue.getClassId() == null) {
+            throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                "Orphaned credential of user " + issue.getUserId() + " no longer exists");
         }
+
+        BioIdClient.TemplateStatusDetails status;
+        try {
+            status = errorHandler.executeWithRetry(() -> {
+                try {
+                    return bioIdClient.getTemplateStatusDetails(issue.getClassId(), false);
+                } catch (BioIdException e) {
+                    throw new AdminException(AdminErrorType.SERVICE_UNAVAILABLE, e.getMessage(), e);
+                }
+            });
+        } catch (AdminException e) {
+            throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                "Could not confirm that template " + issue.getClassId() + " is missing", e);
+        }
+        if (status.isAvailable()) {
+            throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                "Template " + issue.getClassId() + " exists again in BioID");
+        }
+
+        if (!user.credentialManager().removeStoredCredentialById(issue.getCredentialId())) {
+            throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                "Credential " + issue.getCredentialId() + " of user " + user.getUsername()
+                    + " could not be removed");
+        }
+        FaceCredentialProvider.updateClassIdIndex(user);
+        FaceTemplateStatistics.recordChange(session, realm, user, -1);
+        logger.infof("Removed orphaned credential %s of user %s", issue.getCredentialId(),
+            user.getUsername());
     }
 
-    private void cleanupOrphanedTemplate(ConsistencyIssue issue) {
-        // Remove orphaned template from BioID
+    /**
+     * Delete a BioID template that no face credential references. The users indexed under its
+     * class ID are checked again first, so a template that was enrolled since the check is kept.
+     *
+     * @throws AdminException if the template is in use or could not be deleted
+     */
+    void cleanupOrphanedTemplate(ConsistencyIssue issue, RealmModel realm) {
+        Long classId = issue.getClassId();
+        if (classId == null) {
+            throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                "Orphaned template issue " + issue.getIssueId() + " has no class ID");
+        }
+
+        FaceCredentialProvider provider = (FaceCredentialProvider) session.getProvider(
+            CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID);
+        List<UserModel> indexedUsers = session.users()
+            .searchForUserByUserAttributeStream(realm, FaceCredentialProvider.CLASS_ID_ATTRIBUTE,
+                String.valueOf(classId))
+            .collect(Collectors.toList());
+        for (UserModel user : indexedUsers) {
+            boolean inUse = provider.getFaceCredentials(realm, user)
+                .mapToLong(FaceCredentialModel::getClassId)
+                .anyMatch(id -> id == classId.longValue());
+            if (inUse) {
+                throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                    "Template " + classId + " is used by user " + user.getUsername());
+            }
+        }
+
         try {
             errorHandler.executeWithRetry(() -> {
-                // Note: This would need to be implemented with actual BioID client method
-                // bioIdClient.deleteTemplate(issue.getClassId());
+                try {
+                    bioIdClient.deleteTemplate(classId);
+                } catch (BioIdException e) {
+                    throw new AdminException(AdminErrorType.SERVICE_UNAVAILABLE, e.getMessage(), e);
+                }
                 return null;
             });
-            logger.infof("Removed orphaned template: %d", issue.getClassId());
-        } catch (Exception e) {
-            throw new AdminException(AdminErrorType.TEMPLATE_NOT_FOUND, 
+        } catch (AdminException e) {
+            throw new AdminException(AdminErrorType.TEMPLATE_NOT_FOUND,
                 "Failed to delete orphaned template", e);
         }
+        // Drop the stale index entries now that the template is gone
+        indexedUsers.forEach(FaceCredentialProvider::updateClassIdIndex);
+        logger.infof("Removed orphaned template: %d", classId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package com.bioid.keycloak.reconciliation;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+/**
+ * Progress of an interrupted {@link TemplateReconciler} run, one row per realm.
+ *
+ * <p>The row is rewritten after every page of a run and deleted when the run completes. The
+ * table is created by {@code META-INF/bioid-reconciliation-checkpoint-changelog.xml}.
+ */
+@Entity
+@Table(name = "BIOID_RECONCILIATION_CHECKPOINT")
+public class ReconciliationCheckpointEntity {
+
+    @Id
+    @Column(name = "REALM_ID", length = 36)
+    private String realmId;
+
+    // Keyset cursor: the last class ID index entry processed
+    @Column(name = "CURSOR_CLASS_ID", length = 255, nullable = false)
+    private String cursorClassId;
+
+    @Column(name = "CURSOR_USER_ID", length = 36, nullable = false)
+    private String cursorUserId;
+
+    @Column(name = "SCANNED", nullable = false)
+    private long scanned;
+
+    // Issue counts by type, as JSON
+    @Column(name = "ISSUE_COUNTS", length = 1024)
+    private String issueCounts;
+
+    // Epoch milliseconds
+    @Column(name = "STARTED_AT", nullable = false)
+    private long startedAt;
+
+    public String getRealmId() {
+        return realmId;
+    }
+
+    public void setRealmId(String realmId) {
+        this.realmId = realmId;
+    }
+
+    public String getCursorClassId() {
+        return cursorClassId;
+    }
+
+    public void setCursorClassId(String cursorClassId) {
+        this.cursorClassId = cursorClassId;
+    }
+
+    public String getCursorUserId() {
+        return cursorUserId;
+    }
+
+    public void setCursorUserId(String cursorUserId) {
+        this.cursorUserId = cursorUserId;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public void setScanned(long scanned) {
+        this.scanned = scanned;
+    }
+
+    public String getIssueCounts() {
+        return issueCounts;
+    }
+
+    public void setIssueCounts(String issueCounts) {
+        this.issueCounts = issueCounts;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+}
@@ -0,0 +1,31 @@
+package com.bioid.keycloak.reconciliation;
+
+import java.util.List;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+
+/** Adds {@link ReconciliationCheckpointEntity} and its table to Keycloak's database. */
+public class ReconciliationCheckpointEntityProvider implements JpaEntityProvider {
+
+    static final String CHANGELOG_LOCATION =
+        "META-INF/bioid-reconciliation-checkpoint-changelog.xml";
+
+    @Override
+    public List<Class<?>> getEntities() {
+        return List.of(ReconciliationCheckpointEntity.class);
+    }
+
+    @Override
+    public String getChangelogLocation() {
+        return CHANGELOG_LOCATION;
+    }
+
+    @Override
+    public String getFactoryId() {
+        return ReconciliationCheckpointEntityProviderFactory.ID;
+    }
+
+    @Override
+    public void close() {
+        // No resources to close
+    }
+}
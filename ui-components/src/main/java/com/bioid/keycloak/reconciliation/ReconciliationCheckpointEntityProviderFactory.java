@@ -0,0 +1,38 @@
+package com.bioid.keycloak.reconciliation;
+
+import org.keycloak.Config;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProvider;
+import org.keycloak.connections.jpa.entityprovider.JpaEntityProviderFactory;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+
+/** Factory for the reconciliation checkpoint entity provider. */
+public class ReconciliationCheckpointEntityProviderFactory implements JpaEntityProviderFactory {
+
+    public static final String ID = "bioid-reconciliation-checkpoint";
+
+    @Override
+    public String getId() {
+        return ID;
+    }
+
+    @Override
+    public JpaEntityProvider create(KeycloakSession session) {
+        return new ReconciliationCheckpointEntityProvider();
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        // No initialization needed
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        // No post-initialization needed
+    }
+
+    @Override
+    public void close() {
+        // No resources to close
+    }
+}
@@ -0,0 +1,478 @@
+package com.bioid.keycloak.reconciliation;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.ClassIdIndexBackfillJob;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.error.AdminErrorType;
+import com.bioid.keycloak.error.AdminException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import jakarta.persistence.EntityManager;
+import org.jboss.logging.Logger;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Reconciles the face templates of one realm with BioID BWS.
+ *
+ * The realm's class IDs are read from the {@code classId} user attribute index in sorted order,
+ * one keyset page of {@code batchSize} entries per transaction, together with the face
+ * credentials of the page's users. The BWS status of each page is probed in parallel, at most
+ * {@code concurrency} calls at a time. Because entries arrive sorted, a class ID shared by
+ * several users is found by comparing neighbours, without keeping earlier pages in memory.
+ *
+ * After every page the cursor and the issue counts are stored as a checkpoint in
+ * {@link ReconciliationCheckpointEntity}, so an interrupted run resumes where it stopped. Only one
+ * node reconciles a realm at a time ({@link ClusterProvider#executeIfNotExecuted}). Only the first {@code maxReportedIssues} issues
+ * are kept with details; later ones are counted. BWS offers no way to list its classes, so
+ * templates that no Keycloak user references at all cannot be found here.
+ */
+public class TemplateReconciler {
+
+    private static final Logger logger = Logger.getLogger(TemplateReconciler.class);
+
+    static final String TASK_NAME = "bioid-template-reconciliation";
+    // Longer than a run is expected to take, so the lock is not released while it still runs
+    static final int TASK_TIMEOUT_SECONDS = 6 * 3600;
+
+    // Realm attribute that held the checkpoint before it moved to its own table
+    static final String LEGACY_CHECKPOINT_ATTRIBUTE = "bioid.reconciliation.checkpoint";
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+    static final int DEFAULT_CONCURRENCY = 16;
+    static final int DEFAULT_MAX_REPORTED_ISSUES = 1000;
+
+    private static final String INDEX_QUERY =
+        "SELECT a.value, u.id, u.username FROM UserAttributeEntity a JOIN a.user u"
+        + " WHERE u.realmId = :realmId AND a.name = :name"
+        + " AND (a.value > :classId OR (a.value = :classId AND u.id > :userId))"
+        + " ORDER BY a.value, u.id";
+
+    private static final String CREDENTIAL_QUERY =
+        "SELECT c.user.id, c.id, c.createdDate, c.credentialData, c.secretData"
+        + " FROM CredentialEntity c WHERE c.user.id IN :userIds AND c.type = :type";
+
+    private final KeycloakSessionFactory sessionFactory;
+    private final String realmId;
+    private final String realmName;
+    private final BioIdClient bioIdClient;
+    private final int batchSize;
+    private final int concurrency;
+    private final int maxReportedIssues;
+
+    /**
+     * Class ID index entry with the user's face credential for that class ID, if any.
+     */
+    record IndexEntry(String classId, String userId, String username, String credentialId,
+                      FaceCredentialModel credential) {
+    }
+
+    /**
+     * BWS status of a class ID, or the error that prevented reading it.
+     */
+    record Probe(BioIdClient.TemplateStatusDetails status, Exception error) {
+    }
+
+    /**
+     * Progress of an interrupted run.
+     */
+    record Checkpoint(String classId, String userId, long scanned,
+                      Map<ConsistencyIssueType, Long> counts, long startedAt) {
+    }
+
+    public TemplateReconciler(KeycloakSessionFactory sessionFactory, RealmModel realm,
+                              BioIdClient bioIdClient) {
+        this(sessionFactory, realm, bioIdClient, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENCY,
+            DEFAULT_MAX_REPORTED_ISSUES);
+    }
+
+    TemplateReconciler(KeycloakSessionFactory sessionFactory, RealmModel realm,
+                       BioIdClient bioIdClient, int batchSize, int concurrency,
+                       int maxReportedIssues) {
+        this.sessionFactory = sessionFactory;
+        this.realmId = realm.getId();
+        this.realmName = realm.getName();
+        this.bioIdClient = bioIdClient;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.maxReportedIssues = maxReportedIssues;
+    }
+
+    /**
+     * Reconcile the realm, resuming from its checkpoint if a previous run was interrupted.
+     *
+     * @return report of the whole run, including counts from before a resume
+     * @throws AdminException if the realm is already being reconciled, here or on another node
+     */
+    public DataConsistencyReport run() {
+        ExecutionResult<DataConsistencyReport> result =
+            KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session ->
+                session.getProvider(ClusterProvider.class)
+                    .executeIfNotExecuted(TASK_NAME + "::" + realmId, TASK_TIMEOUT_SECONDS,
+                        this::reconcile));
+        if (!result.isExecuted()) {
+            throw new AdminException(AdminErrorType.CONCURRENT_OPERATION_LIMIT,
+                "Reconciliation of realm " + realmName + " is already running");
+        }
+        return result.getResult();
+    }
+
+    private DataConsistencyReport reconcile() {
+        Checkpoint checkpoint = inRealm(session -> {
+            RealmModel realm = session.getContext().getRealm();
+            if (!ClassIdIndexBackfillJob.isComplete(realm)) {
+                throw new AdminException(AdminErrorType.DATA_INCONSISTENCY,
+                    "Class ID index of realm " + realmName + " is still being built");
+            }
+            return readCheckpoint(session);
+        });
+
+        DataConsistencyReport report = new DataConsistencyReport(realmId, realmName);
+        Map<ConsistencyIssueType, Long> counts = new EnumMap<>(ConsistencyIssueType.class);
+        String cursorClassId = "";
+        String cursorUserId = "";
+        long scanned = 0;
+        if (checkpoint != null) {
+            logger.infof("Resuming reconciliation of realm %s after %d entries", realmName,
+                checkpoint.scanned());
+            report.setStartedAt(Instant.ofEpochMilli(checkpoint.startedAt()));
+            checkpoint.counts().forEach(report::addOmittedIssues);
+            counts.putAll(checkpoint.counts());
+            cursorClassId = checkpoint.classId();
+            cursorUserId = checkpoint.userId();
+            scanned = checkpoint.scanned();
+        }
+
+        String previousClassId = cursorClassId;
+        int kept = 0;
+        long probeErrors = 0;
+        while (true) {
+            String afterClassId = cursorClassId;
+            String afterUserId = cursorUserId;
+            List<IndexEntry> batch = inRealm(session -> fetchBatch(session, afterClassId, afterUserId));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            Set<Long> classIds = new LinkedHashSet<>();
+            for (IndexEntry entry : batch) {
+                Long classId = parseClassId(entry.classId());
+                if (classId != null) {
+                    classIds.add(classId);
+                }
+            }
+            Map<Long, Probe> probes = probe(classIds);
+            probeErrors += probes.values().stream().filter(p -> p.error() != null).count();
+
+            for (ConsistencyIssue issue : classify(batch, probes, previousClassId)) {
+                counts.merge(issue.getType(), 1L, Long::sum);
+                if (kept < maxReportedIssues) {
+                    report.addIssue(issue);
+                    kept++;
+                } else {
+                    report.addOmittedIssues(issue.getType(), 1);
+                }
+            }
+
+            scanned += batch.size();
+            IndexEntry last = batch.get(batch.size() - 1);
+            cursorClassId = last.classId();
+            cursorUserId = last.userId();
+            previousClassId = last.classId();
+            Checkpoint progress = new Checkpoint(cursorClassId, cursorUserId, scanned,
+                new EnumMap<>(counts), report.getStartedAt().toEpochMilli());
+            inRealm(session -> {
+                writeCheckpoint(session, progress);
+                return null;
+            });
+
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+
+        inRealm(session -> {
+            clearCheckpoint(session);
+            return null;
+        });
+
+        report.setItemsScanned(scanned);
+        if (probeErrors > 0) {
+            report.setErrorMessage(probeErrors + " class IDs could not be checked in BWS");
+        }
+        report.setCompletedAt(Instant.now());
+        report.setStatus(ConsistencyCheckStatus.COMPLETED);
+        logger.infof("Reconciled %d class ID entries of realm %s: %d issues", scanned, realmName,
+            report.getTotalIssues());
+        return report;
+    }
+
+    /**
+     * Classify a page of index entries against their BWS status.
+     *
+     * @param batch entries in index order
+     * @param probes BWS status by class ID
+     * @param previousClassId class ID of the entry before the page, to detect shared class IDs
+     * @return issues found in the page
+     */
+    List<ConsistencyIssue> classify(List<IndexEntry> batch, Map<Long, Probe> probes,
+                                    String previousClassId) {
+        List<ConsistencyIssue> issues = new ArrayList<>();
+        String previous = previousClassId;
+        for (IndexEntry entry : batch) {
+            if (entry.classId().equals(previous)) {
+                issues.add(issue(ConsistencyIssueType.SYNC_CONFLICT, IssueSeverity.HIGH, entry,
+                    String.format("Class ID %s is used by more than one user, including %s",
+                        entry.classId(), entry.username())));
+            }
+            previous = entry.classId();
+
+            Long classId = parseClassId(entry.classId());
+            if (classId == null) {
+                issues.add(issue(ConsistencyIssueType.CORRUPTED_DATA, IssueSeverity.LOW, entry,
+                    String.format("User %s has an invalid class ID index entry '%s'",
+                        entry.username(), entry.classId())));
+                continue;
+            }
+
+            Probe probe = probes.get(classId);
+            if (probe == null || probe.error() != null) {
+                continue;
+            }
+            BioIdClient.TemplateStatusDetails status = probe.status();
+            FaceCredentialModel credential = entry.credential();
+
+            if (credential == null) {
+                if (status.isAvailable()) {
+                    issues.add(issue(ConsistencyIssueType.ORPHANED_TEMPLATE, IssueSeverity.MEDIUM,
+                        entry, String.format(
+                            "Template %d exists in BioID but user %s has no face credential for it",
+                            classId, entry.username())));
+                } else {
+                    issues.add(issue(ConsistencyIssueType.INVALID_REFERENCE, IssueSeverity.LOW,
+                        entry, String.format(
+                            "User %s is indexed under class ID %d without credential or template",
+                            entry.username(), classId)));
+                }
+            } else if (!status.isAvailable()) {
+                issues.add(issue(ConsistencyIssueType.ORPHANED_CREDENTIAL, IssueSeverity.HIGH,
+                    entry, String.format(
+                        "User %s has face credential but no corresponding template in BioID",
+                        entry.username())));
+            } else if (status.getEncoderVersion() != credential.getEncoderVersion()
+                || status.getFeatureVectors() != credential.getFeatureVectors()) {
+                ConsistencyIssue issue = issue(ConsistencyIssueType.METADATA_MISMATCH,
+                    IssueSeverity.LOW, entry, String.format(
+                        "Metadata mismatch between Keycloak and BioID for user %s",
+                        entry.username()));
+                issue.getMetadata().put("keycloakEncoderVersion", credential.getEncoderVersion());
+                issue.getMetadata().put("bwsEncoderVersion", status.getEncoderVersion());
+                issue.getMetadata().put("keycloakFeatureVectors", credential.getFeatureVectors());
+                issue.getMetadata().put("bwsFeatureVectors", status.getFeatureVectors());
+                issues.add(issue);
+            }
+        }
+        return issues;
+    }
+
+    /**
+     * Read the BWS status of class IDs in parallel.
+     *
+     * @param classIds class IDs to probe
+     * @return status or error by class ID
+     */
+    Map<Long, Probe> probe(Set<Long> classIds) {
+        Map<Long, Probe> probes = new ConcurrentHashMap<>();
+        Semaphore permits = new Semaphore(concurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Long classId : classIds) {
+                executor.submit(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        probes.put(classId,
+                            new Probe(bioIdClient.getTemplateStatusDetails(classId, false), null));
+                    } catch (Exception e) {
+                        logger.debugf("Could not read BWS status of class ID %d: %s", classId,
+                            e.getMessage());
+                        probes.put(classId, new Probe(null, e));
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+        return probes;
+    }
+
+    private List<IndexEntry> fetchBatch(KeycloakSession session, String afterClassId,
+                                        String afterUserId) {
+        EntityManager em = entityManager(session);
+        List<Object[]> rows = em.createQuery(INDEX_QUERY, Object[].class)
+            .setParameter("realmId", realmId)
+            .setParameter("name", FaceCredentialProvider.CLASS_ID_ATTRIBUTE)
+            .setParameter("classId", afterClassId)
+            .setParameter("userId", afterUserId)
+            .setMaxResults(batchSize)
+            .getResultList();
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+
+        Set<String> userIds = new LinkedHashSet<>();
+        rows.forEach(row -> userIds.add((String) row[1]));
+        // Face credentials of the page's users, keyed by user and class ID
+        Map<String, Object[]> credentials = new HashMap<>();
+        for (Object[] row : em.createQuery(CREDENTIAL_QUERY, Object[].class)
+                .setParameter("userIds", userIds)
+                .setParameter("type", FaceCredentialProvider.TYPE)
+                .getResultList()) {
+            FaceCredentialModel credential = toFaceCredential(row);
+            if (credential != null) {
+                credentials.put(row[0] + ":" + credential.getClassId(),
+                    new Object[] {row[1], credential});
+            }
+        }
+
+        List<IndexEntry> batch = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Object[] credential = credentials.get(row[1] + ":" + row[0]);
+            batch.add(new IndexEntry((String) row[0], (String) row[1], (String) row[2],
+                credential != null ? (String) credential[0] : null,
+                credential != null ? (FaceCredentialModel) credential[1] : null));
+        }
+        return batch;
+    }
+
+    private static FaceCredentialModel toFaceCredential(Object[] row) {
+        CredentialModel model = new CredentialModel();
+        model.setId((String) row[1]);
+        model.setType(FaceCredentialProvider.TYPE);
+        model.setCreatedDate((Long) row[2]);
+        model.setCredentialData((String) row[3]);
+        model.setSecretData((String) row[4]);
+        try {
+            return FaceCredentialModel.createFromCredentialModel(model);
+        } catch (RuntimeException e) {
+            logger.warnf("Skipping unreadable face credential %s: %s", row[1], e.getMessage());
+            return null;
+        }
+    }
+
+    private Checkpoint readCheckpoint(KeycloakSession session) {
+        ReconciliationCheckpointEntity entity =
+            entityManager(session).find(ReconciliationCheckpointEntity.class, realmId);
+        if (entity == null) {
+            return null;
+        }
+        Map<ConsistencyIssueType, Long> counts = new EnumMap<>(ConsistencyIssueType.class);
+        if (entity.getIssueCounts() != null) {
+            try {
+                counts.putAll(JsonSerialization.readValue(entity.getIssueCounts(),
+                    new TypeReference<Map<ConsistencyIssueType, Long>>() { }));
+            } catch (IOException e) {
+                logger.warnf("Ignoring unreadable reconciliation checkpoint of realm %s: %s",
+                    realmName, e.getMessage());
+                return null;
+            }
+        }
+        return new Checkpoint(entity.getCursorClassId(), entity.getCursorUserId(),
+            entity.getScanned(), counts, entity.getStartedAt());
+    }
+
+    private void writeCheckpoint(KeycloakSession session, Checkpoint checkpoint) {
+        EntityManager em = entityManager(session);
+        ReconciliationCheckpointEntity entity =
+            em.find(ReconciliationCheckpointEntity.class, realmId);
+        if (entity == null) {
+            entity = new ReconciliationCheckpointEntity();
+            entity.setRealmId(realmId);
+            em.persist(entity);
+        }
+        entity.setCursorClassId(checkpoint.classId());
+        entity.setCursorUserId(checkpoint.userId());
+        entity.setScanned(checkpoint.scanned());
+        entity.setStartedAt(checkpoint.startedAt());
+        try {
+            entity.setIssueCounts(JsonSerialization.writeValueAsString(checkpoint.counts()));
+        } catch (IOException e) {
+            logger.warnf("Could not store reconciliation issue counts of realm %s: %s",
+                realmName, e.getMessage());
+            entity.setIssueCounts(null);
+        }
+    }
+
+    private void clearCheckpoint(KeycloakSession session) {
+        EntityManager em = entityManager(session);
+        ReconciliationCheckpointEntity entity =
+            em.find(ReconciliationCheckpointEntity.class, realmId);
+        if (entity != null) {
+            em.remove(entity);
+        }
+        RealmModel realm = session.getContext().getRealm();
+        if (realm.getAttribute(LEGACY_CHECKPOINT_ATTRIBUTE) != null) {
+            realm.removeAttribute(LEGACY_CHECKPOINT_ATTRIBUTE);
+        }
+    }
+
+    private static EntityManager entityManager(KeycloakSession session) {
+        return session.getProvider(JpaConnectionProvider.class).getEntityManager();
+    }
+
+    private <T> T inRealm(Function<KeycloakSession, T> work) {
+        return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null) {
+                throw new AdminException(AdminErrorType.CONFIGURATION_NOT_FOUND,
+                    "Realm " + realmName + " no longer exists");
+            }
+            session.getContext().setRealm(realm);
+            return work.apply(session);
+        });
+    }
+
+    private static ConsistencyIssue issue(ConsistencyIssueType type, IssueSeverity severity,
+                                          IndexEntry entry, String description) {
+        ConsistencyIssue issue = new ConsistencyIssue();
+        issue.setIssueId(UUID.randomUUID().toString());
+        issue.setType(type);
+        issue.setSeverity(severity);
+        issue.setUserId(entry.userId());
+        issue.setUsername(entry.username());
+        issue.setClassId(parseClassId(entry.classId()));
+        issue.setCredentialId(entry.credentialId());
+        issue.setDescription(description);
+        issue.setDetectedAt(Instant.now());
+        return issue;
+    }
+
+    private static Long parseClassId(String classId) {
+        try {
+            return Long.valueOf(classId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -7,6 +7,8 @@ class TemplateManagementDashboard {
     constructor() {
         this.templates = [];
         this.filteredTemplates = [];
+        this.totalCount = 0;
+        this.searchTimer = null;
         this.selectedTemplates = new Set();
         this.currentPage = 1;
         this.itemsPerPage = 20;
@@ -34,7 +36,9 @@ class TemplateManagementDashboard {
         // Search and filters
         document.getElementById('template-search-input').addEventListener('input', (e) => {
             this.filters.search = e.target.value;
-            this.applyFilters();
+            // Wait for typing to pause before asking the server
+            clearTimeout(this.searchTimer);
+            this.searchTimer = setTimeout(() => this.applyFilters(), 300);
         });
 
         // Bulk actions
@@ -105,7 +109,7 @@ class TemplateManagementDashboard {
         });
 
         document.getElementById('pagination-last').addEventListener('click', () => {
-            const totalPages = Math.ceil(this.filteredTemplates.length / this.itemsPerPage);
+            const totalPages = Math.ceil(this.totalCount / this.itemsPerPage);
             this.goToPage(totalPages);
         });
 
@@ -168,7 +172,23 @@ class TemplateManagementDashboard {
         try {
             this.showLoadingState();
             
-            const response = await fetch('/admin/realms/' + keycloakRealm + '/face-recognition/templates', {
+            // Paging, search and filters are applied by the server
+            const params = new URLSearchParams({
+                offset: (this.currentPage - 1) * this.itemsPerPage,
+                limit: this.itemsPerPage,
+                searchType: this.filters.searchType
+            });
+            if (this.filters.search) {
+                params.set('search', this.filters.search);
+            }
+            if (this.filters.healthStatus !== 'all') {
+                params.set('healthStatus', this.filters.healthStatus);
+            }
+            if (this.filters.encoderVersion !== 'all') {
+                params.set('encoderVersion', this.filters.encoderVersion);
+            }
+
+            const response = await fetch('/admin/realms/' + keycloakRealm + '/face-recognition/templates?' + params, {
                 method: 'GET',
                 headers: {
                     'Authorization': 'Bearer ' + keycloakToken,
@@ -182,7 +202,11 @@ class TemplateManagementDashboard {
 
             const data = await response.json();
             this.templates = data.templates || [];
-            this.applyFilters();
+            this.filteredTemplates = this.templates.slice();
+            this.totalCount = data.totalCount || 0;
+            this.sortTemplates();
+            this.renderTable();
+            this.updatePagination();
             this.hideLoadingState();
             
         } catch (error) {
@@ -222,50 +246,8 @@ class TemplateManagementDashboard {
     }
 
     applyFilters() {
-        this.filteredTemplates = this.templates.filter(template => {
-            // Search filter
-            if (this.filters.search) {
-                const searchValue = this.filters.search.toLowerCase();
-                const searchField = this.getSearchFieldValue(template, this.filters.searchType);
-                if (!searchField.toLowerCase().includes(searchValue)) {
-                    return false;
-                }
-            }
-
-            // Health status filter
-            if (this.filters.healthStatus !== 'all') {
-                if (template.healthStatus !== this.filters.healthStatus) {
-                    return false;
-                }
-            }
-
-            // Encoder version filter
-            if (this.filters.encoderVersion !== 'all') {
-                if (template.encoderVersion.toString() !== this.filters.encoderVersion) {
-                    return false;
-                }
-            }
-
-            return true;
-        });
-
-        this.sortTemplates();
         this.currentPage = 1;
-        this.renderTable();
-        this.updatePagination();
-    }
-
-    getSearchFieldValue(template, searchType) {
-        switch (searchType) {
-            case 'username':
-                return template.username || '';
-            case 'email':
-                return template.email || '';
-            case 'class id':
-                return template.classId.toString();
-            default:
-                return template.username || '';
-        }
+        this.loadTemplates();
     }
 
     sortTemplates() {
@@ -288,9 +270,7 @@ class TemplateManagementDashboard {
 
     renderTable() {
         const tbody = document.getElementById('templates-table-body');
-        const startIndex = (this.currentPage - 1) * this.itemsPerPage;
-        const endIndex = startIndex + this.itemsPerPage;
-        const pageTemplates = this.filteredTemplates.slice(startIndex, endIndex);
+        const pageTemplates = this.filteredTemplates;
 
         if (pageTemplates.length === 0) {
             tbody.innerHTML = `
@@ -419,9 +399,7 @@ class TemplateManagementDashboard {
     }
 
     toggleSelectAll(checked) {
-        const startIndex = (this.currentPage - 1) * this.itemsPerPage;
-        const endIndex = startIndex + this.itemsPerPage;
-        const pageTemplates = this.filteredTemplates.slice(startIndex, endIndex);
+        const pageTemplates = this.filteredTemplates;
 
         pageTemplates.forEach(template => {
             if (checked) {
@@ -437,9 +415,7 @@ class TemplateManagementDashboard {
 
     updateSelectAllCheckbox() {
         const selectAllCheckbox = document.getElementById('select-all-templates');
-        const startIndex = (this.currentPage - 1) * this.itemsPerPage;
-        const endIndex = startIndex + this.itemsPerPage;
-        const pageTemplates = this.filteredTemplates.slice(startIndex, endIndex);
+        const pageTemplates = this.filteredTemplates;
         
         const selectedOnPage = pageTemplates.filter(template => 
             this.selectedTemplates.has(template.classId)
@@ -780,16 +756,15 @@ class TemplateManagementDashboard {
     }
 
     goToPage(page) {
-        const totalPages = Math.ceil(this.filteredTemplates.length / this.itemsPerPage);
+        const totalPages = Math.ceil(this.totalCount / this.itemsPerPage);
         if (page < 1 || page > totalPages) return;
         
         this.currentPage = page;
-        this.renderTable();
-        this.updatePagination();
+        this.loadTemplates();
     }
 
     updatePagination() {
-        const totalItems = this.filteredTemplates.length;
+        const totalItems = this.totalCount;
         const totalPages = Math.ceil(totalItems / this.itemsPerPage);
         const startItem = (this.currentPage - 1) * this.itemsPerPage + 1;
         const endItem = Math.min(this.currentPage * this.itemsPerPage, totalItems);
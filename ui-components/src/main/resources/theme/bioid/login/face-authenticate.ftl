@@ -69,6 +69,7 @@
         </div>
 
         <script src="${url.resourcesPath}/js/face-detection.js"></script>
+        <script src="${url.resourcesPath}/js/face-upload.js"></script>
         <script>
         (function() {
             'use strict';
@@ -720,12 +721,36 @@
                             clearInterval(video.faceDetectionInterval);
                         }
                         
+                        // Upload images as binary while the status animation runs
+                        var staged = stageImages();
+                        
                         // Add small delay for better UX
                         setTimeout(function() {
-                            form.submit();
+                            staged.then(function() {
+                                form.submit();
+                            });
                         }, 1000);
                     }
                     
+                    // Replace inline data URLs in the payload with upload references
+                    function stageImages() {
+                        var payload;
+                        try {
+                            payload = JSON.parse(input.value);
+                        } catch (e) {
+                            return Promise.resolve();
+                        }
+                        if (!window.FaceImageUpload || !payload || !Array.isArray(payload.images)) {
+                            return Promise.resolve();
+                        }
+                        return new window.FaceImageUpload(form).stage(payload.images).then(function(references) {
+                            if (references) {
+                                payload.images = references;
+                                input.value = JSON.stringify(payload);
+                            }
+                        });
+                    }
+                    
                     // Initialize
                     btn.addEventListener('click', verify);
                     startCamera();
@@ -42,7 +42,7 @@
                     
                     <div class="controls-section">
                         <form id="face-enroll-form" action="${url.loginAction}" method="post">
-                            <input type="hidden" name="action" value="submit" />
+                            <input type="hidden" name="action" id="action-input" value="submit" />
                             <input type="hidden" name="imageData" id="image-data-input" />
                             <div class="button-group">
                                 <button id="capture-btn" type="button" class="btn btn-primary btn-lg" disabled>
@@ -71,6 +71,7 @@
         </div>
 
         <script src="${url.resourcesPath}/js/face-detection.js" nonce="${cspNonce!}"></script>
+        <script src="${url.resourcesPath}/js/face-upload.js" nonce="${cspNonce!}"></script>
         <script nonce="${cspNonce!}">
             (function() {
                 const video = document.getElementById('video');
@@ -91,6 +92,54 @@
                 let faceDetector;
                 let qualityCheckInterval;
 
+                // Progressive enrollment: frames are enrolled one by one while the user
+                // keeps capturing, so the final submit only has to store the credential.
+                const progressiveEnabled = ${((progressiveEnrollment)!false)?c};
+                const progressiveEndpoint = (function() {
+                    try {
+                        const loginAction = new URL(document.getElementById('face-enroll-form').action);
+                        const base = loginAction.pathname.split('/login-actions/')[0];
+                        const params = new URLSearchParams({
+                            client_id: loginAction.searchParams.get('client_id') || '',
+                            tab_id: loginAction.searchParams.get('tab_id') || ''
+                        });
+                        return loginAction.origin + base + '/face-enroll-api/progressive/frames?' + params;
+                    } catch (e) {
+                        return null;
+                    }
+                })();
+                let progressiveUploads = Promise.resolve();
+                let progressiveFailed = !progressiveEnabled || !progressiveEndpoint;
+                let progressiveComplete = false;
+
+                function uploadFrame(index, image) {
+                    if (progressiveFailed) {
+                        return;
+                    }
+                    progressiveUploads = progressiveUploads.then(async () => {
+                        if (progressiveFailed) {
+                            return;
+                        }
+                        try {
+                            const response = await fetch(progressiveEndpoint, {
+                                method: 'POST',
+                                credentials: 'same-origin',
+                                headers: { 'Content-Type': 'application/json' },
+                                body: JSON.stringify({ index: index, image: image })
+                            });
+                            if (!response.ok) {
+                                throw new Error('HTTP ' + response.status);
+                            }
+                            const progress = await response.json();
+                            progressiveComplete = progress.complete === true;
+                        } catch (error) {
+                            // Fall back to posting all frames with the form
+                            console.warn('Progressive enrollment unavailable:', error);
+                            progressiveFailed = true;
+                        }
+                    });
+                }
+
                 const instructions = [
                     "${msg('face-enroll.instruction.first')}",
                     "${msg('face-enroll.instruction.second')}",
@@ -237,6 +286,7 @@
                         }
                         
                         capturedImages.push(imageData);
+                        uploadFrame(capturedImages.length - 1, imageData);
                         
                         // Store all captured images as JSON array
                         imageDataInput.value = JSON.stringify(capturedImages);
@@ -275,6 +325,28 @@
                     submitBtn.disabled = true;
                     submitBtn.textContent = "${msg('face-enroll.button.processing')}";
                     stopCamera();
+
+                    e.preventDefault();
+                    progressiveUploads.then(async () => {
+                        if (!progressiveFailed && progressiveComplete) {
+                            // The template is already built; only send the first frame to verify it
+                            document.getElementById('action-input').value = 'progressive-complete';
+                            imageDataInput.value = capturedImages[0];
+                            if (window.FaceImageUpload) {
+                                const references = await new window.FaceImageUpload(form).stage([capturedImages[0]]);
+                                if (references) {
+                                    imageDataInput.value = references[0];
+                                }
+                            }
+                        } else if (window.FaceImageUpload) {
+                            // Send binary uploads and only their references with the form
+                            const references = await new window.FaceImageUpload(form).stage(capturedImages);
+                            if (references) {
+                                imageDataInput.value = JSON.stringify(references);
+                            }
+                        }
+                        form.submit();
+                    });
                 });
 
                 captureBtn.addEventListener('click', captureFrame);
@@ -0,0 +1,69 @@
+/**
+ * Binary image upload for BioID login pages
+ *
+ * Captured images are posted as raw JPEG bodies to the realm's face-upload
+ * endpoint. The login form then only carries the returned "upload:<id>"
+ * references instead of base64 data URLs, which cuts the request size by a
+ * third and keeps large strings out of the form parameters.
+ *
+ * If anything fails, callers keep submitting the data URLs as before.
+ */
+
+class FaceImageUpload {
+    /**
+     * @param {HTMLFormElement} form login form whose action is the Keycloak login action URL
+     */
+    constructor(form) {
+        this.endpoint = FaceImageUpload.endpointFor(form);
+    }
+
+    /**
+     * Derives the upload URL from the login action URL, which carries the
+     * client_id and tab_id that identify the authentication session.
+     */
+    static endpointFor(form) {
+        try {
+            const loginAction = new URL(form.action);
+            const base = loginAction.pathname.split('/login-actions/')[0];
+            const params = new URLSearchParams({
+                client_id: loginAction.searchParams.get('client_id') || '',
+                tab_id: loginAction.searchParams.get('tab_id') || ''
+            });
+            return loginAction.origin + base + '/face-upload/images?' + params;
+        } catch (e) {
+            return null;
+        }
+    }
+
+    /**
+     * Uploads data URL images and returns their references in the same order.
+     * Resolves to null if the upload is unavailable.
+     */
+    async stage(dataUrls) {
+        if (!this.endpoint || !window.fetch) {
+            return null;
+        }
+        try {
+            const references = [];
+            for (const dataUrl of dataUrls) {
+                const blob = await (await fetch(dataUrl)).blob();
+                const response = await fetch(this.endpoint, {
+                    method: 'POST',
+                    credentials: 'same-origin',
+                    headers: { 'Content-Type': blob.type || 'image/jpeg' },
+                    body: blob
+                });
+                if (!response.ok) {
+                    throw new Error('HTTP ' + response.status);
+                }
+                references.push((await response.json()).reference);
+            }
+            return references;
+        } catch (error) {
+            console.warn('Binary image upload unavailable, sending inline images:', error);
+            return null;
+        }
+    }
+}
+
+window.FaceImageUpload = FaceImageUpload;
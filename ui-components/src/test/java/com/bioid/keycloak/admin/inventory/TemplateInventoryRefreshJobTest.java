@@ -0,0 +1,151 @@
+package com.bioid.keycloak.admin.inventory;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.client.exception.BioIdException;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TemplateInventoryRefreshJobTest {
+
+  private static final Instant NOW = Instant.parse("2026-01-15T10:00:00Z");
+
+  @Mock private BioIdClient bioIdClient;
+
+  @Test
+  void shouldCopyNewCredentialAsUnverified() {
+    // Given
+    TemplateInventoryEntity entity = new TemplateInventoryEntity();
+
+    // When
+    TemplateInventoryRefreshJob.update(
+        entity, "user-id", "alice", "alice@example.com", credential(42, 3, null), NOW);
+
+    // Then
+    assertEquals(42, entity.getClassId());
+    assertEquals("alice", entity.getUsername());
+    assertEquals(3, entity.getEncoderVersion());
+    assertNull(entity.getLastVerifiedAt());
+    assertEquals(TemplateHealth.HEALTHY.name(), entity.getHealthStatus());
+  }
+
+  @Test
+  void shouldKeepBwsResultUntilClassIdChanges() {
+    // Given: A row verified as missing in BWS
+    TemplateInventoryEntity entity = new TemplateInventoryEntity();
+    TemplateInventoryRefreshJob.update(entity, "user-id", "alice", null, credential(42, 3, null),
+        NOW);
+    TemplateInventoryRefreshJob.apply(entity, missing(42), NOW);
+
+    // When: The same credential is synced again
+    TemplateInventoryRefreshJob.update(entity, "user-id", "alice", null, credential(42, 3, null),
+        NOW);
+
+    // Then: The BWS result still applies
+    assertEquals(TemplateHealth.ISSUES.name(), entity.getHealthStatus());
+    assertNotNull(entity.getLastVerifiedAt());
+
+    // When: The user re-enrolled under a new class ID
+    TemplateInventoryRefreshJob.update(entity, "user-id", "alice", null, credential(43, 3, null),
+        NOW);
+
+    // Then: The row needs verification again
+    assertNull(entity.getLastVerifiedAt());
+    assertEquals(TemplateHealth.HEALTHY.name(), entity.getHealthStatus());
+  }
+
+  @Test
+  void shouldClassifyHealthFromBwsStatusAndExpiry() {
+    // Given
+    TemplateInventoryEntity outdated = new TemplateInventoryEntity();
+    TemplateInventoryRefreshJob.update(outdated, "u1", "a", null, credential(1, 3, null), NOW);
+    TemplateInventoryEntity expiring = new TemplateInventoryEntity();
+    TemplateInventoryRefreshJob.update(expiring, "u2", "b", null,
+        credential(2, 3, NOW.plus(Duration.ofDays(10))), NOW);
+
+    // When
+    TemplateInventoryRefreshJob.apply(outdated, available(1, 2), NOW);
+    TemplateInventoryRefreshJob.apply(expiring, available(2, 3), NOW);
+
+    // Then
+    assertEquals(2, outdated.getEncoderVersion());
+    assertEquals(TemplateHealth.NEEDS_UPGRADE.name(), outdated.getHealthStatus());
+    assertEquals(TemplateHealth.EXPIRING.name(), expiring.getHealthStatus());
+    assertEquals(NOW.toEpochMilli(), expiring.getLastVerifiedAt());
+  }
+
+  @Test
+  void shouldProbeInParallelAndSkipFailedCalls() throws Exception {
+    // Given
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(bioIdClient.getTemplateStatusDetails(anyLong(), anyBoolean()))
+        .thenAnswer(
+            invocation -> {
+              long classId = invocation.getArgument(0);
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              Thread.sleep(5);
+              inFlight.decrementAndGet();
+              if (classId == 7) {
+                throw new BioIdException("BWS unavailable");
+              }
+              return available(classId, 3);
+            });
+
+    // When
+    Map<Long, BioIdClient.TemplateStatusDetails> statuses =
+        TemplateInventoryRefreshJob.probe(
+            bioIdClient, LongStream.rangeClosed(1, 50).boxed().toList());
+
+    // Then
+    assertEquals(49, statuses.size());
+    assertFalse(statuses.containsKey(7L));
+    assertTrue(maxInFlight.get() > 1);
+    assertTrue(maxInFlight.get() <= TemplateInventoryRefreshJob.CONCURRENCY);
+  }
+
+  @Test
+  void shouldParseUiFilterValues() {
+    assertNull(TemplateHealth.parse("all"));
+    assertEquals(TemplateHealth.NEEDS_UPGRADE, TemplateHealth.parse("needs upgrade"));
+    assertEquals(TemplateInventory.SearchType.CLASS_ID,
+        TemplateInventory.SearchType.parse("class id"));
+    assertThrows(IllegalArgumentException.class, () -> TemplateHealth.parse("broken"));
+  }
+
+  private static FaceCredentialModel credential(long classId, int encoderVersion,
+      Instant expiresAt) {
+    FaceCredentialModel credential = FaceCredentialModel.createFaceCredential(
+        classId, 3, encoderVersion, 2, 0, expiresAt, List.of(),
+        FaceCredentialModel.TemplateType.STANDARD, "enroll", null);
+    credential.setCreatedDate(NOW.minus(Duration.ofDays(1)).toEpochMilli());
+    return credential;
+  }
+
+  private static BioIdClient.TemplateStatusDetails available(long classId, int encoderVersion) {
+    return new BioIdClient.TemplateStatusDetails(
+        classId, true, null, List.of(), encoderVersion, 2, 0, List.of());
+  }
+
+  private static BioIdClient.TemplateStatusDetails missing(long classId) {
+    return new BioIdClient.TemplateStatusDetails(classId, false, null, List.of(), 0, 0, 0,
+        List.of());
+  }
+}
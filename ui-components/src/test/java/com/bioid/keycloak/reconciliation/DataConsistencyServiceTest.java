@@ -0,0 +1,102 @@
+package com.bioid.keycloak.reconciliation;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.credential.FaceCredentialProvider;
+import com.bioid.keycloak.credential.FaceCredentialProviderFactory;
+import com.bioid.keycloak.error.AdminErrorHandler;
+import com.bioid.keycloak.error.AdminException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.keycloak.credential.CredentialProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.SubjectCredentialManager;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class DataConsistencyServiceTest {
+
+  // Above the range of cached Long values, so boxed comparisons by identity would fail
+  private static final long CLASS_ID = 4711L;
+
+  @Mock private BioIdClient bioIdClient;
+
+  @Mock private AdminErrorHandler errorHandler;
+
+  @Mock private KeycloakSession session;
+
+  @Mock private RealmModel realm;
+
+  @Mock private UserModel user;
+
+  @Mock private FaceCredentialProvider provider;
+
+  @InjectMocks private DataConsistencyService service;
+
+  @BeforeEach
+  void setUp() {
+    UserProvider users = mock(UserProvider.class);
+    when(users.searchForUserByUserAttributeStream(
+            realm, FaceCredentialProvider.CLASS_ID_ATTRIBUTE, String.valueOf(CLASS_ID)))
+        .thenAnswer(invocation -> Stream.of(user));
+    when(session.users()).thenReturn(users);
+    SubjectCredentialManager credentials = mock(SubjectCredentialManager.class);
+    when(credentials.getStoredCredentialsByTypeStream(FaceCredentialProvider.TYPE))
+        .thenAnswer(invocation -> Stream.empty());
+    when(user.credentialManager()).thenReturn(credentials);
+    when(session.getProvider(CredentialProvider.class, FaceCredentialProviderFactory.PROVIDER_ID))
+        .thenReturn(provider);
+    when(errorHandler.executeWithRetry(any()))
+        .thenAnswer(invocation -> ((Supplier<?>) invocation.getArgument(0)).get());
+  }
+
+  @Test
+  void shouldKeepTemplateThatACredentialStillReferences() throws Exception {
+    // Given
+    FaceCredentialModel credential = mock(FaceCredentialModel.class);
+    when(credential.getClassId()).thenReturn(CLASS_ID);
+    when(provider.getFaceCredentials(realm, user)).thenReturn(Stream.of(credential));
+
+    // When
+    assertThrows(
+        AdminException.class, () -> service.cleanupOrphanedTemplate(issue(CLASS_ID), realm));
+
+    // Then
+    verify(bioIdClient, never()).deleteTemplate(anyLong());
+  }
+
+  @Test
+  void shouldDeleteTemplateWithoutCredential() throws Exception {
+    // Given
+    when(provider.getFaceCredentials(realm, user)).thenReturn(Stream.empty());
+
+    // When
+    service.cleanupOrphanedTemplate(issue(CLASS_ID), realm);
+
+    // Then
+    verify(bioIdClient).deleteTemplate(CLASS_ID);
+  }
+
+  private static ConsistencyIssue issue(long classId) {
+    ConsistencyIssue issue = new ConsistencyIssue();
+    issue.setIssueId("issue-1");
+    issue.setType(ConsistencyIssueType.ORPHANED_TEMPLATE);
+    // A distinct Long instance, as deserialized or computed values would be
+    issue.setClassId(Long.valueOf(String.valueOf(classId)));
+    return issue;
+  }
+}
@@ -0,0 +1,191 @@
+package com.bioid.keycloak.reconciliation;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.bioid.keycloak.client.BioIdClient;
+import com.bioid.keycloak.credential.FaceCredentialModel;
+import com.bioid.keycloak.error.AdminErrorType;
+import com.bioid.keycloak.error.AdminException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.keycloak.cluster.ClusterProvider;
+import org.keycloak.cluster.ExecutionResult;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TemplateReconcilerTest {
+
+  @Mock private KeycloakSessionFactory sessionFactory;
+
+  @Mock private RealmModel realm;
+
+  @Mock private BioIdClient bioIdClient;
+
+  private TemplateReconciler reconciler;
+
+  @BeforeEach
+  void setUp() {
+    when(realm.getId()).thenReturn("realm-id");
+    when(realm.getName()).thenReturn("test-realm");
+
+    reconciler = new TemplateReconciler(sessionFactory, realm, bioIdClient, 500, 4, 1000);
+  }
+
+  @Test
+  void shouldRejectRunWhileRealmIsReconciledElsewhere() throws Exception {
+    // Given
+    KeycloakSession session = mock(KeycloakSession.class);
+    when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+    ClusterProvider cluster = mock(ClusterProvider.class);
+    when(cluster.executeIfNotExecuted(
+            eq(TemplateReconciler.TASK_NAME + "::realm-id"),
+            eq(TemplateReconciler.TASK_TIMEOUT_SECONDS),
+            any()))
+        .thenReturn(ExecutionResult.notExecuted());
+    when(session.getProvider(ClusterProvider.class)).thenReturn(cluster);
+    when(sessionFactory.create()).thenReturn(session);
+
+    // When
+    AdminException e = assertThrows(AdminException.class, reconciler::run);
+
+    // Then
+    assertEquals(AdminErrorType.CONCURRENT_OPERATION_LIMIT, e.getErrorType());
+    verify(bioIdClient, never()).getTemplateStatusDetails(anyLong(), anyBoolean());
+  }
+
+  @Test
+  void shouldClassifyEntriesAgainstBwsStatus() {
+    // Given
+    List<TemplateReconciler.IndexEntry> batch =
+        List.of(
+            entry("1", "user-a", credential(1, 3, 2)),
+            entry("2", "user-b", credential(2, 3, 2)),
+            entry("3", "user-c", null),
+            entry("4", "user-d", null),
+            entry("5", "user-e", credential(5, 3, 2)),
+            entry("6", "user-f", credential(6, 3, 2)));
+    Map<Long, TemplateReconciler.Probe> probes =
+        Map.of(
+            1L, available(1, 3, 2),
+            2L, missing(2),
+            3L, available(3, 3, 2),
+            4L, missing(4),
+            5L, available(5, 4, 2),
+            6L, new TemplateReconciler.Probe(null, new RuntimeException("timeout")));
+
+    // When
+    List<ConsistencyIssue> issues = reconciler.classify(batch, probes, "0");
+
+    // Then
+    Map<String, ConsistencyIssueType> byUser =
+        issues.stream()
+            .collect(Collectors.toMap(ConsistencyIssue::getUsername, ConsistencyIssue::getType));
+    assertEquals(
+        Map.of(
+            "user-b", ConsistencyIssueType.ORPHANED_CREDENTIAL,
+            "user-c", ConsistencyIssueType.ORPHANED_TEMPLATE,
+            "user-d", ConsistencyIssueType.INVALID_REFERENCE,
+            "user-e", ConsistencyIssueType.METADATA_MISMATCH),
+        byUser);
+  }
+
+  @Test
+  void shouldDetectClassIdSharedAcrossBatchBoundary() {
+    // Given
+    List<TemplateReconciler.IndexEntry> batch =
+        List.of(entry("7", "user-b", credential(7, 3, 2)), entry("8", "user-c", null));
+    Map<Long, TemplateReconciler.Probe> probes =
+        Map.of(7L, available(7, 3, 2), 8L, missing(8));
+
+    // When
+    List<ConsistencyIssue> issues = reconciler.classify(batch, probes, "7");
+
+    // Then
+    assertEquals(ConsistencyIssueType.SYNC_CONFLICT, issues.get(0).getType());
+    assertEquals("user-b", issues.get(0).getUsername());
+    assertEquals(2, issues.size());
+  }
+
+  @Test
+  void shouldProbeInParallelWithinConcurrencyLimit() throws Exception {
+    // Given
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    when(bioIdClient.getTemplateStatusDetails(anyLong(), eq(false)))
+        .thenAnswer(
+            invocation -> {
+              maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+              Thread.sleep(20);
+              inFlight.decrementAndGet();
+              long classId = invocation.getArgument(0);
+              return available(classId, 3, 2).status();
+            });
+    Set<Long> classIds =
+        LongStream.rangeClosed(1, 20).boxed().collect(Collectors.toCollection(LinkedHashSet::new));
+
+    // When
+    Map<Long, TemplateReconciler.Probe> probes = reconciler.probe(classIds);
+
+    // Then
+    assertEquals(20, probes.size());
+    assertTrue(probes.values().stream().allMatch(p -> p.status().isAvailable()));
+    assertTrue(maxInFlight.get() > 1);
+    assertTrue(maxInFlight.get() <= 4);
+  }
+
+  @Test
+  void shouldCountOmittedIssuesInReportTotals() {
+    // Given
+    DataConsistencyReport report = new DataConsistencyReport("realm-id", "test-realm");
+
+    // When
+    report.addOmittedIssues(ConsistencyIssueType.ORPHANED_CREDENTIAL, 3);
+
+    // Then
+    assertEquals(3, report.getTotalIssues());
+    assertEquals(3L, report.getOmittedIssues().get(ConsistencyIssueType.ORPHANED_CREDENTIAL));
+  }
+
+  private static TemplateReconciler.IndexEntry entry(
+      String classId, String username, FaceCredentialModel credential) {
+    return new TemplateReconciler.IndexEntry(
+        classId, username + "-id", username, credential != null ? "cred-" + classId : null,
+        credential);
+  }
+
+  private static FaceCredentialModel credential(long classId, int encoderVersion, int vectors) {
+    return FaceCredentialModel.createFaceCredential(
+        classId, 3, encoderVersion, vectors, 0, null, List.of(),
+        FaceCredentialModel.TemplateType.STANDARD, "enroll", null);
+  }
+
+  private static TemplateReconciler.Probe available(long classId, int encoderVersion, int vectors) {
+    return new TemplateReconciler.Probe(
+        new BioIdClient.TemplateStatusDetails(
+            classId, true, null, List.of(), encoderVersion, vectors, 0, List.of()),
+        null);
+  }
+
+  private static TemplateReconciler.Probe missing(long classId) {
+    return new TemplateReconciler.Probe(
+        new BioIdClient.TemplateStatusDetails(classId, false, null, List.of(), 0, 0, 0, List.of()),
+        null);
+  }
+}